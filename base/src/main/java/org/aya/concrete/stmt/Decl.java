@@ -63,7 +63,7 @@ public sealed interface Decl extends OpDecl, SourceNode, TyckUnit, Stmt permits
   @NotNull SourcePos entireSourcePos();
 
   @Override default boolean needTyck(@NotNull ImmutableSeq<String> currentMod) {
-    return ref().isInModule(currentMod) && ref().core == null;
+    return ref().isInModule(currentMod) && ref().core() == null;
   }
 
   /**
@@ -37,7 +37,7 @@ public final class Meta implements Var {
 
   public boolean solve(@NotNull TyckState state, @NotNull Term t) {
     if (t.findUsages(this) > 0) return false;
-    state.metas().put(this, t);
+    state.solve(this, t);
     return true;
   }
 
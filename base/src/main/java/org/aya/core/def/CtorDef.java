@@ -5,10 +5,12 @@ package org.aya.core.def;
 import kala.collection.immutable.ImmutableSeq;
 import org.aya.concrete.stmt.TeleDecl;
 import org.aya.core.Matching;
+import org.aya.core.pat.CaseTree;
 import org.aya.core.pat.Pat;
 import org.aya.core.term.Term;
 import org.aya.ref.DefVar;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.util.Objects;
 
@@ -19,6 +21,8 @@ public final class CtorDef extends SubLevelDef {
   public final @NotNull DefVar<DataDef, TeleDecl.DataDecl> dataRef;
   public final @NotNull DefVar<CtorDef, TeleDecl.DataCtor> ref;
   public final @NotNull ImmutableSeq<Pat> pats;
+  private @Nullable CaseTree caseTree;
+  private boolean caseTreeCompiled;
 
   public CtorDef(
     @NotNull DefVar<DataDef, TeleDecl.DataDecl> dataRef, @NotNull DefVar<CtorDef, TeleDecl.DataCtor> ref,
@@ -27,14 +31,14 @@ public final class CtorDef extends SubLevelDef {
     @NotNull ImmutableSeq<Matching> clauses, @NotNull Term result, boolean coerce
   ) {
     super(ownerTele, selfTele, result, clauses, coerce);
-    ref.core = this;
+    ref.setCore(this);
     this.dataRef = dataRef;
     this.ref = ref;
     this.pats = pats;
   }
 
   public static @NotNull ImmutableSeq<Term.Param> conTele(@NotNull DefVar<CtorDef, TeleDecl.DataCtor> conVar) {
-    if (conVar.core != null) return conVar.core.selfTele;
+    if (conVar.core() != null) return conVar.core().selfTele;
     else return Objects.requireNonNull(conVar.concrete.signature).param();
   }
 
@@ -43,7 +47,7 @@ public final class CtorDef extends SubLevelDef {
    */
   public static @NotNull DataDef.CtorTelescopes
   telescopes(@NotNull DefVar<CtorDef, TeleDecl.DataCtor> defVar) {
-    var core = defVar.core;
+    var core = defVar.core();
     if (core != null) return new DataDef.CtorTelescopes(core.ownerTele, core.selfTele);
     var dataSignature = defVar.concrete.patternTele;
     assert dataSignature != null;
@@ -56,6 +60,15 @@ public final class CtorDef extends SubLevelDef {
     return visitor.visitCtor(this, p);
   }
 
+  /** @return null if the clauses cannot be compiled */
+  public @Nullable CaseTree caseTree() {
+    if (!caseTreeCompiled) {
+      caseTree = CaseTree.compile(clauses, selfTele.size(), true);
+      caseTreeCompiled = true;
+    }
+    return caseTree;
+  }
+
   public @NotNull DefVar<CtorDef, TeleDecl.DataCtor> ref() {
     return ref;
   }
@@ -23,13 +23,13 @@ public final class DataDef extends UserDef.Type {
     int ulift, @NotNull ImmutableSeq<CtorDef> body
   ) {
     super(telescope, ulift);
-    ref.core = this;
+    ref.setCore(this);
     this.ref = ref;
     this.body = body;
   }
 
   public static @NotNull DefVar<DataDef, TeleDecl.DataDecl> fromCtor(@NotNull DefVar<CtorDef, TeleDecl.DataCtor> conHead) {
-    if (conHead.core != null) return conHead.core.dataRef;
+    if (conHead.core() != null) return conHead.core().dataRef;
     else return conHead.concrete.dataRef;
   }
 
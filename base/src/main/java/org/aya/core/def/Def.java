@@ -29,17 +29,17 @@ public sealed interface Def extends AyaDocile, GenericDef permits SubLevelDef, T
   }
 
   static @NotNull ImmutableSeq<Term.Param> defTele(@NotNull DefVar<? extends Def, ? extends Decl.Telescopic> defVar) {
-    if (defVar.core != null) return defVar.core.telescope();
+    if (defVar.core() != null) return defVar.core().telescope();
       // guaranteed as this is already a core term
     else return Objects.requireNonNull(defVar.concrete.signature()).param;
   }
   static @NotNull Seq<CtorDef> dataBody(@NotNull DefVar<? extends DataDef, ? extends TeleDecl.DataDecl> defVar) {
-    if (defVar.core != null) return defVar.core.body;
+    if (defVar.core() != null) return defVar.core().body;
       // guaranteed as this is already a core term
     else return defVar.concrete.checkedBody;
   }
   static @NotNull Term defResult(@NotNull DefVar<? extends Def, ? extends Decl.Telescopic> defVar) {
-    if (defVar.core != null) return defVar.core.result();
+    if (defVar.core() != null) return defVar.core().result();
       // guaranteed as this is already a core term
     else return Objects.requireNonNull(defVar.concrete.signature()).result;
   }
@@ -21,7 +21,7 @@ public final class FieldDef extends SubLevelDef {
     @NotNull Term result, @NotNull ImmutableSeq<Matching> clauses, @NotNull Option<Term> body, boolean coerce
   ) {
     super(ownerTele, selfTele, result, clauses, coerce);
-    ref.core = this;
+    ref.setCore(this);
     this.structRef = structRef;
     this.ref = ref;
     this.body = body;
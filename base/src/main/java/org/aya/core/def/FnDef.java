@@ -6,10 +6,12 @@ import kala.collection.immutable.ImmutableSeq;
 import kala.control.Either;
 import org.aya.concrete.stmt.TeleDecl;
 import org.aya.core.Matching;
+import org.aya.core.pat.CaseTree;
 import org.aya.core.term.Term;
 import org.aya.generic.Modifier;
 import org.aya.ref.DefVar;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.util.EnumSet;
 import java.util.function.BiFunction;
@@ -21,6 +23,8 @@ public final class FnDef extends UserDef {
   public final @NotNull EnumSet<Modifier> modifiers;
   public final @NotNull DefVar<FnDef, TeleDecl.FnDecl> ref;
   public final @NotNull Either<Term, ImmutableSeq<Matching>> body;
+  private @Nullable CaseTree caseTree;
+  private boolean caseTreeCompiled;
 
   public FnDef(
     @NotNull DefVar<FnDef, TeleDecl.FnDecl> ref, @NotNull ImmutableSeq<Term.Param> telescope,
@@ -30,7 +34,7 @@ public final class FnDef extends UserDef {
   ) {
     super(telescope, result);
     this.modifiers = modifiers;
-    ref.core = this;
+    ref.setCore(this);
     this.ref = ref;
     this.body = body;
   }
@@ -44,6 +48,16 @@ public final class FnDef extends UserDef {
     return visitor.visitFn(this, p);
   }
 
+  /** @return null if the function is not defined by clauses, or the clauses cannot be compiled */
+  public @Nullable CaseTree caseTree() {
+    if (!caseTreeCompiled) {
+      if (body.isRight())
+        caseTree = CaseTree.compile(body.getRightValue(), telescope.size(), modifiers.contains(Modifier.Overlap));
+      caseTreeCompiled = true;
+    }
+    return caseTree;
+  }
+
   public @NotNull DefVar<FnDef, TeleDecl.FnDecl> ref() {
     return ref;
   }
@@ -19,6 +19,7 @@ import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.Collections;
 import java.util.EnumMap;
 import java.util.Objects;
 import java.util.function.BiFunction;
@@ -36,7 +37,7 @@ public final class PrimDef extends TopLevelDef {
     super(telescope, result);
     this.ref = ref;
     this.id = name;
-    ref.core = this;
+    ref.setCore(this);
   }
 
   public PrimDef(@NotNull DefVar<@NotNull PrimDef, TeleDecl.@NotNull PrimDecl> ref, @NotNull Term result, @NotNull ID name) {
@@ -186,7 +187,9 @@ public final class PrimDef extends TopLevelDef {
       }
     }
 
-    private final @NotNull EnumMap<@NotNull ID, @NotNull PrimDef> defs = new EnumMap<>(ID.class);
+    /** Synchronized, since independent SCCs may be tycked in parallel */
+    private final @NotNull java.util.Map<@NotNull ID, @NotNull PrimDef> defs =
+      Collections.synchronizedMap(new EnumMap<>(ID.class));
 
     private final @NotNull Map<@NotNull ID, @NotNull PrimSeed> SEEDS;
 
@@ -242,6 +245,11 @@ public final class PrimDef extends TopLevelDef {
       return SEEDS.get(name).unfold.apply(primCall, state);
     }
 
+    /** Knows the primitives defined with another factory, for modules loaded with it */
+    public void importAll(@NotNull Factory other) {
+      other.defs.forEach(defs::putIfAbsent);
+    }
+
     public void clear() {
       defs.clear();
     }
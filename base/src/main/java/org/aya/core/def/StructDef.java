@@ -25,7 +25,7 @@ public final class StructDef extends UserDef.Type {
     @NotNull ImmutableSeq<FieldDef> fields
   ) {
     super(telescope, ulift);
-    ref.core = this;
+    ref.setCore(this);
     this.ref = ref;
     this.fields = fields;
   }
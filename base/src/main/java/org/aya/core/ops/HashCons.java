@@ -0,0 +1,346 @@
+// Copyright (c) 2020-2022 Yinsen (Tesla) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.core.ops;
+
+import kala.collection.SeqLike;
+import kala.collection.mutable.MutableMap;
+import org.aya.core.term.*;
+import org.aya.generic.Arg;
+import org.aya.ref.LocalVar;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.function.BiPredicate;
+import java.util.function.ToIntFunction;
+
+/**
+ * A hash-consing table for core terms, together with a structural hash that respects alpha-equivalence.
+ * <p>
+ * {@link #share(Term)} is meant to be used bottom-up (like in {@link org.aya.core.visitor.TermView#postMap}),
+ * so the children of a node are already shared, and finding the shared copy of a node only compares its
+ * immediate components by reference. Hence, syntactically equal terms become the same Java object,
+ * and the <code>lhs == rhs</code> check in {@link org.aya.tyck.unify.DefEq} skips them in O(1).
+ * Binders are never merged with alpha-equivalent ones using other variables, because substitution
+ * relies on the uniqueness of binders.
+ * <p>
+ * The hash of a shared term is computed once. Local variables contribute only their lifts to the hash,
+ * so alpha-equivalent terms have the same hash, and {@link Key} can be used as a cache key.
+ */
+public final class HashCons {
+  private final @NotNull HashMap<Node, Term> table = new HashMap<>();
+  private final @NotNull IdentityHashMap<Term, Integer> hashes = new IdentityHashMap<>();
+
+  /** @return the number of shared terms */
+  public int size() {
+    return table.size();
+  }
+
+  /** Shares every subterm of the given term. */
+  public @NotNull Term intern(@NotNull Term term) {
+    return term.view().postMap(this::share).commit();
+  }
+
+  /**
+   * Shares a term, assuming its children are already shared.
+   * Holes, meta patterns and error terms are not shared.
+   */
+  public @NotNull Term share(@NotNull Term term) {
+    if (hashes.containsKey(term)) return term;
+    if (term instanceof CallTerm.Hole || term instanceof RefTerm.MetaPat || term instanceof ErrorTerm) return term;
+    var shared = table.putIfAbsent(new Node(term, hash(term, System::identityHashCode, true)), term);
+    if (shared != null) return shared;
+    hashes.put(term, hash(term));
+    return term;
+  }
+
+  /** @return the alpha-equivalence respecting hash, cached if the term is shared */
+  public int hash(@NotNull Term term) {
+    var cached = hashes.get(term);
+    if (cached != null) return cached;
+    return hash(term, this::hash, false);
+  }
+
+  public @NotNull Key key(@NotNull Term term) {
+    return new Key(term, hash(term));
+  }
+
+  /** Computes the alpha-equivalence respecting hash without any cache. */
+  public static int structuralHash(@NotNull Term term) {
+    return hash(term, HashCons::structuralHash, false);
+  }
+
+  /**
+   * @param child the hash of immediate subterms
+   * @param vars  whether local variables contribute their identities
+   */
+  private static int hash(@NotNull Term term, @NotNull ToIntFunction<Term> child, boolean vars) {
+    return switch (term) {
+      case RefTerm ref -> mix(vars ? mix(1, System.identityHashCode(ref.var())) : 1, ref.lift());
+      case RefTerm.Field field -> mix(mix(2, System.identityHashCode(field.ref())), field.lift());
+      case RefTerm.MetaPat metaPat -> mix(mix(3, System.identityHashCode(metaPat.ref())), metaPat.lift());
+      case IntroTerm.Lambda lambda -> mix(param(4, lambda.param(), child, vars), child.applyAsInt(lambda.body()));
+      case FormTerm.Pi pi -> mix(param(5, pi.param(), child, vars), child.applyAsInt(pi.body()));
+      case FormTerm.Sigma sigma -> {
+        var h = 6;
+        for (var param : sigma.params()) h = param(h, param, child, vars);
+        yield h;
+      }
+      case FormTerm.Univ univ -> mix(7, univ.lift());
+      case FormTerm.Interval interval -> 8;
+      case PrimTerm.End end -> mix(9, end.isRight() ? 1 : 0);
+      case PrimTerm.Str str -> mix(10, str.string().hashCode());
+      case ElimTerm.App app -> arg(mix(11, child.applyAsInt(app.of())), app.arg(), child);
+      case ElimTerm.Proj proj -> mix(mix(12, child.applyAsInt(proj.of())), proj.ix());
+      case CallTerm.Fn fn -> args(mix(mix(13, System.identityHashCode(fn.ref())), fn.ulift()), fn.args(), child);
+      case CallTerm.Data data -> args(mix(mix(14, System.identityHashCode(data.ref())), data.ulift()), data.args(), child);
+      case CallTerm.Struct struct -> args(mix(mix(15, System.identityHashCode(struct.ref())), struct.ulift()), struct.args(), child);
+      case CallTerm.Prim prim -> args(mix(mix(16, System.identityHashCode(prim.ref())), prim.ulift()), prim.args(), child);
+      case CallTerm.Con con -> {
+        var h = mix(mix(17, System.identityHashCode(con.ref())), con.ulift());
+        yield args(args(h, con.head().dataArgs(), child), con.conArgs(), child);
+      }
+      case CallTerm.Hole hole -> {
+        var h = mix(mix(18, System.identityHashCode(hole.ref())), hole.ulift());
+        yield args(args(h, hole.contextArgs(), child), hole.args(), child);
+      }
+      case CallTerm.Access access -> {
+        var h = mix(mix(19, child.applyAsInt(access.of())), System.identityHashCode(access.ref()));
+        yield args(args(h, access.structArgs(), child), access.fieldArgs(), child);
+      }
+      case IntroTerm.Tuple tuple -> {
+        var h = 20;
+        for (var item : tuple.items()) h = mix(h, child.applyAsInt(item));
+        yield h;
+      }
+      case IntroTerm.New newTerm -> {
+        var h = 0;
+        // The order of fields is irrelevant
+        for (var field : newTerm.params().keysView())
+          h += System.identityHashCode(field) ^ child.applyAsInt(newTerm.params().get(field));
+        yield mix(mix(21, child.applyAsInt(newTerm.struct())), h);
+      }
+      case LitTerm.ShapedInt shaped ->
+        mix(mix(mix(22, shaped.repr()), shaped.shape().hashCode()), child.applyAsInt(shaped.type()));
+      case ErrorTerm error -> System.identityHashCode(error);
+    };
+  }
+
+  private static int mix(int hash, int value) {
+    return 31 * hash + value;
+  }
+
+  private static int param(int hash, @NotNull Term.Param param, @NotNull ToIntFunction<Term> child, boolean vars) {
+    if (vars) hash = mix(hash, System.identityHashCode(param.ref()));
+    return mix(mix(hash, param.explicit() ? 1 : 0), child.applyAsInt(param.type()));
+  }
+
+  private static int arg(int hash, @NotNull Arg<Term> arg, @NotNull ToIntFunction<Term> child) {
+    return mix(mix(hash, arg.explicit() ? 1 : 0), child.applyAsInt(arg.term()));
+  }
+
+  private static int args(int hash, @NotNull SeqLike<Arg<Term>> args, @NotNull ToIntFunction<Term> child) {
+    for (var arg : args) hash = arg(hash, arg, child);
+    return hash;
+  }
+
+  /** @return true if the two terms are equal up to the names of bound variables */
+  public static boolean alphaEquiv(@NotNull Term lhs, @NotNull Term rhs) {
+    return alphaEquiv(lhs, rhs, MutableMap.create());
+  }
+
+  private static boolean alphaEquiv(@NotNull Term lhs, @NotNull Term rhs, @NotNull MutableMap<LocalVar, LocalVar> bound) {
+    if (lhs == rhs && bound.isEmpty()) return true;
+    return switch (lhs) {
+      case RefTerm l -> {
+        if (!(rhs instanceof RefTerm r) || l.lift() != r.lift()) yield false;
+        var var = bound.getOrNull(l.var());
+        // A free variable is only equal to itself, which must not be bound on the other side
+        yield var != null ? var == r.var() : l.var() == r.var() && !bound.valuesView().contains(r.var());
+      }
+      case RefTerm.Field l -> rhs instanceof RefTerm.Field r && l.ref() == r.ref() && l.lift() == r.lift();
+      case RefTerm.MetaPat l -> rhs instanceof RefTerm.MetaPat r && l.ref() == r.ref() && l.lift() == r.lift();
+      case IntroTerm.Lambda l -> rhs instanceof IntroTerm.Lambda r
+        && alphaEquiv(l.param(), r.param(), l.body(), r.body(), bound);
+      case FormTerm.Pi l -> rhs instanceof FormTerm.Pi r
+        && alphaEquiv(l.param(), r.param(), l.body(), r.body(), bound);
+      case FormTerm.Sigma l -> {
+        if (!(rhs instanceof FormTerm.Sigma r) || !l.params().sizeEquals(r.params())) yield false;
+        var ok = true;
+        for (var params : l.params().zip(r.params())) {
+          ok = params._1.explicit() == params._2.explicit() && alphaEquiv(params._1.type(), params._2.type(), bound);
+          if (!ok) break;
+          bound.put(params._1.ref(), params._2.ref());
+        }
+        for (var param : l.params()) bound.remove(param.ref());
+        yield ok;
+      }
+      case FormTerm.Univ l -> rhs instanceof FormTerm.Univ r && l.lift() == r.lift();
+      case FormTerm.Interval l -> rhs == l;
+      case PrimTerm.End l -> rhs == l;
+      case PrimTerm.Str l -> rhs instanceof PrimTerm.Str r && l.string().equals(r.string());
+      case ElimTerm.App l -> rhs instanceof ElimTerm.App r
+        && alphaEquiv(l.of(), r.of(), bound)
+        && alphaEquiv(l.arg(), r.arg(), bound);
+      case ElimTerm.Proj l -> rhs instanceof ElimTerm.Proj r && l.ix() == r.ix()
+        && alphaEquiv(l.of(), r.of(), bound);
+      case CallTerm.Fn l -> rhs instanceof CallTerm.Fn r && l.ref() == r.ref() && l.ulift() == r.ulift()
+        && alphaEquiv(l.args(), r.args(), bound);
+      case CallTerm.Data l -> rhs instanceof CallTerm.Data r && l.ref() == r.ref() && l.ulift() == r.ulift()
+        && alphaEquiv(l.args(), r.args(), bound);
+      case CallTerm.Struct l -> rhs instanceof CallTerm.Struct r && l.ref() == r.ref() && l.ulift() == r.ulift()
+        && alphaEquiv(l.args(), r.args(), bound);
+      case CallTerm.Prim l -> rhs instanceof CallTerm.Prim r && l.ref() == r.ref() && l.ulift() == r.ulift()
+        && alphaEquiv(l.args(), r.args(), bound);
+      case CallTerm.Con l -> rhs instanceof CallTerm.Con r && l.ref() == r.ref() && l.ulift() == r.ulift()
+        && alphaEquiv(l.head().dataArgs(), r.head().dataArgs(), bound)
+        && alphaEquiv(l.conArgs(), r.conArgs(), bound);
+      case CallTerm.Hole l -> rhs instanceof CallTerm.Hole r && l.ref() == r.ref() && l.ulift() == r.ulift()
+        && alphaEquiv(l.contextArgs(), r.contextArgs(), bound)
+        && alphaEquiv(l.args(), r.args(), bound);
+      case CallTerm.Access l -> rhs instanceof CallTerm.Access r && l.ref() == r.ref()
+        && alphaEquiv(l.of(), r.of(), bound)
+        && alphaEquiv(l.structArgs(), r.structArgs(), bound)
+        && alphaEquiv(l.fieldArgs(), r.fieldArgs(), bound);
+      case IntroTerm.Tuple l -> {
+        if (!(rhs instanceof IntroTerm.Tuple r) || !l.items().sizeEquals(r.items())) yield false;
+        for (var items : l.items().zip(r.items()))
+          if (!alphaEquiv(items._1, items._2, bound)) yield false;
+        yield true;
+      }
+      case IntroTerm.New l -> {
+        if (!(rhs instanceof IntroTerm.New r) || l.params().size() != r.params().size()) yield false;
+        if (!alphaEquiv(l.struct(), r.struct(), bound)) yield false;
+        for (var field : l.params().keysView()) {
+          var other = r.params().getOrNull(field);
+          if (other == null || !alphaEquiv(l.params().get(field), other, bound)) yield false;
+        }
+        yield true;
+      }
+      case LitTerm.ShapedInt l -> rhs instanceof LitTerm.ShapedInt r && l.repr() == r.repr()
+        && l.shape().equals(r.shape()) && alphaEquiv(l.type(), r.type(), bound);
+      case ErrorTerm l -> rhs == l;
+    };
+  }
+
+  private static boolean alphaEquiv(
+    @NotNull Term.Param lhs, @NotNull Term.Param rhs, @NotNull Term lhsBody, @NotNull Term rhsBody,
+    @NotNull MutableMap<LocalVar, LocalVar> bound
+  ) {
+    if (lhs.explicit() != rhs.explicit() || !alphaEquiv(lhs.type(), rhs.type(), bound)) return false;
+    bound.put(lhs.ref(), rhs.ref());
+    var ok = alphaEquiv(lhsBody, rhsBody, bound);
+    bound.remove(lhs.ref());
+    return ok;
+  }
+
+  private static boolean alphaEquiv(@NotNull Arg<Term> lhs, @NotNull Arg<Term> rhs, @NotNull MutableMap<LocalVar, LocalVar> bound) {
+    return lhs.explicit() == rhs.explicit() && alphaEquiv(lhs.term(), rhs.term(), bound);
+  }
+
+  private static boolean alphaEquiv(@NotNull SeqLike<Arg<Term>> lhs, @NotNull SeqLike<Arg<Term>> rhs, @NotNull MutableMap<LocalVar, LocalVar> bound) {
+    if (!lhs.sizeEquals(rhs)) return false;
+    for (var args : lhs.view().zip(rhs))
+      if (!alphaEquiv(args._1, args._2, bound)) return false;
+    return true;
+  }
+
+  /**
+   * @return true if the two terms have the same constructor and the same components,
+   * where subterms are compared by reference
+   */
+  private static boolean shallowEquals(@NotNull Term lhs, @NotNull Term rhs) {
+    return switch (lhs) {
+      case RefTerm l -> rhs instanceof RefTerm r && l.var() == r.var() && l.lift() == r.lift();
+      case RefTerm.Field l -> rhs instanceof RefTerm.Field r && l.ref() == r.ref() && l.lift() == r.lift();
+      case IntroTerm.Lambda l -> rhs instanceof IntroTerm.Lambda r
+        && sameParam(l.param(), r.param()) && l.body() == r.body();
+      case FormTerm.Pi l -> rhs instanceof FormTerm.Pi r
+        && sameParam(l.param(), r.param()) && l.body() == r.body();
+      case FormTerm.Sigma l -> rhs instanceof FormTerm.Sigma r
+        && sameElements(l.params(), r.params(), HashCons::sameParam);
+      case FormTerm.Univ l -> rhs instanceof FormTerm.Univ r && l.lift() == r.lift();
+      case PrimTerm.Str l -> rhs instanceof PrimTerm.Str r && l.string().equals(r.string());
+      case ElimTerm.App l -> rhs instanceof ElimTerm.App r && l.of() == r.of() && sameArg(l.arg(), r.arg());
+      case ElimTerm.Proj l -> rhs instanceof ElimTerm.Proj r && l.of() == r.of() && l.ix() == r.ix();
+      case CallTerm.Fn l -> rhs instanceof CallTerm.Fn r && l.ref() == r.ref() && l.ulift() == r.ulift()
+        && sameArgs(l.args(), r.args());
+      case CallTerm.Data l -> rhs instanceof CallTerm.Data r && l.ref() == r.ref() && l.ulift() == r.ulift()
+        && sameArgs(l.args(), r.args());
+      case CallTerm.Struct l -> rhs instanceof CallTerm.Struct r && l.ref() == r.ref() && l.ulift() == r.ulift()
+        && sameArgs(l.args(), r.args());
+      case CallTerm.Prim l -> rhs instanceof CallTerm.Prim r && l.ref() == r.ref() && l.ulift() == r.ulift()
+        && sameArgs(l.args(), r.args());
+      case CallTerm.Con l -> rhs instanceof CallTerm.Con r && l.ref() == r.ref() && l.ulift() == r.ulift()
+        && sameArgs(l.head().dataArgs(), r.head().dataArgs()) && sameArgs(l.conArgs(), r.conArgs());
+      case CallTerm.Access l -> rhs instanceof CallTerm.Access r && l.ref() == r.ref() && l.of() == r.of()
+        && sameArgs(l.structArgs(), r.structArgs()) && sameArgs(l.fieldArgs(), r.fieldArgs());
+      case IntroTerm.Tuple l -> rhs instanceof IntroTerm.Tuple r
+        && sameElements(l.items(), r.items(), (a, b) -> a == b);
+      case IntroTerm.New l -> rhs instanceof IntroTerm.New r && l.struct() == r.struct()
+        && l.params().size() == r.params().size()
+        && l.params().keysView().allMatch(field -> r.params().getOrNull(field) == l.params().get(field));
+      case LitTerm.ShapedInt l -> rhs instanceof LitTerm.ShapedInt r && l.repr() == r.repr()
+        && l.shape().equals(r.shape()) && l.type() == r.type();
+      // Never shared, or singletons
+      case CallTerm.Hole l -> l == rhs;
+      case RefTerm.MetaPat l -> l == rhs;
+      case FormTerm.Interval l -> l == rhs;
+      case PrimTerm.End l -> l == rhs;
+      case ErrorTerm l -> l == rhs;
+    };
+  }
+
+  private static boolean sameParam(@NotNull Term.Param lhs, @NotNull Term.Param rhs) {
+    return lhs.ref() == rhs.ref() && lhs.type() == rhs.type()
+      && lhs.explicit() == rhs.explicit() && lhs.pattern() == rhs.pattern();
+  }
+
+  private static boolean sameArg(@NotNull Arg<Term> lhs, @NotNull Arg<Term> rhs) {
+    return lhs.term() == rhs.term() && lhs.explicit() == rhs.explicit();
+  }
+
+  private static boolean sameArgs(@NotNull SeqLike<Arg<Term>> lhs, @NotNull SeqLike<Arg<Term>> rhs) {
+    return sameElements(lhs, rhs, HashCons::sameArg);
+  }
+
+  private static <T> boolean sameElements(@NotNull SeqLike<T> lhs, @NotNull SeqLike<T> rhs, @NotNull BiPredicate<T, T> same) {
+    if (!lhs.sizeEquals(rhs)) return false;
+    for (var pair : lhs.view().zip(rhs))
+      if (!same.test(pair._1, pair._2)) return false;
+    return true;
+  }
+
+  /**
+   * An entry of the table, which identifies terms up to {@link #shallowEquals}.
+   * The hash is computed from the identities of the components, so it is consistent with the equality.
+   */
+  private record Node(@NotNull Term term, int hash) {
+    @Override public boolean equals(Object o) {
+      return o instanceof Node node && hash == node.hash && shallowEquals(term, node.term);
+    }
+
+    @Override public int hashCode() {
+      return hash;
+    }
+  }
+
+  /**
+   * A term as a cache key, which identifies terms up to alpha-equivalence.
+   *
+   * @see #key(Term)
+   */
+  public record Key(@NotNull Term term, int hash) {
+    public static @NotNull Key of(@NotNull Term term) {
+      return new Key(term, structuralHash(term));
+    }
+
+    @Override public boolean equals(Object o) {
+      return o instanceof Key key && hash == key.hash && alphaEquiv(term, key.term);
+    }
+
+    @Override public int hashCode() {
+      return hash;
+    }
+  }
+}
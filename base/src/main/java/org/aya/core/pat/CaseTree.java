@@ -0,0 +1,354 @@
+// Copyright (c) 2020-2022 Yinsen (Tesla) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.core.pat;
+
+import kala.collection.SeqLike;
+import kala.collection.immutable.ImmutableSeq;
+import kala.collection.mutable.MutableHashMap;
+import kala.collection.mutable.MutableList;
+import kala.tuple.Tuple;
+import kala.tuple.Tuple2;
+import org.aya.concrete.stmt.TeleDecl;
+import org.aya.core.Matching;
+import org.aya.core.def.CtorDef;
+import org.aya.core.term.CallTerm;
+import org.aya.core.term.IntroTerm;
+import org.aya.core.term.LitTerm;
+import org.aya.core.term.PrimTerm;
+import org.aya.core.term.Term;
+import org.aya.core.visitor.Subst;
+import org.aya.generic.Arg;
+import org.aya.ref.DefVar;
+import org.aya.ref.LocalVar;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.function.Function;
+
+/**
+ * Clauses compiled into a decision tree, so that every (sub)argument is scrutinized
+ * at most once per unfolding, instead of trying {@link PatMatcher} on each clause.
+ * The result agrees with clause-by-clause matching, including the cases where
+ * first-match semantics refuses to unfold because a clause is blocked.
+ *
+ * @param occurrences number of (sub)terms the tree may scrutinize
+ * @see #compile(ImmutableSeq, int, boolean)
+ */
+public record CaseTree(
+  int arity,
+  int occurrences,
+  boolean orderIndependent,
+  @NotNull Node root
+) {
+  /** Trees larger than this are not worth it, we just match the clauses one by one. */
+  private static final int MAX_NODES = 1024;
+
+  public record Binding(@NotNull LocalVar var, int occurrence) {}
+
+  public sealed interface Node {}
+
+  /** Neither matched nor unfoldable: all clauses failed, or the first-match semantics is blocked. */
+  public enum Fail implements Node {INSTANCE}
+
+  public record Leaf(int clause, @NotNull ImmutableSeq<Binding> bindings) implements Node {}
+
+  /**
+   * @param offset the first occurrence assigned to the constructor arguments
+   */
+  public record CtorBranch(
+    @NotNull DefVar<CtorDef, TeleDecl.DataCtor> ref,
+    int offset, @NotNull Node body
+  ) {}
+
+  /**
+   * @param otherwise used when the scrutinee is a constructor not mentioned in the branches,
+   *                  or when it is stuck but the clauses are order-independent
+   */
+  public record CtorSplit(
+    int occurrence,
+    @NotNull ImmutableSeq<CtorBranch> branches,
+    @NotNull Node otherwise
+  ) implements Node {}
+
+  public record TupleSplit(int occurrence, int offset, @NotNull Node body, @NotNull Node otherwise) implements Node {}
+
+  public record EndSplit(int occurrence, @NotNull Node left, @NotNull Node right, @NotNull Node otherwise) implements Node {}
+
+  /**
+   * @return the index of the matched clause and the substitution for its pattern variables,
+   * or null if the clauses cannot be unfolded.
+   */
+  public @Nullable Tuple2<Integer, Subst> match(@NotNull SeqLike<@NotNull Arg<@NotNull Term>> args) {
+    assert args.sizeEquals(arity);
+    var terms = new Term[occurrences];
+    args.forEachIndexed((i, arg) -> terms[i] = arg.term());
+    var node = root;
+    while (true) switch (node) {
+      case Fail ignored -> {
+        return null;
+      }
+      case Leaf leaf -> {
+        var subst = new Subst(new MutableHashMap<>());
+        leaf.bindings.forEach(binding -> subst.addDirectly(binding.var, terms[binding.occurrence]));
+        return Tuple.of(leaf.clause, subst);
+      }
+      case CtorSplit split -> {
+        var term = terms[split.occurrence];
+        if (term instanceof LitTerm.ShapedInt lit) term = lit.constructorForm();
+        if (!(term instanceof CallTerm.Con con)) {
+          if (!orderIndependent) return null;
+          node = split.otherwise;
+          continue;
+        }
+        var branch = split.branches.find(b -> b.ref == con.ref());
+        if (branch.isEmpty()) {
+          node = split.otherwise;
+          continue;
+        }
+        var offset = branch.get().offset;
+        con.conArgs().forEachIndexed((i, arg) -> terms[offset + i] = arg.term());
+        node = branch.get().body;
+      }
+      case TupleSplit split -> {
+        if (!(terms[split.occurrence] instanceof IntroTerm.Tuple tuple)) {
+          if (!orderIndependent) return null;
+          node = split.otherwise;
+          continue;
+        }
+        tuple.items().forEachIndexed((i, item) -> terms[split.offset + i] = item);
+        node = split.body;
+      }
+      case EndSplit split -> {
+        if (!(terms[split.occurrence] instanceof PrimTerm.End end)) {
+          if (!orderIndependent) return null;
+          node = split.otherwise;
+          continue;
+        }
+        node = end.isRight() ? split.right : split.left;
+      }
+    }
+  }
+
+  /**
+   * @param arity            number of patterns in each clause
+   * @param orderIndependent true for overlapping clauses, false for first-match semantics
+   * @return null if the clauses contain patterns not supported by the compiler,
+   * for example literal patterns, or if the tree is too large.
+   */
+  public static @Nullable CaseTree compile(
+    @NotNull ImmutableSeq<Matching> clauses,
+    int arity, boolean orderIndependent
+  ) {
+    if (!clauses.allMatch(clause -> clause.patterns().sizeEquals(arity))) return null;
+    var compiler = new Compiler(orderIndependent);
+    var rows = clauses.mapIndexed((i, clause) -> {
+      var pats = new Pat[arity];
+      clause.patterns().forEachIndexed((j, pat) -> pats[j] = pat);
+      return new Row(i, pats, ImmutableSeq.empty(), Row.NO_FAILURE, false);
+    });
+    var columns = new int[arity];
+    for (int i = 0; i < arity; i++) columns[i] = i;
+    compiler.occurrences = arity;
+    try {
+      var root = compiler.compile(rows, columns);
+      return new CaseTree(arity, compiler.occurrences, orderIndependent, root);
+    } catch (Unsupported ignored) {
+      return null;
+    }
+  }
+
+  /**
+   * A row of the pattern matrix.
+   * A null pattern is a wildcard that binds nothing.
+   *
+   * @param failAt  if not {@link #NO_FAILURE}, this row is known to mismatch
+   *                right after the patterns before this column are matched
+   * @param blocked whether the mismatch is a blocked one
+   */
+  private record Row(
+    int clause, @Nullable Pat @NotNull [] pats,
+    @NotNull ImmutableSeq<Binding> bindings,
+    int failAt, boolean blocked
+  ) {
+    static final int NO_FAILURE = Integer.MAX_VALUE;
+
+    @Nullable Pat pat(int column) {
+      return deref(pats[column]);
+    }
+
+    boolean isWild(int column) {
+      var pat = pat(column);
+      return pat == null || pat instanceof Pat.Bind;
+    }
+
+    boolean wildBefore(int column) {
+      for (int i = 0, end = Math.min(column, pats.length); i < end; i++) if (!isWild(i)) return false;
+      return true;
+    }
+  }
+
+  /** Dereferences solved meta patterns, and rejects patterns not supported by the compiler. */
+  private static @Nullable Pat deref(@Nullable Pat pat) {
+    while (pat instanceof Pat.Meta meta) {
+      pat = meta.solution().get();
+      if (pat == null) throw new Unsupported();
+    }
+    if (pat instanceof Pat.Absurd || pat instanceof Pat.ShapedInt) throw new Unsupported();
+    return pat;
+  }
+
+  private static final class Unsupported extends RuntimeException {
+    private Unsupported() {
+      super(null, null, false, false);
+    }
+  }
+
+  private static final class Compiler {
+    private final boolean orderIndependent;
+    private int occurrences;
+    private int nodes;
+
+    private Compiler(boolean orderIndependent) {
+      this.orderIndependent = orderIndependent;
+    }
+
+    /** Drops rows that are known to fail, and cuts the matrix at the first row that is known to block. */
+    private @NotNull ImmutableSeq<Row> prune(@NotNull ImmutableSeq<Row> rows) {
+      var pruned = MutableList.<Row>create();
+      for (var row : rows) {
+        if (row.failAt != Row.NO_FAILURE && row.wildBefore(row.failAt)) {
+          if (!row.blocked) continue;
+          pruned.append(row);
+          break;
+        }
+        pruned.append(row);
+      }
+      return pruned.toImmutableSeq();
+    }
+
+    private @NotNull Node compile(@NotNull ImmutableSeq<Row> rows, int @NotNull [] columns) {
+      if (++nodes > MAX_NODES) throw new Unsupported();
+      rows = prune(rows);
+      if (rows.isEmpty()) return Fail.INSTANCE;
+      var first = rows.first();
+      var pats = first.pats;
+      int column = 0;
+      while (column < pats.length && first.isWild(column)) column++;
+      if (column >= first.failAt) return Fail.INSTANCE;
+      if (column == pats.length) {
+        var bindings = MutableList.<Binding>create();
+        bindings.appendAll(first.bindings);
+        for (int i = 0; i < pats.length; i++)
+          if (first.pat(i) instanceof Pat.Bind bind) bindings.append(new Binding(bind.bind(), columns[i]));
+        return new Leaf(first.clause, bindings.toImmutableSeq());
+      }
+      var occurrence = columns[column];
+      var col = column;
+      return switch (first.pat(column)) {
+        case Pat.Ctor ignored -> {
+          var refs = MutableList.<Pat.Ctor>create();
+          for (var row : rows) {
+            var pat = row.pat(col);
+            if (pat instanceof Pat.Ctor ctor) {
+              if (refs.noneMatch(c -> c.ref() == ctor.ref())) refs.append(ctor);
+            } else if (pat != null && !(pat instanceof Pat.Bind)) throw new Unsupported();
+          }
+          var branches = refs.view().map(ctor -> {
+            var arity = ctor.params().size();
+            var offset = fresh(arity);
+            var specialized = rows.mapNotNull(row -> specialize(row, col, occurrence, arity, pat ->
+              pat instanceof Pat.Ctor c && c.ref() == ctor.ref() ? c.params() : null, false));
+            return new CtorBranch(ctor.ref(), offset, compile(specialized, expand(columns, col, offset, arity)));
+          }).toImmutableSeq();
+          yield new CtorSplit(occurrence, branches, otherwise(rows, columns, col, false));
+        }
+        case Pat.Tuple tuple -> {
+          var arity = tuple.pats().size();
+          var offset = fresh(arity);
+          var specialized = rows.mapNotNull(row -> specialize(row, col, occurrence, arity, pat ->
+            pat instanceof Pat.Tuple t ? t.pats() : null, true));
+          var body = compile(specialized, expand(columns, col, offset, arity));
+          yield new TupleSplit(occurrence, offset, body, stuck(rows, columns, col));
+        }
+        case Pat.End ignored -> {
+          var left = endBranch(rows, columns, col, occurrence, false);
+          var right = endBranch(rows, columns, col, occurrence, true);
+          yield new EndSplit(occurrence, left, right, stuck(rows, columns, col));
+        }
+        default -> throw new Unsupported();
+      };
+    }
+
+    private @NotNull Node endBranch(ImmutableSeq<Row> rows, int[] columns, int col, int occurrence, boolean isRight) {
+      var specialized = rows.mapNotNull(row -> specialize(row, col, occurrence, 0, pat -> {
+        if (!(pat instanceof Pat.End end)) throw new Unsupported();
+        // Mismatching ends are considered blocked, see PatMatcher
+        return end.isRight() == isRight ? ImmutableSeq.empty() : null;
+      }, true));
+      return compile(specialized, expand(columns, col, 0, 0));
+    }
+
+    /** The scrutinee matches none of the non-wildcard patterns in this column. */
+    private @NotNull Node otherwise(ImmutableSeq<Row> rows, int[] columns, int col, boolean blocked) {
+      var occurrence = columns[col];
+      var rest = rows.mapNotNull(row -> specialize(row, col, occurrence, 0, pat -> null, blocked));
+      return compile(rest, expand(columns, col, 0, 0));
+    }
+
+    /** Only order-independent clauses can make progress on a stuck scrutinee. */
+    private @NotNull Node stuck(ImmutableSeq<Row> rows, int[] columns, int col) {
+      return orderIndependent ? otherwise(rows, columns, col, true) : Fail.INSTANCE;
+    }
+
+    private int fresh(int arity) {
+      var offset = occurrences;
+      occurrences += arity;
+      return offset;
+    }
+
+    private static int[] expand(int[] columns, int col, int offset, int arity) {
+      var expanded = new int[columns.length - 1 + arity];
+      System.arraycopy(columns, 0, expanded, 0, col);
+      for (int i = 0; i < arity; i++) expanded[col + i] = offset + i;
+      System.arraycopy(columns, col + 1, expanded, col + arity, columns.length - col - 1);
+      return expanded;
+    }
+
+    /**
+     * Replaces the pattern at the given column with the patterns returned by {@param subPats}.
+     * Wildcards are expanded to wildcards, and if {@param subPats} returns null, the row mismatches.
+     *
+     * @return null if the row is no longer needed
+     */
+    private @Nullable Row specialize(
+      @NotNull Row row, int col, int occurrence, int arity,
+      @NotNull Function<@NotNull Pat, @Nullable ImmutableSeq<Pat>> subPats,
+      boolean blocked
+    ) {
+      var pat = row.pat(col);
+      var bindings = row.bindings;
+      ImmutableSeq<Pat> replacement;
+      var failAt = row.failAt;
+      var isBlocked = row.blocked;
+      if (pat == null || pat instanceof Pat.Bind) {
+        if (pat instanceof Pat.Bind bind) bindings = bindings.appended(new Binding(bind.bind(), occurrence));
+        replacement = null;
+      } else {
+        replacement = subPats.apply(pat);
+        if (replacement == null) {
+          if (orderIndependent) return null;
+          if (failAt > col) {
+            failAt = col;
+            isBlocked = blocked;
+          }
+        }
+      }
+      var pats = new Pat[row.pats.length - 1 + arity];
+      System.arraycopy(row.pats, 0, pats, 0, col);
+      if (replacement != null) for (int i = 0; i < arity; i++) pats[col + i] = replacement.get(i);
+      System.arraycopy(row.pats, col + 1, pats, col + arity, row.pats.length - col - 1);
+      if (failAt != Row.NO_FAILURE && failAt > col) failAt += arity - 1;
+      return new Row(row.clause, pats, bindings, failAt, isBlocked);
+    }
+  }
+}
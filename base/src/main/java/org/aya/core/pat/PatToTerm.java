@@ -32,7 +32,7 @@ public class PatToTerm {
 
   protected @NotNull Term visitCtor(Pat.@NotNull Ctor ctor) {
     var data = (CallTerm.Data) ctor.type();
-    var core = ctor.ref().core;
+    var core = ctor.ref().core();
     var tele = core.selfTele;
     var args = ctor.params().view().zip(tele)
       .map(p -> new Arg<>(visit(p._1), p._2.explicit()))
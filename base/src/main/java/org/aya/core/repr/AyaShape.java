@@ -37,18 +37,18 @@ public sealed interface AyaShape {
   class Factory {
     public @NotNull MutableMap<GenericDef, AyaShape> discovered = MutableLinkedHashMap.of();
 
-    public @NotNull ImmutableSeq<GenericDef> findImpl(@NotNull AyaShape shape) {
+    public synchronized @NotNull ImmutableSeq<GenericDef> findImpl(@NotNull AyaShape shape) {
       return discovered.view().map(Tuple::of)
         .filter(t -> t._2 == shape)
         .map(t -> t._1)
         .toImmutableSeq();
     }
 
-    public @NotNull Option<AyaShape> find(@NotNull Def def) {
+    public synchronized @NotNull Option<AyaShape> find(@NotNull Def def) {
       return discovered.getOption(def);
     }
 
-    public void bonjour(@NotNull GenericDef def, @NotNull AyaShape shape) {
+    public synchronized void bonjour(@NotNull GenericDef def, @NotNull AyaShape shape) {
       // TODO[literal]: what if a def has multiple shapes?
       discovered.put(def, shape);
     }
@@ -60,7 +60,7 @@ public sealed interface AyaShape {
         .forEach(shape -> bonjour(def, shape));
     }
 
-    public void importAll(@NotNull Factory other) {
+    public synchronized void importAll(@NotNull Factory other) {
       discovered.putAll(other.discovered);
     }
   }
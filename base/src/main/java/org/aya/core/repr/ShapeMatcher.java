@@ -41,7 +41,7 @@ public record ShapeMatcher(
 
   private boolean matchCtor(@NotNull CodeShape.CtorShape shape, @NotNull CtorDef ctor) {
     if (ctor.pats.isNotEmpty()) {
-      ctor.dataRef.core.telescope.zipView(ctor.ownerTele).forEach(t ->
+      ctor.dataRef.core().telescope.zipView(ctor.ownerTele).forEach(t ->
         teleSubst.put(t._1.ref(), t._2.ref()));
     }
     return matchTele(shape.tele(), ctor.selfTele);
@@ -115,6 +115,7 @@ public record CompiledAya(
       case SerDef.Data data -> data.name();
       case SerDef.Ctor ctor -> ctor.self();
       case SerDef.Prim prim -> new SerDef.QName(ImmutableSeq.empty(), prim.name().name());
+      case SerDef.Lazy lazy -> lazy.name();
     };
   }
 
@@ -180,8 +181,12 @@ public record CompiledAya(
   private void de(@NotNull AyaShape.Factory shapeFactory, @NotNull PhysicalModuleContext context, @NotNull SerDef serDef, @NotNull SerTerm.DeState state) {
     var mod = context.moduleName();
     var drop = mod.size();
+    if (serDef instanceof SerDef.Lazy lazy) {
+      deLazy(context, drop, lazy, state);
+      return;
+    }
     var def = serDef.de(state);
-    assert def.ref().core != null;
+    assert def.ref().core() != null;
     shapeFactory.bonjour(def);
     switch (serDef) {
       case SerDef.Fn fn -> {
@@ -213,6 +218,33 @@ public record CompiledAya(
     }
   }
 
+  /**
+   * Like {@link #de(AyaShape.Factory, PhysicalModuleContext, SerDef, SerTerm.DeState)}, but only the references are created,
+   * and the definition is deserialized when it is used. Shapes are not discovered since only data types have shapes.
+   */
+  private void deLazy(@NotNull PhysicalModuleContext context, int drop, @NotNull SerDef.Lazy lazy, @NotNull SerTerm.DeState state) {
+    var ref = state.declare(lazy.name());
+    ref.setLazyCore(() -> lazy.de(state));
+    var fields = lazy.fields();
+    if (fields == null) {
+      if (isExported(lazy.name())) {
+        export(context, drop, lazy.name(), ref);
+        export(context, lazy.name().name(), ref);
+      }
+      return;
+    }
+    var innerCtx = context.derive(lazy.name().name());
+    if (isExported(lazy.name())) export(context, lazy.name().name(), ref);
+    fields.forEach(field -> {
+      var fieldRef = state.declare(field);
+      // Fields are deserialized with the structure
+      fieldRef.setLazyCore(ref::core);
+      if (isExported(field)) export(context, drop, field, fieldRef);
+      export(innerCtx, field.name(), fieldRef);
+    });
+    context.importModules(innerCtx.moduleName().drop(drop), Stmt.Accessibility.Public, innerCtx.exports, SourcePos.SER);
+  }
+
   private void export(@NotNull PhysicalModuleContext context, int dropMod, @NotNull SerDef.QName qname, DefVar<?, ?> ref) {
     export(context, qname.mod().drop(dropMod), qname.name(), ref);
   }
@@ -0,0 +1,852 @@
+// Copyright (c) 2020-2022 Yinsen (Tesla) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.core.serde;
+
+import kala.collection.immutable.ImmutableMap;
+import kala.collection.immutable.ImmutableSeq;
+import kala.collection.mutable.MutableList;
+import kala.control.Either;
+import kala.control.Option;
+import kala.tuple.Tuple;
+import org.aya.core.def.PrimDef;
+import org.aya.generic.Modifier;
+import org.aya.generic.util.InternalException;
+import org.aya.util.binop.Assoc;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.SortedMap;
+import java.util.function.Supplier;
+
+/**
+ * The binary encoding of {@link CompiledAya}, used in .ayac files.
+ * <pre>
+ * file    ::= "AYAC" version:uint source-hash:bytes interface-hash:bytes strings qnames
+ *             imports:seq(module) exports:seq(qname) reExports:seq(module) ops:seq(op)
+ *             index:seq(entry) definitions
+ * strings ::= n:uint (length:uint utf8-bytes){n}
+ * qnames  ::= n:uint (module:seq(string) name:string){n}
+ * entry   ::= EAGER length:uint | FN name:qname length:uint | STRUCT name:qname fields:seq(qname) length:uint
+ * </pre>
+ * Strings and {@link SerDef.QName}s in the body are varint-encoded indices into the tables,
+ * enums are encoded by their names, and the nodes of {@link SerTerm}, {@link SerPat} and
+ * {@link SerDef} are prefixed by a tag byte.
+ * <p>
+ * The hashes are used to decide whether a module needs to be rechecked, see {@link Fingerprint},
+ * they are empty if unknown.
+ * The definitions are located by the lengths in the index, so functions and structures
+ * are decoded only when they are used, see {@link SerDef.Lazy}.
+ * Other definitions are decoded eagerly, because they are needed for shape discovery or are usually tiny.
+ * Files produced by Java serialization (before the binary encoding) can still be read.
+ */
+public final class CompiledAyaCodec {
+  private static final byte[] MAGIC = {'A', 'Y', 'A', 'C'};
+  /** Bump this when the encoding is changed */
+  public static final int VERSION = 3;
+
+  private CompiledAyaCodec() {
+  }
+
+  /**
+   * @param source        the hash of the source file, see {@link #hash(byte[])}
+   * @param interfaceHash the hash of everything importers can observe, see {@link #interfaceHash}.
+   *                      Null if unknown, and then importers always consider it changed.
+   */
+  public record Fingerprint(byte @NotNull [] source, byte @Nullable [] interfaceHash) {
+  }
+
+  public static void write(@NotNull CompiledAya compiledAya, @NotNull OutputStream output) throws IOException {
+    write(compiledAya, null, output);
+  }
+
+  public static void write(@NotNull CompiledAya compiledAya, @Nullable Fingerprint fingerprint, @NotNull OutputStream output) throws IOException {
+    var encoder = new Encoder(false);
+    encoder.compiledAya(compiledAya);
+    encoder.writeTo(output, fingerprint);
+  }
+
+  /** @return null if the hashes are not recorded, for example, in files produced by Java serialization */
+  public static @Nullable Fingerprint readFingerprint(@NotNull ByteBuffer input) {
+    if (!isBinary(input)) return null;
+    return malformed(() -> new Decoder(input.duplicate()).fingerprint);
+  }
+
+  public static byte @NotNull [] hash(byte @NotNull [] content) {
+    return sha256().digest(content);
+  }
+
+  /**
+   * The hash of the compiled module as observed by importers, so changes that do not affect
+   * the core (like comments, formatting or renaming local variables) do not change it.
+   * Since definitions can be unfolded by importers, their bodies are included,
+   * except for opaque functions.
+   * The interface hashes of the imports are included as well, because definitions
+   * in the imports can be unfolded by unfolding the definitions in this module.
+   *
+   * @param imports the interface hashes of the imported modules, keyed by module names
+   */
+  public static byte @NotNull [] interfaceHash(@NotNull CompiledAya compiledAya, @NotNull SortedMap<String, byte[]> imports) {
+    var encoder = new Encoder(true);
+    encoder.compiledAya(compiledAya);
+    var digest = sha256();
+    try (var output = new DigestOutputStream(OutputStream.nullOutputStream(), digest)) {
+      encoder.writeTo(output, null);
+    } catch (IOException e) {
+      throw new InternalException("Unexpected IO error when hashing", e);
+    }
+    imports.forEach((name, hash) -> {
+      digest.update(name.getBytes(StandardCharsets.UTF_8));
+      digest.update(hash);
+    });
+    return digest.digest();
+  }
+
+  private static @NotNull MessageDigest sha256() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new InternalException("SHA-256 is not supported", e);
+    }
+  }
+
+  /**
+   * @param input can be a {@link java.nio.MappedByteBuffer}, which is referenced by the
+   *              lazily decoded definitions until they are decoded.
+   */
+  public static @NotNull CompiledAya read(@NotNull ByteBuffer input) throws IOException, ClassNotFoundException {
+    if (!isBinary(input)) return readLegacy(input);
+    return malformed(() -> new Decoder(input).compiledAya());
+  }
+
+  private static <T> T malformed(@NotNull Supplier<T> decode) {
+    try {
+      return decode.get();
+    } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+      throw new SerDef.DeserializeException("Malformed .ayac file: " + e);
+    }
+  }
+
+  public static @NotNull CompiledAya read(byte @NotNull [] input) throws IOException, ClassNotFoundException {
+    return read(ByteBuffer.wrap(input));
+  }
+
+  private static boolean isBinary(@NotNull ByteBuffer input) {
+    if (input.remaining() < MAGIC.length) return false;
+    for (int i = 0; i < MAGIC.length; i++)
+      if (input.get(input.position() + i) != MAGIC[i]) return false;
+    return true;
+  }
+
+  private static @NotNull CompiledAya readLegacy(@NotNull ByteBuffer input) throws IOException, ClassNotFoundException {
+    var bytes = new byte[input.remaining()];
+    input.get(bytes);
+    try (var stream = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+      return (CompiledAya) stream.readObject();
+    }
+  }
+
+  private static final byte TERM_PI = 0, TERM_SIGMA = 1, TERM_UNIV = 2, TERM_REF = 3, TERM_LAM = 4,
+    TERM_NEW = 5, TERM_PROJ = 6, TERM_APP = 7, TERM_STRUCT_CALL = 8, TERM_FN_CALL = 9,
+    TERM_DATA_CALL = 10, TERM_PRIM_CALL = 11, TERM_CON_CALL = 12, TERM_TUP = 13, TERM_ACCESS = 14,
+    TERM_FIELD_REF = 15, TERM_INTERVAL = 16, TERM_END = 17, TERM_SHAPED_INT = 18, TERM_STR = 19;
+  private static final byte PAT_ABSURD = 0, PAT_TUPLE = 1, PAT_BIND = 2, PAT_CTOR = 3, PAT_END = 4,
+    PAT_SHAPED_INT = 5;
+  private static final byte DEF_FN = 0, DEF_CTOR = 1, DEF_DATA = 2, DEF_FIELD = 3, DEF_STRUCT = 4,
+    DEF_PRIM = 5;
+  private static final byte INDEX_EAGER = 0, INDEX_FN = 1, INDEX_STRUCT = 2;
+
+  /**
+   * The body is encoded first, then the tables are written in front of it.
+   * A canonical encoding is only used for hashing, in which local variables are numbered
+   * in the order they occur, and bodies of opaque functions are omitted.
+   */
+  private static final class Encoder {
+    private final boolean canonical;
+    private final @NotNull HashMap<Integer, Integer> vars = new HashMap<>();
+    private @NotNull ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private final @NotNull HashMap<String, Integer> strings = new HashMap<>();
+    private final @NotNull MutableList<String> stringTable = MutableList.create();
+    private final @NotNull HashMap<SerDef.QName, Integer> qnames = new HashMap<>();
+    private final @NotNull MutableList<SerDef.QName> qnameTable = MutableList.create();
+
+    private Encoder(boolean canonical) {
+      this.canonical = canonical;
+    }
+
+    private void writeTo(@NotNull OutputStream output, @Nullable Fingerprint fingerprint) throws IOException {
+      var header = new ByteArrayOutputStream();
+      header.write(MAGIC);
+      uint(header, VERSION);
+      bytes(header, fingerprint != null ? fingerprint.source : null);
+      bytes(header, fingerprint != null ? fingerprint.interfaceHash : null);
+      uint(header, stringTable.size());
+      for (var string : stringTable) {
+        var bytes = string.getBytes(StandardCharsets.UTF_8);
+        uint(header, bytes.length);
+        header.write(bytes);
+      }
+      uint(header, qnameTable.size());
+      for (var qname : qnameTable) {
+        uint(header, qname.mod().size());
+        for (var s : qname.mod()) uint(header, strings.get(s));
+        uint(header, strings.get(qname.name()));
+      }
+      header.writeTo(output);
+      out.writeTo(output);
+    }
+
+    private static void uint(@NotNull ByteArrayOutputStream out, int value) {
+      while ((value & ~0x7F) != 0) {
+        out.write((value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+      out.write(value);
+    }
+
+    private void uint(int value) {
+      uint(out, value);
+    }
+
+    private static void bytes(@NotNull ByteArrayOutputStream out, byte @Nullable [] bytes) {
+      if (bytes == null) {
+        uint(out, 0);
+        return;
+      }
+      uint(out, bytes.length);
+      out.writeBytes(bytes);
+    }
+
+    /** Zigzag encoding, so small negative numbers are short as well */
+    private void sint(int value) {
+      uint((value << 1) ^ (value >> 31));
+    }
+
+    private void bool(boolean value) {
+      out.write(value ? 1 : 0);
+    }
+
+    private void tag(byte tag) {
+      out.write(tag);
+    }
+
+    private int intern(@NotNull String string) {
+      var index = strings.get(string);
+      if (index != null) return index;
+      index = stringTable.size();
+      strings.put(string, index);
+      stringTable.append(string);
+      return index;
+    }
+
+    private void string(@NotNull String string) {
+      uint(intern(string));
+    }
+
+    private void module(@NotNull ImmutableSeq<String> module) {
+      uint(module.size());
+      module.forEach(this::string);
+    }
+
+    private void qname(@NotNull SerDef.QName qname) {
+      var index = qnames.get(qname);
+      if (index == null) {
+        qname.mod().forEach(this::intern);
+        intern(qname.name());
+        index = qnameTable.size();
+        qnames.put(qname, index);
+        qnameTable.append(qname);
+      }
+      uint(index);
+    }
+
+    private void compiledAya(@NotNull CompiledAya compiledAya) {
+      uint(compiledAya.imports().size());
+      compiledAya.imports().forEach(this::module);
+      uint(compiledAya.exports().size());
+      compiledAya.exports().forEach(this::qname);
+      uint(compiledAya.reExports().size());
+      compiledAya.reExports().forEach(this::module);
+      uint(compiledAya.serOps().size());
+      compiledAya.serOps().forEach(this::op);
+      uint(compiledAya.serDefs().size());
+      var definitions = new ByteArrayOutputStream();
+      for (var def : compiledAya.serDefs()) {
+        var index = out;
+        out = new ByteArrayOutputStream();
+        def(def);
+        var encoded = out.toByteArray();
+        out = index;
+        entry(def, encoded.length);
+        definitions.writeBytes(encoded);
+      }
+      out.writeBytes(definitions.toByteArray());
+    }
+
+    private void entry(@NotNull SerDef def, int length) {
+      switch (def) {
+        case SerDef.Fn fn -> {
+          tag(INDEX_FN);
+          qname(fn.name());
+        }
+        case SerDef.Struct struct -> {
+          tag(INDEX_STRUCT);
+          qname(struct.name());
+          uint(struct.fields().size());
+          struct.fields().forEach(field -> qname(field.self()));
+        }
+        case SerDef.Lazy lazy -> {
+          var fields = lazy.fields();
+          tag(fields == null ? INDEX_FN : INDEX_STRUCT);
+          qname(lazy.name());
+          if (fields != null) {
+            uint(fields.size());
+            fields.forEach(this::qname);
+          }
+        }
+        default -> tag(INDEX_EAGER);
+      }
+      uint(length);
+    }
+
+    private void op(@NotNull SerDef.SerOp op) {
+      qname(op.name());
+      string(op.assoc().name());
+      sint(op.argc());
+      uint(op.bind().loosers().size());
+      op.bind().loosers().forEach(this::qname);
+      uint(op.bind().tighters().size());
+      op.bind().tighters().forEach(this::qname);
+    }
+
+    private void def(@NotNull SerDef def) {
+      switch (def) {
+        case SerDef.Fn fn -> {
+          tag(DEF_FN);
+          qname(fn.name());
+          params(fn.telescope());
+          // Importers cannot unfold opaque functions, and the canonical encoding is never decoded
+          if (!canonical || !fn.modifiers().contains(Modifier.Opaque)) {
+            bool(fn.body().isLeft());
+            if (fn.body().isLeft()) term(fn.body().getLeftValue());
+            else matchies(fn.body().getRightValue());
+          }
+          uint(fn.modifiers().size());
+          fn.modifiers().forEach(modifier -> string(modifier.name()));
+          term(fn.result());
+        }
+        case SerDef.Ctor ctor -> {
+          tag(DEF_CTOR);
+          ctor(ctor);
+        }
+        case SerDef.Data data -> {
+          tag(DEF_DATA);
+          qname(data.name());
+          params(data.telescope());
+          sint(data.resultLift());
+          uint(data.bodies().size());
+          data.bodies().forEach(this::ctor);
+        }
+        case SerDef.Field field -> {
+          tag(DEF_FIELD);
+          field(field);
+        }
+        case SerDef.Struct struct -> {
+          tag(DEF_STRUCT);
+          qname(struct.name());
+          params(struct.telescope());
+          sint(struct.resultLift());
+          uint(struct.fields().size());
+          struct.fields().forEach(this::field);
+        }
+        case SerDef.Prim prim -> {
+          tag(DEF_PRIM);
+          module(prim.module());
+          string(prim.name().name());
+        }
+        case SerDef.Lazy lazy -> def(lazy.def().get());
+      }
+    }
+
+    private void ctor(@NotNull SerDef.Ctor ctor) {
+      qname(ctor.data());
+      qname(ctor.self());
+      pats(ctor.pats());
+      params(ctor.ownerTele());
+      params(ctor.selfTele());
+      matchies(ctor.clauses());
+      term(ctor.result());
+      bool(ctor.coerce());
+    }
+
+    private void field(@NotNull SerDef.Field field) {
+      qname(field.struct());
+      qname(field.self());
+      params(field.ownerTele());
+      params(field.selfTele());
+      term(field.result());
+      matchies(field.clauses());
+      bool(field.body().isDefined());
+      if (field.body().isDefined()) term(field.body().get());
+      bool(field.coerce());
+    }
+
+    private void matchies(@NotNull ImmutableSeq<SerPat.Matchy> matchies) {
+      uint(matchies.size());
+      matchies.forEach(matchy -> {
+        pats(matchy.pats());
+        term(matchy.body());
+      });
+    }
+
+    private void pats(@NotNull ImmutableSeq<SerPat> pats) {
+      uint(pats.size());
+      pats.forEach(this::pat);
+    }
+
+    private void pat(@NotNull SerPat pat) {
+      switch (pat) {
+        case SerPat.Absurd absurd -> {
+          tag(PAT_ABSURD);
+          bool(absurd.explicit());
+        }
+        case SerPat.Tuple tuple -> {
+          tag(PAT_TUPLE);
+          bool(tuple.explicit());
+          pats(tuple.pats());
+        }
+        case SerPat.Bind bind -> {
+          tag(PAT_BIND);
+          bool(bind.explicit());
+          var(bind.var());
+          term(bind.ty());
+        }
+        case SerPat.Ctor ctor -> {
+          tag(PAT_CTOR);
+          bool(ctor.explicit());
+          qname(ctor.name());
+          pats(ctor.params());
+          call(ctor.ty().name(), ctor.ty().data());
+        }
+        case SerPat.End end -> {
+          tag(PAT_END);
+          bool(end.val());
+          bool(end.explicit());
+        }
+        case SerPat.ShapedInt shaped -> {
+          tag(PAT_SHAPED_INT);
+          sint(shaped.integer());
+          bool(shaped.explicit());
+          string(shaped.shape().name());
+          call(shaped.type().name(), shaped.type().data());
+        }
+      }
+    }
+
+    private void var(@NotNull SerTerm.SimpVar var) {
+      uint(canonical ? vars.computeIfAbsent(var.var(), v -> vars.size()) : var.var());
+      if (!canonical) string(var.name());
+    }
+
+    private void params(@NotNull ImmutableSeq<SerTerm.SerParam> params) {
+      uint(params.size());
+      params.forEach(this::param);
+    }
+
+    private void param(@NotNull SerTerm.SerParam param) {
+      bool(param.explicit());
+      bool(param.pattern());
+      var(param.var());
+      term(param.term());
+    }
+
+    private void args(@NotNull ImmutableSeq<SerTerm.SerArg> args) {
+      uint(args.size());
+      args.forEach(this::arg);
+    }
+
+    private void arg(@NotNull SerTerm.SerArg arg) {
+      term(arg.arg());
+      bool(arg.explicit());
+    }
+
+    private void call(@NotNull SerDef.QName name, @NotNull SerTerm.CallData data) {
+      qname(name);
+      callData(data);
+    }
+
+    private void callData(@NotNull SerTerm.CallData data) {
+      sint(data.ulift());
+      args(data.args());
+    }
+
+    private void term(@NotNull SerTerm term) {
+      switch (term) {
+        case SerTerm.Pi pi -> {
+          tag(TERM_PI);
+          param(pi.param());
+          term(pi.body());
+        }
+        case SerTerm.Sigma sigma -> {
+          tag(TERM_SIGMA);
+          params(sigma.params());
+        }
+        case SerTerm.Univ univ -> {
+          tag(TERM_UNIV);
+          sint(univ.ulift());
+        }
+        case SerTerm.Ref ref -> {
+          tag(TERM_REF);
+          var(ref.var());
+          sint(ref.ulift());
+        }
+        case SerTerm.Lam lam -> {
+          tag(TERM_LAM);
+          param(lam.param());
+          term(lam.body());
+        }
+        case SerTerm.New neu -> {
+          tag(TERM_NEW);
+          call(neu.call().name(), neu.call().data());
+          uint(neu.map().size());
+          neu.map().forEach((field, body) -> {
+            qname(field);
+            term(body);
+          });
+        }
+        case SerTerm.Proj proj -> {
+          tag(TERM_PROJ);
+          term(proj.of());
+          sint(proj.ix());
+        }
+        case SerTerm.App app -> {
+          tag(TERM_APP);
+          term(app.of());
+          arg(app.arg());
+        }
+        case SerTerm.StructCall call -> {
+          tag(TERM_STRUCT_CALL);
+          call(call.name(), call.data());
+        }
+        case SerTerm.FnCall call -> {
+          tag(TERM_FN_CALL);
+          call(call.name(), call.data());
+        }
+        case SerTerm.DataCall call -> {
+          tag(TERM_DATA_CALL);
+          call(call.name(), call.data());
+        }
+        case SerTerm.PrimCall call -> {
+          tag(TERM_PRIM_CALL);
+          string(call.id().name());
+          call(call.name(), call.data());
+        }
+        case SerTerm.ConCall call -> {
+          tag(TERM_CON_CALL);
+          qname(call.dataRef());
+          qname(call.selfRef());
+          callData(call.dataArgs());
+          args(call.args());
+        }
+        case SerTerm.Tup tup -> {
+          tag(TERM_TUP);
+          uint(tup.components().size());
+          tup.components().forEach(this::term);
+        }
+        case SerTerm.Access access -> {
+          tag(TERM_ACCESS);
+          term(access.of());
+          qname(access.ref());
+          args(access.structArgs());
+          args(access.fieldArgs());
+        }
+        case SerTerm.FieldRef ref -> {
+          tag(TERM_FIELD_REF);
+          qname(ref.name());
+          sint(ref.ulift());
+        }
+        case SerTerm.Interval interval -> tag(TERM_INTERVAL);
+        case SerTerm.End end -> {
+          tag(TERM_END);
+          bool(end.isRight());
+        }
+        case SerTerm.ShapedInt shaped -> {
+          tag(TERM_SHAPED_INT);
+          sint(shaped.integer());
+          string(shaped.shape().name());
+          term(shaped.type());
+        }
+        case SerTerm.Str str -> {
+          tag(TERM_STR);
+          string(str.string());
+        }
+      }
+    }
+  }
+
+  private static final class Decoder {
+    private final @NotNull ByteBuffer in;
+    private final @Nullable Fingerprint fingerprint;
+    private final String @NotNull [] strings;
+    private final SerDef.QName @NotNull [] qnames;
+
+    private Decoder(@NotNull ByteBuffer in, String @NotNull [] strings, SerDef.QName @NotNull [] qnames) {
+      this.in = in;
+      this.fingerprint = null;
+      this.strings = strings;
+      this.qnames = qnames;
+    }
+
+    /** Reads the header */
+    private Decoder(@NotNull ByteBuffer in) {
+      this.in = in;
+      in.position(in.position() + MAGIC.length);
+      var version = uint();
+      if (version != VERSION)
+        throw new SerDef.DeserializeException("Unsupported .ayac version: " + version + ", expected " + VERSION);
+      var source = bytes();
+      var interfaceHash = bytes();
+      fingerprint = source == null ? null : new Fingerprint(source, interfaceHash);
+      strings = new String[uint()];
+      for (int i = 0; i < strings.length; i++) {
+        var bytes = new byte[uint()];
+        in.get(bytes);
+        strings[i] = new String(bytes, StandardCharsets.UTF_8);
+      }
+      qnames = new SerDef.QName[uint()];
+      for (int i = 0; i < qnames.length; i++) qnames[i] = new SerDef.QName(module(), string());
+    }
+
+    private int uint() {
+      int result = 0;
+      for (int shift = 0; shift < 32; shift += 7) {
+        var b = in.get();
+        result |= (b & 0x7F) << shift;
+        if ((b & 0x80) == 0) return result;
+      }
+      throw new SerDef.DeserializeException("Malformed varint");
+    }
+
+    private int sint() {
+      var value = uint();
+      return (value >>> 1) ^ -(value & 1);
+    }
+
+    private byte @Nullable [] bytes() {
+      var length = uint();
+      if (length == 0) return null;
+      var bytes = new byte[length];
+      in.get(bytes);
+      return bytes;
+    }
+
+    private boolean bool() {
+      return in.get() != 0;
+    }
+
+    private @NotNull String string() {
+      return strings[uint()];
+    }
+
+    private @NotNull SerDef.QName qname() {
+      return qnames[uint()];
+    }
+
+    private <E extends Enum<E>> @NotNull E enumOf(@NotNull Class<E> type) {
+      var name = string();
+      try {
+        return Enum.valueOf(type, name);
+      } catch (IllegalArgumentException e) {
+        throw new SerDef.DeserializeException("Unknown " + type.getSimpleName() + ": " + name);
+      }
+    }
+
+    private <T> @NotNull ImmutableSeq<T> seq(@NotNull Supplier<T> element) {
+      var size = uint();
+      var list = MutableList.<T>create();
+      for (int i = 0; i < size; i++) list.append(element.get());
+      return list.toImmutableSeq();
+    }
+
+    private @NotNull ImmutableSeq<String> module() {
+      return seq(this::string);
+    }
+
+    private @NotNull CompiledAya compiledAya() {
+      var imports = seq(this::module);
+      var exports = seq(this::qname);
+      var reExports = seq(this::module);
+      var serOps = seq(this::op);
+      var index = seq(this::entry);
+      var serDefs = MutableList.<SerDef>create();
+      var offset = in.position();
+      for (var entry : index) {
+        var definition = in.slice(offset, entry.length);
+        offset += entry.length;
+        serDefs.append(switch (entry.kind) {
+          case INDEX_EAGER -> new Decoder(definition, strings, qnames).def();
+          case INDEX_FN, INDEX_STRUCT -> new SerDef.Lazy(entry.name, entry.fields, () ->
+            malformed(() -> new Decoder(definition.duplicate(), strings, qnames).def()));
+          default -> throw new SerDef.DeserializeException("Unknown index tag: " + entry.kind);
+        });
+      }
+      return new CompiledAya(imports, exports, reExports, serDefs.toImmutableSeq(), serOps);
+    }
+
+    private record Entry(byte kind, @Nullable SerDef.QName name, @Nullable ImmutableSeq<SerDef.QName> fields, int length) {
+    }
+
+    private @NotNull Entry entry() {
+      var kind = in.get();
+      var name = kind == INDEX_EAGER ? null : qname();
+      var fields = kind == INDEX_STRUCT ? seq(this::qname) : null;
+      return new Entry(kind, name, fields, uint());
+    }
+
+    private @NotNull SerDef.SerOp op() {
+      var name = qname();
+      var assoc = enumOf(Assoc.class);
+      var argc = sint();
+      var loosers = seq(this::qname);
+      var tighters = seq(this::qname);
+      return new SerDef.SerOp(name, assoc, argc, new SerDef.SerBind(loosers, tighters));
+    }
+
+    private @NotNull SerDef def() {
+      var tag = in.get();
+      return switch (tag) {
+        case DEF_FN -> {
+          var name = qname();
+          var telescope = params();
+          Either<SerTerm, ImmutableSeq<SerPat.Matchy>> body = bool() ? Either.left(term()) : Either.right(matchies());
+          var modifiers = EnumSet.noneOf(Modifier.class);
+          var size = uint();
+          for (int i = 0; i < size; i++) modifiers.add(enumOf(Modifier.class));
+          yield new SerDef.Fn(name, telescope, body, modifiers, term());
+        }
+        case DEF_CTOR -> ctor();
+        case DEF_DATA -> new SerDef.Data(qname(), params(), sint(), seq(this::ctor));
+        case DEF_FIELD -> field();
+        case DEF_STRUCT -> new SerDef.Struct(qname(), params(), sint(), seq(this::field));
+        case DEF_PRIM -> new SerDef.Prim(module(), enumOf(PrimDef.ID.class));
+        default -> throw new SerDef.DeserializeException("Unknown definition tag: " + tag);
+      };
+    }
+
+    private @NotNull SerDef.Ctor ctor() {
+      return new SerDef.Ctor(qname(), qname(), pats(), params(), params(), matchies(), term(), bool());
+    }
+
+    private @NotNull SerDef.Field field() {
+      var struct = qname();
+      var self = qname();
+      var ownerTele = params();
+      var selfTele = params();
+      var result = term();
+      var clauses = matchies();
+      Option<SerTerm> body = bool() ? Option.some(term()) : Option.none();
+      return new SerDef.Field(struct, self, ownerTele, selfTele, result, clauses, body, bool());
+    }
+
+    private @NotNull ImmutableSeq<SerPat.Matchy> matchies() {
+      return seq(() -> new SerPat.Matchy(pats(), term()));
+    }
+
+    private @NotNull ImmutableSeq<SerPat> pats() {
+      return seq(this::pat);
+    }
+
+    private @NotNull SerPat pat() {
+      var tag = in.get();
+      return switch (tag) {
+        case PAT_ABSURD -> new SerPat.Absurd(bool());
+        case PAT_TUPLE -> new SerPat.Tuple(bool(), pats());
+        case PAT_BIND -> new SerPat.Bind(bool(), var(), term());
+        case PAT_CTOR -> new SerPat.Ctor(bool(), qname(), pats(), dataCall());
+        case PAT_END -> new SerPat.End(bool(), bool());
+        case PAT_SHAPED_INT -> new SerPat.ShapedInt(sint(), bool(), enumOf(SerDef.SerAyaShape.class), dataCall());
+        default -> throw new SerDef.DeserializeException("Unknown pattern tag: " + tag);
+      };
+    }
+
+    private @NotNull SerTerm.SimpVar var() {
+      return new SerTerm.SimpVar(uint(), string());
+    }
+
+    private @NotNull ImmutableSeq<SerTerm.SerParam> params() {
+      return seq(this::param);
+    }
+
+    private @NotNull SerTerm.SerParam param() {
+      return new SerTerm.SerParam(bool(), bool(), var(), term());
+    }
+
+    private @NotNull ImmutableSeq<SerTerm.SerArg> args() {
+      return seq(this::arg);
+    }
+
+    private @NotNull SerTerm.SerArg arg() {
+      return new SerTerm.SerArg(term(), bool());
+    }
+
+    private @NotNull SerTerm.CallData callData() {
+      return new SerTerm.CallData(sint(), args());
+    }
+
+    private @NotNull SerTerm.DataCall dataCall() {
+      return new SerTerm.DataCall(qname(), callData());
+    }
+
+    private @NotNull SerTerm.StructCall structCall() {
+      return new SerTerm.StructCall(qname(), callData());
+    }
+
+    /** The arguments are evaluated from left to right, in the order they are encoded */
+    private @NotNull SerTerm term() {
+      var tag = in.get();
+      return switch (tag) {
+        case TERM_PI -> new SerTerm.Pi(param(), term());
+        case TERM_SIGMA -> new SerTerm.Sigma(params());
+        case TERM_UNIV -> new SerTerm.Univ(sint());
+        case TERM_REF -> new SerTerm.Ref(var(), sint());
+        case TERM_LAM -> new SerTerm.Lam(param(), term());
+        case TERM_NEW -> {
+          var call = structCall();
+          var fields = seq(() -> Tuple.<SerDef.QName, SerTerm>of(qname(), term()));
+          ImmutableMap<SerDef.QName, SerTerm> map = fields.view().toImmutableMap();
+          yield new SerTerm.New(call, map);
+        }
+        case TERM_PROJ -> new SerTerm.Proj(term(), sint());
+        case TERM_APP -> new SerTerm.App(term(), arg());
+        case TERM_STRUCT_CALL -> structCall();
+        case TERM_FN_CALL -> new SerTerm.FnCall(qname(), callData());
+        case TERM_DATA_CALL -> dataCall();
+        case TERM_PRIM_CALL -> {
+          var id = enumOf(PrimDef.ID.class);
+          yield new SerTerm.PrimCall(qname(), id, callData());
+        }
+        case TERM_CON_CALL -> new SerTerm.ConCall(qname(), qname(), callData(), args());
+        case TERM_TUP -> new SerTerm.Tup(seq(this::term));
+        case TERM_ACCESS -> new SerTerm.Access(term(), qname(), args(), args());
+        case TERM_FIELD_REF -> new SerTerm.FieldRef(qname(), sint());
+        case TERM_INTERVAL -> new SerTerm.Interval();
+        case TERM_END -> new SerTerm.End(bool());
+        case TERM_SHAPED_INT -> new SerTerm.ShapedInt(sint(), enumOf(SerDef.SerAyaShape.class), term());
+        case TERM_STR -> new SerTerm.Str(string());
+        default -> throw new SerDef.DeserializeException("Unknown term tag: " + tag);
+      };
+    }
+  }
+}
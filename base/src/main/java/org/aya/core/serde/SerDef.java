@@ -15,9 +15,11 @@ import org.aya.ref.DefVar;
 import org.aya.util.binop.Assoc;
 import org.aya.util.binop.OpDecl;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.Serializable;
 import java.util.EnumSet;
+import java.util.function.Supplier;
 
 /**
  * @author ice1000
@@ -130,6 +132,24 @@ public sealed interface SerDef extends Serializable {
     }
   }
 
+  /**
+   * A definition in a compiled module that is decoded and deserialized on demand,
+   * when the {@link DefVar#core()} of it is first accessed. Only the names are known upfront.
+   *
+   * @param fields the fields if it is a structure, null if it is a function
+   * @param def    decodes the definition
+   * @see CompiledAyaCodec
+   */
+  record Lazy(
+    @NotNull QName name,
+    @Nullable ImmutableSeq<QName> fields,
+    @NotNull Supplier<SerDef> def
+  ) implements SerDef {
+    @Override public @NotNull GenericDef de(SerTerm.@NotNull DeState state) {
+      return def.get().de(state);
+    }
+  }
+
   /** To use serialized operators in {@link org.aya.concrete.desugar.AyaBinOpSet} */
   record SerOpDecl(@NotNull OpInfo opInfo) implements OpDecl {
   }
@@ -16,27 +16,31 @@ import org.aya.ref.LocalVar;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.Serializable;
+import java.util.HashSet;
 import java.util.Objects;
+import java.util.Set;
 
 /**
  * @author ice1000
  */
 public sealed interface SerTerm extends Serializable {
+  /** @param declared definitions that are declared but not deserialized yet, see {@link #declare} */
   record DeState(
     @NotNull MutableMap<Seq<String>, MutableMap<String, DefVar<?, ?>>> defCache,
     @NotNull MutableMap<Integer, LocalVar> localCache,
+    @NotNull Set<DefVar<?, ?>> declared,
     @NotNull PrimDef.Factory primFactory
   ) {
     public DeState(@NotNull PrimDef.Factory primFactory) {
-      this(MutableMap.create(), MutableMap.create(), primFactory);
+      this(MutableMap.create(), MutableMap.create(), new HashSet<>(), primFactory);
     }
 
-    public @NotNull LocalVar var(@NotNull SimpVar var) {
+    public synchronized @NotNull LocalVar var(@NotNull SimpVar var) {
       return localCache.getOrPut(var.var, () -> new LocalVar(var.name));
     }
 
     @SuppressWarnings("unchecked")
-    public <V extends DefVar<?, ?>>
+    public synchronized <V extends DefVar<?, ?>>
     @NotNull V resolve(@NotNull SerDef.QName name) {
       // We assume this cast to be safe
       var dv = (V) defCache
@@ -46,19 +50,48 @@ public sealed interface SerTerm extends Serializable {
       return dv;
     }
 
-    @SuppressWarnings("unchecked") <V extends DefVar<?, ?>>
+    @SuppressWarnings("unchecked") synchronized <V extends DefVar<?, ?>>
     @NotNull V newDef(@NotNull SerDef.QName name) {
+      var defs = defCache.getOrPut(name.mod(), MutableHashMap::new);
+      var declaredVar = defs.getOrNull(name.name());
       // We assume this cast to be safe
+      if (declaredVar != null && declared.remove(declaredVar)) return (V) declaredVar;
+      var defVar = DefVar.empty(name.name());
+      var old = defs.put(name.name(), defVar);
+      if (old.isDefined()) throw new SerDef.DeserializeException("Same definition deserialized twice: " + name);
+      defVar.module = name.mod();
+      return (V) defVar;
+    }
+
+    /**
+     * Creates the reference to a definition before the definition is deserialized,
+     * the reference is reused when the definition is deserialized by {@link #newDef}.
+     *
+     * @see SerDef.Lazy
+     */
+    public synchronized @NotNull DefVar<?, ?> declare(@NotNull SerDef.QName name) {
       var defVar = DefVar.empty(name.name());
       var old = defCache
         .getOrPut(name.mod(), MutableHashMap::new)
         .put(name.name(), defVar);
-      if (old.isDefined()) throw new SerDef.DeserializeException("Same definition deserialized twice: " + name);
+      if (old.isDefined()) throw new SerDef.DeserializeException("Same definition declared twice: " + name);
       defVar.module = name.mod();
-      return (V) defVar;
+      declared.add(defVar);
+      return defVar;
+    }
+
+    /**
+     * Makes an existing reference resolvable, which is reused by {@link #newDef} if declared.
+     *
+     * @see org.aya.tyck.order.DeclCache
+     */
+    public synchronized void putDef(@NotNull DefVar<?, ?> defVar, boolean declare) {
+      assert defVar.module != null;
+      defCache.getOrPut(defVar.module, MutableHashMap::new).put(defVar.name(), defVar);
+      if (declare) declared.add(defVar);
     }
 
-    public void putPrim(
+    public synchronized void putPrim(
       @NotNull ImmutableSeq<String> mod,
       @NotNull PrimDef.ID id,
       @NotNull DefVar<?, ?> defVar
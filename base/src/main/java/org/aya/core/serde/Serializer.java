@@ -150,6 +150,7 @@ public record Serializer(@NotNull Serializer.State state) {
     return new SerTerm.SerArg(serialize(termArg.term()), termArg.explicit());
   }
 
+  /** @param defCache the definitions referenced by the serialized terms so far */
   public record State(
     @NotNull MutableMap<LocalVar, Integer> localCache,
     @NotNull MutableMap<DefVar<?, ?>, Integer> defCache
@@ -158,12 +159,13 @@ public record Serializer(@NotNull Serializer.State state) {
       this(MutableMap.create(), MutableMap.create());
     }
 
-    public @NotNull SerTerm.SimpVar local(@NotNull LocalVar var) {
+    public synchronized @NotNull SerTerm.SimpVar local(@NotNull LocalVar var) {
       return new SerTerm.SimpVar(localCache.getOrPut(var, localCache::size), var.name());
     }
 
-    public @NotNull SerDef.QName def(@NotNull DefVar<?, ?> var) {
+    public synchronized @NotNull SerDef.QName def(@NotNull DefVar<?, ?> var) {
       assert var.module != null;
+      defCache.getOrPut(var, defCache::size);
       return new SerDef.QName(var.module, var.name());
     }
   }
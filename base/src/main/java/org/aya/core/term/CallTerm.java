@@ -66,7 +66,7 @@ public sealed interface CallTerm extends Term {
     public Prim(@NotNull DefVar<@NotNull PrimDef, TeleDecl.PrimDecl> ref,
                 int ulift,
                 @NotNull ImmutableSeq<Arg<@NotNull Term>> args) {
-      this(ref, ref.core.id, ulift, args);
+      this(ref, ref.core().id, ulift, args);
     }
 
     @Override public <P, R> R doAccept(@NotNull Visitor<P, R> visitor, P p) {
@@ -42,6 +42,13 @@ public record ErrorTerm(@NotNull AyaDocile description, boolean isReallyError) i
       Doc.styled(Style.code(), origin.toDoc(options))));
   }
 
+  /** A term whose normalization is given up, see {@link org.aya.util.cancel.EvalBudget#partial()} */
+  public static @NotNull ErrorTerm stuck(@NotNull Term origin) {
+    return new ErrorTerm(options -> Doc.sep(
+      Doc.plain("stuck"),
+      Doc.styled(Style.code(), origin.toDoc(options))));
+  }
+
   public static @NotNull ErrorTerm unexpected(@NotNull AyaDocile origin) {
     return new ErrorTerm(options -> Doc.sep(
       Doc.plain("unexpected"),
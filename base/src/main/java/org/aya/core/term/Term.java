@@ -24,6 +24,7 @@ import org.aya.ref.Var;
 import org.aya.tyck.LittleTyper;
 import org.aya.tyck.TyckState;
 import org.aya.tyck.env.LocalCtx;
+import org.aya.util.cancel.EvalBudget;
 import org.aya.util.distill.DistillerOptions;
 import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
@@ -83,10 +84,25 @@ public sealed interface Term extends AyaDocile permits CallTerm, ElimTerm, Error
    * @param state used for inlining the holes.
    *              Can be null only if we're absolutely sure that holes are frozen,
    *              like in the error messages.
+   *              If its cancellation is a partial {@link EvalBudget}, the term is marked as stuck
+   *              instead of failing when the budget is used up, see {@link ErrorTerm#stuck}.
    */
   default @NotNull Term normalize(@NotNull TyckState state, @NotNull NormalizeMode mode) {
+    try {
+      return doNormalize(state, mode);
+    } catch (EvalBudget.Exhausted e) {
+      if (state != null && state.cancellation() instanceof EvalBudget budget && budget.partial())
+        return ErrorTerm.stuck(this);
+      throw e;
+    }
+  }
+
+  private @NotNull Term doNormalize(@NotNull TyckState state, @NotNull NormalizeMode mode) {
     if (mode == NormalizeMode.NULL) return this;
     if (mode == NormalizeMode.NF) return this.view().normalize(state).commit();
+    if (mode == NormalizeMode.NBE) return new Evaluator(state).normalize(this);
+    if (mode == NormalizeMode.WHNF && state != null)
+      return state.whnfCache().whnf(this, term -> term.accept(new Normalizer(state), mode));
     return accept(new Normalizer(state), mode);
   }
 
@@ -0,0 +1,296 @@
+// Copyright (c) 2020-2022 Yinsen (Tesla) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.core.visitor;
+
+import kala.collection.SeqLike;
+import kala.collection.immutable.ImmutableMap;
+import kala.collection.immutable.ImmutableSeq;
+import kala.collection.mutable.MutableList;
+import kala.tuple.Tuple;
+import org.aya.concrete.stmt.TeleDecl;
+import org.aya.core.Matching;
+import org.aya.core.def.FieldDef;
+import org.aya.core.pat.CaseTree;
+import org.aya.core.pat.PatMatcher;
+import org.aya.core.term.*;
+import org.aya.generic.Arg;
+import org.aya.generic.Modifier;
+import org.aya.generic.util.InternalException;
+import org.aya.ref.DefVar;
+import org.aya.ref.LocalVar;
+import org.aya.ref.Var;
+import org.aya.tyck.TyckState;
+import org.aya.util.distill.DistillerOptions;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Normalization by evaluation: terms are evaluated into {@link Value}s in an {@link Env},
+ * where binders become closures, and then read back into terms.
+ * Unlike {@link TermOps.Normalizer}, beta reduction extends the environment
+ * instead of substituting (and renaming) the body.
+ *
+ * @see org.aya.generic.util.NormalizeMode#NBE
+ */
+public record Evaluator(@Nullable TyckState state) {
+  /** A persistent environment, where {@link #EMPTY} is the empty one. */
+  public record Env(@NotNull Var var, @NotNull Value value, @Nullable Env parent) {
+    public static final @Nullable Env EMPTY = null;
+
+    public static @Nullable Value lookup(@Nullable Env env, @NotNull Var var) {
+      for (; env != null; env = env.parent) if (env.var == var) return env.value;
+      return null;
+    }
+
+    public static @Nullable Env extend(
+      @Nullable Env env, @NotNull SeqLike<Term.Param> params,
+      @NotNull SeqLike<Arg<Value>> args
+    ) {
+      for (var tup : params.view().zip(args)) env = new Env(tup._1.ref(), tup._2.term(), env);
+      return env;
+    }
+  }
+
+  /** The semantic domain. */
+  public sealed interface Value {
+    /** A term in normal form that will not be reduced any further, like a neutral term or a universe. */
+    record Stuck(@NotNull Term term) implements Value {}
+    record Lam(@NotNull Term.Param param, @NotNull Term body, @Nullable Env env) implements Value {}
+    record Pi(@NotNull Term.Param param, @NotNull Term body, @Nullable Env env) implements Value {}
+    record Sigma(@NotNull ImmutableSeq<Term.Param> params, @Nullable Env env) implements Value {}
+    record Tuple(@NotNull ImmutableSeq<Value> items) implements Value {}
+    record Con(@NotNull CallTerm.ConHead head, @NotNull ImmutableSeq<Arg<Value>> conArgs) implements Value {}
+    record New(
+      @NotNull CallTerm.Struct struct,
+      @NotNull ImmutableMap<DefVar<FieldDef, TeleDecl.StructField>, Term> fields,
+      @Nullable Env env
+    ) implements Value {}
+  }
+
+  public @NotNull Term normalize(@NotNull Term term) {
+    return readback(eval(term, Env.EMPTY));
+  }
+
+  private @NotNull ImmutableSeq<Arg<Value>> evalArgs(@NotNull ImmutableSeq<Arg<Term>> args, @Nullable Env env) {
+    return args.map(arg -> new Arg<>(eval(arg.term(), env), arg.explicit()));
+  }
+
+  private @NotNull ImmutableSeq<Arg<Term>> readbackArgs(@NotNull SeqLike<Arg<Value>> args) {
+    return args.view().map(arg -> new Arg<>(readback(arg.term()), arg.explicit())).toImmutableSeq();
+  }
+
+  private @NotNull ImmutableSeq<Arg<Term>> normalizeArgs(@NotNull ImmutableSeq<Arg<Term>> args, @Nullable Env env) {
+    return args.map(arg -> new Arg<>(readback(eval(arg.term(), env)), arg.explicit()));
+  }
+
+  public @NotNull Value eval(@NotNull Term term, @Nullable Env env) {
+    if (state != null) {
+      state.stats().step();
+      state.cancellation().checkCanceled();
+    }
+    return switch (term) {
+      case RefTerm ref -> {
+        var value = Env.lookup(env, ref.var());
+        yield value != null ? value : new Value.Stuck(ref);
+      }
+      case RefTerm.Field field -> {
+        var value = Env.lookup(env, field.ref());
+        yield value != null ? value : new Value.Stuck(field);
+      }
+      case RefTerm.MetaPat metaPat -> {
+        var inlined = metaPat.inline();
+        yield inlined == metaPat ? new Value.Stuck(metaPat) : eval(inlined, env);
+      }
+      case IntroTerm.Lambda lambda -> new Value.Lam(lambda.param(), lambda.body(), env);
+      case FormTerm.Pi pi -> new Value.Pi(pi.param(), pi.body(), env);
+      case FormTerm.Sigma sigma -> new Value.Sigma(sigma.params(), env);
+      case IntroTerm.Tuple tuple -> new Value.Tuple(tuple.items().map(item -> eval(item, env)));
+      case IntroTerm.New neu -> new Value.New((CallTerm.Struct) readback(eval(neu.struct(), env)), neu.params(), env);
+      case ElimTerm.App app -> apply(eval(app.of(), env), new Arg<>(eval(app.arg().term(), env), app.arg().explicit()));
+      case ElimTerm.Proj proj -> {
+        var of = eval(proj.of(), env);
+        if (of instanceof Value.Tuple tuple) {
+          var ix = proj.ix();
+          assert tuple.items().sizeGreaterThanOrEquals(ix) && ix > 0 : proj.toDoc(DistillerOptions.debug()).debugRender();
+          yield tuple.items().get(ix - 1);
+        }
+        yield new Value.Stuck(new ElimTerm.Proj(readback(of), proj.ix()));
+      }
+      case CallTerm.Data data -> new Value.Stuck(new CallTerm.Data(data.ref(), data.ulift(), normalizeArgs(data.args(), env)));
+      case CallTerm.Struct struct -> new Value.Stuck(new CallTerm.Struct(struct.ref(), struct.ulift(), normalizeArgs(struct.args(), env)));
+      case CallTerm.Con con -> {
+        var head = con.head();
+        head = new CallTerm.ConHead(head.dataRef(), head.ref(), head.ulift(), normalizeArgs(head.dataArgs(), env));
+        var conArgs = evalArgs(con.conArgs(), env);
+        var def = con.ref().core();
+        if (def != null) {
+          var unfolded = unfoldClauses(def.caseTree(), true, conArgs, def.clauses);
+          if (unfolded != null) yield unfolded;
+        }
+        yield new Value.Con(head, conArgs);
+      }
+      case CallTerm.Fn fn -> {
+        var args = evalArgs(fn.args(), env);
+        var def = fn.ref().core();
+        if (def == null || def.modifiers.contains(Modifier.Opaque))
+          yield new Value.Stuck(new CallTerm.Fn(fn.ref(), fn.ulift(), readbackArgs(args)));
+        if (def.body.isLeft()) yield eval(def.body.getLeftValue(), Env.extend(Env.EMPTY, def.telescope(), args));
+        var orderIndependent = def.modifiers.contains(Modifier.Overlap);
+        var unfolded = unfoldClauses(def.caseTree(), orderIndependent, args, def.body.getRightValue());
+        yield unfolded != null ? unfolded : new Value.Stuck(new CallTerm.Fn(fn.ref(), fn.ulift(), readbackArgs(args)));
+      }
+      case CallTerm.Prim prim -> {
+        if (state == null) throw new InternalException("unfolding prims without TyckState");
+        var stuck = new CallTerm.Prim(prim.ref(), prim.id(), prim.ulift(), normalizeArgs(prim.args(), env));
+        var unfolded = state.primFactory().unfold(prim.id(), stuck, state);
+        yield unfolded instanceof CallTerm.Prim ? new Value.Stuck(unfolded) : eval(unfolded, Env.EMPTY);
+      }
+      case CallTerm.Hole hole -> {
+        var def = hole.ref();
+        var args = evalArgs(hole.contextArgs().concat(hole.args()), env);
+        if (state != null && state.metas().containsKey(def))
+          yield eval(state.metas().get(def), Env.extend(Env.EMPTY, def.fullTelescope(), args));
+        var contextArgs = readbackArgs(args.view().take(hole.contextArgs().size()));
+        var holeArgs = readbackArgs(args.view().drop(hole.contextArgs().size()));
+        yield new Value.Stuck(new CallTerm.Hole(def, hole.ulift(), contextArgs, holeArgs));
+      }
+      case CallTerm.Access access -> {
+        var of = eval(access.of(), env);
+        var structArgs = evalArgs(access.structArgs(), env);
+        var fieldArgs = evalArgs(access.fieldArgs(), env);
+        if (of instanceof Value.New neu) {
+          var fieldDef = access.ref().core();
+          var fieldEnv = Env.extend(neu.env(), fieldDef.ownerTele, structArgs);
+          var field = eval(neu.fields().get(access.ref()), fieldEnv);
+          for (var arg : fieldArgs) field = apply(field, arg);
+          yield field;
+        }
+        // Unfolding the clauses of a field needs to substitute the other fields, see TermOps.Normalizer
+        var stuck = new CallTerm.Access(readback(of), access.ref(), readbackArgs(structArgs), readbackArgs(fieldArgs));
+        var unfolded = stuck.view().normalize(state).commit();
+        yield unfolded instanceof CallTerm.Access ? new Value.Stuck(unfolded) : eval(unfolded, Env.EMPTY);
+      }
+      case LitTerm.ShapedInt lit -> new Value.Stuck(new LitTerm.ShapedInt(lit.repr(), lit.shape(), readback(eval(lit.type(), env))));
+      case FormTerm.Univ univ -> new Value.Stuck(univ);
+      case FormTerm.Interval interval -> new Value.Stuck(interval);
+      case PrimTerm.End end -> new Value.Stuck(end);
+      case PrimTerm.Str str -> new Value.Stuck(str);
+      case ErrorTerm error -> new Value.Stuck(error);
+    };
+  }
+
+  public @NotNull Value apply(@NotNull Value f, @NotNull Arg<Value> arg) {
+    return switch (f) {
+      case Value.Lam lam -> {
+        assert arg.explicit() == lam.param().explicit();
+        yield eval(lam.body(), new Env(lam.param().ref(), arg.term(), lam.env()));
+      }
+      case Value.Stuck stuck -> new Value.Stuck(CallTerm.make(stuck.term(), new Arg<>(readback(arg.term()), arg.explicit())));
+      default -> throw new InternalException("applying a non-function: " + f);
+    };
+  }
+
+  private @Nullable Value unfoldClauses(
+    @Nullable CaseTree tree, boolean orderIndependent,
+    @NotNull ImmutableSeq<Arg<Value>> args, @NotNull ImmutableSeq<Matching> clauses
+  ) {
+    if (tree != null && args.sizeEquals(tree.arity())) {
+      var terms = new Value[tree.occurrences()];
+      args.forEachIndexed((i, arg) -> terms[i] = arg.term());
+      var node = tree.root();
+      while (true) switch (node) {
+        case CaseTree.Fail ignored -> {
+          return null;
+        }
+        case CaseTree.Leaf leaf -> {
+          var env = Env.EMPTY;
+          for (var binding : leaf.bindings()) env = new Env(binding.var(), terms[binding.occurrence()], env);
+          return eval(clauses.get(leaf.clause()).body(), env);
+        }
+        case CaseTree.CtorSplit split -> {
+          var value = terms[split.occurrence()];
+          if (value instanceof Value.Stuck stuck && stuck.term() instanceof LitTerm.ShapedInt lit)
+            value = eval(lit.constructorForm(), Env.EMPTY);
+          if (!(value instanceof Value.Con con)) {
+            if (!orderIndependent) return null;
+            node = split.otherwise();
+            continue;
+          }
+          var branch = split.branches().find(b -> b.ref() == con.head().ref());
+          if (branch.isEmpty()) {
+            node = split.otherwise();
+            continue;
+          }
+          var offset = branch.get().offset();
+          con.conArgs().forEachIndexed((i, arg) -> terms[offset + i] = arg.term());
+          node = branch.get().body();
+        }
+        case CaseTree.TupleSplit split -> {
+          if (!(terms[split.occurrence()] instanceof Value.Tuple tuple)) {
+            if (!orderIndependent) return null;
+            node = split.otherwise();
+            continue;
+          }
+          tuple.items().forEachIndexed((i, item) -> terms[split.offset() + i] = item);
+          node = split.body();
+        }
+        case CaseTree.EndSplit split -> {
+          if (!(terms[split.occurrence()] instanceof Value.Stuck stuck && stuck.term() instanceof PrimTerm.End end)) {
+            if (!orderIndependent) return null;
+            node = split.otherwise();
+            continue;
+          }
+          node = end.isRight() ? split.right() : split.left();
+        }
+      }
+    }
+    // Literal patterns are not compiled, we have to match the terms
+    var terms = readbackArgs(args);
+    for (var matchy : clauses) {
+      var subst = PatMatcher.tryBuildSubstArgs(null, matchy.patterns(), terms);
+      if (subst.isOk()) {
+        var map = subst.get().map();
+        var env = Env.EMPTY;
+        for (var var : map.keysView()) env = new Env(var, eval(map.get(var), Env.EMPTY), env);
+        return eval(matchy.body(), env);
+      } else if (!orderIndependent && subst.getErr()) return null;
+    }
+    return null;
+  }
+
+  public @NotNull Term readback(@NotNull Value value) {
+    return switch (value) {
+      case Value.Stuck stuck -> stuck.term();
+      case Value.Lam lam -> {
+        var param = readback(lam.param(), lam.env());
+        var body = eval(lam.body(), new Env(lam.param().ref(), new Value.Stuck(param.toTerm()), lam.env()));
+        yield new IntroTerm.Lambda(param, readback(body));
+      }
+      case Value.Pi pi -> {
+        var param = readback(pi.param(), pi.env());
+        var body = eval(pi.body(), new Env(pi.param().ref(), new Value.Stuck(param.toTerm()), pi.env()));
+        yield new FormTerm.Pi(param, readback(body));
+      }
+      case Value.Sigma sigma -> {
+        var env = sigma.env();
+        var params = MutableList.<Term.Param>create();
+        for (var param : sigma.params()) {
+          var fresh = readback(param, env);
+          params.append(fresh);
+          env = new Env(param.ref(), new Value.Stuck(fresh.toTerm()), env);
+        }
+        yield new FormTerm.Sigma(params.toImmutableSeq());
+      }
+      case Value.Tuple tuple -> new IntroTerm.Tuple(tuple.items().map(this::readback));
+      case Value.Con con -> new CallTerm.Con(con.head(), readbackArgs(con.conArgs()));
+      case Value.New neu -> new IntroTerm.New(neu.struct(), ImmutableMap.from(neu.fields().view()
+        .map((k, v) -> Tuple.of(k, readback(eval(v, neu.env()))))));
+    };
+  }
+
+  /** @return the parameter with a fresh variable and the normalized type */
+  private @NotNull Term.Param readback(@NotNull Term.Param param, @Nullable Env env) {
+    var fresh = new LocalVar(param.ref().name(), param.ref().definition());
+    return new Term.Param(fresh, readback(eval(param.type(), env)), param.pattern(), param.explicit());
+  }
+}
@@ -12,8 +12,10 @@ import org.jetbrains.annotations.Nullable;
 public record Normalizer(@Nullable TyckState state) implements Unfolder<NormalizeMode> {
   @Override public @NotNull Term visitApp(@NotNull ElimTerm.App term, NormalizeMode mode) {
     var fn = term.of().accept(this, mode);
-    if (fn instanceof IntroTerm.Lambda lambda)
+    if (fn instanceof IntroTerm.Lambda lambda) {
+      checkCanceled();
       return CallTerm.make(lambda, visitArg(term.arg(), mode)).accept(this, mode);
+    }
     if (mode == NormalizeMode.NF) // FIXME: in case it's not NF, reduce again
       return CallTerm.make(fn, visitArg(term.arg(), mode));
     else return term;
@@ -29,7 +31,8 @@ public record Normalizer(@Nullable TyckState state) implements Unfolder<Normaliz
   }
 
   @Override public @NotNull Term visitMetaPat(@NotNull RefTerm.MetaPat metaPat, NormalizeMode normalizeMode) {
-    return metaPat.inline();
+    var inline = metaPat.inline();
+    return inline == metaPat ? blocked(metaPat) : inline;
   }
 
   @Override public @NotNull Term visitLam(@NotNull IntroTerm.Lambda term, NormalizeMode mode) {
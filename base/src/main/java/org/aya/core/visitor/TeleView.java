@@ -0,0 +1,68 @@
+// Copyright (c) 2020-2022 Yinsen (Tesla) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.core.visitor;
+
+import kala.collection.SeqLike;
+import kala.collection.SeqView;
+import kala.collection.mutable.MutableMap;
+import org.aya.core.term.Term;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A telescope under a pending (explicit) substitution, consumed from left to right.
+ * Instantiating the first parameter with an argument only records it in the pending substitution,
+ * which is pushed into a parameter type when that parameter is inspected via {@link #head()}.
+ * So instantiating a telescope costs O(1) per argument plus one substitution per inspected type,
+ * instead of substituting every remaining parameter after each argument.
+ *
+ * @implNote The arguments are not in the scope of the telescope, so the pending substitutions
+ * compose by simply adding the new binding, without substituting the existing ones.
+ * @see TermView
+ */
+public final class TeleView {
+  private @NotNull SeqView<Term.Param> params;
+  private final @NotNull Subst subst = new Subst(MutableMap.create());
+  private final int ulift;
+  private @Nullable Term.Param head;
+
+  /** @param ulift applied to the parameter types before the substitution, like {@link Term.Param#subst(SeqLike, int)} */
+  public TeleView(@NotNull SeqLike<Term.Param> params, int ulift) {
+    this.params = params.view();
+    this.ulift = ulift;
+  }
+
+  public TeleView(@NotNull SeqLike<Term.Param> params) {
+    this(params, 0);
+  }
+
+  public boolean isEmpty() {
+    return params.isEmpty();
+  }
+
+  public boolean sizeEquals(@NotNull SeqLike<?> seq) {
+    return params.sizeEquals(seq);
+  }
+
+  /** @return the first parameter, with the pending substitution performed on its type */
+  public @NotNull Term.Param head() {
+    if (head == null) {
+      var param = params.first();
+      head = new Term.Param(param, inst(param.type()));
+    }
+    return head;
+  }
+
+  /** Drops the first parameter, and substitutes it with the given argument in the rest of the telescope. */
+  public void instantiate(@NotNull Term arg) {
+    subst.addDirectly(params.first().ref(), arg);
+    params = params.drop(1);
+    head = null;
+  }
+
+  /** Performs the pending lift and substitution on a term in the scope of the telescope, like the result type. */
+  public @NotNull Term inst(@NotNull Term term) {
+    if (ulift == 0 && subst.isEmpty()) return term;
+    return term.view().lift(ulift).subst(subst).commit();
+  }
+}
@@ -7,6 +7,7 @@ import kala.collection.immutable.ImmutableSeq;
 import kala.collection.mutable.MutableList;
 import kala.collection.mutable.MutableMap;
 import org.aya.core.Matching;
+import org.aya.core.pat.CaseTree;
 import org.aya.core.pat.PatMatcher;
 import org.aya.core.term.*;
 import org.aya.generic.Arg;
@@ -15,6 +16,7 @@ import org.aya.generic.util.InternalException;
 import org.aya.ref.LocalVar;
 import org.aya.ref.Var;
 import org.aya.tyck.TyckState;
+import org.aya.util.cancel.EvalBudget;
 import org.aya.util.distill.DistillerOptions;
 import org.aya.util.error.WithPos;
 import org.jetbrains.annotations.NotNull;
@@ -166,10 +168,21 @@ public interface TermOps extends TermView {
     }
 
     private @Nullable WithPos<Term> unfoldClauses(
-      boolean orderIndependent, SeqLike<Arg<Term>> args,
-      @NotNull ImmutableSeq<Matching> clauses
+      @Nullable CaseTree tree, boolean orderIndependent,
+      SeqLike<Arg<Term>> args, @NotNull ImmutableSeq<Matching> clauses
     ) {
-      return unfoldClauses(orderIndependent, args, new Subst(MutableMap.create()), clauses);
+      if (tree == null || !args.sizeEquals(tree.arity()))
+        return unfoldClauses(orderIndependent, args, new Subst(MutableMap.create()), clauses);
+      var matched = tree.match(args);
+      if (matched == null) return null;
+      return unfoldClause(clauses.get(matched._1), matched._2);
+    }
+
+    private @NotNull WithPos<Term> unfoldClause(@NotNull Matching match, @NotNull Subst subst) {
+      var body = match.body()
+        .view().subst(subst).commit()
+        .view().normalize(state).commit();
+      return new WithPos<>(match.sourcePos(), body);
     }
 
     private @Nullable WithPos<Term> unfoldClauses(
@@ -180,10 +193,7 @@ public interface TermOps extends TermView {
         var result = PatMatcher.tryBuildSubstArgs(null, match.patterns(), args);
         if (result.isOk()) {
           subst.add(result.get());
-          var body = match.body()
-            .view().subst(subst).commit()
-            .view().normalize(state).commit();
-          return new WithPos<>(match.sourcePos(), body);
+          return unfoldClause(match, subst);
         } else if (!orderIndependent && result.getErr())
           return null;
       }
@@ -191,6 +201,10 @@ public interface TermOps extends TermView {
     }
 
     @Override public @NotNull Term post(@NotNull Term term) {
+      state.stats().step();
+      if (state.cancellation() instanceof EvalBudget budget && budget.partial()) {
+        if (!budget.step()) return stuck(view.post(term));
+      } else state.cancellation().checkCanceled();
       return switch (view.post(term)) {
         case ElimTerm.App app -> {
           if (app.of() instanceof IntroTerm.Lambda lambda)
@@ -207,13 +221,13 @@ public interface TermOps extends TermView {
           } else yield proj;
         }
         case CallTerm.Con con -> {
-          var def = con.ref().core;
+          var def = con.ref().core();
           if (def == null) yield con;
-          var unfolded = unfoldClauses(true, con.conArgs(), def.clauses);
+          var unfolded = unfoldClauses(def.caseTree(), true, con.conArgs(), def.clauses);
           yield unfolded != null ? unfolded.data() : con;
         }
         case CallTerm.Fn fn -> {
-          var def = fn.ref().core;
+          var def = fn.ref().core();
           if (def == null) yield fn;
           if (def.modifiers.contains(Modifier.Opaque)) yield fn;
           yield def.body.fold(
@@ -222,13 +236,13 @@ public interface TermOps extends TermView {
               .view().normalize(state).commit(),
             patBody -> {
               var orderIndependent = def.modifiers.contains(Modifier.Overlap);
-              var unfolded = unfoldClauses(orderIndependent, fn.args(), patBody);
+              var unfolded = unfoldClauses(def.caseTree(), orderIndependent, fn.args(), patBody);
               return unfolded != null ? unfolded.data() : fn;
             }
           );
         }
         case CallTerm.Access access -> {
-          var fieldDef = access.ref().core;
+          var fieldDef = access.ref().core();
           if (access.of() instanceof IntroTerm.New n) {
             var fieldBody = access.fieldArgs().foldLeft(n.params().get(access.ref()), CallTerm::make);
             yield fieldBody
@@ -236,7 +250,7 @@ public interface TermOps extends TermView {
               .view().normalize(state).commit();
           } else {
             var subst = buildSubst(fieldDef.fullTelescope(), access.args());
-            for (var field : fieldDef.structRef.core.fields) {
+            for (var field : fieldDef.structRef.core().fields) {
               if (field == fieldDef) continue;
               var fieldArgs = field.telescope().map(Term.Param::toArg);
               var acc = new CallTerm.Access(access.of(), field.ref, access.structArgs(), fieldArgs);
@@ -259,5 +273,20 @@ public interface TermOps extends TermView {
         case Term t -> t;
       };
     }
+
+    /** Marks the redexes left after the budget is used up, see {@link ErrorTerm#stuck} */
+    private @NotNull Term stuck(@NotNull Term term) {
+      var reducible = switch (term) {
+        case ElimTerm.App app -> app.of() instanceof IntroTerm.Lambda;
+        case ElimTerm.Proj proj -> proj.of() instanceof IntroTerm.Tuple;
+        case CallTerm.Con con -> con.ref().core() != null;
+        case CallTerm.Fn fn -> fn.ref().core() != null && !fn.ref().core().modifiers.contains(Modifier.Opaque);
+        case CallTerm.Access access -> true;
+        case CallTerm.Prim prim -> true;
+        case CallTerm.Hole hole -> state.metas().containsKey(hole.ref());
+        default -> false;
+      };
+      return reducible ? ErrorTerm.stuck(term) : term;
+    }
   }
 }
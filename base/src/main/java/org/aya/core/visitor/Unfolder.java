@@ -10,6 +10,7 @@ import kala.collection.mutable.MutableSet;
 import kala.tuple.Unit;
 import org.aya.core.Matching;
 import org.aya.core.def.PrimDef;
+import org.aya.core.pat.CaseTree;
 import org.aya.core.pat.PatMatcher;
 import org.aya.core.term.CallTerm;
 import org.aya.core.term.IntroTerm;
@@ -29,6 +30,23 @@ import org.jetbrains.annotations.Nullable;
  */
 public interface Unfolder<P> extends TermFixpoint<P> {
   @Nullable TyckState state();
+
+  /** Unfolding may take forever in practice, see {@link TyckState#cancellation()} */
+  default void checkCanceled() {
+    var state = state();
+    if (state != null) {
+      state.stats().step();
+      state.cancellation().checkCanceled();
+    }
+  }
+
+  /** The result may change when something is solved or checked, see {@link org.aya.tyck.WhnfCache#blocked()} */
+  default @NotNull Term blocked(@NotNull Term term) {
+    var state = state();
+    if (state != null) state.whnfCache().blocked();
+    return term;
+  }
+
   @Contract(pure = true) static @NotNull Subst buildSubst(
     @NotNull SeqLike<Term.@NotNull Param> self,
     @NotNull SeqLike<@NotNull Arg<@NotNull Term>> args
@@ -39,20 +57,22 @@ public interface Unfolder<P> extends TermFixpoint<P> {
   }
 
   @Override @NotNull default Term visitConCall(CallTerm.@NotNull Con conCall, P p) {
-    var def = conCall.ref().core;
+    var def = conCall.ref().core();
     // Not yet type checked
-    if (def == null) return conCall;
+    if (def == null) return blocked(conCall);
+    checkCanceled();
     var args = conCall.args().map(arg -> visitArg(arg, p));
     var ulift = ulift() + conCall.ulift();
     var dropped = args.drop(conCall.head().dataArgs().size());
-    var volynskaya = tryUnfoldClauses(p, true, dropped, ulift, def.clauses);
+    var volynskaya = tryUnfoldClauses(p, def.caseTree(), true, dropped, ulift, def.clauses);
     return volynskaya != null ? volynskaya.data() : new CallTerm.Con(conCall.head(), dropped);
   }
 
   @Override default @NotNull Term visitFnCall(@NotNull CallTerm.Fn fnCall, P p) {
-    var def = fnCall.ref().core;
+    var def = fnCall.ref().core();
     // Not yet type checked
-    if (def == null) return fnCall;
+    if (def == null) return blocked(fnCall);
+    checkCanceled();
     var args = fnCall.args().map(arg -> visitArg(arg, p));
     var ulift = ulift() + fnCall.ulift();
     if (def.modifiers.contains(Modifier.Opaque)) return new CallTerm.Fn(fnCall.ref(), ulift, args);
@@ -62,7 +82,7 @@ public interface Unfolder<P> extends TermFixpoint<P> {
       return body.getLeftValue().subst(termSubst, ulift).accept(this, p).rename();
     }
     var orderIndependent = def.modifiers.contains(Modifier.Overlap);
-    var volynskaya = tryUnfoldClauses(p, orderIndependent, args, ulift, body.getRightValue());
+    var volynskaya = tryUnfoldClauses(p, def.caseTree(), orderIndependent, args, ulift, body.getRightValue());
     return volynskaya != null ? volynskaya.data().accept(this, p) : new CallTerm.Fn(fnCall.ref(), ulift, args);
   }
   private @NotNull Subst
@@ -84,13 +104,35 @@ public interface Unfolder<P> extends TermFixpoint<P> {
     var state = state();
     if (state == null) return hole;
     var metas = state.metas();
-    if (!metas.containsKey(def)) return hole;
+    if (!metas.containsKey(def)) return blocked(hole);
     var body = metas.get(def);
     var args = hole.fullArgs().map(arg -> visitArg(arg, p)).toImmutableSeq();
     var subst = checkAndBuildSubst(def.fullTelescope(), args);
     return body.subst(subst).accept(this, p);
   }
 
+  /** Uses the compiled case tree if there is one, and falls back to matching the clauses one by one. */
+  default @Nullable WithPos<Term> tryUnfoldClauses(
+    P p, @Nullable CaseTree tree, boolean orderIndependent,
+    SeqLike<Arg<Term>> args, int ulift, @NotNull ImmutableSeq<Matching> clauses
+  ) {
+    if (tree == null || !args.sizeEquals(tree.arity()))
+      return tryUnfoldClauses(p, orderIndependent, args, ulift, clauses);
+    var matched = tree.match(args);
+    if (matched == null) return null;
+    return unfoldClause(p, clauses.get(matched._1), matched._2, ulift);
+  }
+
+  private @NotNull WithPos<Term> unfoldClause(P p, @NotNull Matching matchy, @NotNull Subst subst, int ulift) {
+    var newBody = matchy.body().view()
+      .rename()
+      .subst(subst)
+      .lift(ulift)
+      .commit()
+      .accept(this, p);
+    return new WithPos<>(matchy.sourcePos(), newBody);
+  }
+
   default @Nullable WithPos<Term> tryUnfoldClauses(
     P p, boolean orderIndependent, SeqLike<Arg<Term>> args,
     int ulift, @NotNull ImmutableSeq<Matching> clauses
@@ -108,13 +150,7 @@ public interface Unfolder<P> extends TermFixpoint<P> {
       var termSubst = PatMatcher.tryBuildSubstArgs(null, matchy.patterns(), args);
       if (termSubst.isOk()) {
         subst.add(termSubst.get());
-        var newBody = matchy.body().view()
-          .rename()
-          .subst(subst)
-          .lift(ulift)
-          .commit()
-          .accept(this, p);
-        return new WithPos<>(matchy.sourcePos(), newBody);
+        return unfoldClause(p, matchy, subst, ulift);
       } else if (!orderIndependent && termSubst.getErr()) return null;
       // ^ if we have an order-dependent clause and the pattern matching is blocked,
       // we refuse to unfold the clauses (first-match semantics)
@@ -126,12 +162,12 @@ public interface Unfolder<P> extends TermFixpoint<P> {
   default @NotNull Term visitAccess(CallTerm.@NotNull Access term, P p) {
     var nevv = term.of().accept(this, p);
     var fieldRef = term.ref();
-    var fieldDef = fieldRef.core;
+    var fieldDef = fieldRef.core();
     // This is wrong, but we're gonna remove records w/ conditions anyway :wink:
     if (!(nevv instanceof IntroTerm.New n)) {
       var args = term.args().map(arg -> visitArg(arg, p));
       var fieldSubst = checkAndBuildSubst(fieldDef.fullTelescope(), args);
-      var structDef = fieldDef.structRef.core;
+      var structDef = fieldDef.structRef.core();
       var structArgsSize = term.structArgs().size();
       for (var field : structDef.fields) {
         if (field == fieldDef) continue;
@@ -38,7 +38,7 @@ public interface Shaped<T> {
       var otherType = otherData.type();
       return switch (type) {
         case CallTerm.Data lhs && otherType instanceof CallTerm.Data rhs ->
-          lhs.ref().core == rhs.ref().core;
+          lhs.ref().core() == rhs.ref().core();
         case CallTerm.Hole lhs && otherType instanceof CallTerm.Hole rhs -> {
           // same meta always have same solution
           if (lhs.ref() == rhs.ref()) yield true;
@@ -50,7 +50,7 @@ public interface Shaped<T> {
           if (lSol == null || rSol == null) yield false;
           yield lSol instanceof CallTerm.Data lData
             && rSol instanceof CallTerm.Data rData
-            && lData.ref().core == rData.ref().core;
+            && lData.ref().core() == rData.ref().core();
         }
         default -> false;
       };
@@ -87,7 +87,7 @@ public interface Shaped<T> {
     ) {
       var type = solved(state);
       if (type == null) return unsolved.get();
-      var dataDef = type.ref().core;
+      var dataDef = type.ref().core();
       var zeroOpt = dataDef.body.find(it -> it.selfTele.sizeEquals(0));
       var sucOpt = dataDef.body.find(it -> it.selfTele.sizeEquals(1));
       if (zeroOpt.isEmpty() || sucOpt.isEmpty()) throw new InternalException("shape recognition bug");
@@ -18,4 +18,8 @@ public enum NormalizeMode {
    * Normalize until the head is canonical.
    */
   WHNF,
+  /**
+   * Fully normalize by evaluation, see {@link org.aya.core.visitor.Evaluator}.
+   */
+  NBE,
 }
@@ -22,7 +22,13 @@ public final class DefVar<Core extends GenericDef, Concrete extends Decl> implem
   /** Initialized in parsing, so it might be null for deserialized user definitions. */
   public @UnknownNullability Concrete concrete;
   /** Initialized in type checking or core deserialization, so it might be null for unchecked user definitions. */
-  public @UnknownNullability Core core;
+  private @UnknownNullability Core core;
+  /**
+   * Initializes {@link #core} on the first access, for lazily deserialized definitions.
+   * It is volatile, so {@link #core} can be read without locking once it is initialized.
+   */
+  private volatile @Nullable Runnable lazyCore;
+  private boolean materializing;
   /** Initialized in the resolver or core deserialization */
   public @Nullable ImmutableSeq<String> module;
   /** Initialized in the resolver or core deserialization */
@@ -35,6 +41,33 @@ public final class DefVar<Core extends GenericDef, Concrete extends Decl> implem
   public @NotNull MutableMap<ImmutableSeq<String>, OpDecl> opDeclRename = MutableMap.create();
 
 
+  public @UnknownNullability Core core() {
+    if (lazyCore != null) materialize();
+    return core;
+  }
+
+  public void setCore(@UnknownNullability Core core) {
+    this.core = core;
+  }
+
+  /** @param materialize expected to call {@link #setCore}, it is run at most once, on the first {@link #core()} */
+  public void setLazyCore(@NotNull Runnable materialize) {
+    lazyCore = materialize;
+  }
+
+  private synchronized void materialize() {
+    var lazy = lazyCore;
+    // The definition may look at itself while being materialized
+    if (lazy == null || materializing) return;
+    materializing = true;
+    try {
+      lazy.run();
+    } finally {
+      materializing = false;
+    }
+    lazyCore = null;
+  }
+
   @Contract(pure = true) public boolean isInfix() {
     return opDecl != null && opDecl.opInfo() != null;
   }
@@ -3,32 +3,110 @@
 package org.aya.resolve.module;
 
 import kala.collection.immutable.ImmutableSeq;
-import kala.collection.mutable.MutableMap;
-import kala.collection.mutable.MutableTreeMap;
 import org.aya.concrete.stmt.QualifiedID;
 import org.aya.resolve.ResolveInfo;
 import org.aya.util.reporter.Reporter;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.*;
+
 /**
+ * Thread-safe: every module is loaded at most once, even if it is requested by several threads.
+ *
  * @author re-xyr
  */
 public class CachedModuleLoader<ML extends ModuleLoader> implements ModuleLoader {
-  private final @NotNull MutableMap<@NotNull String, ResolveInfo> cache = MutableTreeMap.of();
+  /**
+   * A module being loaded by a thread, which other threads requesting it wait for.
+   * Unrelated modules are loaded in parallel, and no lock is held during loading.
+   */
+  private record Loading(@NotNull CountDownLatch done, @NotNull CompletableFuture<@Nullable ResolveInfo> result) {}
+
+  /**
+   * The modules being loaded by the current thread, in all the caches. Waiting for a module never runs
+   * other tasks on the thread (see {@link #await}), so these are exactly the modules importing the one loaded.
+   */
+  private static final @NotNull ThreadLocal<Set<Loading>> LOADING = ThreadLocal.withInitial(HashSet::new);
+
+  private final @NotNull ConcurrentHashMap<@NotNull String, Loading> cache;
   public final @NotNull ML loader;
 
   @Override public @NotNull Reporter reporter() {
     return loader.reporter();
   }
 
-  public CachedModuleLoader(@NotNull ML loader) {
+  private CachedModuleLoader(@NotNull ML loader, @NotNull ConcurrentHashMap<@NotNull String, Loading> cache) {
     this.loader = loader;
+    this.cache = cache;
+  }
+
+  public CachedModuleLoader(@NotNull ML loader) {
+    this(loader, new ConcurrentHashMap<>());
+  }
+
+  /** @return a loader sharing the cache with this one, but loading modules with another loader (e.g. another reporter) */
+  public <L extends ModuleLoader> @NotNull CachedModuleLoader<L> share(@NotNull L loader) {
+    return new CachedModuleLoader<>(loader, cache);
   }
 
   @Override public @Nullable ResolveInfo
   load(@NotNull ImmutableSeq<String> path, @NotNull ModuleLoader recurseLoader) {
     var qualified = QualifiedID.join(path);
-    return cache.getOrPut(qualified, () -> loader.load(path, recurseLoader));
+    var chain = LOADING.get();
+    var mine = new Loading(new CountDownLatch(1), new CompletableFuture<>());
+    var loading = cache.computeIfAbsent(qualified, k -> mine);
+    if (loading != mine) {
+      // Loading a module again while loading it (cyclic imports) is left to the loader, as if it is not cached
+      if (chain.contains(loading)) return loader.load(path, recurseLoader);
+      // Imports are acyclic, so the thread loading it never waits for this thread
+      await(loading.done);
+      try {
+        return loading.result.join();
+      } catch (CompletionException e) {
+        if (e.getCause() instanceof RuntimeException cause) throw cause;
+        throw e;
+      }
+    }
+    chain.add(mine);
+    try {
+      var resolveInfo = loader.load(path, recurseLoader);
+      mine.result.complete(resolveInfo);
+      return resolveInfo;
+    } catch (Throwable e) {
+      mine.result.completeExceptionally(e);
+      throw e;
+    } finally {
+      chain.remove(mine);
+      mine.done.countDown();
+    }
+  }
+
+  /**
+   * Unlike joining a future, which may run other queued tasks on a {@link ForkJoinPool} worker
+   * (and they may request the modules this thread is loading), this only blocks the thread.
+   * The pool adds a spare worker while the thread is blocked.
+   */
+  private static void await(@NotNull CountDownLatch latch) {
+    var blocker = new ForkJoinPool.ManagedBlocker() {
+      @Override public boolean block() throws InterruptedException {
+        latch.await();
+        return true;
+      }
+
+      @Override public boolean isReleasable() {
+        return latch.getCount() == 0;
+      }
+    };
+    var interrupted = false;
+    while (true) try {
+      ForkJoinPool.managedBlock(blocker);
+      break;
+    } catch (InterruptedException e) {
+      interrupted = true;
+    }
+    if (interrupted) Thread.currentThread().interrupt();
   }
 }
@@ -11,12 +11,16 @@ import org.aya.resolve.ResolveInfo;
 import org.aya.resolve.context.ModuleContext;
 import org.aya.tyck.order.AyaOrgaTycker;
 import org.aya.tyck.order.AyaSccTycker;
+import org.aya.tyck.order.DeclCache;
+import org.aya.tyck.order.TyckProfiler;
 import org.aya.tyck.trace.Trace;
 import org.aya.util.reporter.DelayedReporter;
 import org.aya.util.reporter.Reporter;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.concurrent.Executor;
+
 /**
  * @author re-xyr
  */
@@ -35,10 +39,14 @@ public interface ModuleLoader {
   tyckModule(Trace.Builder builder, ResolveInfo resolveInfo, ModuleCallback<E> onTycked) throws E {
     var SCCs = resolveInfo.depGraph().topologicalOrder();
     var delayedReporter = new DelayedReporter(reporter());
-    var sccTycker = new AyaOrgaTycker(AyaSccTycker.create(resolveInfo, builder, delayedReporter), resolveInfo);
+    var sccTycker = new AyaOrgaTycker(AyaSccTycker.create(resolveInfo, builder, delayedReporter,
+      builder == null ? declCache() : null, profiler()), resolveInfo);
+    var executor = tyckExecutor();
     // in case we have un-messaged TyckException
     try (delayedReporter) {
-      SCCs.forEach(sccTycker::tyckSCC);
+      // traces are built sequentially
+      if (executor == null || builder != null) SCCs.forEach(sccTycker::tyckSCC);
+      else sccTycker.tyckParallel(SCCs, resolveInfo.depGraph(), executor);
     } finally {
       if (onTycked != null) onTycked.onModuleTycked(
         resolveInfo, sccTycker.sccTycker().wellTyped().toImmutableSeq());
@@ -58,6 +66,22 @@ public interface ModuleLoader {
   }
 
   @NotNull Reporter reporter();
+
+  /** @return the executor for tycking independent SCCs of a module in parallel, or null for tycking them one by one */
+  default @Nullable Executor tyckExecutor() {
+    return null;
+  }
+
+  /** @return the results of declarations checked before, or null for tycking every declaration */
+  default @Nullable DeclCache declCache() {
+    return null;
+  }
+
+  /** @return the profiler measuring the declarations, or null for not profiling */
+  default @Nullable TyckProfiler profiler() {
+    return null;
+  }
+
   @Nullable ResolveInfo load(@NotNull ImmutableSeq<@NotNull String> path, @NotNull ModuleLoader recurseLoader);
   default @Nullable ResolveInfo load(@NotNull ImmutableSeq<@NotNull String> path) {
     return load(path, this);
@@ -120,7 +120,7 @@ public record ExprResolver(
               case null -> {
                 // RefExpr is referring to a serialized core which is already tycked.
                 // Collecting tyck order for tycked terms is unnecessary, just skip.
-                assert ref.core != null; // ensure it is tycked
+                assert ref.core() != null; // ensure it is tycked
               }
               case TyckUnit unit -> addReference(unit);
             }
@@ -256,8 +256,8 @@ public interface StmtResolver {
     return context.iterate(c -> {
       var maybe = c.getUnqualifiedLocalMaybe(name, namePos);
       if (!(maybe instanceof DefVar<?, ?> defVar)) return null;
-      if (defVar.core instanceof CtorDef || defVar.concrete instanceof TeleDecl.DataCtor) return defVar;
-      if (defVar.core instanceof PrimDef || defVar.concrete instanceof TeleDecl.PrimDecl) return defVar;
+      if (defVar.core() instanceof CtorDef || defVar.concrete instanceof TeleDecl.DataCtor) return defVar;
+      if (defVar.core() instanceof PrimDef || defVar.concrete instanceof TeleDecl.PrimDecl) return defVar;
       return null;
     });
   }
@@ -161,7 +161,7 @@ public record StmtShallowResolver(
   }
 
   private @NotNull IntOption computeArgc(@NotNull DefVar<?, ?> defVar) {
-    if (defVar.core instanceof Def def) return IntOption.some(def.telescope().count(Bind::explicit));
+    if (defVar.core() instanceof Def def) return IntOption.some(def.telescope().count(Bind::explicit));
     if (defVar.concrete instanceof Decl.Telescopic tele) return IntOption.some(tele.telescope().count(Expr.Param::explicit));
     return IntOption.none();
   }
@@ -4,12 +4,14 @@ package org.aya.terck;
 
 import kala.collection.immutable.ImmutableSeq;
 import kala.collection.mutable.MutableLinkedHashMap;
+import kala.collection.mutable.MutableList;
 import kala.collection.mutable.MutableMap;
 import kala.collection.mutable.MutableSet;
-import kala.value.Var;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.ArrayDeque;
+
 /**
  * Call graph is a multi-graph; each vertex represents a definition and each edge from vertex `f`
  * to vertex `g` represents a call to `g` within `f`. The edges are labeled with call matrices,
@@ -44,29 +46,57 @@ public record CallGraph<T, P>(
     return true;
   }
 
-  /** the completion of a call graph is finding its transitive closure */
+  /**
+   * The completion of a call graph is finding its transitive closure.
+   * Only the edges added since the last time are combined with the others, see {@link #put}.
+   * The loop terminates because a matrix is never added again once it is removed by a smaller one,
+   * and there are finitely many matrices between two definitions.
+   */
   private static <T, P> @NotNull CallGraph<T, P> complete(@NotNull CallGraph<T, P> start) {
-    var oldGraph = new Var<>(start);
-    var newEdge = new Var<>(1);
-    // TODO: do we really need this fuel since we are just looking for a fixpoint?
-    var fuel = start.graph.size() + 1;
-    while (newEdge.value != 0 && fuel-- > 0) {
-      newEdge.value = 0;
-      var newGraph = new Var<>(CallGraph.<T, P>create());
-      oldGraph.value.graph.forEach((domain, codomains) -> {
-        var out = codomains.getOrNull(domain);
-        if (out != null) out.forEach(matrix -> newGraph.value.put(matrix));
+    var complete = CallGraph.<T, P>create();
+    var worklist = new ArrayDeque<CallMatrix<T, P>>();
+    start.graph.forEach((domain, codomains) -> codomains.forEach((codomain, mats) -> mats.forEach(matrix -> {
+      if (complete.put(matrix)) worklist.add(matrix);
+    })));
+    while (!worklist.isEmpty()) {
+      var matrix = worklist.poll();
+      // Combinations with a removed matrix are no smaller than the ones with the matrix replacing it
+      if (!complete.contains(matrix)) continue;
+      // Edges are copied before combining, since the sets are changed by the new edges
+      var after = complete.outgoing(matrix.codomain());
+      var before = complete.incoming(matrix.domain());
+      after.forEach(ind -> {
+        var combine = CallMatrix.combine(matrix, ind);
+        if (complete.put(combine)) worklist.add(combine);
+      });
+      before.forEach(ind -> {
+        var combine = CallMatrix.combine(ind, matrix);
+        if (complete.put(combine)) worklist.add(combine);
       });
-      oldGraph.value.graph.forEach((domain, codomains) -> codomains.forEach((codomain, mats) -> mats.forEach(matrix -> {
-        var indirect = oldGraph.value.graph.getOrNull(matrix.codomain());
-        if (indirect != null) indirect.forEach((indCodomain, indMatrices) -> indMatrices.forEach(ind -> {
-          var combine = CallMatrix.combine(matrix, ind);
-          if (newGraph.value.put(combine)) newEdge.value++;
-        }));
-      })));
-      oldGraph.value = newGraph.value;
     }
-    return oldGraph.value;
+    return complete;
+  }
+
+  private boolean contains(@NotNull CallMatrix<T, P> matrix) {
+    var codomains = graph.getOrNull(matrix.domain());
+    var set = codomains != null ? codomains.getOrNull(matrix.codomain()) : null;
+    return set != null && set.contains(matrix);
+  }
+
+  private @NotNull ImmutableSeq<CallMatrix<T, P>> outgoing(@NotNull T domain) {
+    var edges = MutableList.<CallMatrix<T, P>>create();
+    var codomains = graph.getOrNull(domain);
+    if (codomains != null) codomains.forEach((to, mats) -> edges.appendAll(mats));
+    return edges.toImmutableSeq();
+  }
+
+  private @NotNull ImmutableSeq<CallMatrix<T, P>> incoming(@NotNull T codomain) {
+    var edges = MutableList.<CallMatrix<T, P>>create();
+    graph.forEach((from, codomains) -> {
+      var mats = codomains.getOrNull(codomain);
+      if (mats != null) edges.appendAll(mats);
+    });
+    return edges.toImmutableSeq();
   }
 
   public @Nullable ImmutableSeq<Behavior.Diag<T, P>> findNonTerminating() {
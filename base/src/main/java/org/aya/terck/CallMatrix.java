@@ -3,11 +3,11 @@
 package org.aya.terck;
 
 import kala.collection.immutable.ImmutableSeq;
+import kala.collection.mutable.MutableList;
 import org.aya.core.term.CallTerm;
 import org.aya.generic.util.InternalException;
 import org.aya.pretty.doc.Doc;
 import org.aya.pretty.doc.Docile;
-import org.aya.util.ArrayUtil;
 import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
 
@@ -15,7 +15,14 @@ import org.jetbrains.annotations.NotNull;
  * A call matrix for a call `f --> g` has dimensions `arity(g) * arity(f)`.
  * Each row corresponds to one argument in the call to `g` (the codomain).
  * Each column corresponds to one formal argument of caller `f` (the domain).
+ * <p>
+ * Relations are packed row by row into <code>long</code>s, two bits each:
+ * {@link Relation#Unknown} is <code>00</code>, {@link Relation#Equal} is <code>01</code>
+ * and {@link Relation#LessThan} is <code>11</code>. The encoding of a smaller relation is
+ * a subset of the encoding of a greater one, so {@link Relation#add} is a bitwise or,
+ * and comparing or multiplying matrices handles 32 relations at a time.
  *
+ * @param bits the rows, each starting from a new <code>long</code>, see {@link #stride()}
  * @author kiva
  * @see Relation
  */
@@ -24,18 +31,26 @@ public record CallMatrix<Def, Param>(
   @NotNull Def domain, @NotNull Def codomain,
   @NotNull ImmutableSeq<Param> domainTele,
   @NotNull ImmutableSeq<Param> codomainTele,
-  @NotNull Relation[][] matrix
+  long @NotNull [] bits
 ) implements Docile {
+  private static final int PER_WORD = Long.SIZE / 2;
+  /** The lower bit of every relation, which is set iff the relation is known */
+  private static final long KNOWN = 0x5555_5555_5555_5555L;
+  private static final int UNKNOWN = 0b00, EQUAL = 0b01, LESS_THAN = 0b11;
+
   public CallMatrix(
     @NotNull CallTerm callTerm,
     @NotNull Def domain, @NotNull Def codomain,
     @NotNull ImmutableSeq<Param> domainTele,
     @NotNull ImmutableSeq<Param> codomainTele
   ) {
-    // TODO: sparse matrix?
+    // All relations are unknown initially
     this(callTerm, domain, codomain, domainTele, codomainTele,
-      new Relation[codomainTele.size()][domainTele.size()]);
-    ArrayUtil.fill(matrix, Relation.Unknown);
+      new long[codomainTele.size() * words(domainTele.size())]);
+  }
+
+  private static int words(int cols) {
+    return (cols + PER_WORD - 1) / PER_WORD;
   }
 
   public int rows() {
@@ -46,12 +61,38 @@ public record CallMatrix<Def, Param>(
     return domainTele.size();
   }
 
-  public void set(@NotNull Param domain, @NotNull Param codomain, @NotNull Relation relation) {
-    int row = codomainTele.indexOf(codomain);
-    int col = domainTele.indexOf(domain);
-    assert row != -1;
-    assert col != -1;
-    matrix[row][col] = relation;
+  /** @return the number of <code>long</code>s of a row */
+  public int stride() {
+    return words(cols());
+  }
+
+  private int code(int row, int col) {
+    var word = bits[row * stride() + col / PER_WORD];
+    return (int) (word >>> (col % PER_WORD * 2)) & 0b11;
+  }
+
+  public @NotNull Relation get(int row, int col) {
+    return switch (code(row, col)) {
+      case EQUAL -> Relation.Equal;
+      case LESS_THAN -> Relation.LessThan;
+      default -> Relation.Unknown;
+    };
+  }
+
+  /**
+   * @param row the index of the argument in the codomain telescope
+   * @param col the index of the parameter in the domain telescope
+   */
+  public void set(int row, int col, @NotNull Relation relation) {
+    assert row < rows() && col < cols();
+    var code = switch (relation) {
+      case Unknown -> UNKNOWN;
+      case Equal -> EQUAL;
+      case LessThan -> LESS_THAN;
+    };
+    var index = row * stride() + col / PER_WORD;
+    var shift = col % PER_WORD * 2;
+    bits[index] = bits[index] & ~(0b11L << shift) | ((long) code << shift);
   }
 
   /**
@@ -62,11 +103,9 @@ public record CallMatrix<Def, Param>(
     if (this.domain != other.domain || this.codomain != other.codomain)
       throw new IllegalArgumentException("Cannot compare unrelated call matrices");
     if (this == other) return Relation.Equal;
-    for (int i = 0; i < rows(); i++)
-      for (int j = 0; j < cols(); j++) {
-        if (!this.matrix[i][j].lessThanOrEqual(other.matrix[i][j]))
-          return Relation.Unknown;
-      }
+    // A relation is less than or equal to another iff its bits are a subset of the other's
+    for (int i = 0; i < bits.length; i++)
+      if ((bits[i] & ~other.bits[i]) != 0) return Relation.Unknown;
     return Relation.LessThan;
   }
 
@@ -85,16 +124,48 @@ public record CallMatrix<Def, Param>(
     var BA = new CallMatrix<>(B.callTerm, A.domain, B.codomain,
       A.domainTele, B.codomainTele);
 
-    for (int i = 0; i < BA.rows(); i++)
-      for (int j = 0; j < BA.cols(); j++)
-        for (int k = 0; k < B.cols(); k++)
-          BA.matrix[i][j] = BA.matrix[i][j].add(B.matrix[i][k].mul(A.matrix[k][j]));
+    // Row i of BA is the sum of the rows k of A multiplied by B[i][k]
+    var stride = BA.stride();
+    for (int i = 0; i < BA.rows(); i++) {
+      var to = i * stride;
+      for (int k = 0; k < B.cols(); k++) {
+        var from = k * stride;
+        switch (B.code(i, k)) {
+          // Equal * r = r
+          case EQUAL -> {
+            for (int w = 0; w < stride; w++) BA.bits[to + w] |= A.bits[from + w];
+          }
+          // LessThan * r = LessThan if r is known
+          case LESS_THAN -> {
+            for (int w = 0; w < stride; w++) {
+              var known = A.bits[from + w] & KNOWN;
+              BA.bits[to + w] |= known | (known << 1);
+            }
+          }
+          // Unknown * r = Unknown, which is the zero of addition
+          default -> {}
+        }
+      }
+    }
     return BA;
   }
 
+  /** Call matrices are compared by {@link #compare}, so they are only equal to themselves. */
+  @Override public boolean equals(Object o) {
+    return this == o;
+  }
+
+  @Override public int hashCode() {
+    return System.identityHashCode(this);
+  }
+
   public @NotNull Doc toDoc() {
-    return Doc.vcat(ImmutableSeq.from(matrix).map(
-      row -> Doc.stickySep(ImmutableSeq.from(row)
-        .map(col -> Doc.plain(col.text)))));
+    var rows = MutableList.<Doc>create();
+    for (int i = 0; i < rows(); i++) {
+      var row = MutableList.<Doc>create();
+      for (int j = 0; j < cols(); j++) row.append(Doc.plain(get(i, j).text));
+      rows.append(Doc.stickySep(row));
+    }
+    return Doc.vcat(rows);
   }
 }
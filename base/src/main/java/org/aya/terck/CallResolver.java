@@ -32,22 +32,25 @@ public record CallResolver(
 
   private void resolveCall(@NotNull CallTerm callTerm, CallGraph<Def, Term.Param> graph) {
     if (!(callTerm.ref() instanceof DefVar<?, ?> defVar)) return;
-    var callee = ((Def) defVar.core);
+    var callee = ((Def) defVar.core());
     if (!targets.contains(callee)) return;
     // TODO: reduce arguments? I guess no. see https://github.com/agda/agda/issues/2403
     var matrix = new CallMatrix<>(callTerm, caller, callee, caller.telescope, callee.telescope());
-    fillMatrix(callTerm, callee, matrix);
+    fillMatrix(callTerm, matrix);
     graph.put(matrix);
   }
 
-  private void fillMatrix(@NotNull CallTerm callTerm, @NotNull Def callee, CallMatrix<Def, Term.Param> matrix) {
+  private void fillMatrix(@NotNull CallTerm callTerm, CallMatrix<Def, Term.Param> matrix) {
     var matching = currentMatching.get();
     if (matching == null) return;
-    for (var domThing : matching.patterns().zipView(caller.telescope)) {
-      for (var codomThing : callTerm.args().zipView(callee.telescope())) {
-        var relation = compare(codomThing._1.term(), domThing._1);
-        matrix.set(domThing._2, codomThing._2, relation);
-      }
+    var patterns = matching.patterns();
+    var args = callTerm.args();
+    var cols = Math.min(patterns.size(), matrix.cols());
+    var rows = Math.min(args.size(), matrix.rows());
+    for (int col = 0; col < cols; col++) {
+      var pat = patterns.get(col);
+      for (int row = 0; row < rows; row++)
+        matrix.set(row, col, compare(args.get(row).term(), pat));
     }
   }
 
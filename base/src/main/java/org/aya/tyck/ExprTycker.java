@@ -14,6 +14,7 @@ import org.aya.concrete.Expr;
 import org.aya.concrete.stmt.Decl;
 import org.aya.concrete.stmt.TeleDecl;
 import org.aya.core.def.*;
+import org.aya.core.ops.HashCons;
 import org.aya.core.repr.AyaShape;
 import org.aya.core.term.*;
 import org.aya.core.visitor.Subst;
@@ -117,7 +118,7 @@ public final class ExprTycker extends Tycker {
         var missing = MutableList.<Var>create();
         var conFields = newExpr.fields();
 
-        for (var defField : structRef.core.fields) {
+        for (var defField : structRef.core().fields) {
           var fieldRef = defField.ref();
           var conFieldOpt = conFields.find(t -> t.name().data().equals(fieldRef.name()));
           if (conFieldOpt.isEmpty()) {
@@ -135,7 +136,7 @@ public final class ExprTycker extends Tycker {
           conField.resolvedField().set(fieldRef);
           conFields = conFields.dropWhile(t -> t == conField);
           var type = Def.defType(fieldRef).subst(subst, structCall.ulift());
-          var telescope = fieldRef.core.selfTele.map(term -> term.subst(subst, structCall.ulift()));
+          var telescope = fieldRef.core().selfTele.map(term -> term.subst(subst, structCall.ulift()));
           var bindings = conField.bindings();
           if (telescope.sizeLessThan(bindings.size())) {
             // TODO: Maybe it's better for field to have a SourcePos?
@@ -171,15 +172,15 @@ public final class ExprTycker extends Tycker {
             var fieldName = sp.justName();
             if (!(projectee.type instanceof CallTerm.Struct structCall))
               return fail(struct, ErrorTerm.unexpected(projectee.type), BadTypeError.structAcc(state, struct, fieldName, projectee.type));
-            var structCore = structCall.ref().core;
+            var structCore = structCall.ref().core();
             if (structCore == null) throw new UnsupportedOperationException("TODO");
             // TODO[ice]: instantiate the type
-            if (!(proj.resolvedIx() instanceof DefVar<?, ?> defVar && defVar.core instanceof FieldDef field))
+            if (!(proj.resolvedIx() instanceof DefVar<?, ?> defVar && defVar.core() instanceof FieldDef field))
               return fail(proj, new FieldProblem.UnknownField(proj, fieldName));
             var fieldRef = field.ref();
 
             var structSubst = Unfolder.buildSubst(structCore.telescope(), structCall.args());
-            var tele = Term.Param.subst(fieldRef.core.selfTele, structSubst, 0);
+            var tele = Term.Param.subst(fieldRef.core().selfTele, structSubst, 0);
             var teleRenamed = tele.map(Term.Param::rename);
             var access = new CallTerm.Access(projectee.wellTyped, fieldRef,
               structCall.args(), teleRenamed.map(Term.Param::toArg));
@@ -202,7 +203,7 @@ public final class ExprTycker extends Tycker {
         var argLicit = argument.explicit();
         if (fTy instanceof CallTerm.Hole fTyHole) {
           // [ice] Cannot 'generatePi' because 'generatePi' takes the current contextTele,
-          // but it may contain variables absent from the 'contextTele' of 'fTyHole.ref.core'
+          // but it may contain variables absent from the 'contextTele' of 'fTyHole.ref.core()'
           var pi = fTyHole.asPi(argLicit);
           unifier(appE.sourcePos(), Ordering.Eq).compare(fTy, pi, null);
           fTy = fTy.normalize(state, NormalizeMode.WHNF);
@@ -365,7 +366,7 @@ public final class ExprTycker extends Tycker {
           else yield fail(expr, new NotAnIntervalError(lit.sourcePos(), lit.integer()));
         }
         if (ty instanceof CallTerm.Data dataCall) {
-          var data = dataCall.ref().core;
+          var data = dataCall.ref().core();
           var shape = shapeFactory.find(data);
           if (shape.isDefined()) yield new Result(new LitTerm.ShapedInt(lit.integer(), shape.get(), dataCall), term);
         }
@@ -381,7 +382,7 @@ public final class ExprTycker extends Tycker {
   private void traceExit(Result result, @NotNull Expr expr) {
     var frozen = LazyValue.of(() -> result.freezeHoles(state));
     tracing(builder -> {
-      builder.append(new Trace.TyckT(frozen.get(), expr.sourcePos()));
+      builder.append(() -> new Trace.TyckT(frozen.get(), expr.sourcePos()));
       builder.reduce();
     });
     // assert validate(result.wellTyped);
@@ -411,7 +412,16 @@ public final class ExprTycker extends Tycker {
     @NotNull AyaShape.Factory shapeFactory,
     @NotNull Reporter reporter, Trace.@Nullable Builder traceBuilder
   ) {
-    super(reporter, new TyckState(primFactory));
+    this(primFactory, shapeFactory, reporter, traceBuilder, null);
+  }
+
+  public ExprTycker(
+    @NotNull PrimDef.Factory primFactory,
+    @NotNull AyaShape.Factory shapeFactory,
+    @NotNull Reporter reporter, Trace.@Nullable Builder traceBuilder,
+    @Nullable HashCons hashCons
+  ) {
+    super(reporter, new TyckState(primFactory), hashCons);
     this.traceBuilder = traceBuilder;
     this.shapeFactory = shapeFactory;
   }
@@ -421,7 +431,7 @@ public final class ExprTycker extends Tycker {
   }
 
   public @NotNull Result inherit(@NotNull Expr expr, @NotNull Term type) {
-    tracing(builder -> builder.shift(new Trace.ExprT(expr, type.freezeHoles(state))));
+    tracing(builder -> builder.shift(() -> new Trace.ExprT(expr, type.freezeHoles(state))));
     Result result;
     if (type instanceof FormTerm.Pi pi && !pi.param().explicit() && needImplicitParamIns(expr)) {
       var implicitParam = new Term.Param(new LocalVar(Constants.ANONYMOUS_PREFIX), pi.param().type(), false);
@@ -474,22 +484,22 @@ public final class ExprTycker extends Tycker {
 
   @SuppressWarnings("unchecked")
   private @NotNull Result inferRef(@NotNull SourcePos pos, @NotNull DefVar<?, ?> var) {
-    if (var.core instanceof FnDef || var.concrete instanceof TeleDecl.FnDecl) {
+    if (var.core() instanceof FnDef || var.concrete instanceof TeleDecl.FnDecl) {
       return defCall(pos, (DefVar<FnDef, TeleDecl.FnDecl>) var, CallTerm.Fn::new);
-    } else if (var.core instanceof PrimDef) {
+    } else if (var.core() instanceof PrimDef) {
       return defCall(pos, (DefVar<PrimDef, TeleDecl.PrimDecl>) var, CallTerm.Prim::new);
-    } else if (var.core instanceof DataDef || var.concrete instanceof TeleDecl.DataDecl) {
+    } else if (var.core() instanceof DataDef || var.concrete instanceof TeleDecl.DataDecl) {
       return defCall(pos, (DefVar<DataDef, TeleDecl.DataDecl>) var, CallTerm.Data::new);
-    } else if (var.core instanceof StructDef || var.concrete instanceof TeleDecl.StructDecl) {
+    } else if (var.core() instanceof StructDef || var.concrete instanceof TeleDecl.StructDecl) {
       return defCall(pos, (DefVar<StructDef, TeleDecl.StructDecl>) var, CallTerm.Struct::new);
-    } else if (var.core instanceof CtorDef || var.concrete instanceof TeleDecl.DataDecl.DataCtor) {
+    } else if (var.core() instanceof CtorDef || var.concrete instanceof TeleDecl.DataDecl.DataCtor) {
       var conVar = (DefVar<CtorDef, TeleDecl.DataDecl.DataCtor>) var;
       var tele = Def.defTele(conVar);
       var type = FormTerm.Pi.make(tele, Def.defResult(conVar));
       var telescopes = CtorDef.telescopes(conVar).rename();
       var body = telescopes.toConCall(conVar);
       return new Result(IntroTerm.Lambda.make(telescopes.params(), body), type);
-    } else if (var.core instanceof FieldDef || var.concrete instanceof TeleDecl.StructField) {
+    } else if (var.core() instanceof FieldDef || var.concrete instanceof TeleDecl.StructField) {
       // the code runs to here because we are tycking a StructField in a StructDecl
       // there should be two-stage check for this case:
       //  - check the definition's correctness: happens here
@@ -497,7 +507,7 @@ public final class ExprTycker extends Tycker {
       var field = (DefVar<FieldDef, TeleDecl.StructField>) var;
       return new Result(new RefTerm.Field(field, 0), Def.defType(field));
     } else {
-      final var msg = "Def var `" + var.name() + "` has core `" + var.core + "` which we don't know.";
+      final var msg = "Def var `" + var.name() + "` has core `" + var.core() + "` which we don't know.";
       throw new InternalException(msg);
     }
   }
@@ -509,7 +519,7 @@ public final class ExprTycker extends Tycker {
     // unbound these abstracted variables
     Term body = function.make(defVar, 0, teleRenamed.map(Term.Param::toArg));
     var type = FormTerm.Pi.make(tele, Def.defResult(defVar));
-    if (defVar.core instanceof FnDef fn && fn.modifiers.contains(Modifier.Inline)) {
+    if (defVar.core() instanceof FnDef fn && fn.modifiers.contains(Modifier.Inline)) {
       body = body.normalize(state, NormalizeMode.WHNF);
     }
     return new Result(IntroTerm.Lambda.make(teleRenamed, body), type);
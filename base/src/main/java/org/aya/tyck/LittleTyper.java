@@ -34,9 +34,9 @@ public record LittleTyper(@NotNull TyckState state, @NotNull LocalCtx localCtx)
       case CallTerm.Access access -> {
         var callRaw = term(access.of()).normalize(state, NormalizeMode.WHNF);
         if (!(callRaw instanceof CallTerm.Struct call)) yield ErrorTerm.typeOf(access);
-        var core = access.ref().core;
+        var core = access.ref().core();
         var subst = Unfolder.buildSubst(core.telescope(), access.fieldArgs())
-          .add(Unfolder.buildSubst(call.ref().core.telescope(), access.structArgs()));
+          .add(Unfolder.buildSubst(call.ref().core().telescope(), access.structArgs()));
         yield core.result().subst(subst);
       }
       case FormTerm.Sigma sigma -> {
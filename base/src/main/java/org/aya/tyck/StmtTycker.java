@@ -52,6 +52,8 @@ public record StmtTycker(
   private <S extends Decl, D extends GenericDef> D
   traced(@NotNull S yeah, ExprTycker p, @NotNull BiFunction<S, ExprTycker, D> f) {
     tracing(builder -> builder.shift(new Trace.DeclT(yeah.ref(), yeah.sourcePos())));
+    // Definitions checked in the meantime may unfold now
+    p.state.whnfCache().advance();
     var parent = p.localCtx;
     p.localCtx = parent.deriveMap();
     var r = f.apply(yeah, p);
@@ -106,7 +108,7 @@ public record StmtTycker(
         var body = decl.body.map(clause -> (CtorDef) traced(clause, tycker, this::tyck));
         yield new DataDef(decl.ref, signature.param(), decl.ulift, body);
       }
-      case TeleDecl.PrimDecl decl -> decl.ref.core;
+      case TeleDecl.PrimDecl decl -> decl.ref.core();
       case TeleDecl.StructDecl decl -> {
         assert signature != null;
         var body = decl.fields.map(field -> (FieldDef) traced(field, tycker, this::tyck));
@@ -114,7 +116,7 @@ public record StmtTycker(
       }
       case TeleDecl.DataCtor ctor -> {
         // TODO[ice]: remove this hack
-        if (ctor.ref.core != null) yield ctor.ref.core;
+        if (ctor.ref.core() != null) yield ctor.ref.core();
         assert signature == ctor.signature && signature != null; // already handled in the entrance of this method
         var dataRef = ctor.dataRef;
         var dataConcrete = dataRef.concrete;
@@ -139,7 +141,7 @@ public record StmtTycker(
       }
       case TeleDecl.StructField field -> {
         // TODO[ice]: remove this hack
-        if (field.ref.core != null) yield field.ref.core;
+        if (field.ref.core() != null) yield field.ref.core();
         assert signature == field.signature && signature != null; // already handled in the entrance of this method
         var structRef = field.structRef;
         var structSig = structRef.concrete.signature;
@@ -207,7 +209,7 @@ public record StmtTycker(
       }
       case TeleDecl.PrimDecl prim -> {
         assert tycker.localCtx.isEmpty();
-        var core = prim.ref.core;
+        var core = prim.ref.core();
         var tele = tele(tycker, prim.telescope, -1);
         if (tele.isNotEmpty()) {
           // ErrorExpr on prim.result means the result type is unspecified.
@@ -12,7 +12,6 @@ import org.aya.core.def.PrimDef;
 import org.aya.core.term.CallTerm;
 import org.aya.core.term.Term;
 import org.aya.core.visitor.TermConsumer;
-import org.aya.core.visitor.VarConsumer;
 import org.aya.generic.AyaDocile;
 import org.aya.pretty.doc.Doc;
 import org.aya.tyck.env.LocalCtx;
@@ -20,24 +19,45 @@ import org.aya.tyck.error.HoleProblem;
 import org.aya.tyck.trace.Trace;
 import org.aya.tyck.unify.DefEq;
 import org.aya.util.Ordering;
+import org.aya.util.cancel.CancellationIndicator;
 import org.aya.util.distill.DistillerOptions;
 import org.aya.util.error.SourcePos;
-import org.aya.util.error.WithPos;
 import org.aya.util.reporter.Reporter;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
 /**
  * Currently we only deal with ambiguous equations (so no 'stuck' equations).
+ *
+ * @param pending      the equations in <code>eqns</code>, compared by identity
+ * @param blocked      the equations mentioning each meta, filled by {@link #addEqn}.
+ *                     An equation is retried when one of its metas is solved,
+ *                     so equations unrelated to the solution are never visited.
+ * @param woken        the solved metas with equations blocked on them, see {@link #solve}
+ * @param cancellation checked by the loops of normalization and unification,
+ *                     so the language server can give up a long-running computation
  */
 public record TyckState(
   @NotNull MutableList<Eqn> eqns,
-  @NotNull MutableList<WithPos<Meta>> activeMetas,
+  @NotNull Set<Eqn> pending,
+  @NotNull MutableMap<@NotNull Meta, @NotNull MutableList<Eqn>> blocked,
+  @NotNull MutableList<@NotNull Meta> woken,
   @NotNull MutableMap<@NotNull Meta, @NotNull Term> metas,
-  @NotNull PrimDef.Factory primFactory
+  @NotNull PrimDef.Factory primFactory,
+  @NotNull WhnfCache whnfCache,
+  @NotNull CancellationIndicator cancellation,
+  @NotNull TyckStats stats
 ) {
   public TyckState(@NotNull PrimDef.Factory primFactory) {
-    this(MutableList.create(), MutableList.create(), MutableMap.create(), primFactory);
+    this(primFactory, CancellationIndicator.NEVER);
+  }
+
+  public TyckState(@NotNull PrimDef.Factory primFactory, @NotNull CancellationIndicator cancellation) {
+    this(MutableList.create(), Collections.newSetFromMap(new IdentityHashMap<>()), MutableMap.create(), MutableList.create(), MutableMap.create(), primFactory, new WhnfCache(), cancellation, new TyckStats());
   }
 
   /**
@@ -50,26 +70,36 @@ public record TyckState(
     new DefEq(eqn.cmp, reporter, !trying, trying, tracer, this, eqn.pos, eqn.localCtx).checkEqn(eqn);
   }
 
-  /** @return true if <code>this.eqns</code> and <code>this.activeMetas</code> are mutated. */
+  /**
+   * Retries the equations blocked on the solved metas, until no more metas are solved by them.
+   *
+   * @return true if <code>this.eqns</code> is mutated.
+   */
   public boolean simplify(
     @NotNull Reporter reporter, @Nullable Trace.Builder tracer
   ) {
-    var removingMetas = MutableList.<WithPos<Meta>>create();
-    for (var activeMeta : activeMetas) {
-      if (metas.containsKey(activeMeta.data())) {
-        eqns.filterInPlace(eqn -> {
-          var usageCounter = new VarConsumer.UsageCounter(activeMeta.data());
-          eqn.accept(usageCounter, Unit.unit());
-          if (usageCounter.usageCount() > 0) {
-            solveEqn(reporter, tracer, eqn, true);
-            return false;
-          } else return true;
-        });
-        removingMetas.append(activeMeta);
+    if (woken.isEmpty()) return false;
+    // Solving an equation may solve more metas, which are appended to the worklist
+    while (woken.isNotEmpty()) {
+      var meta = woken.last();
+      woken.removeLast();
+      var blocking = blocked.getOrNull(meta);
+      if (blocking == null) continue;
+      blocked.remove(meta);
+      // An equation blocked on several metas may be solved already
+      for (var eqn : blocking) {
+        if (pending.remove(eqn)) solveEqn(reporter, tracer, eqn, true);
       }
     }
-    activeMetas.filterNotInPlace(removingMetas::contains);
-    return removingMetas.isNotEmpty();
+    eqns.filterInPlace(pending::contains);
+    return true;
+  }
+
+  /** Records the solution of a meta, which wakes up the equations blocked on it. */
+  public void solve(@NotNull Meta meta, @NotNull Term solution) {
+    metas.put(meta, solution);
+    whnfCache.advance();
+    if (blocked.containsKey(meta)) woken.append(meta);
   }
 
   public void solveMetas(@NotNull Reporter reporter, @Nullable Trace.Builder traceBuilder) {
@@ -87,16 +117,22 @@ public record TyckState(
 
   public void addEqn(@NotNull Eqn eqn) {
     eqns.append(eqn);
-    var currentActiveMetas = activeMetas.size();
+    pending.add(eqn);
+    var unsolved = new boolean[]{false};
     eqn.accept(new TermConsumer<>() {
       @Override public Unit visitHole(CallTerm.@NotNull Hole term, Unit unit) {
         var ref = term.ref();
-        if (!metas.containsKey(ref))
-          activeMetas.append(new WithPos<>(eqn.pos, ref));
-        return unit;
+        var solved = metas.containsKey(ref);
+        unsolved[0] |= !solved;
+        // A solved meta wakes up its equations only if the solution is not handled yet
+        if (!solved || woken.contains(ref)) {
+          var blocking = blocked.getOrPut(ref, MutableList::create);
+          if (blocking.isEmpty() || blocking.last() != eqn) blocking.append(eqn);
+        }
+        return TermConsumer.super.visitHole(term, unit);
       }
     }, Unit.unit());
-    assert activeMetas.sizeGreaterThan(currentActiveMetas) : "Adding a bad equation";
+    assert unsolved[0] : "Adding a bad equation";
   }
 
   public record Eqn(
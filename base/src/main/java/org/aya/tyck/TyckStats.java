@@ -0,0 +1,38 @@
+// Copyright (c) 2020-2022 Yinsen (Tesla) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.tyck;
+
+import org.aya.tyck.order.TyckProfiler;
+
+/**
+ * Counts the work done with a {@link TyckState}, which is cheap enough to be always on.
+ * Not thread-safe, like the state itself.
+ *
+ * @see TyckProfiler
+ */
+public final class TyckStats {
+  private long steps = 0;
+  private long compares = 0;
+
+  /** Called for every step of normalization, where the cancellation is checked as well */
+  public void step() {
+    steps++;
+  }
+
+  /** Called for every comparison of the unifier */
+  public void compare() {
+    compares++;
+  }
+
+  public long steps() {
+    return steps;
+  }
+
+  public long compares() {
+    return compares;
+  }
+
+  @Override public String toString() {
+    return "Tyck stats: " + steps + " normalization steps, " + compares + " comparisons";
+  }
+}
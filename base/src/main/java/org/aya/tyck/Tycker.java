@@ -2,21 +2,32 @@
 // Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
 package org.aya.tyck;
 
+import org.aya.core.ops.HashCons;
 import org.aya.core.term.Term;
 import org.aya.core.visitor.Zonker;
 import org.aya.util.reporter.Reporter;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 public abstract class Tycker {
   public final @NotNull Reporter reporter;
   public final @NotNull TyckState state;
+  /** If present, zonked terms are shared through this table. */
+  private final @Nullable HashCons hashCons;
 
   protected Tycker(@NotNull Reporter reporter, @NotNull TyckState state) {
+    this(reporter, state, null);
+  }
+
+  protected Tycker(@NotNull Reporter reporter, @NotNull TyckState state, @Nullable HashCons hashCons) {
     this.reporter = reporter;
     this.state = state;
+    this.hashCons = hashCons;
   }
 
   public @NotNull Term zonk(@NotNull Term term) {
-    return Zonker.make(term, this).commit();
+    var zonker = Zonker.make(term, this);
+    if (hashCons == null) return zonker.commit();
+    return zonker.postMap(hashCons::share).commit();
   }
 }
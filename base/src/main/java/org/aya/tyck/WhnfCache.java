@@ -0,0 +1,110 @@
+// Copyright (c) 2020-2022 Yinsen (Tesla) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.tyck;
+
+import org.aya.core.term.Term;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+
+/**
+ * Memoized weak head normal forms of a {@link TyckState}, keyed by the identity of terms,
+ * with least-recently-used eviction.
+ * <p>
+ * A reduction blocked on something unknown, like an unsolved meta or a definition not checked yet,
+ * reports it with {@link #blocked()}, and its result is only valid in the current generation.
+ * The generation is advanced when something may be unblocked, see {@link #advance()}.
+ * Other results never change, so they are kept across generations.
+ */
+public final class WhnfCache {
+  public static final int DEFAULT_CAPACITY = 4096;
+  /** The generation of results not blocked on anything */
+  private static final long STABLE = -1;
+  private final @NotNull LinkedHashMap<Key, Entry> cache;
+  private long generation = 0;
+  private long blocked = 0;
+  private long hits = 0;
+  private long misses = 0;
+  private long evictions = 0;
+
+  public WhnfCache(int capacity) {
+    cache = new LinkedHashMap<>(16, 0.75f, true) {
+      @Override protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+        if (size() <= capacity) return false;
+        evictions++;
+        return true;
+      }
+    };
+  }
+
+  public WhnfCache() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  public @NotNull Term whnf(@NotNull Term term, @NotNull UnaryOperator<Term> normalizer) {
+    var key = new Key(term);
+    var cached = cache.get(key);
+    if (cached != null && (cached.generation == STABLE || cached.generation == generation)) {
+      hits++;
+      // The term using this result is blocked as well
+      if (cached.generation != STABLE) blocked++;
+      return cached.whnf;
+    }
+    misses++;
+    var blockedBefore = blocked;
+    // The normalizer may use this cache as well, so do not use computeIfAbsent
+    var whnf = normalizer.apply(term);
+    var entry = new Entry(whnf, blocked == blockedBefore ? STABLE : generation);
+    cache.put(key, entry);
+    // A weak head normal form is its own weak head normal form
+    if (whnf != term) cache.put(new Key(whnf), entry);
+    return whnf;
+  }
+
+  /** Called by a reduction blocked on an unsolved meta or a definition not checked yet */
+  public void blocked() {
+    blocked++;
+  }
+
+  /**
+   * Called when a meta or a meta pattern is solved, or a definition is checked,
+   * which makes the results of blocked reductions outdated.
+   */
+  public void advance() {
+    generation++;
+  }
+
+  public void invalidate() {
+    cache.clear();
+  }
+
+  public long hits() {
+    return hits;
+  }
+
+  public long misses() {
+    return misses;
+  }
+
+  public long evictions() {
+    return evictions;
+  }
+
+  @Override public String toString() {
+    return "WHNF cache: " + hits + " hits, " + misses + " misses, " + evictions + " evictions";
+  }
+
+  private record Entry(@NotNull Term whnf, long generation) {}
+
+  private record Key(@NotNull Term term) {
+    @Override public boolean equals(Object o) {
+      return o instanceof Key key && term == key.term;
+    }
+
+    @Override public int hashCode() {
+      return System.identityHashCode(term);
+    }
+  }
+}
@@ -0,0 +1,106 @@
+// Copyright (c) 2020-2022 Yinsen (Tesla) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.tyck.env;
+
+import kala.collection.SeqView;
+import kala.collection.immutable.ImmutableSeq;
+import kala.collection.mutable.MutableList;
+import org.aya.core.term.Term;
+import org.aya.generic.Arg;
+import org.aya.ref.LocalVar;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.function.Supplier;
+
+/**
+ * The bindings of a {@link LocalCtx} at some point, which never change. It is a persistent cons list:
+ * binding a variable conses it onto the snapshot of the level, and the snapshot of a level ends with
+ * the snapshot of its parent. A context keeps the snapshot of its current bindings, so taking a snapshot
+ * is a pointer, and unbinding the latest variable (see {@link LocalCtx#with}) goes back to the previous
+ * snapshot. Holes created in the same snapshot share their context telescope and context arguments,
+ * which are only built once per snapshot.
+ *
+ * @see LocalCtx#freshHole
+ */
+public final class CtxSnapshot {
+  /** The latest binding of the level, or null if the level is empty */
+  private final @Nullable Term.Param param;
+  /** The snapshot of the same level before {@link #param} is bound */
+  private final @Nullable CtxSnapshot prev;
+  /** The snapshot of the parent level, compared by identity */
+  private final @Nullable CtxSnapshot parent;
+  /** The number of the bindings of the level */
+  private final int size;
+  /** Caches, which do not change what the snapshot stands for */
+  private @Nullable ImmutableSeq<Term.Param> tele;
+  private @Nullable ImmutableSeq<Arg<Term>> args;
+
+  private CtxSnapshot(@Nullable Term.Param param, @Nullable CtxSnapshot prev, @Nullable CtxSnapshot parent) {
+    this.param = param;
+    this.prev = prev;
+    this.parent = parent;
+    this.size = prev == null ? 0 : prev.size + 1;
+  }
+
+  /** @return the snapshot of an empty level */
+  static @NotNull CtxSnapshot empty(@Nullable CtxSnapshot parent) {
+    return new CtxSnapshot(null, null, parent);
+  }
+
+  /** @return the snapshot of a level with the bindings, in the order they are bound */
+  static @NotNull CtxSnapshot of(@NotNull Iterable<Term.Param> bindings, @Nullable CtxSnapshot parent) {
+    var snapshot = empty(parent);
+    for (var param : bindings) snapshot = snapshot.bind(param);
+    return snapshot;
+  }
+
+  @NotNull CtxSnapshot bind(@NotNull Term.Param param) {
+    return new CtxSnapshot(param, this, parent);
+  }
+
+  /**
+   * Unbinding the latest variable, which is what {@link LocalCtx#with} does, goes back to the previous snapshot,
+   * so the holes created before and after share the snapshot.
+   *
+   * @param size     the number of the bindings of the level after the variables are removed
+   * @param bindings the bindings of the level after the variables are removed, in the order they are bound
+   */
+  @NotNull CtxSnapshot remove(
+    @NotNull SeqView<LocalVar> vars, int size,
+    @NotNull Supplier<? extends Iterable<Term.Param>> bindings
+  ) {
+    if (size == this.size) return this;
+    if (prev != null && param != null && prev.size == size && vars.size() == 1 && param.ref().equals(vars.first()))
+      return prev;
+    return of(bindings.get(), parent);
+  }
+
+  @Nullable CtxSnapshot parent() {
+    return parent;
+  }
+
+  /** @return the same bindings of this level on another snapshot of the parent */
+  @NotNull CtxSnapshot rebase(@Nullable CtxSnapshot parent) {
+    return parent == this.parent ? this : of(local(), parent);
+  }
+
+  /** @return the bindings of this level, in the order they are bound */
+  private @NotNull ImmutableSeq<Term.Param> local() {
+    var local = MutableList.<Term.Param>create();
+    for (var snapshot = this; snapshot.param != null; snapshot = snapshot.prev) local.append(snapshot.param);
+    return local.view().reversed().toImmutableSeq();
+  }
+
+  /** @return the bindings of this level followed by the ones of the parents */
+  public @NotNull ImmutableSeq<Term.Param> tele() {
+    if (tele == null) tele = parent == null ? local() : local().concat(parent.tele());
+    return tele;
+  }
+
+  /** @return the telescope as arguments, see {@link Term.Param#toArg()} */
+  public @NotNull ImmutableSeq<Arg<Term>> args() {
+    if (args == null) args = tele().map(Term.Param::toArg);
+    return args;
+  }
+}
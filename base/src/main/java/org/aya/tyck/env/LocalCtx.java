@@ -32,9 +32,9 @@ public sealed interface LocalCtx permits MapLocalCtx, SeqLocalCtx {
   }
   default @NotNull Tuple2<CallTerm.Hole, Term>
   freshHole(@Nullable Term type, @NotNull String name, @NotNull SourcePos sourcePos) {
-    var ctxTele = extract();
-    var meta = Meta.from(ctxTele, name, type, sourcePos);
-    var hole = new CallTerm.Hole(meta, 0, ctxTele.map(Term.Param::toArg), meta.telescope.map(Term.Param::toArg));
+    var snapshot = snapshot();
+    var meta = Meta.from(snapshot.tele(), name, type, sourcePos);
+    var hole = new CallTerm.Hole(meta, 0, snapshot.args(), meta.telescope.map(Term.Param::toArg));
     return Tuple2.of(hole, IntroTerm.Lambda.make(meta.telescope, hole));
   }
   default <T> T with(@NotNull Term.Param param, @NotNull Supplier<T> action) {
@@ -61,14 +61,9 @@ public sealed interface LocalCtx permits MapLocalCtx, SeqLocalCtx {
       remove(SeqView.of(var));
     }
   }
+  /** @return the bindings of this level followed by the ones of the parents, shared by the same snapshot */
   default @NotNull ImmutableSeq<Term.Param> extract() {
-    var ctx = MutableList.<Term.Param>create();
-    var map = this;
-    while (map != null) {
-      map.extractToLocal(ctx);
-      map = map.parent();
-    }
-    return ctx.toImmutableSeq();
+    return snapshot().tele();
   }
   @Contract(mutates = "param1") void extractToLocal(@NotNull MutableList<Term.Param> dest);
   @Contract(pure = true) default @NotNull Term get(@NotNull LocalVar var) {
@@ -94,4 +89,6 @@ public sealed interface LocalCtx permits MapLocalCtx, SeqLocalCtx {
     return new SeqLocalCtx(MutableList.create(), this);
   }
   @Nullable LocalCtx parent();
+  /** @return the current bindings, which never change, see {@link CtxSnapshot} */
+  @NotNull CtxSnapshot snapshot();
 }
@@ -3,27 +3,58 @@
 package org.aya.tyck.env;
 
 import kala.collection.SeqView;
-import kala.collection.mutable.MutableList;
 import kala.collection.mutable.MutableLinkedHashMap;
+import kala.collection.mutable.MutableList;
 import kala.collection.mutable.MutableMap;
 import org.aya.core.term.Term;
 import org.aya.ref.LocalVar;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.Objects;
+
 /**
+ * Equality only depends on the bindings and the parent, like a record, not on the snapshot.
+ *
  * @author re-xyr, ice1000
  */
-public record MapLocalCtx(
-  @NotNull MutableMap<LocalVar, Term> localMap,
-  @Override @Nullable LocalCtx parent
-) implements LocalCtx {
+public final class MapLocalCtx implements LocalCtx {
+  private final @NotNull MutableMap<LocalVar, Term> localMap;
+  private final @Nullable LocalCtx parent;
+  /** The snapshot of the bindings, see {@link #snapshot()} */
+  private @NotNull CtxSnapshot snapshot;
+
   public MapLocalCtx() {
     this(MutableLinkedHashMap.of(), null);
   }
 
+  public MapLocalCtx(@NotNull MutableMap<LocalVar, Term> localMap, @Nullable LocalCtx parent) {
+    this.localMap = localMap;
+    this.parent = parent;
+    this.snapshot = CtxSnapshot.of(bindings(), parent != null ? parent.snapshot() : null);
+  }
+
+  public @NotNull MutableMap<LocalVar, Term> localMap() {
+    return localMap;
+  }
+
+  @Override public @Nullable LocalCtx parent() {
+    return parent;
+  }
+
+  @Override public @NotNull CtxSnapshot snapshot() {
+    return snapshot.rebase(parent != null ? parent.snapshot() : null);
+  }
+
+  private @NotNull MutableList<Term.Param> bindings() {
+    var bindings = MutableList.<Term.Param>create();
+    extractToLocal(bindings);
+    return bindings;
+  }
+
   @Override public void remove(@NotNull SeqView<LocalVar> vars) {
     vars.forEach(localMap::remove);
+    snapshot = snapshot().remove(vars, localMap.size(), this::bindings);
   }
 
   @Override public @Nullable Term getLocal(@NotNull LocalVar var) {
@@ -31,7 +62,11 @@ public record MapLocalCtx(
   }
 
   @Override public void put(@NotNull LocalVar var, @NotNull Term term) {
+    // Rebinding a variable keeps its position, so the snapshot is built again
+    var rebind = localMap.containsKey(var);
     localMap.put(var, term);
+    snapshot = rebind ? CtxSnapshot.of(bindings(), snapshot().parent())
+      : snapshot().bind(new Term.Param(var, term, false));
   }
 
   @Override public boolean isEmpty() {
@@ -41,4 +76,17 @@ public record MapLocalCtx(
   @Override public void extractToLocal(@NotNull MutableList<Term.Param> dest) {
     localMap.mapTo(dest, (k, v) -> new Term.Param(k, v, false));
   }
+
+  @Override public boolean equals(Object o) {
+    return this == o || o instanceof MapLocalCtx that
+      && localMap.equals(that.localMap) && Objects.equals(parent, that.parent);
+  }
+
+  @Override public int hashCode() {
+    return Objects.hash(localMap, parent);
+  }
+
+  @Override public String toString() {
+    return "MapLocalCtx[localMap=" + localMap + ", parent=" + parent + "]";
+  }
 }
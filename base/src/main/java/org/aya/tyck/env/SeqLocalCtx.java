@@ -9,19 +9,49 @@ import org.aya.ref.LocalVar;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-public record SeqLocalCtx(
-  @NotNull MutableList<P> localSeq,
-  @Override @Nullable LocalCtx parent
-) implements LocalCtx {
+import java.util.Objects;
+
+/** Equality only depends on the bindings and the parent, like a record, not on the snapshot. */
+public final class SeqLocalCtx implements LocalCtx {
+  private final @NotNull MutableList<P> localSeq;
+  private final @Nullable LocalCtx parent;
+  /** The snapshot of the bindings, see {@link #snapshot()} */
+  private @NotNull CtxSnapshot snapshot;
+
   public SeqLocalCtx() {
     this(MutableList.create(), null);
   }
 
+  public SeqLocalCtx(@NotNull MutableList<P> localSeq, @Nullable LocalCtx parent) {
+    this.localSeq = localSeq;
+    this.parent = parent;
+    this.snapshot = CtxSnapshot.of(bindings(), parent != null ? parent.snapshot() : null);
+  }
+
   public record P(@NotNull LocalVar var, @NotNull Term type) {
   }
 
+  public @NotNull MutableList<P> localSeq() {
+    return localSeq;
+  }
+
+  @Override public @Nullable LocalCtx parent() {
+    return parent;
+  }
+
+  @Override public @NotNull CtxSnapshot snapshot() {
+    return snapshot.rebase(parent != null ? parent.snapshot() : null);
+  }
+
+  private @NotNull MutableList<Term.Param> bindings() {
+    var bindings = MutableList.<Term.Param>create();
+    extractToLocal(bindings);
+    return bindings;
+  }
+
   @Override public void remove(@NotNull SeqView<LocalVar> vars) {
     localSeq.removeAll(p -> vars.contains(p.var));
+    snapshot = snapshot().remove(vars, localSeq.size(), this::bindings);
   }
 
   @Override public void extractToLocal(@NotNull MutableList<Term.Param> dest) {
@@ -34,9 +64,23 @@ public record SeqLocalCtx(
 
   @Override public void put(@NotNull LocalVar var, @NotNull Term term) {
     localSeq.append(new P(var, term));
+    snapshot = snapshot().bind(new Term.Param(var, term, false));
   }
 
   @Override public boolean isEmpty() {
     return localSeq.isEmpty();
   }
+
+  @Override public boolean equals(Object o) {
+    return this == o || o instanceof SeqLocalCtx that
+      && localSeq.equals(that.localSeq) && Objects.equals(parent, that.parent);
+  }
+
+  @Override public int hashCode() {
+    return Objects.hash(localSeq, parent);
+  }
+
+  @Override public String toString() {
+    return "SeqLocalCtx[localSeq=" + localSeq + ", parent=" + parent + "]";
+  }
 }
@@ -40,7 +40,7 @@ public record BadTypeError(
 
   @Override public @NotNull Doc hint(@NotNull DistillerOptions options) {
     if (expr instanceof Expr.AppExpr app && app.function() instanceof Expr.RefExpr ref
-      && ref.resolvedVar() instanceof DefVar<?, ?> defVar && defVar.core instanceof FieldDef) {
+      && ref.resolvedVar() instanceof DefVar<?, ?> defVar && defVar.core() instanceof FieldDef) {
       var fix = new Expr.ProjExpr(SourcePos.NONE, app.argument().expr(),
         Either.right(new QualifiedID(SourcePos.NONE, defVar.name())));
       return Doc.sep(Doc.english("Did you mean"),
@@ -62,7 +62,7 @@ public sealed interface FieldProblem extends Problem {
   ) implements FieldProblem {
     @Override public @NotNull Doc describe(@NotNull DistillerOptions options) {
       return Doc.sep(Doc.english("Expected"),
-        Doc.plain(String.valueOf(fieldDef.ref.core.selfTele.size())),
+        Doc.plain(String.valueOf(fieldDef.ref.core().selfTele.size())),
         Doc.english("arguments, but found"),
         Doc.plain(String.valueOf(supplied)),
         Doc.english("arguments for field"),
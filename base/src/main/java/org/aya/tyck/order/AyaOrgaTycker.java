@@ -2,12 +2,21 @@
 // Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
 package org.aya.tyck.order;
 
+import kala.collection.immutable.ImmutableSeq;
+import kala.collection.mutable.MutableMap;
 import kala.collection.mutable.MutableSet;
+import kala.tuple.Tuple;
+import kala.tuple.Tuple2;
+import org.aya.concrete.stmt.Decl;
 import org.aya.resolve.ResolveInfo;
 import org.aya.util.MutableGraph;
+import org.aya.util.reporter.BufferReporter;
 import org.aya.util.tyck.OrgaTycker;
+import org.aya.util.tyck.SCCScheduler;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.concurrent.Executor;
+
 /**
  * Incremental and non-stopping compiler for SCCs.
  *
@@ -27,4 +36,40 @@ public record AyaOrgaTycker(
   @Override public @NotNull Iterable<TyckOrder> collectUsageOf(@NotNull TyckOrder failed) {
     return usageGraph.suc(failed);
   }
+
+  /**
+   * Tyck SCCs in parallel, where each SCC is tycked by a {@link AyaSccTycker#fork} after its dependencies.
+   * Problems and well-typed definitions are collected in the order of the given SCCs, so the result is
+   * the same as tycking them one by one. The headers and bodies of a declaration are tycked by the same
+   * tycker, so an SCC also waits for the previous SCC using the same tycker, and takes it over.
+   *
+   * @param SCCs     in topological order
+   * @param depGraph usually {@link ResolveInfo#depGraph()}
+   */
+  public void tyckParallel(
+    @NotNull ImmutableSeq<ImmutableSeq<TyckOrder>> SCCs,
+    @NotNull MutableGraph<TyckOrder> depGraph,
+    @NotNull Executor executor
+  ) {
+    var graph = MutableGraph.<TyckOrder>create();
+    depGraph.E().forEach((v, ws) -> graph.sucMut(v).appendAll(ws));
+    var previous = MutableMap.<Decl.TopLevel, TyckOrder>create();
+    SCCs.forEach(scc -> scc.forEach(order -> {
+      var owner = DeclCache.owner(order.unit());
+      if (owner == null) return;
+      var last = previous.getOrNull(owner);
+      if (last != null) graph.sucMut(order).append(last);
+      previous.put(owner, order);
+    }));
+    var results = new SCCScheduler<>(SCCs, graph).<Tuple2<BufferReporter, AyaSccTycker>>run(executor, (scc, deps) -> {
+      var reporter = new BufferReporter();
+      var fork = sccTycker.fork(reporter, scc, deps.map(dep -> dep._2));
+      tyckSCC(fork, scc);
+      return Tuple.of(reporter, fork);
+    });
+    results.forEach(result -> {
+      result._1.problems().forEach(sccTycker.reporter()::report);
+      sccTycker.wellTyped().appendAll(result._2.wellTyped());
+    });
+  }
 }
@@ -15,6 +15,7 @@ import org.aya.core.def.Def;
 import org.aya.core.def.FnDef;
 import org.aya.core.def.GenericDef;
 import org.aya.core.def.UserDef;
+import org.aya.core.ops.HashCons;
 import org.aya.core.term.Term;
 import org.aya.generic.util.InterruptException;
 import org.aya.resolve.ResolveInfo;
@@ -30,17 +31,24 @@ import org.aya.util.MutableGraph;
 import org.aya.util.reporter.BufferReporter;
 import org.aya.util.reporter.CollectingReporter;
 import org.aya.util.reporter.CountingReporter;
+import org.aya.util.reporter.Problem;
 import org.aya.util.reporter.Reporter;
 import org.aya.util.tyck.SCCTycker;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.function.Function;
+import java.util.function.Supplier;
 
 /**
  * Tyck statements in SCC.
  *
  * @param tyckerReuse headers and bodies should be checked using the same tycker.
+ *                    A fork takes over the tyckers of its declarations from the forks it depends on.
+ * @param hashCons    shared by all the tyckers if present, so definitions in this module share repeated terms.
+ *                    Otherwise, each tycker has its own table, since a tycker may move to another fork.
+ * @param declCache   the results of unchanged declarations to reuse, shared by the forks.
+ * @param profiler    measures each header and body if not null, shared by the forks.
  * @author kiva
  * @see ExprTycker
  */
@@ -50,14 +58,57 @@ public record AyaSccTycker(
   @NotNull ResolveInfo resolveInfo,
   @NotNull MutableList<@NotNull GenericDef> wellTyped,
   @NotNull MutableMap<Decl.TopLevel, ExprTycker> tyckerReuse,
-  @NotNull MutableMap<Decl.TopLevel, CollectingReporter> sampleReporters
+  @NotNull MutableMap<Decl.TopLevel, CollectingReporter> sampleReporters,
+  @Nullable HashCons hashCons,
+  @Nullable DeclCache.Session declCache,
+  @Nullable TyckProfiler profiler
 ) implements SCCTycker<TyckOrder, AyaSccTycker.SCCTyckingFailed> {
   public static @NotNull AyaSccTycker create(ResolveInfo resolveInfo, @Nullable Trace.Builder builder, @NotNull Reporter outReporter) {
+    return create(resolveInfo, builder, outReporter, null);
+  }
+
+  public static @NotNull AyaSccTycker create(
+    ResolveInfo resolveInfo, @Nullable Trace.Builder builder,
+    @NotNull Reporter outReporter, @Nullable DeclCache declCache
+  ) {
+    return create(resolveInfo, builder, outReporter, declCache, null);
+  }
+
+  public static @NotNull AyaSccTycker create(
+    ResolveInfo resolveInfo, @Nullable Trace.Builder builder, @NotNull Reporter outReporter,
+    @Nullable DeclCache declCache, @Nullable TyckProfiler profiler
+  ) {
     var counting = CountingReporter.delegate(outReporter);
-    return new AyaSccTycker(new StmtTycker(counting, builder), counting, resolveInfo, MutableList.create(), MutableMap.create(), MutableMap.create());
+    var session = declCache != null ? declCache.session(resolveInfo) : null;
+    return new AyaSccTycker(new StmtTycker(counting, builder), counting, resolveInfo, MutableList.create(), MutableMap.create(), MutableMap.create(), new HashCons(), session, profiler);
+  }
+
+  /**
+   * @param scc  the SCC to be tycked by the fork
+   * @param deps the forks which tycked the SCCs this SCC depends on, which are all finished
+   * @return a tycker for an SCC independent of the ones being tycked by other forks,
+   * which takes over the tyckers of the declarations in the SCC from the given forks.
+   * @see AyaOrgaTycker#tyckParallel
+   */
+  public @NotNull AyaSccTycker fork(
+    @NotNull Reporter outReporter, @NotNull ImmutableSeq<TyckOrder> scc,
+    @NotNull ImmutableSeq<AyaSccTycker> deps
+  ) {
+    var counting = CountingReporter.delegate(outReporter);
+    var reuse = MutableMap.<Decl.TopLevel, ExprTycker>create();
+    var samples = MutableMap.<Decl.TopLevel, CollectingReporter>create();
+    scc.forEach(order -> {
+      var owner = DeclCache.owner(order.unit());
+      if (owner != null) deps.forEach(dep -> {
+        dep.tyckerReuse.getOption(owner).forEach(t -> reuse.put(owner, t));
+        dep.sampleReporters.getOption(owner).forEach(r -> samples.put(owner, r));
+      });
+    });
+    return new AyaSccTycker(new StmtTycker(counting, null), counting, resolveInfo, MutableList.create(), reuse, samples, null, declCache, profiler);
   }
 
   public @NotNull ImmutableSeq<TyckOrder> tyckSCC(@NotNull ImmutableSeq<TyckOrder> scc) {
+    if (declCache != null) return tyckCachedSCC(scc, declCache);
     try {
       if (scc.isEmpty()) return ImmutableSeq.empty();
       if (scc.sizeEquals(1)) checkUnit(scc.first());
@@ -69,6 +120,55 @@ public record AyaSccTycker(
     }
   }
 
+  /**
+   * Reuses the result of a single declaration if it is unchanged,
+   * otherwise tycks the SCC and stores the results if no problem is reported.
+   */
+  private @NotNull ImmutableSeq<TyckOrder> tyckCachedSCC(@NotNull ImmutableSeq<TyckOrder> scc, @NotNull DeclCache.Session cache) {
+    // The headers, constructors and fields of a reused declaration are restored as a whole
+    var remaining = scc.filterNot(order -> {
+      var owner = DeclCache.owner(order.unit());
+      return owner != null && cache.isReused(owner);
+    });
+    if (remaining.isEmpty()) return ImmutableSeq.empty();
+    var owners = remaining.stream().map(order -> DeclCache.owner(order.unit())).distinct().collect(ImmutableSeq.factory());
+    if (owners.sizeEquals(1) && owners.first() != null) {
+      var def = cache.reuse(owners.first());
+      if (def != null) {
+        wellTyped.append(def);
+        resolveInfo.shapeFactory().bonjour(def);
+        return ImmutableSeq.empty();
+      }
+    }
+    var problems = problemSize();
+    ImmutableSeq<TyckOrder> failed;
+    try {
+      if (remaining.sizeEquals(1)) checkUnit(remaining.first());
+      else checkMutual(remaining);
+      failed = ImmutableSeq.empty();
+    } catch (SCCTyckingFailed e) {
+      failed = e.what;
+    }
+    if (failed.isNotEmpty() || problemSize() > problems) {
+      owners.forEach(owner -> {
+        if (owner != null) cache.markDirty(owner);
+      });
+    } else remaining.forEach(order -> {
+      if (order instanceof TyckOrder.Body body && body.unit() instanceof Decl.TopLevel decl) {
+        var core = decl.ref().core();
+        if (core != null) cache.store(decl, core);
+      }
+    });
+    if (failed.isNotEmpty()) reporter.clear();
+    return failed;
+  }
+
+  private int problemSize() {
+    var size = 0;
+    for (var severity : Problem.Severity.values()) size += reporter.problemSize(severity);
+    return size;
+  }
+
   private void checkMutual(@NotNull ImmutableSeq<TyckOrder> scc) {
     var unit = scc.stream().map(TyckOrder::unit).distinct().collect(ImmutableSeq.factory());
     // the flattened dependency graph (FDG) lose information about header order, in other words,
@@ -150,7 +250,8 @@ public record AyaSccTycker(
       reporter.report(new NonTerminating(fn.sourcePos, fn.ref, null));
       throw new SCCTyckingFailed(ImmutableSeq.of(order));
     }
-    decideTyckResult(fn, fn, tycker.simpleFn(newExprTycker(), fn));
+    var exprTycker = newExprTycker();
+    decideTyckResult(fn, fn, profile(order, exprTycker, () -> tycker.simpleFn(exprTycker, fn)));
   }
 
   private void check(@NotNull TyckOrder tyckOrder) {
@@ -161,14 +262,21 @@ public record AyaSccTycker(
   }
 
   private void checkHeader(@NotNull TyckOrder order, @NotNull TyckUnit stmt) {
-    if (stmt instanceof Decl decl) tycker.tyckHeader(decl, reuse(decl));
+    if (stmt instanceof Decl decl) {
+      var exprTycker = reuse(decl);
+      profile(order, exprTycker, () -> {
+        tycker.tyckHeader(decl, exprTycker);
+        return null;
+      });
+    }
     if (reporter.anyError()) throw new SCCTyckingFailed(ImmutableSeq.of(order));
   }
 
   private void checkBody(@NotNull TyckOrder order, @NotNull TyckUnit stmt) {
     switch (stmt) {
       case Decl decl -> {
-        var def = tycker.tyck(decl, reuse(decl));
+        var exprTycker = reuse(decl);
+        var def = profile(order, exprTycker, () -> tycker.tyck(decl, exprTycker));
         if (decl instanceof Decl.TopLevel topLevel) decideTyckResult(decl, topLevel, def);
       }
       case Remark remark -> Option.ofNullable(remark.literate).forEach(l -> l.tyck(newExprTycker()));
@@ -193,6 +301,21 @@ public record AyaSccTycker(
     }
   }
 
+  private <T> T profile(@NotNull TyckOrder order, @NotNull ExprTycker exprTycker, @NotNull Supplier<T> task) {
+    try {
+      if (profiler == null) return task.get();
+      return profiler.profile(resolveInfo.thisModule().moduleName(), order, exprTycker.state, task);
+    } finally {
+      // See reuseTopLevel
+      if (exprTycker.reporter instanceof BufferReporter buffer
+        && DeclCache.owner(order.unit()) instanceof Decl.TopLevel owner
+        && owner.personality() == Decl.Personality.NORMAL) {
+        buffer.problems().forEach(reporter::report);
+        buffer.problems().clear();
+      }
+    }
+  }
+
   private @NotNull ExprTycker reuse(@NotNull Decl decl) {
     // IDEA says the match is not exhaustive, but it is.
     return switch (decl) {
@@ -208,15 +331,18 @@ public record AyaSccTycker(
       var reporter = sampleReporters.getOrPut(decl, BufferReporter::new);
       return tyckerReuse.getOrPut(decl, () -> newExprTycker(reporter));
     }
-    return tyckerReuse.getOrPut(decl, this::newExprTycker);
+    // The tycker created by a fork may be used by another fork later, so its problems
+    // are buffered and moved to the reporter of the fork using it, see profile
+    return tyckerReuse.getOrPut(decl, () -> hashCons != null ? newExprTycker() : newExprTycker(new BufferReporter()));
   }
 
   private @NotNull ExprTycker newExprTycker() {
-    return tycker.newTycker(resolveInfo.primFactory(), resolveInfo.shapeFactory());
+    return newExprTycker(tycker.reporter());
   }
 
   private @NotNull ExprTycker newExprTycker(@NotNull Reporter reporter) {
-    return new ExprTycker(resolveInfo.primFactory(), resolveInfo.shapeFactory(), reporter, tycker.traceBuilder());
+    return new ExprTycker(resolveInfo.primFactory(), resolveInfo.shapeFactory(), reporter, tycker.traceBuilder(),
+      hashCons != null ? hashCons : new HashCons());
   }
 
   private void terck(@NotNull SeqView<TyckOrder> units) {
@@ -226,7 +352,7 @@ public record AyaSccTycker(
     if (recDefs.isEmpty()) return;
     // TODO: terck other definitions
     var fn = recDefs.filterIsInstance(TeleDecl.FnDecl.class)
-      .map(f -> f.ref.core);
+      .map(f -> f.ref.core());
     terckRecursiveFn(fn);
   }
 
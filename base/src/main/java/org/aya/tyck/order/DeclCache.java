@@ -0,0 +1,421 @@
+// Copyright (c) 2020-2022 Yinsen (Tesla) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.tyck.order;
+
+import kala.collection.immutable.ImmutableSeq;
+import kala.collection.mutable.MutableList;
+import org.aya.concrete.Expr;
+import org.aya.concrete.Pattern;
+import org.aya.concrete.stmt.Command;
+import org.aya.concrete.stmt.Decl;
+import org.aya.concrete.stmt.Stmt;
+import org.aya.concrete.stmt.TeleDecl;
+import org.aya.concrete.visitor.ExprTraversal;
+import org.aya.core.def.*;
+import org.aya.core.serde.SerDef;
+import org.aya.core.serde.SerTerm;
+import org.aya.core.serde.Serializer;
+import org.aya.generic.Constants;
+import org.aya.generic.util.InternalException;
+import org.aya.ref.DefVar;
+import org.aya.resolve.ResolveInfo;
+import org.aya.util.binop.BinOpSet;
+import org.aya.util.error.SourceNode;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tyck results of top-level declarations, reused when a module is tycked again,
+ * for example, after a file is edited in the language server.
+ * A declaration is reused if its source text is not changed, the imported modules are the same ones,
+ * the names in it resolve to the same definitions with the same fixities (see {@link #resolution}),
+ * and the declarations of the same module it (transitively) depends on are either reused or
+ * tycked to the same results (so editing a proof does not invalidate its users).
+ * <p>
+ * The results are stored serialized, and deserialized with the references in the new concrete tree.
+ * The new concrete tree is not tycked, so the tyck results the language server reads from it
+ * are copied from the concrete tree of the stored declaration (see {@link Annotations}).
+ * Declarations with problems (including warnings) are not stored, so the problems are always reported.
+ *
+ * @see AyaSccTycker
+ */
+public final class DeclCache {
+  private final @NotNull Map<ImmutableSeq<String>, ModuleCache> modules = new ConcurrentHashMap<>();
+  /** Identifies the results, a result is given a new stamp only if it differs from the previous one */
+  private final @NotNull AtomicInteger stamps = new AtomicInteger();
+  private final @NotNull AtomicLong hits = new AtomicLong();
+  private final @NotNull AtomicLong misses = new AtomicLong();
+
+  /**
+   * @param imports the transitively imported modules, the module is unchanged iff the objects are the same
+   */
+  private record ModuleCache(@NotNull Set<ResolveInfo> imports, @NotNull Map<SerDef.QName, Entry> entries) {}
+
+  /**
+   * @param text       the source text of the declaration
+   * @param resolution see {@link #resolution}
+   * @param deps       the stamps of the declarations in the same module it transitively depends on
+   * @param externals  the definitions in other modules referenced by the result
+   * @param concrete   the declaration tycked to the result, whose tyck results are copied to the reused ones
+   */
+  private record Entry(
+    @NotNull String text,
+    @NotNull String resolution,
+    @NotNull Decl.TopLevel concrete,
+    @NotNull SerDef def,
+    int stamp,
+    @NotNull Map<SerDef.QName, Integer> deps,
+    @NotNull ImmutableSeq<DefVar<?, ?>> externals
+  ) {}
+
+  /** Called before a module is tycked. */
+  public @NotNull Session session(@NotNull ResolveInfo resolveInfo) {
+    var imports = Collections.<ResolveInfo>newSetFromMap(new IdentityHashMap<>());
+    collectImports(resolveInfo, imports);
+    var cache = modules.compute(resolveInfo.thisModule().moduleName(), (name, old) ->
+      old != null && old.imports.equals(imports) ? old : new ModuleCache(imports, new ConcurrentHashMap<>()));
+    return new Session(resolveInfo, cache);
+  }
+
+  private static void collectImports(@NotNull ResolveInfo resolveInfo, @NotNull Set<ResolveInfo> imports) {
+    resolveInfo.imports().forEach((name, info) -> {
+      if (imports.add(info)) collectImports(info, imports);
+    });
+  }
+
+  public long hits() {
+    return hits.get();
+  }
+
+  public long misses() {
+    return misses.get();
+  }
+
+  @Override public String toString() {
+    return "Declaration cache: " + hits + " hits, " + misses + " misses";
+  }
+
+  /** The declarations that can be stored, see {@link Serializer#serialize(GenericDef)} */
+  private static boolean cacheable(@NotNull Decl.TopLevel decl) {
+    return decl.personality() == Decl.Personality.NORMAL && (decl instanceof TeleDecl.FnDecl
+      || decl instanceof TeleDecl.DataDecl || decl instanceof TeleDecl.StructDecl);
+  }
+
+  /** @return the top-level declaration the unit belongs to */
+  static @Nullable Decl.TopLevel owner(@NotNull TyckUnit unit) {
+    return switch (unit) {
+      case Decl.TopLevel decl -> decl;
+      case TeleDecl.DataCtor ctor -> ctor.dataRef.concrete;
+      case TeleDecl.StructField field -> field.structRef.concrete;
+      default -> null;
+    };
+  }
+
+  private static @NotNull ImmutableSeq<TyckUnit> members(@NotNull Decl.TopLevel decl) {
+    return switch (decl) {
+      case TeleDecl.DataDecl data -> ImmutableSeq.<TyckUnit>of(data).appendedAll(data.body);
+      case TeleDecl.StructDecl struct -> ImmutableSeq.<TyckUnit>of(struct).appendedAll(struct.fields);
+      default -> ImmutableSeq.of(decl);
+    };
+  }
+
+  private static @NotNull SerDef.QName qname(@NotNull DefVar<?, ?> ref) {
+    assert ref.module != null;
+    return new SerDef.QName(ref.module, ref.name());
+  }
+
+  private static @NotNull String text(@NotNull Decl decl) {
+    var pos = decl.entireSourcePos();
+    var code = pos.file().sourceCode();
+    if (pos.tokenStartIndex() < 0 || pos.tokenEndIndex() >= code.length()) return "";
+    return code.substring(pos.tokenStartIndex(), pos.tokenEndIndex() + 1);
+  }
+
+  /**
+   * The definitions the names in the declaration resolve to, the operators among them and how they bind
+   * to each other. Together with the source text, this determines the concrete tree after resolving
+   * and desugaring, which changes with <code>open</code>, fixities and <code>bind</code> even if the text does not.
+   */
+  private static @NotNull String resolution(@NotNull Decl.TopLevel decl, @NotNull ResolveInfo info) {
+    var refs = new LinkedHashSet<DefVar<?, ?>>();
+    References.INSTANCE.visitDecl(decl, refs);
+    var module = info.thisModule().moduleName();
+    var builder = new StringBuilder();
+    var ops = MutableList.<BinOpSet.BinOP>create();
+    for (var ref : refs) {
+      if (ref.module != null) builder.append(ref.module.joinToString(Constants.SCOPE_SEPARATOR));
+      builder.append(Constants.SCOPE_SEPARATOR).append(ref.name());
+      var opDecl = ref.opDeclRename.getOrDefault(module, ref.opDecl);
+      var opInfo = opDecl != null ? opDecl.opInfo() : null;
+      if (opInfo != null) {
+        builder.append(' ').append(opInfo);
+        info.opSet().ops.find(op -> op.op() == opDecl).forEach(ops::append);
+      }
+      builder.append('\n');
+    }
+    for (var lhs : ops)
+      for (var rhs : ops) builder.append(info.opSet().compare(lhs, rhs).ordinal());
+    return builder.toString();
+  }
+
+  /** Visits the expressions and patterns of a declaration in order, without changing it like {@link org.aya.concrete.visitor.StmtOps} */
+  private interface DeclTraversal<P> extends ExprTraversal<P> {
+    default void visitPattern(@NotNull Pattern pattern, P p) {
+      switch (pattern) {
+        case Pattern.Ctor ctor -> ctor.params().forEach(param -> visitPattern(param, p));
+        case Pattern.Tuple tuple -> tuple.patterns().forEach(param -> visitPattern(param, p));
+        case Pattern.BinOpSeq seq -> seq.seq().forEach(param -> visitPattern(param, p));
+        default -> {}
+      }
+    }
+
+    private void visitClause(@NotNull Pattern.Clause clause, P p) {
+      clause.patterns.forEach(pattern -> visitPattern(pattern, p));
+      clause.expr.forEach(expr -> visitExpr(expr, p));
+    }
+
+    default void visitDecl(@NotNull Decl decl, P p) {
+      if (decl instanceof Decl.Telescopic tele) tele.telescope().forEach(param -> visitParam(param, p));
+      if (decl instanceof Decl.Resulted resulted) visitExpr(resulted.result(), p);
+      switch (decl) {
+        case TeleDecl.DataDecl data -> data.body.forEach(ctor -> visitDecl(ctor, p));
+        case TeleDecl.StructDecl struct -> struct.fields.forEach(field -> visitDecl(field, p));
+        case TeleDecl.FnDecl fn -> {
+          if (fn.body.isLeft()) visitExpr(fn.body.getLeftValue(), p);
+          else fn.body.getRightValue().forEach(clause -> visitClause(clause, p));
+        }
+        case TeleDecl.DataCtor ctor -> {
+          ctor.patterns.forEach(pattern -> visitPattern(pattern, p));
+          ctor.clauses.forEach(clause -> visitClause(clause, p));
+        }
+        case TeleDecl.StructField field -> {
+          field.clauses.forEach(clause -> visitClause(clause, p));
+          field.body.forEach(expr -> visitExpr(expr, p));
+        }
+        default -> {}
+      }
+    }
+  }
+
+  /** Collects the definitions referenced in a declaration */
+  private static final class References implements DeclTraversal<Set<DefVar<?, ?>>> {
+    private static final @NotNull References INSTANCE = new References();
+
+    @Override public @NotNull Expr visitExpr(@NotNull Expr expr, Set<DefVar<?, ?>> refs) {
+      if (expr instanceof Expr.RefExpr ref && ref.resolvedVar() instanceof DefVar<?, ?> defVar) refs.add(defVar);
+      return DeclTraversal.super.visitExpr(expr, refs);
+    }
+
+    @Override public void visitPattern(@NotNull Pattern pattern, Set<DefVar<?, ?>> refs) {
+      if (pattern instanceof Pattern.Ctor ctor && ctor.resolved().data() instanceof DefVar<?, ?> defVar) refs.add(defVar);
+      DeclTraversal.super.visitPattern(pattern, refs);
+    }
+  }
+
+  /**
+   * Collects the nodes the tycker annotates with tyck results (see {@link Expr.WithTerm} and {@link Pattern.Bind}),
+   * which are read by the language server. Declarations with the same text and resolution have the same nodes
+   * in the same order, so the results can be copied from one to another.
+   */
+  private static final class Annotations implements DeclTraversal<MutableList<SourceNode>> {
+    private static final @NotNull Annotations INSTANCE = new Annotations();
+
+    @Override public @NotNull Expr visitExpr(@NotNull Expr expr, MutableList<SourceNode> nodes) {
+      if (expr instanceof Expr.WithTerm withTerm) nodes.append(withTerm);
+      return DeclTraversal.super.visitExpr(expr, nodes);
+    }
+
+    @Override public void visitPattern(@NotNull Pattern pattern, MutableList<SourceNode> nodes) {
+      if (pattern instanceof Pattern.Bind bind) nodes.append(bind);
+      DeclTraversal.super.visitPattern(pattern, nodes);
+    }
+
+    private static @NotNull MutableList<SourceNode> of(@NotNull Decl decl) {
+      var nodes = MutableList.<SourceNode>create();
+      INSTANCE.visitDecl(decl, nodes);
+      return nodes;
+    }
+
+    /** Copies the tyck results of a declaration to another one with the same text and resolution. */
+    static void copy(@NotNull Decl from, @NotNull Decl to) {
+      var source = of(from);
+      var target = of(to);
+      if (source.size() != target.size()) return;
+      source.forEachIndexed((i, node) -> {
+        switch (node) {
+          case Expr.WithTerm withTerm && target.get(i) instanceof Expr.WithTerm that ->
+            that.theCore().set(withTerm.core());
+          case Pattern.Bind bind && target.get(i) instanceof Pattern.Bind that ->
+            that.type().set(bind.type().get());
+          default -> {}
+        }
+      });
+    }
+  }
+
+  /** The reuse of a module being tycked, shared by the forks of the tycker. */
+  public final class Session {
+    private final @NotNull ResolveInfo resolveInfo;
+    private final @NotNull ModuleCache cache;
+    /** The references of the definitions in this module */
+    private final @NotNull Map<SerDef.QName, DefVar<?, ?>> members = new HashMap<>();
+    /** The stamps of the declarations reused or tycked without problems */
+    private final @NotNull Map<SerDef.QName, Integer> confirmed = new ConcurrentHashMap<>();
+    private final @NotNull Set<Decl.TopLevel> reused = ConcurrentHashMap.newKeySet();
+    private final @NotNull Set<Decl.TopLevel> dirty = ConcurrentHashMap.newKeySet();
+
+    private Session(@NotNull ResolveInfo resolveInfo, @NotNull ModuleCache cache) {
+      this.resolveInfo = resolveInfo;
+      this.cache = cache;
+      collectMembers(resolveInfo.program());
+    }
+
+    private void collectMembers(@NotNull ImmutableSeq<Stmt> stmts) {
+      for (var stmt : stmts) switch (stmt) {
+        case Command.Module module -> collectMembers(module.contents());
+        case Decl.TopLevel decl -> members(decl).forEach(unit -> {
+          var ref = ((Decl) unit).ref();
+          if (ref.module != null) members.put(qname(ref), ref);
+        });
+        default -> {}
+      }
+    }
+
+    public boolean isReused(@NotNull Decl.TopLevel decl) {
+      return reused.contains(decl);
+    }
+
+    /** Problems are reported when tycking the declaration, so it should not be stored. */
+    public void markDirty(@NotNull Decl.TopLevel decl) {
+      dirty.add(decl);
+      cache.entries.remove(qname(decl.ref()));
+    }
+
+    /**
+     * Restores the tyck result of the declaration, including its constructors or fields,
+     * if the result stored is still valid.
+     *
+     * @return null if the declaration needs to be tycked
+     */
+    public @Nullable GenericDef reuse(@NotNull Decl.TopLevel decl) {
+      if (!cacheable(decl)) return null;
+      var name = qname(decl.ref());
+      var entry = cache.entries.get(name);
+      if (entry == null || !entry.text.equals(text(decl))
+        || !entry.resolution.equals(resolution(decl, resolveInfo)) || !valid(entry)) {
+        misses.incrementAndGet();
+        return null;
+      }
+      var state = new SerTerm.DeState(resolveInfo.primFactory());
+      entry.externals.forEach(ref -> state.putDef(ref, false));
+      members.values().forEach(ref -> state.putDef(ref, false));
+      members(decl).forEach(unit -> state.putDef(((Decl) unit).ref(), true));
+      GenericDef def;
+      try {
+        def = entry.def.de(state);
+      } catch (SerDef.DeserializeException e) {
+        misses.incrementAndGet();
+        return null;
+      }
+      restoreSignatures(def);
+      Annotations.copy(entry.concrete, decl);
+      // So that the old concrete tree can be collected
+      cache.entries.put(name, new Entry(entry.text, entry.resolution, decl, entry.def, entry.stamp, entry.deps, entry.externals));
+      confirmed.put(name, entry.stamp);
+      reused.add(decl);
+      hits.incrementAndGet();
+      return def;
+    }
+
+    /**
+     * The dependencies are the same ones if the resolution is the same,
+     * so they are valid if they are reused or tycked to the same results.
+     */
+    private boolean valid(@NotNull Entry entry) {
+      for (var dep : entry.deps.entrySet())
+        if (!dep.getValue().equals(confirmed.get(dep.getKey()))) return false;
+      return true;
+    }
+
+    /** Called after the declaration is tycked and checked for termination. */
+    public void store(@NotNull Decl.TopLevel decl, @NotNull GenericDef def) {
+      if (!cacheable(decl) || dirty.contains(decl)) return;
+      var name = qname(decl.ref());
+      var deps = dependencies(decl);
+      if (deps == null) {
+        cache.entries.remove(name);
+        return;
+      }
+      var ser = new Serializer.State();
+      SerDef serDef;
+      try {
+        serDef = new Serializer(ser).serialize(def);
+      } catch (InternalException | UnsupportedOperationException e) {
+        cache.entries.remove(name);
+        return;
+      }
+      var externals = MutableList.<DefVar<?, ?>>create();
+      ser.defCache().forEach((ref, i) -> {
+        if (members.get(qname(ref)) != ref) externals.append(ref);
+      });
+      var old = cache.entries.get(name);
+      // Early cutoff: users of this declaration are still valid if the result is the same
+      var stamp = old != null && old.def.equals(serDef) ? old.stamp : stamps.incrementAndGet();
+      cache.entries.put(name, new Entry(text(decl), resolution(decl, resolveInfo), decl, serDef, stamp, deps, externals.toImmutableSeq()));
+      confirmed.put(name, stamp);
+    }
+
+    /** @return null if any of the dependencies is not confirmed */
+    private @Nullable Map<SerDef.QName, Integer> dependencies(@NotNull Decl.TopLevel decl) {
+      var graph = resolveInfo.depGraph();
+      var visited = new HashSet<TyckOrder>();
+      var queue = new ArrayDeque<TyckOrder>();
+      members(decl).forEach(unit -> {
+        queue.add(new TyckOrder.Head(unit));
+        queue.add(new TyckOrder.Body(unit));
+      });
+      var deps = new LinkedHashSet<SerDef.QName>();
+      while (!queue.isEmpty()) {
+        var order = queue.poll();
+        if (!visited.add(order)) continue;
+        var owner = owner(order.unit());
+        if (owner != null && owner != decl) deps.add(qname(owner.ref()));
+        graph.suc(order).forEach(queue::add);
+      }
+      var stamps = new HashMap<SerDef.QName, Integer>();
+      for (var dep : deps) {
+        var stamp = confirmed.get(dep);
+        if (stamp == null) return null;
+        stamps.put(dep, stamp);
+      }
+      return Map.copyOf(stamps);
+    }
+  }
+
+  /** The concrete tree is used when tycking other declarations and by the language server */
+  private static void restoreSignatures(@NotNull GenericDef def) {
+    switch (def) {
+      case FnDef fn -> fn.ref.concrete.signature = new Def.Signature(fn.telescope, fn.result);
+      case DataDef data -> {
+        data.ref.concrete.signature = new Def.Signature(data.telescope, data.result);
+        data.ref.concrete.ulift = data.resultLevel;
+        data.body.forEach(ctor -> {
+          ctor.ref.concrete.signature = new Def.Signature(ctor.selfTele, ctor.result);
+          ctor.ref.concrete.patternTele = ctor.ownerTele;
+        });
+      }
+      case StructDef struct -> {
+        struct.ref.concrete.signature = new Def.Signature(struct.telescope, struct.result);
+        struct.ref.concrete.ulift = struct.resultLevel;
+        struct.fields.forEach(field ->
+          field.ref.concrete.signature = new Def.Signature(field.selfTele, field.result));
+      }
+      default -> {}
+    }
+  }
+}
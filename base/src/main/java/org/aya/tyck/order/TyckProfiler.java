@@ -0,0 +1,26 @@
+// Copyright (c) 2020-2022 Yinsen (Tesla) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.tyck.order;
+
+import kala.collection.immutable.ImmutableSeq;
+import org.aya.tyck.TyckState;
+import org.aya.tyck.TyckStats;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.function.Supplier;
+
+/**
+ * Measures the tycking of each header and body, see {@link AyaSccTycker#profiler()}.
+ * Called by all the threads tycking in parallel, so implementations should be thread-safe.
+ *
+ * @see TyckStats
+ */
+public interface TyckProfiler {
+  /**
+   * @param state the state of the tycker running the task, which is only used by this thread during the task
+   * @param task  tycks the header or the body, which should be run exactly once
+   */
+  <T> T profile(
+    @NotNull ImmutableSeq<String> module, @NotNull TyckOrder order,
+    @NotNull TyckState state, @NotNull Supplier<T> task);
+}
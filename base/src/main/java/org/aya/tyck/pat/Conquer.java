@@ -51,7 +51,7 @@ public record Conquer(
       case Pat.Ctor ctor -> {
         var params = ctor.params();
         for (var sub : params) visit(sub, nth);
-        var conditions = ctor.ref().core.clauses;
+        var conditions = ctor.ref().core().clauses;
         for (int i = 0, size = conditions.size(); i < size; i++) {
           var condition = conditions.get(i);
           var matchy = PatMatcher.tryBuildSubstTerms(null, params, condition.patterns().view().map(Pat::toTerm));
@@ -234,7 +234,7 @@ public record PatClassifier(
         var buffer = MutableList.<MCT<Term, PatErr>>create();
         var data = dataCall.ref();
         var body = Def.dataBody(data);
-        if (coverage && data.core == null) reporter.report(new NotYetTyckedError(pos, data));
+        if (coverage && data.core() == null) reporter.report(new NotYetTyckedError(pos, data));
         // For all constructors,
         for (var ctor : body) {
           var conTele = ctor.selfTele.view();
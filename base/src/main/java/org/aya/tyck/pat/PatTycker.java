@@ -75,7 +75,7 @@ public final class PatTycker {
   }
 
   private <R> R traced(@NotNull Supplier<Trace> trace, @NotNull Supplier<R> computation) {
-    tracing(builder -> builder.shift(trace.get()));
+    tracing(builder -> builder.shift(trace));
     var res = computation.get();
     tracing(TreeBuilder::reduce);
     return res;
@@ -177,7 +177,7 @@ public final class PatTycker {
         var realCtor = selectCtor(term, var, ctor);
         if (realCtor == null) yield randomPat(pattern, term);
         var ctorRef = realCtor._3.ref();
-        var ctorCore = ctorRef.core;
+        var ctorCore = ctorRef.core();
         final var dataCall = realCtor._1;
         var sig = new Def.Signature(Term.Param.subst(ctorCore.selfTele, realCtor._2, 0), dataCall);
         var patterns = visitPatterns(sig, ctor.params().view())._1;
@@ -205,7 +205,7 @@ public final class PatTycker {
           yield withError(new NotAnIntervalError(num.sourcePos(), end), num, term);
         }
         if (ty instanceof CallTerm.Data dataCall) {
-          var data = dataCall.ref().core;
+          var data = dataCall.ref().core();
           var shape = exprTycker.shapeFactory.find(data);
           if (shape.isDefined()) yield new Pat.ShapedInt(num.number(), shape.get(), dataCall, num.explicit());
         }
@@ -365,7 +365,7 @@ public final class PatTycker {
     }
     var dataRef = dataCall.ref();
     // We are checking an absurd pattern, but the data is not yet fully checked
-    var core = dataRef.core;
+    var core = dataRef.core();
     if (core == null && name == null) {
       foundError(new NotYetTyckedError(pos.sourcePos(), dataRef));
       return null;
@@ -400,9 +400,13 @@ public final class PatTycker {
 
   public static Result<Subst, Boolean>
   mischa(CallTerm.Data dataCall, CtorDef ctor, @Nullable LocalCtx ctx, @NotNull TyckState state) {
-    if (ctor.pats.isNotEmpty()) return PatMatcher.tryBuildSubstTerms(ctx, ctor.pats, dataCall.args().view()
-      .map(arg -> arg.term().normalize(state, NormalizeMode.WHNF)));
-    else return Result.ok(Unfolder.buildSubst(Def.defTele(dataCall.ref()), dataCall.args()));
+    if (ctor.pats.isNotEmpty()) {
+      var result = PatMatcher.tryBuildSubstTerms(ctx, ctor.pats, dataCall.args().view()
+        .map(arg -> arg.term().normalize(state, NormalizeMode.WHNF)));
+      // Meta patterns are solved by matching if there is a context, see PatMatcher#solve
+      if (ctx != null) state.whnfCache().advance();
+      return result;
+    } else return Result.ok(Unfolder.buildSubst(Def.defTele(dataCall.ref()), dataCall.args()));
   }
 
   private record BodySubstitutor(
@@ -15,6 +15,7 @@ import org.jetbrains.annotations.Nullable;
 import org.jetbrains.annotations.VisibleForTesting;
 
 import java.util.Deque;
+import java.util.function.Supplier;
 
 /**
  * @author ice1000
@@ -31,7 +32,83 @@ public sealed interface Trace extends TreeBuilder.Tree<Trace> {
 
   <P, R> R accept(@NotNull Visitor<P, R> visitor, P p);
 
+  /**
+   * Only one in {@link #sampleRate} top-level traces are recorded, with all their children,
+   * and only the latest <code>capacity</code> of them are kept if it is positive,
+   * so tracing can be left on and only the trace around a failure is dumped.
+   * The tyckers only build a trace if they have a builder, and the payloads of a trace
+   * given by {@link #shift(Supplier)} are only computed if the trace is recorded.
+   */
   final class Builder extends TreeBuilder<Trace> {
+    private final int sampleRate;
+    /** The latest top-level traces if the capacity is positive, a circular buffer of {@link #kept} from {@link #head} */
+    private final Trace @Nullable [] ring;
+    private int head = 0;
+    private int kept = 0;
+    /** The unfinished traces not recorded, whose children are not recorded either */
+    private int skipped = 0;
+    private long topLevel = 0;
+
+    /** Records every trace */
+    public Builder() {
+      this(1, 0);
+    }
+
+    /**
+     * @param sampleRate record one in this many top-level traces
+     * @param capacity   the top-level traces kept, nonpositive for no limit
+     */
+    public Builder(int sampleRate, int capacity) {
+      this.sampleRate = Math.max(1, sampleRate);
+      this.ring = capacity > 0 ? new Trace[capacity] : null;
+    }
+
+    public void shift(@NotNull Supplier<@NotNull Trace> trace) {
+      if (record()) doShift(trace.get());
+      else skipped++;
+    }
+
+    public void append(@NotNull Supplier<@NotNull Trace> trace) {
+      shift(trace);
+      reduce();
+    }
+
+    @Override public void shift(@NotNull Trace trace) {
+      if (record()) doShift(trace);
+      else skipped++;
+    }
+
+    private void doShift(@NotNull Trace trace) {
+      if (ring == null || tops.size() > 1) {
+        super.shift(trace);
+        return;
+      }
+      // Overwrites the oldest one if full
+      ring[(head + kept) % ring.length] = trace;
+      if (kept < ring.length) kept++;
+      else head = (head + 1) % ring.length;
+      tops.addLast(trace.children());
+    }
+
+    /** @return the top-level traces recorded, which is a copy if the capacity is positive */
+    @Override public @NotNull MutableList<@NotNull Trace> root() {
+      if (ring == null) return super.root();
+      var root = MutableList.<Trace>create();
+      for (int i = 0; i < kept; i++) root.append(ring[(head + i) % ring.length]);
+      return root;
+    }
+
+    @Override public void reduce() {
+      if (skipped > 0) skipped--;
+      else super.reduce();
+    }
+
+    private boolean record() {
+      if (skipped > 0) return false;
+      if (tops.size() > 1) return true;
+      return topLevel++ % sampleRate == 0;
+    }
+
     @VisibleForTesting public @NotNull Deque<MutableList<Trace>> getTops() {
       return tops;
     }
@@ -14,6 +14,7 @@ import org.aya.core.def.Def;
 import org.aya.core.ops.Eta;
 import org.aya.core.term.*;
 import org.aya.core.visitor.Subst;
+import org.aya.core.visitor.TeleView;
 import org.aya.core.visitor.Unfolder;
 import org.aya.generic.Arg;
 import org.aya.generic.util.InternalException;
@@ -92,7 +93,8 @@ public final class DefEq {
     if (traceBuilder != null) consumer.accept(traceBuilder);
   }
 
-  private void traceEntrance(@NotNull Trace trace) {
+  /** Freezing the holes traverses the terms, so the trace is not even created unless tracing */
+  private void traceEntrance(@NotNull Supplier<@NotNull Trace> trace) {
     tracing(builder -> builder.shift(trace));
   }
 
@@ -105,6 +107,9 @@ public final class DefEq {
   }
 
   private boolean compare(Term lhs, Term rhs, Sub lr, Sub rl, @Nullable Term type) {
+    state.stats().compare();
+    state.cancellation().checkCanceled();
+    // Identical subterms are cheap to detect if they are shared, see HashCons
     if (lhs == rhs) return true;
     if (compareApprox(lhs, rhs, lr, rl) != null) return true;
     lhs = lhs.normalize(state, NormalizeMode.WHNF);
@@ -180,21 +185,19 @@ public final class DefEq {
       checkParams(l.drop(1), r.drop(1), lr, rl, fail, success));
   }
 
-  private boolean visitArgs(SeqLike<Arg<Term>> l, SeqLike<Arg<Term>> r, Sub lr, Sub rl, SeqLike<Term.Param> params) {
+  private boolean visitArgs(SeqLike<Arg<Term>> l, SeqLike<Arg<Term>> r, Sub lr, Sub rl, @NotNull TeleView params) {
     return visitLists(l.view().map(Arg::term), r.view().map(Arg::term), lr, rl, params);
   }
 
-  private boolean visitLists(SeqLike<Term> l, SeqLike<Term> r, Sub lr, Sub rl, @NotNull SeqLike<Term.Param> types) {
+  private boolean visitLists(SeqLike<Term> l, SeqLike<Term> r, Sub lr, Sub rl, @NotNull TeleView types) {
     if (!l.sizeEquals(r)) return false;
-    if (!r.sizeEquals(types)) return false;
-    var typesSubst = types.view();
+    if (!types.sizeEquals(r)) return false;
     var lu = l.toImmutableSeq();
     var ru = r.toImmutableSeq();
     for (int i = 0; lu.sizeGreaterThan(i); i++) {
       var li = lu.get(i);
-      var head = typesSubst.first();
-      if (!compare(li, ru.get(i), lr, rl, head.type())) return false;
-      typesSubst = typesSubst.drop(1).map(type -> type.subst(head.ref(), li));
+      if (!compare(li, ru.get(i), lr, rl, types.head().type())) return false;
+      types.instantiate(li);
     }
     return true;
   }
@@ -206,17 +209,17 @@ public final class DefEq {
     var retType = getType(lhs, lhsRef);
     // Lossy comparison
     if (visitArgs(lhs.args(), rhs.args(), lr, rl,
-      Term.Param.subst(Def.defTele(lhsRef), ulift))) return retType;
+      new TeleView(Def.defTele(lhsRef), ulift))) return retType;
     if (compareWHNF(lhs, rhs, lr, rl, retType)) return retType;
     else return null;
   }
 
   private @NotNull Term getType(@NotNull CallTerm lhs, @NotNull DefVar<? extends Def, ?> lhsRef) {
     var substMap = MutableMap.<Var, Term>create();
-    for (var pa : lhs.args().view().zip(lhsRef.core.telescope().view())) {
+    for (var pa : lhs.args().view().zip(lhsRef.core().telescope().view())) {
       substMap.set(pa._2.ref(), pa._1.term());
     }
-    return lhsRef.core.result().subst(substMap);
+    return lhsRef.core().result().subst(substMap);
   }
 
   private static boolean isCall(@NotNull Term term) {
@@ -244,13 +247,13 @@ public final class DefEq {
   }
 
   private boolean doCompareTyped(@NotNull Term type, @NotNull Term lhs, @NotNull Term rhs, Sub lr, Sub rl) {
-    traceEntrance(new Trace.UnifyT(lhs.freezeHoles(state), rhs.freezeHoles(state),
+    if (traceBuilder != null) traceEntrance(() -> new Trace.UnifyT(lhs.freezeHoles(state), rhs.freezeHoles(state),
       pos, type.freezeHoles(state)));
     var ret = switch (type) {
       default -> compareUntyped(lhs, rhs, lr, rl) != null;
       case CallTerm.Struct type1 -> {
-        var fieldSigs = type1.ref().core.fields;
-        var paramSubst = type1.ref().core.telescope().view().zip(type1.args().view()).map(x ->
+        var fieldSigs = type1.ref().core().fields;
+        var paramSubst = type1.ref().core().telescope().view().zip(type1.args().view()).map(x ->
           Tuple2.of(x._1.ref(), x._2.term())).<Var, Term>toImmutableMap();
         var fieldSubst = new Subst(MutableHashMap.create());
         for (var fieldSig : fieldSigs) {
@@ -271,13 +274,13 @@ public final class DefEq {
       case IntroTerm.New $ -> throw new InternalException("NewTerm is never type");
       case ErrorTerm $ -> true;
       case FormTerm.Sigma sigma -> {
-        var params = sigma.params().view();
+        var params = new TeleView(sigma.params());
         for (int i = 1, size = sigma.params().size(); i <= size; i++) {
           var l = new ElimTerm.Proj(lhs, i);
-          var currentParam = params.first();
+          var currentParam = params.head();
           ctx.put(currentParam);
           if (!compare(l, new ElimTerm.Proj(rhs, i), lr, rl, currentParam.type())) yield false;
-          params = params.drop(1).map(x -> x.subst(currentParam.ref(), l));
+          params.instantiate(l);
         }
         ctx.remove(sigma.params().view().map(Term.Param::ref));
         yield true;
@@ -302,7 +305,7 @@ public final class DefEq {
   }
 
   private Term doCompareUntyped(@NotNull Term type, @NotNull Term preRhs, Sub lr, Sub rl) {
-    traceEntrance(new Trace.UnifyT(type.freezeHoles(state),
+    if (traceBuilder != null) traceEntrance(() -> new Trace.UnifyT(type.freezeHoles(state),
       preRhs.freezeHoles(state), this.pos));
     var ret = switch (type) {
       default -> throw new InternalException(type.getClass() + ": " + type);
@@ -327,16 +330,9 @@ public final class DefEq {
         var preTupType = compareUntyped(lhs.of(), rhs.of(), lr, rl);
         if (!(preTupType instanceof FormTerm.Sigma tupType)) yield null;
         if (lhs.ix() != rhs.ix()) yield null;
-        var params = tupType.params().view();
-        var subst = new Subst(MutableMap.create());
-        for (int i = 1; i < lhs.ix(); i++) {
-          var l = new ElimTerm.Proj(lhs, i);
-          var currentParam = params.first();
-          subst.add(currentParam.ref(), l);
-          params = params.drop(1);
-        }
-        if (params.isNotEmpty()) yield params.first().subst(subst).type();
-        yield params.last().subst(subst).type();
+        var params = new TeleView(tupType.params());
+        for (int i = 1; i < lhs.ix(); i++) params.instantiate(new ElimTerm.Proj(lhs, i));
+        yield params.head().type();
       }
       case ErrorTerm term -> ErrorTerm.typeOf(term.freezeHoles(state));
       case FormTerm.Pi lhs -> {
@@ -363,13 +359,13 @@ public final class DefEq {
       case CallTerm.Fn lhs -> null;
       case CallTerm.Data lhs -> {
         if (!(preRhs instanceof CallTerm.Data rhs) || lhs.ref() != rhs.ref()) yield null;
-        var args = visitArgs(lhs.args(), rhs.args(), lr, rl, Term.Param.subst(Def.defTele(lhs.ref()), lhs.ulift()));
+        var args = visitArgs(lhs.args(), rhs.args(), lr, rl, new TeleView(Def.defTele(lhs.ref()), lhs.ulift()));
         // Do not need to be computed precisely because unification won't need this info
         yield args ? FormTerm.Univ.ZERO : null;
       }
       case CallTerm.Struct lhs -> {
         if (!(preRhs instanceof CallTerm.Struct rhs) || lhs.ref() != rhs.ref()) yield null;
-        var args = visitArgs(lhs.args(), rhs.args(), lr, rl, Term.Param.subst(Def.defTele(lhs.ref()), lhs.ulift()));
+        var args = visitArgs(lhs.args(), rhs.args(), lr, rl, new TeleView(Def.defTele(lhs.ref()), lhs.ulift()));
         yield args ? FormTerm.Univ.ZERO : null;
       }
       case CallTerm.Con lhs -> switch (preRhs) {
@@ -377,7 +373,7 @@ public final class DefEq {
           if (lhs.ref() != rhs.ref()) yield null;
           var retType = getType(lhs, lhs.ref());
           // Lossy comparison
-          if (visitArgs(lhs.conArgs(), rhs.conArgs(), lr, rl, Term.Param.subst(CtorDef.conTele(lhs.ref()), lhs.ulift())))
+          if (visitArgs(lhs.conArgs(), rhs.conArgs(), lr, rl, new TeleView(CtorDef.conTele(lhs.ref()), lhs.ulift())))
             yield retType;
           yield null;
         }
@@ -474,7 +470,7 @@ public final class DefEq {
       reporter.report(new HoleProblem.RecursionError(lhs, solved, pos));
       return new ErrorTerm(solved);
     }
-    tracing(builder -> builder.append(new Trace.LabelT(pos, "Hole solved!")));
+    if (traceBuilder != null) traceBuilder.append(new Trace.LabelT(pos, "Hole solved!"));
     return resultTy;
   }
 
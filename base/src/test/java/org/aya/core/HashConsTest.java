@@ -0,0 +1,38 @@
+// Copyright (c) 2020-2022 Yinsen (Tesla) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.core;
+
+import org.aya.core.def.FnDef;
+import org.aya.core.ops.HashCons;
+import org.aya.core.term.Term;
+import org.aya.tyck.TyckDeclTest;
+import org.junit.jupiter.api.Test;
+
+import java.util.function.IntFunction;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HashConsTest {
+  @Test public void alphaAndSharing() {
+    var defs = TyckDeclTest.successTyckDecls("""
+      open data Nat : Type | zero | suc Nat
+      def id1 : Nat -> Nat => \\ x => x
+      def id2 : Nat -> Nat => \\ y => y
+      def fst : Nat -> Nat -> Nat => \\ x => \\ y => x
+      def snd : Nat -> Nat -> Nat => \\ x => \\ y => y
+      def two : Nat => suc (suc zero)
+      def two2 : Nat => suc (suc zero)""")._2;
+    IntFunction<Term> body = i -> ((FnDef) defs.get(i)).body.getLeftValue();
+    assertTrue(HashCons.alphaEquiv(body.apply(1), body.apply(2)));
+    assertEquals(HashCons.Key.of(body.apply(1)), HashCons.Key.of(body.apply(2)));
+    assertFalse(HashCons.alphaEquiv(body.apply(3), body.apply(4)));
+    var table = new HashCons();
+    var two = table.intern(body.apply(5));
+    assertNotSame(body.apply(5), body.apply(6));
+    assertSame(two, table.intern(body.apply(6)));
+    assertEquals(3, table.size());
+    assertEquals(HashCons.structuralHash(two), table.hash(two));
+    // Binders are not merged with alpha-equivalent ones
+    assertNotSame(table.intern(body.apply(1)), table.intern(body.apply(2)));
+  }
+}
@@ -9,6 +9,8 @@ import org.aya.core.term.Term;
 import org.aya.generic.util.NormalizeMode;
 import org.aya.tyck.TyckDeclTest;
 import org.aya.tyck.TyckState;
+import org.aya.util.cancel.CancellationIndicator;
+import org.aya.util.cancel.EvalBudget;
 import org.aya.util.distill.DistillerOptions;
 import org.junit.jupiter.api.Test;
 
@@ -16,6 +18,10 @@ import java.util.Objects;
 import java.util.function.IntFunction;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class NormalizeTest {
@@ -93,4 +99,93 @@ public class NormalizeTest {
     assertEquals("suc zero :< nil", normalizer.apply(defs.size() - 2).toDoc(DistillerOptions.debug()).debugRender());
     assertEquals("suc zero :< nil", normalizer.apply(defs.size() - 1).toDoc(DistillerOptions.debug()).debugRender());
   }
+
+  @Test public void caseTreeFirstMatch() {
+    var res = TyckDeclTest.successTyckDecls("""
+      open data Nat : Type | zero | suc Nat
+      def max (a b : Nat) : Nat
+       | zero, b => b
+       | a, zero => a
+       | suc a, suc b => suc (max a b)
+      def blocked (a : Nat) : Nat => max a zero
+      def unblocked (a : Nat) : Nat => max zero a
+      def two : Nat => max (suc (suc zero)) (suc zero)""");
+    var defs = res._2;
+    var state = new TyckState(res._1);
+    assertNotNull(((FnDef) defs.get(1)).caseTree());
+    IntFunction<Term> normalizer = i -> ((FnDef) defs.get(i)).body.getLeftValue().normalize(state, NormalizeMode.NF);
+    assertTrue(normalizer.apply(2) instanceof CallTerm.Fn fnCall
+      && Objects.equals(fnCall.ref().name(), "max"));
+    assertTrue(normalizer.apply(3) instanceof RefTerm ref
+      && Objects.equals(ref.var().name(), "a"));
+    assertEquals("suc (suc zero)", normalizer.apply(4).toDoc(DistillerOptions.debug()).debugRender());
+  }
+
+  @Test public void nbeAgreesWithNF() {
+    var res = TyckDeclTest.successTyckDecls("""
+      open data Nat : Type | zero | suc Nat
+      def overlap infixl + (a b : Nat) : Nat
+        | zero, a => a
+        | a, zero => a
+        | suc a, b => suc (a + b)
+        | a, suc b => suc (a + b)
+      def Num => Pi (x : Type 0) -> (x -> x) -> (x -> x)
+      def czero : Num => \\ A f x => x
+      def csuc (a : Num) : Num => \\ A f x => a A f (f x)
+      def cmul (a b : Num) : Num => \\A f x => a A (b A f) x
+      def #4 : Num => cmul (csuc (csuc czero)) (csuc (csuc czero))
+      def t1 : Nat => #4 Nat (\\ n => suc n) zero + suc zero
+      def t2 (n : Nat) : Nat => (\\ m => m + suc zero) n
+      """);
+    var state = new TyckState(res._1);
+    var defs = res._2;
+    for (var i = defs.size() - 3; i < defs.size(); i++) {
+      var body = ((FnDef) defs.get(i)).body.getLeftValue();
+      assertEquals(body.normalize(state, NormalizeMode.NF).toDoc(DistillerOptions.debug()).debugRender(),
+        body.normalize(state, NormalizeMode.NBE).toDoc(DistillerOptions.debug()).debugRender());
+    }
+  }
+
+  @Test public void evalBudget() {
+    var res = TyckDeclTest.successTyckDecls("""
+      open data Nat : Type | zero | suc Nat
+      def overlap infixl + (a b : Nat) : Nat
+        | zero, a => a
+        | a, zero => a
+        | suc a, b => suc (a + b)
+        | a, suc b => suc (a + b)
+      def two : Nat => suc (suc zero) + suc (suc zero)""");
+    var body = ((FnDef) res._2.get(2)).body.getLeftValue();
+    var full = new EvalBudget(0, 0, true, CancellationIndicator.NEVER);
+    assertEquals("suc (suc (suc (suc zero)))", body.normalize(new TyckState(res._1, full), NormalizeMode.NF)
+      .toDoc(DistillerOptions.debug()).debugRender());
+    assertFalse(full.exhausted());
+    var partial = new EvalBudget(1, 0, true, CancellationIndicator.NEVER);
+    var stuck = body.normalize(new TyckState(res._1, partial), NormalizeMode.NF);
+    assertTrue(partial.exhausted());
+    assertTrue(stuck.toDoc(DistillerOptions.debug()).debugRender().contains("stuck"));
+    var strict = new EvalBudget(1, 0, false, CancellationIndicator.NEVER);
+    assertThrows(EvalBudget.Exhausted.class, () -> body.normalize(new TyckState(res._1, strict), NormalizeMode.NF));
+  }
+
+  @Test public void whnfCache() {
+    var res = TyckDeclTest.successTyckDecls("""
+      open data Nat : Type | zero | suc Nat
+      def id (a : Nat) : Nat => a
+      def one : Nat => id (suc zero)""");
+    var state = new TyckState(res._1);
+    var body = ((FnDef) res._2.get(2)).body.getLeftValue();
+    var whnf = body.normalize(state, NormalizeMode.WHNF);
+    assertSame(whnf, body.normalize(state, NormalizeMode.WHNF));
+    assertSame(whnf, whnf.normalize(state, NormalizeMode.WHNF));
+    assertEquals(1, state.whnfCache().misses());
+    assertEquals(2, state.whnfCache().hits());
+    // Not blocked on anything, so solving metas does not outdate it
+    state.whnfCache().advance();
+    assertSame(whnf, body.normalize(state, NormalizeMode.WHNF));
+    assertEquals(3, state.whnfCache().hits());
+    state.whnfCache().invalidate();
+    body.normalize(state, NormalizeMode.WHNF);
+    assertEquals(2, state.whnfCache().misses());
+  }
 }
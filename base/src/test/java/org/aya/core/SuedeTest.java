@@ -2,6 +2,10 @@
 // Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
 package org.aya.core;
 
+import kala.collection.immutable.ImmutableSeq;
+import org.aya.core.serde.CompiledAya;
+import org.aya.core.serde.CompiledAyaCodec;
+import org.aya.core.serde.SerDef;
 import org.aya.core.serde.SerTerm;
 import org.aya.core.serde.Serializer;
 import org.aya.tyck.TyckDeclTest;
@@ -10,6 +14,9 @@ import org.jetbrains.annotations.NotNull;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
 public class SuedeTest {
   @Test public void nat() {
     suedeAll("""
@@ -72,9 +79,23 @@ public class SuedeTest {
     var res = TyckDeclTest.successTyckDecls(code);
     var state = new SerTerm.DeState(res._1);
     var serializer = new Serializer(new Serializer.State());
-    res._2.view()
-      .map(serializer::serialize)
+    var serDefs = res._2.map(serializer::serialize);
+    var decoded = binary(serDefs);
+    Assertions.assertEquals(serDefs, decoded);
+    decoded.view()
       .map(ser -> ser.de(state))
       .forEach(Assertions::assertNotNull);
   }
+
+  private @NotNull ImmutableSeq<SerDef> binary(@NotNull ImmutableSeq<SerDef> serDefs) {
+    var compiled = new CompiledAya(ImmutableSeq.empty(), ImmutableSeq.empty(), ImmutableSeq.empty(), serDefs, ImmutableSeq.empty());
+    var out = new ByteArrayOutputStream();
+    try {
+      CompiledAyaCodec.write(compiled, out);
+      return CompiledAyaCodec.read(out.toByteArray()).serDefs()
+        .map(def -> def instanceof SerDef.Lazy lazy ? lazy.def().get() : def);
+    } catch (IOException | ClassNotFoundException e) {
+      throw new AssertionError(e);
+    }
+  }
 }
@@ -0,0 +1,83 @@
+// Copyright (c) 2020-2022 Yinsen (Tesla) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.terck;
+
+import kala.collection.immutable.ImmutableSeq;
+import org.aya.core.Meta;
+import org.aya.core.term.CallTerm;
+import org.aya.util.error.SourcePos;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/** Checks the packed operations against {@link Relation#mul} and {@link Relation#add}, around the size of a word */
+public class CallMatrixTest {
+  private static final int[] WIDTHS = {31, 32, 33};
+  private static final @NotNull CallTerm CALL = new CallTerm.Hole(
+    Meta.from(ImmutableSeq.empty(), "call", null, SourcePos.NONE), 0, ImmutableSeq.empty(), ImmutableSeq.empty());
+  private final @NotNull Random random = new Random(42);
+
+  private static @NotNull ImmutableSeq<Integer> tele(int size) {
+    return IntStream.range(0, size).boxed().collect(ImmutableSeq.factory());
+  }
+
+  private @NotNull CallMatrix<String, Integer> random(@NotNull String domain, @NotNull String codomain, int cols, int rows) {
+    var matrix = new CallMatrix<>(CALL, domain, codomain, tele(cols), tele(rows));
+    var relations = Relation.values();
+    for (int i = 0; i < rows; i++)
+      for (int j = 0; j < cols; j++)
+        matrix.set(i, j, relations[random.nextInt(relations.length)]);
+    return matrix;
+  }
+
+  @Test public void combine() {
+    for (var n : WIDTHS)
+      for (var m : WIDTHS) {
+        var a = random("f", "g", n, m);
+        var b = random("g", "h", m, n + 1);
+        var ba = CallMatrix.combine(a, b);
+        assertEquals(b.rows(), ba.rows());
+        assertEquals(a.cols(), ba.cols());
+        for (int i = 0; i < ba.rows(); i++)
+          for (int j = 0; j < ba.cols(); j++) {
+            var expected = Relation.Unknown;
+            for (int k = 0; k < b.cols(); k++) expected = expected.add(b.get(i, k).mul(a.get(k, j)));
+            assertEquals(expected, ba.get(i, j), "at " + i + ", " + j + " of " + n + "x" + m);
+          }
+      }
+  }
+
+  @Test public void compare() {
+    for (var n : WIDTHS)
+      for (var trial = 0; trial < 64; trial++) {
+        var a = random("f", "g", n, 2);
+        var b = random("f", "g", n, 2);
+        // Make some pairs comparable, which is unlikely for random matrices
+        if (trial % 2 == 0) for (int i = 0; i < a.rows(); i++)
+          for (int j = 0; j < a.cols(); j++)
+            if (!a.get(i, j).lessThanOrEqual(b.get(i, j))) a.set(i, j, b.get(i, j));
+        var lessThanOrEqual = true;
+        for (int i = 0; i < a.rows(); i++)
+          for (int j = 0; j < a.cols(); j++)
+            lessThanOrEqual &= a.get(i, j).lessThanOrEqual(b.get(i, j));
+        assertEquals(lessThanOrEqual ? Relation.LessThan : Relation.Unknown, a.compare(b));
+        assertEquals(Relation.Equal, a.compare(a));
+      }
+  }
+
+  @Test public void setAndGet() {
+    for (var n : WIDTHS) {
+      var matrix = new CallMatrix<>(CALL, "f", "f", tele(n), tele(n));
+      for (int j = 0; j < n; j++) matrix.set(0, j, Relation.values()[j % 3]);
+      // Setting a relation again overwrites it, without touching its neighbours
+      matrix.set(0, n - 1, Relation.Equal);
+      for (int j = 0; j < n - 1; j++) assertEquals(Relation.values()[j % 3], matrix.get(0, j));
+      assertEquals(Relation.Equal, matrix.get(0, n - 1));
+      assertEquals(Relation.Unknown, matrix.get(n - 1, n - 1));
+    }
+  }
+}
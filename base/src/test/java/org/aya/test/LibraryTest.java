@@ -3,16 +3,24 @@
 package org.aya.test;
 
 import kala.collection.immutable.ImmutableSeq;
+import kala.collection.mutable.MutableList;
 import kala.collection.mutable.MutableSet;
+import org.aya.cli.library.DependencyCache;
 import org.aya.cli.library.LibraryCompiler;
+import org.aya.cli.library.LibraryProfiler;
 import org.aya.cli.library.incremental.CompilerAdvisor;
 import org.aya.cli.library.incremental.DelegateCompilerAdvisor;
 import org.aya.cli.library.incremental.InMemoryCompilerAdvisor;
 import org.aya.cli.library.json.LibraryConfigData;
 import org.aya.cli.library.source.DiskLibraryOwner;
 import org.aya.cli.library.source.LibraryOwner;
+import org.aya.cli.library.source.LibrarySource;
+import org.aya.cli.single.CompilerFlags;
+import org.aya.core.def.GenericDef;
 import org.aya.core.def.PrimDef;
+import org.aya.core.serde.Serializer;
 import org.aya.lsp.prim.LspPrimFactory;
+import org.aya.resolve.ResolveInfo;
 import org.aya.util.FileUtil;
 import org.aya.util.reporter.ThrowingReporter;
 import org.jetbrains.annotations.NotNull;
@@ -23,10 +31,12 @@ import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.lang.reflect.Proxy;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.attribute.FileTime;
+import java.util.concurrent.ForkJoinPool;
 
-import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.*;
 
 public class LibraryTest {
   @Test public void testOnDisk() throws IOException {
@@ -40,6 +50,43 @@ public class LibraryTest {
     assertEquals(0, compile());
   }
 
+  @Test public void testTouchedOnDisk() throws IOException {
+    assertEquals(0, compile());
+    var owner = DiskLibraryOwner.from(LibraryConfigData.fromLibraryRoot(DIR));
+    var source = owner.librarySources().first().file();
+    Files.setLastModifiedTime(source, FileTime.fromMillis(System.currentTimeMillis() + 60_000));
+    var saved = MutableList.<LibrarySource>create();
+    // Unchanged contents should not be recompiled
+    assertEquals(0, compile(new PrimDef.Factory(), saving(saved), owner));
+    assertEquals(ImmutableSeq.empty(), saved.toImmutableSeq());
+  }
+
+  @Test public void testRestoredOnDisk() throws IOException {
+    assertEquals(0, compile());
+    var owner = DiskLibraryOwner.from(LibraryConfigData.fromLibraryRoot(DIR));
+    var source = owner.librarySources().first();
+    var content = Files.readString(source.file());
+    try {
+      Files.writeString(source.file(), content + "\n-- edited\n");
+      // Like a core restored from a cache, which is newer than the edited source
+      Files.setLastModifiedTime(source.compiledCorePath(), FileTime.fromMillis(System.currentTimeMillis() + 60_000));
+      var saved = MutableList.<LibrarySource>create();
+      assertEquals(0, compile(new PrimDef.Factory(), saving(saved), owner));
+      assertTrue(saved.contains(source));
+    } finally {
+      Files.writeString(source.file(), content);
+    }
+  }
+
+  private static @NotNull CompilerAdvisor saving(@NotNull MutableList<LibrarySource> saved) {
+    return new DelegateCompilerAdvisor(CompilerAdvisor.onDisk()) {
+      @Override public void doSaveCompiledCore(Serializer.@NotNull State serState, @NotNull LibrarySource file, @NotNull ResolveInfo resolveInfo, @NotNull ImmutableSeq<GenericDef> defs) throws IOException {
+        saved.append(file);
+        super.doSaveCompiledCore(serState, file, resolveInfo, defs);
+      }
+    };
+  }
+
   @Test public void testInMemoryAndPrim() throws IOException {
     var factory = new LspPrimFactory();
     var advisor = new TestAdvisor();
@@ -62,6 +109,43 @@ public class LibraryTest {
     data.assertDelegate();
   }
 
+  @Test public void testParallel() throws IOException {
+    var owner = DiskLibraryOwner.from(LibraryConfigData.fromLibraryRoot(DIR));
+    var compiler = LibraryCompiler.newCompiler(new PrimDef.Factory(), ThrowingReporter.INSTANCE,
+      TestRunner.flags(), CompilerAdvisor.inMemory(), owner, 4);
+    assertEquals(0, compiler.start());
+  }
+
+  @Test public void testProfile() throws IOException {
+    var owner = DiskLibraryOwner.from(LibraryConfigData.fromLibraryRoot(DIR));
+    var profiler = new LibraryProfiler();
+    var base = TestRunner.flags();
+    var flags = new CompilerFlags(base.message(), false, false, null, base.modulePaths(), null, profiler);
+    assertEquals(0, LibraryCompiler.newCompiler(new PrimDef.Factory(), ThrowingReporter.INSTANCE,
+      flags, CompilerAdvisor.inMemory(), owner).start());
+    var samples = profiler.samples();
+    assertTrue(samples.anyMatch(s -> s.phase() == LibraryProfiler.Phase.Body));
+    assertTrue(samples.allMatch(s -> s.nanos() >= 0 && s.steps() >= 0 && s.hits() >= 0 && s.misses() >= 0));
+    assertTrue(samples.anyMatch(s -> s.misses() > 0));
+    assertEquals(samples.size(), profiler.chromeTrace().lines().filter(l -> l.contains("\"ph\":\"X\"")).count());
+    assertTrue(profiler.collapsedStacks().lines().allMatch(l -> l.matches(".+;.+;(Header|Body) \\d+")));
+  }
+
+  @Test public void testDependencyCache() throws IOException {
+    var cache = new DependencyCache();
+    var first = DiskLibraryOwner.from(LibraryConfigData.fromLibraryRoot(DIR));
+    var second = DiskLibraryOwner.from(LibraryConfigData.fromLibraryRoot(DIR));
+    cache.warmUp(first, ForkJoinPool.commonPool(), ThrowingReporter.INSTANCE).join();
+    var common = cache.loaded(first.libraryDeps().first());
+    assertNotNull(common);
+    // The same version of 'common' is not loaded again
+    cache.warmUp(second, ForkJoinPool.commonPool()).join();
+    assertSame(common, cache.loaded(second.libraryDeps().first()));
+    var factory = new PrimDef.Factory();
+    factory.importAll(common.primFactory());
+    assertEquals(0, compile(factory, cache.advisor(CompilerAdvisor.inMemory()), second));
+  }
+
   private static final class TestAdvisor extends InMemoryCompilerAdvisor {
     public void clearPrimitiveAya() {
       coreTimestamp.replaceAll((path, time) ->
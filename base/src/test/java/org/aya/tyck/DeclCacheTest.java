@@ -0,0 +1,91 @@
+// Copyright (c) 2020-2022 Yinsen (Tesla) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.tyck;
+
+import org.aya.cli.parse.AyaParserImpl;
+import org.aya.concrete.desugar.AyaBinOpSet;
+import org.aya.concrete.stmt.Stmt;
+import org.aya.core.def.PrimDef;
+import org.aya.resolve.ResolveInfo;
+import org.aya.resolve.context.EmptyContext;
+import org.aya.resolve.module.EmptyModuleLoader;
+import org.aya.tyck.order.AyaOrgaTycker;
+import org.aya.tyck.order.AyaSccTycker;
+import org.aya.tyck.order.DeclCache;
+import org.aya.util.error.SourceFile;
+import org.aya.util.reporter.ThrowingReporter;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class DeclCacheTest {
+  private static final String CODE = """
+    open data Nat | zero | suc Nat
+    def add (a b : Nat) : Nat
+    | zero, b => b
+    | suc a, b => suc (add a b)
+    def two : Nat => %s
+    def four : Nat => add two two
+    """;
+
+  @Test public void reuseUnchanged() {
+    var cache = new DeclCache();
+    assertEquals(4, tyck(cache, CODE.formatted("suc (suc zero)")));
+    assertEquals(0, cache.hits());
+    // `two` is tycked to the same result, so `four` is still reused
+    assertEquals(4, tyck(cache, CODE.formatted("suc (suc (zero))")));
+    assertEquals(3, cache.hits());
+  }
+
+  @Test public void retyckUsers() {
+    var cache = new DeclCache();
+    tyck(cache, CODE.formatted("suc (suc zero)"));
+    tyck(cache, CODE.formatted("suc zero"));
+    // Nat and add
+    assertEquals(2, cache.hits());
+  }
+
+  @Test public void retyckAfterFixityChange() {
+    var code = """
+      open data Nat | zero | suc Nat
+      def %s + (a b : Nat) : Nat
+      | zero, b => b
+      | suc a, b => suc (a + b)
+      def three : Nat => suc zero + suc zero + suc zero
+      """;
+    var cache = new DeclCache();
+    tyck(cache, code.formatted("infixl"));
+    tyck(cache, code.formatted("infixr"));
+    // `+` is tycked to the same result, but `three` is parsed differently
+    assertEquals(1, cache.hits());
+  }
+
+  @Test public void retyckAfterOpenChange() {
+    var code = """
+      open data Nat | zero | suc Nat
+      module A { def one : Nat => suc zero }
+      module B { def one : Nat => zero }
+      open %s
+      def x : Nat => one
+      """;
+    var cache = new DeclCache();
+    assertEquals(4, tyck(cache, code.formatted("A")));
+    assertEquals(4, tyck(cache, code.formatted("B")));
+    // `one` in `x` refers to another definition
+    assertEquals(3, cache.hits());
+  }
+
+  /** @return the number of well-typed definitions */
+  private static int tyck(@NotNull DeclCache cache, @NotNull String code) {
+    var stmts = new AyaParserImpl(ThrowingReporter.INSTANCE).program(new SourceFile("cache", Path.of("cache"), code));
+    var context = new EmptyContext(ThrowingReporter.INSTANCE, Path.of("TestSource")).derive("cache");
+    var info = new ResolveInfo(new PrimDef.Factory(), context, stmts, new AyaBinOpSet(ThrowingReporter.INSTANCE));
+    Stmt.resolve(stmts, info, EmptyModuleLoader.INSTANCE);
+    var tycker = new AyaOrgaTycker(AyaSccTycker.create(info, null, ThrowingReporter.INSTANCE, cache), info);
+    info.depGraph().topologicalOrder().forEach(tycker::tyckSCC);
+    return tycker.sccTycker().wellTyped().size();
+  }
+}
@@ -0,0 +1,70 @@
+// Copyright (c) 2020-2022 Yinsen (Tesla) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.tyck;
+
+import kala.collection.SeqView;
+import kala.collection.immutable.ImmutableSeq;
+import org.aya.core.term.FormTerm;
+import org.aya.core.term.Term;
+import org.aya.ref.LocalVar;
+import org.aya.tyck.env.LocalCtx;
+import org.aya.tyck.env.MapLocalCtx;
+import org.aya.util.error.SourcePos;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LocalCtxTest {
+  private static final @NotNull LocalVar A = new LocalVar("A");
+  private static final @NotNull LocalVar X = new LocalVar("x");
+  private static final @NotNull LocalVar Y = new LocalVar("y");
+
+  private static @NotNull ImmutableSeq<LocalVar> vars(@NotNull LocalCtx ctx) {
+    return ctx.extract().map(Term.Param::ref);
+  }
+
+  @Test public void holesShareContext() {
+    var ctx = new MapLocalCtx();
+    ctx.put(A, FormTerm.Univ.ZERO);
+    var first = ctx.freshHole(FormTerm.Univ.ZERO, SourcePos.NONE)._1;
+    var second = ctx.freshHole(FormTerm.Univ.ZERO, SourcePos.NONE)._1;
+    assertSame(first.contextArgs(), second.contextArgs());
+    assertSame(first.ref().contextTele, second.ref().contextTele);
+    // Taking a snapshot does not change anything
+    var snapshot = ctx.snapshot();
+    assertSame(snapshot, ctx.snapshot());
+    assertSame(snapshot.tele(), ctx.extract());
+    // Holes in a `with` see the new binding, and holes after it share the context again
+    var inner = ctx.with(X, FormTerm.Univ.ZERO, () -> {
+      assertEquals(ImmutableSeq.of(A, X), vars(ctx));
+      return ctx.freshHole(FormTerm.Univ.ZERO, SourcePos.NONE)._1;
+    });
+    assertEquals(2, inner.contextArgs().size());
+    var after = ctx.freshHole(FormTerm.Univ.ZERO, SourcePos.NONE)._1;
+    assertSame(first.contextArgs(), after.contextArgs());
+    assertSame(snapshot, ctx.snapshot());
+  }
+
+  @Test public void bindingsAfterRemove() {
+    var parent = new MapLocalCtx();
+    parent.put(A, FormTerm.Univ.ZERO);
+    var ctx = parent.deriveSeq();
+    ctx.put(X, FormTerm.Univ.ZERO);
+    ctx.put(Y, FormTerm.Univ.ZERO);
+    var before = ctx.extract();
+    assertEquals(ImmutableSeq.of(X, Y, A), vars(ctx));
+    // Removing a binding other than the latest one
+    ctx.remove(SeqView.of(X));
+    assertEquals(ImmutableSeq.of(Y, A), vars(ctx));
+    assertEquals(ImmutableSeq.of(Y, X, A), ctx.with(X, FormTerm.Univ.ZERO, () -> vars(ctx)));
+    assertEquals(ImmutableSeq.of(Y, A), vars(ctx));
+    // Old snapshots are not affected
+    assertEquals(ImmutableSeq.of(X, Y, A), before.map(Term.Param::ref));
+    // Changing the parent is seen by the context derived from it
+    assertEquals(ImmutableSeq.of(Y, A, X), parent.with(X, FormTerm.Univ.ZERO, () -> vars(ctx)));
+    assertEquals(ImmutableSeq.of(Y, A), vars(ctx));
+    ctx.remove(SeqView.of(Y));
+    assertEquals(ImmutableSeq.of(A), vars(ctx));
+  }
+}
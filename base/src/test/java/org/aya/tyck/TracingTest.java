@@ -13,6 +13,7 @@ import java.util.Objects;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class TracingTest {
   @Language("TEXT")
@@ -30,10 +31,32 @@ public class TracingTest {
     assertEquals(1, tops.size());
   }
 
+  @Test public void traceSampled() {
+    var all = mkBuilder(CODE).root().size();
+    assertTrue(all > 1);
+    var sampled = mkBuilder(CODE, new Trace.Builder(all, 0));
+    assertEquals(1, sampled.root().size());
+    assertEquals(1, sampled.getTops().size());
+    var last = mkBuilder(CODE, new Trace.Builder(1, 1));
+    assertEquals(1, last.root().size());
+    assertEquals(1, last.getTops().size());
+  }
+
+  @Test public void traceKeptInOrder() {
+    var all = mkBuilder(CODE).root();
+    assertTrue(all.size() > 2);
+    var kept = mkBuilder(CODE, new Trace.Builder(1, 2)).root();
+    assertEquals(all.view().drop(all.size() - 2).map(Object::getClass).toImmutableSeq(),
+      kept.view().map(Object::getClass).toImmutableSeq());
+  }
+
   @NotNull private Trace.Builder mkBuilder(@Language("TEXT") String code) {
+    return mkBuilder(code, new Trace.Builder());
+  }
+
+  @NotNull private Trace.Builder mkBuilder(@Language("TEXT") String code, @NotNull Trace.Builder builder) {
     var res =  TyckDeclTest.successDesugarDecls(code);
     var decls = res._2;
-    var builder = new Trace.Builder();
     decls.forEach(decl -> {
       if (decl instanceof TeleDecl signatured) TyckDeclTest.tyck(res._1, signatured, builder);
     });
@@ -7,6 +7,7 @@ module aya.cli {
 
   requires com.google.gson;
   requires info.picocli;
+  requires jdk.management;
   requires org.antlr.antlr4.runtime;
   requires org.fusesource.jansi;
   requires org.jline.builtins;
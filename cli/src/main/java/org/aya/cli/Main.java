@@ -3,6 +3,7 @@
 package org.aya.cli;
 
 import org.aya.cli.library.LibraryCompiler;
+import org.aya.cli.library.LibraryProfiler;
 import org.aya.cli.library.incremental.CompilerAdvisor;
 import org.aya.cli.repl.AyaRepl;
 import org.aya.cli.repl.ReplConfig;
@@ -13,8 +14,11 @@ import org.aya.cli.utils.MainArgs;
 import org.aya.core.def.PrimDef;
 import org.aya.tyck.trace.MdUnicodeTrace;
 import org.aya.tyck.trace.Trace;
+import org.jetbrains.annotations.NotNull;
 import picocli.CommandLine;
 
+import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.concurrent.Callable;
 
@@ -44,22 +48,37 @@ public class Main extends MainArgs implements Callable<Integer> {
       prettyFormat,
       Paths.get(prettyDir != null ? prettyDir : ".")
     ) : null;
+    var isLibrary = action.compile.isLibrary || action.compile.isRemake || action.compile.isNoCode;
+    var profiler = profile && isLibrary ? new LibraryProfiler() : null;
     var flags = new CompilerFlags(message, interruptedTrace,
       action.compile.isRemake, distillation,
       modulePaths().view().map(Paths::get),
-      outputPath);
+      outputPath, profiler);
 
-    if (action.compile.isLibrary || action.compile.isRemake || action.compile.isNoCode) {
+    if (isLibrary) {
       // TODO: move to a new tool
       var advisor = action.compile.isNoCode ? CompilerAdvisor.inMemory() : CompilerAdvisor.onDisk();
-      return LibraryCompiler.compile(new PrimDef.Factory(), reporter, flags, advisor, filePath);
+      var status = LibraryCompiler.compile(new PrimDef.Factory(), reporter, flags, advisor, filePath, action.compile.jobs);
+      if (profiler != null) writeProfile(profiler);
+      return status;
     }
-    var traceBuilder = enableTrace ? new Trace.Builder() : null;
+    if (profile) reporter.reportString("Profiling is only supported when compiling a library, see `--make`");
+    var traceBuilder = enableTrace ? new Trace.Builder(traceSample, traceLast) : null;
     var compiler = new SingleFileCompiler(reporter, null, traceBuilder, distillOptions);
     var status = compiler.compile(filePath, flags, null);
-    if (traceBuilder != null)
+    if (traceBuilder != null && (traceLast <= 0 || status != 0))
       System.err.println(new MdUnicodeTrace(2, distillOptions)
         .docify(traceBuilder).debugRender());
     return status;
   }
+
+  private void writeProfile(@NotNull LibraryProfiler profiler) throws IOException {
+    var profile = switch (profileFormat) {
+      case table -> profiler.table();
+      case collapsed -> profiler.collapsedStacks();
+      case chrome -> profiler.chromeTrace();
+    };
+    if (profileOutput != null) Files.writeString(Paths.get(profileOutput), profile);
+    else System.err.print(profile);
+  }
 }
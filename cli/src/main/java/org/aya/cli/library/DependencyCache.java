@@ -0,0 +1,193 @@
+// Copyright (c) 2020-2022 Tesla (Yinsen) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.cli.library;
+
+import kala.collection.SeqView;
+import kala.collection.immutable.ImmutableMap;
+import kala.collection.immutable.ImmutableSeq;
+import kala.collection.mutable.MutableMap;
+import org.aya.cli.library.incremental.CompilerAdvisor;
+import org.aya.cli.library.incremental.DelegateCompilerAdvisor;
+import org.aya.cli.library.source.LibraryOwner;
+import org.aya.cli.library.source.LibrarySource;
+import org.aya.cli.single.CompilerFlags;
+import org.aya.core.def.PrimDef;
+import org.aya.core.serde.SerTerm;
+import org.aya.generic.Constants;
+import org.aya.resolve.ResolveInfo;
+import org.aya.resolve.module.CachedModuleLoader;
+import org.aya.resolve.module.ModuleLoader;
+import org.aya.util.reporter.BufferReporter;
+import org.aya.util.reporter.CountingReporter;
+import org.aya.util.reporter.Problem;
+import org.aya.util.reporter.Reporter;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Compiled modules of dependency libraries, loaded once per process and shared by all the libraries
+ * depending on the same version of a library, for example, the projects opened in the language server
+ * that use the same standard library. The modules are loaded from the compiled cores of the dependency,
+ * which is compiled on disk first if it is not built yet, like the command line compiler does.
+ * <p>
+ * Dependencies are never rechecked after they are loaded, so the cache is read-only.
+ *
+ * @see #advisor(CompilerAdvisor)
+ */
+public final class DependencyCache {
+  public static final @NotNull DependencyCache SHARED = new DependencyCache();
+  private static final @NotNull CompilerFlags FLAGS = new CompilerFlags(CompilerFlags.Message.ASCII, false, false, null, SeqView.empty(), null);
+
+  private record Key(@NotNull String name, @NotNull String version, @NotNull Path root) {
+    static @NotNull Key of(@NotNull LibraryOwner owner) {
+      var config = owner.underlyingLibrary();
+      return new Key(config.name(), config.version(), config.libraryRoot().toAbsolutePath().normalize());
+    }
+  }
+
+  /**
+   * @param primFactory the primitives defined in the library and its dependencies,
+   *                    which should be known to the libraries using them, see {@link PrimDef.Factory#importAll}
+   */
+  public record Library(
+    @NotNull ImmutableMap<ImmutableSeq<String>, ResolveInfo> modules,
+    @NotNull PrimDef.Factory primFactory
+  ) {}
+
+  /** Completed with null if the library cannot be loaded, which is then compiled as usual */
+  private final @NotNull Map<Key, CompletableFuture<@Nullable Library>> libraries = new ConcurrentHashMap<>();
+  /** Why the libraries cannot be loaded, reported to the libraries depending on them, see {@link #warmUp(LibraryOwner, Executor, Reporter)} */
+  private final @NotNull Map<Key, ImmutableSeq<Problem>> failures = new ConcurrentHashMap<>();
+  /**
+   * The owners warmed up as dependencies. A library opened by itself is not one of them,
+   * even if it is the same as a dependency of another library, so it is still rechecked when edited.
+   */
+  private final @NotNull Set<LibraryOwner> dependencies = Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<>()));
+
+  /** Loads the dependencies of the library in parallel, each after its own dependencies. */
+  public @NotNull CompletableFuture<Void> warmUp(@NotNull LibraryOwner owner, @NotNull Executor executor) {
+    return CompletableFuture.allOf(owner.libraryDeps()
+      .map(dep -> load(dep, executor))
+      .stream().toArray(CompletableFuture[]::new));
+  }
+
+  /** Loads the dependencies like {@link #warmUp(LibraryOwner, Executor)}, then reports why some of them cannot be loaded */
+  public @NotNull CompletableFuture<Void> warmUp(
+    @NotNull LibraryOwner owner, @NotNull Executor executor, @NotNull Reporter reporter
+  ) {
+    return warmUp(owner, executor).thenRun(() -> reportFailures(owner, reporter, new HashSet<>()));
+  }
+
+  private void reportFailures(@NotNull LibraryOwner owner, @NotNull Reporter reporter, @NotNull Set<Key> reported) {
+    owner.libraryDeps().forEach(dep -> {
+      var key = Key.of(dep);
+      if (!reported.add(key)) return;
+      reportFailures(dep, reporter, reported);
+      failures.getOrDefault(key, ImmutableSeq.empty()).forEach(reporter::report);
+    });
+  }
+
+  private @NotNull CompletableFuture<@Nullable Library> load(@NotNull LibraryOwner dep, @NotNull Executor executor) {
+    dependencies.add(dep);
+    var key = Key.of(dep);
+    var loading = libraries.get(key);
+    if (loading != null) return loading;
+    var future = new CompletableFuture<@Nullable Library>();
+    loading = libraries.putIfAbsent(key, future);
+    if (loading != null) return loading;
+    warmUp(dep, executor).thenApplyAsync(v -> load(dep), executor).whenComplete((library, e) -> {
+      if (e != null) fail(dep, new BufferReporter(), e.toString());
+      future.complete(library);
+    });
+    return future;
+  }
+
+  /** @return null if the library is not loaded yet or cannot be loaded */
+  public @Nullable Library loaded(@NotNull LibraryOwner dep) {
+    var loading = libraries.get(Key.of(dep));
+    return loading != null && loading.isDone() ? loading.join() : null;
+  }
+
+  private @Nullable Library load(@NotNull LibraryOwner dep) {
+    var reporter = new BufferReporter();
+    var deps = dep.libraryDeps().map(this::loaded).toImmutableSeq();
+    if (deps.anyMatch(d -> d == null)) return fail(dep, reporter, "some of its dependencies cannot be loaded");
+    var primFactory = new PrimDef.Factory();
+    deps.forEach(d -> primFactory.importAll(d.primFactory));
+    var advisor = new Advisor(CompilerAdvisor.onDisk());
+    try {
+      if (LibraryCompiler.newCompiler(primFactory, reporter, FLAGS, advisor, dep).start() != 0)
+        return fail(dep, reporter, "it does not compile");
+      var loader = new CachedModuleLoader<>(new LibraryModuleLoader(CountingReporter.delegate(reporter),
+        dep, advisor, new LibraryModuleLoader.United(primFactory)));
+      var modules = MutableMap.<ImmutableSeq<String>, ResolveInfo>create();
+      for (var src : dep.librarySources()) {
+        var info = loader.load(src.moduleName());
+        if (info == null) return fail(dep, reporter, "module " + src.moduleName().joinToString(Constants.SCOPE_SEPARATOR) + " cannot be loaded");
+        modules.put(src.moduleName(), info);
+      }
+      return new Library(ImmutableMap.from(modules), primFactory);
+    } catch (IOException | RuntimeException e) {
+      return fail(dep, reporter, e.toString());
+    }
+  }
+
+  /** Records the problems found when loading the library, together with the reason */
+  private @Nullable Library fail(@NotNull LibraryOwner dep, @NotNull BufferReporter reporter, @NotNull String reason) {
+    reporter.reportString("Cannot load the dependency " + dep.underlyingLibrary().name() + ", because " + reason);
+    failures.put(Key.of(dep), reporter.problems().toImmutableSeq());
+    return null;
+  }
+
+  /** The advisor that serves the modules of the loaded dependencies instead of compiling them again. */
+  public @NotNull CompilerAdvisor advisor(@NotNull CompilerAdvisor delegate) {
+    return new Advisor(delegate);
+  }
+
+  private final class Advisor extends DelegateCompilerAdvisor {
+    private Advisor(@NotNull CompilerAdvisor delegate) {
+      super(delegate);
+    }
+
+    @Override public boolean isSourceModified(@NotNull LibrarySource source) {
+      var owner = source.owner();
+      if (dependencies.contains(owner) && loaded(owner) != null) return false;
+      return super.isSourceModified(source);
+    }
+
+    /** Only the modules of the library being compiled (if it is a dependency) and its dependencies are served */
+    @Override public @Nullable ResolveInfo doLoadCompiledCore(
+      SerTerm.@NotNull DeState deState, @NotNull Reporter reporter, @NotNull ImmutableSeq<String> mod,
+      @Nullable Path sourcePath, @Nullable Path corePath, @NotNull ModuleLoader recurseLoader
+    ) throws IOException, ClassNotFoundException {
+      if (recurseLoader instanceof CachedModuleLoader<?> cached && cached.loader instanceof LibraryModuleLoader loader) {
+        var info = find(loader.owner(), mod, new HashSet<>());
+        if (info != null) return info;
+      }
+      return super.doLoadCompiledCore(deState, reporter, mod, sourcePath, corePath, recurseLoader);
+    }
+
+    private @Nullable ResolveInfo find(@NotNull LibraryOwner owner, @NotNull ImmutableSeq<String> mod, @NotNull Set<Key> visited) {
+      if (!visited.add(Key.of(owner))) return null;
+      var library = dependencies.contains(owner) ? loaded(owner) : null;
+      var info = library != null ? library.modules.getOrNull(mod) : null;
+      if (info != null) return info;
+      for (var dep : owner.libraryDeps()) {
+        info = find(dep, mod, visited);
+        if (info != null) return info;
+      }
+      return null;
+    }
+  }
+}
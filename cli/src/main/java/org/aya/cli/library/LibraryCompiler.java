@@ -3,6 +3,7 @@
 package org.aya.cli.library;
 
 import kala.collection.immutable.ImmutableSeq;
+import kala.collection.mutable.MutableMap;
 import kala.collection.mutable.MutableSet;
 import org.aya.cli.library.incremental.CompilerAdvisor;
 import org.aya.cli.library.json.LibraryConfigData;
@@ -24,16 +25,26 @@ import org.aya.resolve.module.CachedModuleLoader;
 import org.aya.resolve.module.ModuleLoader;
 import org.aya.util.MutableGraph;
 import org.aya.util.StringUtil;
+import org.aya.util.reporter.BufferReporter;
 import org.aya.util.reporter.CountingReporter;
 import org.aya.util.reporter.Reporter;
 import org.aya.util.tyck.OrgaTycker;
+import org.aya.util.tyck.SCCScheduler;
 import org.aya.util.tyck.SCCTycker;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * @author kiva
@@ -44,14 +55,23 @@ public class LibraryCompiler {
   private final @NotNull CountingReporter reporter;
   private final @NotNull CompilerFlags flags;
   private final @NotNull CompilerAdvisor advisor;
+  /** Parses files and tycks independent modules in parallel if not null, see {@link #newCompiler(PrimDef.Factory, Reporter, CompilerFlags, CompilerAdvisor, LibraryOwner, int)} */
+  private final @Nullable ForkJoinPool pool;
+  /**
+   * Modules whose interfaces are changed in this build (see {@link CompilerAdvisor#interfaceHash}),
+   * shared with the compilers of dependencies. Only importers of these modules need to be rechecked.
+   */
+  private final @NotNull Set<LibrarySource> changed;
 
-  private LibraryCompiler(@NotNull Reporter reporter, @NotNull CompilerFlags flags, @NotNull LibraryOwner owner, @NotNull CompilerAdvisor advisor, @NotNull LibraryModuleLoader.United states) {
+  private LibraryCompiler(@NotNull Reporter reporter, @NotNull CompilerFlags flags, @NotNull LibraryOwner owner, @NotNull CompilerAdvisor advisor, @NotNull LibraryModuleLoader.United states, @Nullable ForkJoinPool pool, @NotNull Set<LibrarySource> changed) {
     var counting = CountingReporter.delegate(reporter);
     this.advisor = advisor;
     this.moduleLoader = new CachedModuleLoader<>(new LibraryModuleLoader(counting, owner, advisor, states));
     this.reporter = counting;
     this.flags = flags;
     this.owner = owner;
+    this.pool = pool;
+    this.changed = changed;
   }
 
   public static @NotNull LibraryCompiler newCompiler(
@@ -61,7 +81,23 @@ public class LibraryCompiler {
     @NotNull CompilerAdvisor advisor,
     @NotNull LibraryOwner owner
   ) {
-    return new LibraryCompiler(reporter, flags, owner, advisor, new LibraryModuleLoader.United(primFactory));
+    return newCompiler(primFactory, reporter, flags, advisor, owner, 1);
+  }
+
+  /**
+   * @param jobs the number of threads used to parse files and tyck independent modules,
+   *             the compilation is sequential if it is not greater than 1.
+   */
+  public static @NotNull LibraryCompiler newCompiler(
+    @NotNull PrimDef.Factory primFactory,
+    @NotNull Reporter reporter,
+    @NotNull CompilerFlags flags,
+    @NotNull CompilerAdvisor advisor,
+    @NotNull LibraryOwner owner,
+    int jobs
+  ) {
+    var pool = jobs > 1 ? new ForkJoinPool(jobs) : null;
+    return new LibraryCompiler(reporter, flags, owner, advisor, new LibraryModuleLoader.United(primFactory, flags.profiler(), pool), pool, ConcurrentHashMap.newKeySet());
   }
 
   public static @NotNull LibraryCompiler newCompiler(
@@ -70,10 +106,21 @@ public class LibraryCompiler {
     @NotNull CompilerFlags flags,
     @NotNull CompilerAdvisor advisor,
     @NotNull Path libraryRoot
+  ) throws IOException {
+    return newCompiler(primFactory, reporter, flags, advisor, libraryRoot, 1);
+  }
+
+  public static @NotNull LibraryCompiler newCompiler(
+    @NotNull PrimDef.Factory primFactory,
+    @NotNull Reporter reporter,
+    @NotNull CompilerFlags flags,
+    @NotNull CompilerAdvisor advisor,
+    @NotNull Path libraryRoot,
+    int jobs
   ) throws IOException {
     var config = LibraryConfigData.fromLibraryRoot(libraryRoot);
     var owner = DiskLibraryOwner.from(config);
-    return newCompiler(primFactory, reporter, flags, advisor, owner);
+    return newCompiler(primFactory, reporter, flags, advisor, owner, jobs);
   }
 
   public static int compile(
@@ -82,34 +129,65 @@ public class LibraryCompiler {
     @NotNull CompilerFlags flags,
     @NotNull CompilerAdvisor advisor,
     @NotNull Path libraryRoot
+  ) throws IOException {
+    return compile(primFactory, reporter, flags, advisor, libraryRoot, 1);
+  }
+
+  public static int compile(
+    @NotNull PrimDef.Factory primFactory,
+    @NotNull Reporter reporter,
+    @NotNull CompilerFlags flags,
+    @NotNull CompilerAdvisor advisor,
+    @NotNull Path libraryRoot,
+    int jobs
   ) throws IOException {
     if (!Files.exists(libraryRoot)) {
       reporter.reportString("Specified library root does not exist: " + libraryRoot);
       return 1;
     }
-    return newCompiler(primFactory, reporter, flags, advisor, libraryRoot).start();
+    return newCompiler(primFactory, reporter, flags, advisor, libraryRoot, jobs).start();
   }
 
-  private void parse(@NotNull LibrarySource source) throws IOException {
-    var owner = source.owner();
-    var program = new AyaParserImpl(reporter).program(owner.locator(), source.file());
+  private void parse(@NotNull LibrarySource source, @NotNull Reporter reporter) throws IOException {
+    var program = new AyaParserImpl(reporter).program(source.toSourceFile(advisor.readSource(source)));
     source.program().set(program);
   }
 
-  /** @return whether the source file is already parsed. */
-  private boolean parseIfNeeded(@NotNull LibrarySource source) throws IOException {
-    if (source.program().get() != null) return true; // already parsed
-    parse(source);
-    return false;
+  /**
+   * Parses the source files in parallel if {@link #pool} is present. Like {@link #tyckParallel},
+   * each file reports to its own buffer, which is reported in the order of the files.
+   */
+  private void parse(@NotNull ImmutableSeq<LibrarySource> sources) throws IOException {
+    if (pool == null) {
+      for (var src : sources) parse(src, reporter);
+      return;
+    }
+    var buffers = sources.map(src -> new BufferReporter());
+    var tasks = sources.zip(buffers).map(task -> CompletableFuture.runAsync(() -> {
+      try {
+        parse(task._1, task._2);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }, pool));
+    try {
+      // Wait for all the files even if some of them fail, so the buffers are no longer used when reported
+      CompletableFuture.allOf(tasks.stream().toArray(CompletableFuture[]::new)).join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof UncheckedIOException cause) throw cause.getCause();
+      if (e.getCause() instanceof RuntimeException cause) throw cause;
+      throw e;
+    } finally {
+      buffers.forEach(buffer -> buffer.problems().forEach(reporter::report));
+    }
   }
 
   /**
    * Traverse the source file's import statements and build its dependency graph.
-   * The graph is used to generate incremental build list according to files'
-   * last modified time.
+   * The graph is used to generate incremental build list according to
+   * modified files and changed interfaces of imported modules.
    */
-  private void resolveImportsIfNeeded(@NotNull LibrarySource source) throws IOException {
-    if (parseIfNeeded(source)) return; // already resolved
+  private void resolveImports(@NotNull LibrarySource source) throws IOException {
     var finder = new ImportResolver((mod, sourcePos) -> {
       var recurse = owner.findModule(mod);
       if (recurse == null) {
@@ -125,10 +203,13 @@ public class LibraryCompiler {
     var depGraph = MutableGraph.<LibrarySource>create();
     reportNest("[Info] Resolving source file dependency");
     var startTime = System.currentTimeMillis();
-    owner.librarySources().forEachChecked(src -> {
-      resolveImportsIfNeeded(src);
-      depGraph.sucMut(src).appendAll(src.imports());
-    });
+    // Parsed source files are already resolved
+    var unparsed = owner.librarySources()
+      .filter(src -> src.program().get() == null)
+      .toImmutableSeq();
+    parse(unparsed);
+    unparsed.forEachChecked(this::resolveImports);
+    owner.librarySources().forEach(src -> depGraph.sucMut(src).appendAll(src.imports()));
     reporter.reportNest("Done in " + StringUtil.timeToString(
       System.currentTimeMillis() - startTime), LibraryOwner.DEFAULT_INDENT + 2);
     return depGraph;
@@ -141,7 +222,11 @@ public class LibraryCompiler {
       "Warning: command-line specified module path is ignored when compiling libraries.");
     if (flags.distillInfo() != null) reporter.reportString(
       "Warning: command-line specified distill info is ignored when compiling libraries.");
-    return AyaCompiler.catching(reporter, flags, this::make);
+    try {
+      return AyaCompiler.catching(reporter, flags, this::make);
+    } finally {
+      if (pool != null) pool.shutdown();
+    }
   }
 
   /**
@@ -152,17 +237,15 @@ public class LibraryCompiler {
    */
   private boolean make() throws IOException {
     var library = owner.underlyingLibrary();
-    var anyDepChanged = false;
     for (var dep : owner.libraryDeps()) {
-      var depCompiler = new LibraryCompiler(reporter, flags, dep, advisor, moduleLoader.loader.states());
-      var upToDate = depCompiler.make();
-      anyDepChanged = anyDepChanged || !upToDate;
+      var depCompiler = new LibraryCompiler(reporter, flags, dep, advisor, moduleLoader.loader.states(), pool, changed);
+      depCompiler.make();
       owner.addModulePath(dep.outDir());
     }
 
     reporter.reportString("Compiling " + library.name());
     var startTime = System.currentTimeMillis();
-    if (anyDepChanged || flags.remake()) {
+    if (flags.remake()) {
       owner.librarySources().forEach(this::clearModified);
       advisor.clearLibraryOutput(owner);
     }
@@ -171,7 +254,7 @@ public class LibraryCompiler {
     owner.addModulePath(srcRoot);
 
     var modified = collectModified();
-    if (modified.isEmpty()) {
+    if (modified.isEmpty() && changed.isEmpty()) {
       reportNest("[Info] No changes detected, no need to remake");
       return true;
     }
@@ -189,7 +272,15 @@ public class LibraryCompiler {
     // modified sources need reparse
     modified.forEach(this::clearModified);
     var depGraph = resolveImports();
-    var affected = collectAffected(modified, depGraph);
+    // Importers of changed modules in dependencies are rechecked as well
+    var dirty = owner.librarySources()
+      .filter(src -> modified.contains(src) || src.imports().anyMatch(changed::contains))
+      .toImmutableSeq();
+    if (dirty.isEmpty()) {
+      reportNest("[Info] No changes detected, no need to remake");
+      return true;
+    }
+    var affected = collectAffected(dirty, depGraph);
     var SCCs = affected.topologicalOrder().view()
       .reversed().toImmutableSeq();
     // ^ top order generated from usage graph should be reversed.
@@ -200,13 +291,21 @@ public class LibraryCompiler {
 
     // clear some info instead of reparse? No we can't, because
     // the StmtResolver mutates the concrete tree.
-    SCCs.forEachChecked(i -> i.forEachChecked(this::reparseAffected));
+    var reparse = SCCs.flatMap(i -> i).filter(src -> src.tycked().get() != null);
+    reparse.forEach(this::clearAffected);
+    parse(reparse);
 
     advisor.prepareLibraryOutput(owner);
     advisor.notifyIncrementalJob(modified, SCCs);
 
-    var tycker = new LibraryOrgaTycker(new LibrarySccTycker(reporter, moduleLoader, advisor), affected);
-    SCCs.forEachChecked(tycker::tyckSCC);
+    var modifiedSet = new HashSet<LibrarySource>();
+    modified.forEach(modifiedSet::add);
+    var tycker = new LibraryOrgaTycker(new LibrarySccTycker(reporter, moduleLoader, advisor, modifiedSet, changed), affected);
+    if (pool == null) SCCs.forEachChecked(scc -> {
+      tycker.tyckSCC(scc);
+      advisor.notifySCCTycked(scc);
+    });
+    else tyckParallel(tycker, modifiedSet, SCCs, depGraph, pool);
     if (tycker.skippedSet.isNotEmpty()) {
       reporter.reportString("I dislike the following module(s):");
       tycker.skippedSet.forEach(f -> reportNest(String.format("%s (%s)", QualifiedID.join(f.moduleName()), f.displayPath())));
@@ -217,12 +316,49 @@ public class LibraryCompiler {
     return false;
   }
 
-  private void reparseAffected(@NotNull LibrarySource src) throws IOException {
-    if (src.tycked().get() == null) return;
+  /**
+   * Independent SCCs are tycked in parallel, each with its own reporter. The problems are reported
+   * to {@link #reporter} in the topological order after all SCCs are tycked, so the output does not
+   * depend on the scheduling. The modules are shared via {@link #moduleLoader}.
+   *
+   * @param depGraph the dependency graph, the SCCs of it are tycked after their dependencies
+   */
+  private void tyckParallel(
+    @NotNull LibraryOrgaTycker tycker,
+    @NotNull Set<LibrarySource> modified,
+    @NotNull ImmutableSeq<ImmutableSeq<LibrarySource>> SCCs,
+    @NotNull MutableGraph<LibrarySource> depGraph,
+    @NotNull ForkJoinPool pool
+  ) throws IOException {
+    var states = moduleLoader.loader.states();
+    // Each buffer is only used by the task of its SCC
+    var buffers = SCCs.map(scc -> new BufferReporter());
+    var bufferOf = MutableMap.<LibrarySource, BufferReporter>create();
+    for (int i = 0; i < SCCs.size(); i++) bufferOf.put(SCCs.get(i).first(), buffers.get(i));
+    try {
+      new SCCScheduler<>(SCCs, depGraph).run(pool, scc -> {
+        var counting = CountingReporter.delegate(bufferOf.get(scc.first()));
+        var loader = moduleLoader.share(new LibraryModuleLoader(counting, owner, advisor, states));
+        try {
+          tycker.tyckSCC(new LibrarySccTycker(counting, loader, advisor, modified, changed), scc);
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        } finally {
+          advisor.notifySCCTycked(scc);
+        }
+        return scc;
+      });
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    } finally {
+      buffers.forEach(buffer -> buffer.problems().forEach(reporter::report));
+    }
+  }
+
+  private void clearAffected(@NotNull LibrarySource src) {
     src.tycked().set(null);
     src.resolveInfo().set(null);
     clearPrimitives(src.program().get());
-    parse(src);
   }
 
   private void clearModified(@NotNull LibrarySource src) {
@@ -273,7 +409,7 @@ public class LibraryCompiler {
     static void clear(@NotNull PrimDef.Factory factory, @NotNull Stmt stmt) {
       switch (stmt) {
         case Command.Module mod -> clear(factory, mod.contents());
-        case TeleDecl.PrimDecl decl && decl.ref.core != null -> factory.clear(decl.ref.core.id);
+        case TeleDecl.PrimDecl decl && decl.ref.core() != null -> factory.clear(decl.ref.core().id);
         default -> {}
       }
     }
@@ -293,20 +429,34 @@ public class LibraryCompiler {
     }
   }
 
+  /**
+   * @param modified the sources modified by user
+   * @param changed  the sources whose interfaces are changed, updated after tycking
+   */
   record LibrarySccTycker(
     @NotNull CountingReporter reporter,
     @NotNull ModuleLoader moduleLoader,
-    @NotNull CompilerAdvisor advisor
+    @NotNull CompilerAdvisor advisor,
+    @NotNull Set<LibrarySource> modified,
+    @NotNull Set<LibrarySource> changed
   ) implements SCCTycker<LibrarySource, IOException> {
     @Override
     public @NotNull ImmutableSeq<LibrarySource> tyckSCC(@NotNull ImmutableSeq<LibrarySource> order) throws IOException {
+      // Affected only by imports whose interfaces are unchanged, the compiled cores are still valid
+      var dirty = order.anyMatch(f -> modified.contains(f) || f.imports().anyMatch(changed::contains));
+      if (!dirty) return ImmutableSeq.empty();
+      var oldHashes = order.map(advisor::interfaceHash);
       for (var f : order) advisor.clearModuleOutput(f);
-      for (var f : order) {
+      for (int i = 0; i < order.size(); i++) {
+        var f = order.get(i);
         tyckOne(f);
         if (reporter.anyError()) {
           reporter.clear();
+          changed.add(f);
           return ImmutableSeq.of(f);
         }
+        var newHash = advisor.interfaceHash(f);
+        if (newHash == null || !Arrays.equals(oldHashes.get(i), newHash)) changed.add(f);
       }
       return ImmutableSeq.empty();
     }
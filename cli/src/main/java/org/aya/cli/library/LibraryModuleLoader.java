@@ -15,12 +15,15 @@ import org.aya.resolve.ResolveInfo;
 import org.aya.resolve.context.EmptyContext;
 import org.aya.resolve.module.FileModuleLoader;
 import org.aya.resolve.module.ModuleLoader;
+import org.aya.tyck.order.DeclCache;
+import org.aya.tyck.order.TyckProfiler;
 import org.aya.util.FileUtil;
 import org.aya.util.reporter.CountingReporter;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.nio.file.Path;
+import java.util.concurrent.Executor;
 
 /**
  * This module loader is used to load source/compiled modules in a library.
@@ -83,6 +86,18 @@ record LibraryModuleLoader(
     });
   }
 
+  @Override public @Nullable Executor tyckExecutor() {
+    return states.tyckExecutor;
+  }
+
+  @Override public @Nullable DeclCache declCache() {
+    return advisor.declCache();
+  }
+
+  @Override public @Nullable TyckProfiler profiler() {
+    return states.profiler;
+  }
+
   private @Nullable ResolveInfo loadCompiledCore(
     @NotNull ImmutableSeq<String> mod, @Nullable Path sourcePath,
     @Nullable Path corePath, @NotNull ModuleLoader recurseLoader
@@ -98,9 +113,18 @@ record LibraryModuleLoader(
     advisor.saveCompiledCore(states.ser, file, resolveInfo, defs);
   }
 
-  record United(@NotNull SerTerm.DeState de, @NotNull Serializer.State ser, @NotNull PrimDef.Factory primFactory) {
+  /** @param tyckExecutor see {@link ModuleLoader#tyckExecutor()}, usually the pool of {@link LibraryCompiler} */
+  record United(
+    @NotNull SerTerm.DeState de, @NotNull Serializer.State ser,
+    @NotNull PrimDef.Factory primFactory, @Nullable TyckProfiler profiler,
+    @Nullable Executor tyckExecutor
+  ) {
     public United(@NotNull PrimDef.Factory primFactory) {
-      this(new SerTerm.DeState(primFactory), new Serializer.State(), primFactory);
+      this(primFactory, null, null);
+    }
+
+    public United(@NotNull PrimDef.Factory primFactory, @Nullable TyckProfiler profiler, @Nullable Executor tyckExecutor) {
+      this(new SerTerm.DeState(primFactory), new Serializer.State(), primFactory, profiler, tyckExecutor);
     }
   }
 }
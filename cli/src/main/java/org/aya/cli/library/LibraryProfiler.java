@@ -0,0 +1,157 @@
+// Copyright (c) 2020-2022 Yinsen (Tesla) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.cli.library;
+
+import kala.collection.immutable.ImmutableSeq;
+import org.aya.concrete.stmt.Decl;
+import org.aya.generic.Constants;
+import org.aya.tyck.TyckState;
+import org.aya.tyck.TyckStats;
+import org.aya.tyck.WhnfCache;
+import org.aya.tyck.order.TyckOrder;
+import org.aya.tyck.order.TyckProfiler;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.management.ManagementFactory;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Measures the time and the allocation of tycking each header and body, for <code>--profile</code>.
+ * Samples are recorded by all the threads tycking in parallel, and exported as a table,
+ * collapsed stacks (for flame graph tools) or a Chrome trace (for <code>chrome://tracing</code>).
+ *
+ * @see TyckStats
+ */
+public final class LibraryProfiler implements TyckProfiler {
+  public enum Phase {Header, Body}
+
+  /**
+   * @param start     nanoseconds since the profiler is created
+   * @param allocated bytes allocated by the thread, or -1 if not supported by the JVM
+   * @param steps     see {@link TyckStats#step()}
+   * @param compares  see {@link TyckStats#compare()}
+   * @param hits      the weak head normal forms found in the cache, see {@link WhnfCache#hits()}
+   * @param misses    the weak head normal forms computed, see {@link WhnfCache#misses()}
+   * @param metas     the metas solved
+   */
+  public record Sample(
+    @NotNull String module, @NotNull String name, @NotNull Phase phase,
+    long start, long nanos, long allocated,
+    long steps, long compares, long hits, long misses, int metas, long thread
+  ) {}
+
+  private final @Nullable com.sun.management.ThreadMXBean threads;
+  private final long origin = System.nanoTime();
+  private final @NotNull Queue<Sample> samples = new ConcurrentLinkedQueue<>();
+
+  public LibraryProfiler() {
+    var bean = ManagementFactory.getThreadMXBean();
+    threads = bean instanceof com.sun.management.ThreadMXBean sun && sun.isThreadAllocatedMemorySupported()
+      ? sun : null;
+    if (threads != null) threads.setThreadAllocatedMemoryEnabled(true);
+  }
+
+  /** @param state the state of the tycker running the task, which is only used by this thread during the task */
+  public <T> T profile(
+    @NotNull ImmutableSeq<String> module, @NotNull String name, @NotNull Phase phase,
+    @NotNull TyckState state, @NotNull Supplier<T> task
+  ) {
+    var thread = Thread.currentThread().getId();
+    var allocated = allocated(thread);
+    var steps = state.stats().steps();
+    var compares = state.stats().compares();
+    var hits = state.whnfCache().hits();
+    var misses = state.whnfCache().misses();
+    var metas = state.metas().size();
+    var start = System.nanoTime();
+    try {
+      return task.get();
+    } finally {
+      var end = System.nanoTime();
+      samples.add(new Sample(module.joinToString(Constants.SCOPE_SEPARATOR), name, phase, start - origin, end - start,
+        allocated < 0 ? -1 : allocated(thread) - allocated,
+        state.stats().steps() - steps, state.stats().compares() - compares,
+        state.whnfCache().hits() - hits, state.whnfCache().misses() - misses,
+        state.metas().size() - metas, thread));
+    }
+  }
+
+  @Override public <T> T profile(
+    @NotNull ImmutableSeq<String> module, @NotNull TyckOrder order,
+    @NotNull TyckState state, @NotNull Supplier<T> task
+  ) {
+    var phase = order instanceof TyckOrder.Head ? Phase.Header : Phase.Body;
+    var name = order.unit() instanceof Decl decl ? decl.ref().name() : "<remark>";
+    return profile(module, name, phase, state, task);
+  }
+
+  private long allocated(long thread) {
+    return threads != null ? threads.getThreadAllocatedBytes(thread) : -1;
+  }
+
+  public @NotNull ImmutableSeq<Sample> samples() {
+    return samples.stream().collect(ImmutableSeq.factory());
+  }
+
+  /** The samples of each declaration merged, the slowest first. */
+  public @NotNull String table() {
+    var merged = new LinkedHashMap<String, Sample>();
+    samples.forEach(s -> merged.merge(s.module + Constants.SCOPE_SEPARATOR + s.name + " (" + s.phase + ")", s, (a, b) ->
+      new Sample(a.module, a.name, a.phase, a.start, a.nanos + b.nanos,
+        a.allocated < 0 ? -1 : a.allocated + b.allocated,
+        a.steps + b.steps, a.compares + b.compares, a.hits + b.hits, a.misses + b.misses,
+        a.metas + b.metas, a.thread)));
+    var builder = new StringBuilder(String.format("%-48s %10s %12s %10s %10s %10s %10s %6s%n",
+      "Declaration", "Time (ms)", "Alloc (KiB)", "Steps", "Compares", "WHNF hits", "WHNF miss", "Metas"));
+    merged.entrySet().stream()
+      .sorted(Comparator.comparingLong(e -> -e.getValue().nanos))
+      .forEach(e -> {
+        var s = e.getValue();
+        builder.append(String.format("%-48s %10.2f %12s %10d %10d %10d %10d %6d%n", e.getKey(), s.nanos / 1e6,
+          s.allocated < 0 ? "-" : String.valueOf(s.allocated / 1024), s.steps, s.compares, s.hits, s.misses, s.metas));
+      });
+    return builder.toString();
+  }
+
+  /** One line per stack <code>module;declaration;phase microseconds</code>, as expected by flamegraph.pl */
+  public @NotNull String collapsedStacks() {
+    return samples.stream()
+      .collect(Collectors.groupingBy(s -> s.module + ";" + s.name + ";" + s.phase,
+        LinkedHashMap::new, Collectors.summingLong(Sample::nanos)))
+      .entrySet().stream()
+      .map(e -> e.getKey() + " " + Math.max(1, e.getValue() / 1000))
+      .collect(Collectors.joining("\n", "", "\n"));
+  }
+
+  /** Complete events of the Trace Event Format, one track per thread */
+  public @NotNull String chromeTrace() {
+    return samples.stream().map(s -> String.format(
+        "{\"name\":\"%s\",\"cat\":\"%s\",\"ph\":\"X\",\"ts\":%d,\"dur\":%d,\"pid\":1,\"tid\":%d,"
+          + "\"args\":{\"module\":\"%s\",\"allocated\":%d,\"steps\":%d,\"compares\":%d,"
+          + "\"whnfHits\":%d,\"whnfMisses\":%d,\"metas\":%d}}",
+        escape(s.name), s.phase, s.start / 1000, Math.max(1, s.nanos / 1000), s.thread,
+        escape(s.module), s.allocated, s.steps, s.compares, s.hits, s.misses, s.metas))
+      .collect(Collectors.joining(",\n", "{\"traceEvents\":[\n", "\n]}\n"));
+  }
+
+  private static @NotNull String escape(@NotNull String s) {
+    var builder = new StringBuilder(s.length());
+    for (var c : s.toCharArray()) {
+      switch (c) {
+        case '"' -> builder.append("\\\"");
+        case '\\' -> builder.append("\\\\");
+        default -> {
+          if (c < 0x20) builder.append(String.format("\\u%04x", (int) c));
+          else builder.append(c);
+        }
+      }
+    }
+    return builder.toString();
+  }
+}
@@ -12,12 +12,14 @@ import org.aya.generic.util.InternalException;
 import org.aya.resolve.ResolveInfo;
 import org.aya.resolve.module.CachedModuleLoader;
 import org.aya.resolve.module.ModuleLoader;
+import org.aya.tyck.order.DeclCache;
 import org.aya.util.reporter.Reporter;
 import org.jetbrains.annotations.ApiStatus;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 
 /**
@@ -35,8 +37,28 @@ public interface CompilerAdvisor {
   }
 
   boolean isSourceModified(@NotNull LibrarySource source);
+  /** @return the content of the source, which can differ from the file when it is being edited. */
+  default @NotNull String readSource(@NotNull LibrarySource source) throws IOException {
+    return Files.readString(source.file());
+  }
   void updateLastModified(@NotNull LibrarySource source);
 
+  /**
+   * The hash of the compiled core of the source as observed by its importers,
+   * see {@link org.aya.core.serde.CompiledAyaCodec#interfaceHash}.
+   * Importers are only rechecked when it changes, so it is always considered changed if null.
+   *
+   * @return null if unknown, or the advisor does not support it.
+   */
+  default byte @Nullable [] interfaceHash(@NotNull LibrarySource source) {
+    return null;
+  }
+
+  /** @return the results of declarations to reuse when a module is tycked again, or null if not supported */
+  default @Nullable DeclCache declCache() {
+    return null;
+  }
+
   void prepareLibraryOutput(@NotNull LibraryOwner owner) throws IOException;
   void clearLibraryOutput(@NotNull LibraryOwner owner) throws IOException;
   void clearModuleOutput(@NotNull LibrarySource source) throws IOException;
@@ -54,6 +76,13 @@ public interface CompilerAdvisor {
   ) {
   }
 
+  /**
+   * Called when an SCC of {@link #notifyIncrementalJob} is tycked or skipped,
+   * so the problems of its sources are all reported.
+   */
+  default void notifySCCTycked(@NotNull ImmutableSeq<LibrarySource> scc) {
+  }
+
   /**
    * Try to load the compiled core.
    * For {@link DiskCompilerAdvisor}, returns null if the core path does not exist
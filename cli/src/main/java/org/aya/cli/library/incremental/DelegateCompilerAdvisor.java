@@ -10,6 +10,7 @@ import org.aya.core.serde.SerTerm;
 import org.aya.core.serde.Serializer;
 import org.aya.resolve.ResolveInfo;
 import org.aya.resolve.module.ModuleLoader;
+import org.aya.tyck.order.DeclCache;
 import org.aya.util.reporter.Reporter;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -29,14 +30,30 @@ public class DelegateCompilerAdvisor implements CompilerAdvisor {
     delegate.notifyIncrementalJob(modified, affected);
   }
 
+  @Override public void notifySCCTycked(@NotNull ImmutableSeq<LibrarySource> scc) {
+    delegate.notifySCCTycked(scc);
+  }
+
   @Override public boolean isSourceModified(@NotNull LibrarySource source) {
     return delegate.isSourceModified(source);
   }
 
+  @Override public @NotNull String readSource(@NotNull LibrarySource source) throws IOException {
+    return delegate.readSource(source);
+  }
+
   @Override public void updateLastModified(@NotNull LibrarySource source) {
     delegate.updateLastModified(source);
   }
 
+  @Override public byte @Nullable [] interfaceHash(@NotNull LibrarySource source) {
+    return delegate.interfaceHash(source);
+  }
+
+  @Override public @Nullable DeclCache declCache() {
+    return delegate.declCache();
+  }
+
   @Override public void prepareLibraryOutput(@NotNull LibraryOwner owner) throws IOException {
     delegate.prepareLibraryOutput(owner);
   }
@@ -6,8 +6,11 @@ import kala.collection.immutable.ImmutableSeq;
 import org.aya.cli.library.source.LibraryOwner;
 import org.aya.cli.library.source.LibrarySource;
 import org.aya.cli.utils.AyaCompiler;
+import org.aya.concrete.stmt.QualifiedID;
 import org.aya.core.def.GenericDef;
 import org.aya.core.serde.CompiledAya;
+import org.aya.core.serde.CompiledAyaCodec;
+import org.aya.core.serde.SerDef;
 import org.aya.core.serde.SerTerm;
 import org.aya.core.serde.Serializer;
 import org.aya.resolve.ResolveInfo;
@@ -19,21 +22,49 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.TreeMap;
 
 public class DiskCompilerAdvisor implements CompilerAdvisor {
+  /**
+   * A source is modified if its content is not the one the compiled core is compiled from.
+   * Modification times are reset by restoring caches or checking out, so they are only compared
+   * if the hash of the source is not recorded (in files produced by Java serialization).
+   */
   @Override public boolean isSourceModified(@NotNull LibrarySource source) {
     try {
       var core = source.compiledCorePath();
       if (!Files.exists(core)) return true;
-      return Files.getLastModifiedTime(source.file())
+      var fingerprint = readFingerprint(core);
+      if (fingerprint == null) return Files.getLastModifiedTime(source.file())
         .compareTo(Files.getLastModifiedTime(core)) > 0;
-    } catch (IOException ignore) {
+      return !Arrays.equals(fingerprint.source(), CompiledAyaCodec.hash(Files.readAllBytes(source.file())));
+    } catch (IOException | SerDef.DeserializeException ignore) {
       return true;
     }
   }
 
+  @Override public byte @Nullable [] interfaceHash(@NotNull LibrarySource source) {
+    try {
+      var core = source.compiledCorePath();
+      if (!Files.exists(core)) return null;
+      var fingerprint = readFingerprint(core);
+      return fingerprint == null ? null : fingerprint.interfaceHash();
+    } catch (IOException | SerDef.DeserializeException ignore) {
+      return null;
+    }
+  }
+
+  private static @Nullable CompiledAyaCodec.Fingerprint readFingerprint(@NotNull Path core) throws IOException {
+    try (var channel = FileChannel.open(core, StandardOpenOption.READ)) {
+      return CompiledAyaCodec.readFingerprint(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    }
+  }
+
   @Override public void updateLastModified(@NotNull LibrarySource source) {
     try {
       var core = source.compiledCorePath();
@@ -66,8 +97,9 @@ public class DiskCompilerAdvisor implements CompilerAdvisor {
     if (!Files.exists(corePath)) return null;
 
     var context = new EmptyContext(reporter, sourcePath).derive(mod);
-    try (var inputStream = FileUtil.ois(corePath)) {
-      var compiledAya = (CompiledAya) inputStream.readObject();
+    // Definitions are decoded from the mapped file on demand
+    try (var channel = FileChannel.open(corePath, StandardOpenOption.READ)) {
+      var compiledAya = CompiledAyaCodec.read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
       return compiledAya.toResolveInfo(recurseLoader, context, deState);
     }
   }
@@ -79,6 +111,20 @@ public class DiskCompilerAdvisor implements CompilerAdvisor {
     @NotNull ImmutableSeq<GenericDef> defs
   ) throws IOException {
     var coreFile = file.compiledCorePath();
-    AyaCompiler.saveCompiledCore(coreFile, resolveInfo, defs, serState);
+    var compiledAya = CompiledAya.from(resolveInfo, defs, serState);
+    var sourceHash = CompiledAyaCodec.hash(Files.readAllBytes(file.file()));
+    AyaCompiler.saveCompiledCore(coreFile, compiledAya, new CompiledAyaCodec.Fingerprint(sourceHash,
+      interfaceHash(file, compiledAya)));
+  }
+
+  /** @return null if the interface hash of any import is unknown */
+  private byte @Nullable [] interfaceHash(@NotNull LibrarySource file, @NotNull CompiledAya compiledAya) {
+    var imports = new TreeMap<String, byte[]>();
+    for (var imported : file.imports()) {
+      var hash = interfaceHash(imported);
+      if (hash == null) return null;
+      imports.put(QualifiedID.join(imported.moduleName()), hash);
+    }
+    return CompiledAyaCodec.interfaceHash(compiledAya, imports);
   }
 }
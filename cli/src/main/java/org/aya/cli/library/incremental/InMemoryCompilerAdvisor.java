@@ -11,6 +11,7 @@ import org.aya.core.serde.SerTerm;
 import org.aya.core.serde.Serializer;
 import org.aya.resolve.ResolveInfo;
 import org.aya.resolve.module.ModuleLoader;
+import org.aya.tyck.order.DeclCache;
 import org.aya.util.reporter.Reporter;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -23,12 +24,14 @@ import java.nio.file.attribute.FileTime;
 public class InMemoryCompilerAdvisor implements CompilerAdvisor {
   protected final @NotNull MutableMap<Path, FileTime> coreTimestamp = MutableMap.create();
   protected final @NotNull MutableMap<ImmutableSeq<String>, ResolveInfo> compiledCore = MutableMap.create();
-  
+  /** Modules are always tycked from source, so the unchanged declarations are reused */
+  protected final @NotNull DeclCache declCache = new DeclCache();
+
   protected @NotNull Path timestampKey(@NotNull LibrarySource source) {
     return source.file();
   }
 
-  @Override public boolean isSourceModified(@NotNull LibrarySource source) {
+  @Override public synchronized boolean isSourceModified(@NotNull LibrarySource source) {
     var coreLastModified = coreTimestamp.getOption(timestampKey(source));
     try {
       if (coreLastModified.isEmpty()) return true;
@@ -39,30 +42,34 @@ public class InMemoryCompilerAdvisor implements CompilerAdvisor {
     }
   }
 
-  @Override public void updateLastModified(@NotNull LibrarySource source) {
+  @Override public synchronized void updateLastModified(@NotNull LibrarySource source) {
     try {
       coreTimestamp.put(timestampKey(source), Files.getLastModifiedTime(timestampKey(source)));
     } catch (IOException ignore) {
     }
   }
 
+  @Override public @NotNull DeclCache declCache() {
+    return declCache;
+  }
+
   @Override public void prepareLibraryOutput(@NotNull LibraryOwner owner) {
   }
 
-  @Override public void clearLibraryOutput(@NotNull LibraryOwner owner) {
+  @Override public synchronized void clearLibraryOutput(@NotNull LibraryOwner owner) {
     owner.librarySources().forEach(src -> {
       coreTimestamp.remove(timestampKey(src));
       clearModuleOutput(src);
     });
   }
 
-  @Override public void clearModuleOutput(@NotNull LibrarySource source) {
+  @Override public synchronized void clearModuleOutput(@NotNull LibrarySource source) {
     // TODO: what if module name clashes?
     compiledCore.remove(source.moduleName());
   }
 
   @Override
-  public @Nullable ResolveInfo doLoadCompiledCore(
+  public synchronized @Nullable ResolveInfo doLoadCompiledCore(
     SerTerm.@NotNull DeState deState,
     @NotNull Reporter reporter,
     @NotNull ImmutableSeq<String> mod,
@@ -74,7 +81,7 @@ public class InMemoryCompilerAdvisor implements CompilerAdvisor {
     return compiledCore.getOrNull(mod);
   }
 
-  @Override public void doSaveCompiledCore(
+  @Override public synchronized void doSaveCompiledCore(
     Serializer.@NotNull State serState,
     @NotNull LibrarySource file,
     @NotNull ResolveInfo resolveInfo,
@@ -54,6 +54,8 @@ public abstract class AyaRepl implements Closeable, Runnable, Repl {
       ReplCommands.QUIT,
       ReplCommands.CHANGE_PROMPT,
       ReplCommands.CHANGE_NORM_MODE,
+      ReplCommands.CHANGE_EVAL_STEPS,
+      ReplCommands.CHANGE_EVAL_TIMEOUT,
       ReplCommands.TOGGLE_DISTILL,
       ReplCommands.SHOW_TYPE,
       ReplCommands.CHANGE_PP_WIDTH,
@@ -103,7 +105,7 @@ public abstract class AyaRepl implements Closeable, Runnable, Repl {
   }
 
   @Override public @NotNull Command.Output eval(@NotNull String line) {
-    var programOrTerm = replCompiler.compileToContext(line, config.normalizeMode);
+    var programOrTerm = replCompiler.compileToContext(line, config.normalizeMode, config::evalBudget);
     return Command.Output.stdout(programOrTerm.fold(
       program -> Doc.vcat(program.view().map(def -> def.toDoc(config.distillerOptions))),
       this::render
@@ -88,6 +88,22 @@ public interface ReplCommands {
     }
   };
 
+  @NotNull Command CHANGE_EVAL_STEPS = new Command(ImmutableSeq.of("eval-steps"), "Set or display the maximal steps of normalization, 0 for no limit") {
+    @Entry public @NotNull Command.Result execute(@NotNull AyaRepl repl, @Nullable Integer steps) {
+      if (steps == null) return Result.ok("Normalization steps: " + repl.config.evalSteps, true);
+      repl.config.evalSteps = steps;
+      return Result.ok("Normalization steps set to " + steps, true);
+    }
+  };
+
+  @NotNull Command CHANGE_EVAL_TIMEOUT = new Command(ImmutableSeq.of("eval-timeout"), "Set or display the timeout of normalization in milliseconds, 0 for no limit") {
+    @Entry public @NotNull Command.Result execute(@NotNull AyaRepl repl, @Nullable Integer timeout) {
+      if (timeout == null) return Result.ok("Normalization timeout: " + repl.config.evalTimeout + " ms", true);
+      repl.config.evalTimeout = timeout;
+      return Result.ok("Normalization timeout set to " + timeout + " ms", true);
+    }
+  };
+
   @NotNull Command TOGGLE_DISTILL = new Command(ImmutableSeq.of("print-toggle"), "Toggle a pretty printing option") {
     @Entry public @NotNull Command.Result execute(@NotNull AyaRepl repl, @Nullable DistillerOptions.Key key) {
       var builder = new StringBuilder();
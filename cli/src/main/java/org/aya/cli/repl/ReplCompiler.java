@@ -28,6 +28,8 @@ import org.aya.resolve.module.FileModuleLoader;
 import org.aya.resolve.module.ModuleListLoader;
 import org.aya.tyck.ExprTycker;
 import org.aya.tyck.TyckState;
+import org.aya.util.cancel.CancellationIndicator;
+import org.aya.util.cancel.EvalBudget;
 import org.aya.util.error.SourceFileLocator;
 import org.aya.util.error.SourcePos;
 import org.aya.util.reporter.CountingReporter;
@@ -39,6 +41,7 @@ import org.jetbrains.annotations.Nullable;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.function.Supplier;
 
 public class ReplCompiler {
   final @NotNull CountingReporter reporter;
@@ -112,10 +115,15 @@ public class ReplCompiler {
   /**
    * Copied and adapted.
    *
-   * @param text the text of code to compile, witch might either be a `program` or an `expr`.
+   * @param text   the text of code to compile, witch might either be a `program` or an `expr`.
+   * @param budget limits the normalization of an `expr`, see {@link ReplConfig#evalBudget()},
+   *               which is created when the normalization starts, so parsing and tycking are not counted
    * @see org.aya.cli.single.SingleFileCompiler#compile
    */
-  public @NotNull Either<ImmutableSeq<GenericDef>, Term> compileToContext(@NotNull String text, @NotNull NormalizeMode normalizeMode) {
+  public @NotNull Either<ImmutableSeq<GenericDef>, Term> compileToContext(
+    @NotNull String text, @NotNull NormalizeMode normalizeMode,
+    @NotNull Supplier<? extends CancellationIndicator> budget
+  ) {
     if (text.isBlank()) return Either.left(ImmutableSeq.empty());
     var locator = this.locator != null ? this.locator : new SourceFileLocator.Module(modulePaths);
     try {
@@ -133,14 +141,24 @@ public class ReplCompiler {
           shapeFactory.merge();
           return newDefs.get();
         },
-        expr -> tyckExpr(expr).wellTyped().normalize(new TyckState(primFactory), normalizeMode)
+        expr -> {
+          var wellTyped = tyckExpr(expr).wellTyped();
+          return wellTyped.normalize(new TyckState(primFactory, budget.get()), normalizeMode);
+        }
       );
     } catch (InterruptException ignored) {
       // Only two kinds of interruptions are possible: parsing and resolving
       return Either.left(ImmutableSeq.empty());
+    } catch (EvalBudget.Exhausted e) {
+      reporter.reportString(e.getMessage());
+      return Either.left(ImmutableSeq.empty());
     }
   }
 
+  public @NotNull Either<ImmutableSeq<GenericDef>, Term> compileToContext(@NotNull String text, @NotNull NormalizeMode normalizeMode) {
+    return compileToContext(text, normalizeMode, () -> CancellationIndicator.NEVER);
+  }
+
   /**
    * Adapted.
    *
@@ -7,6 +7,8 @@ import com.google.gson.GsonBuilder;
 import com.google.gson.InstanceCreator;
 import org.aya.generic.util.AyaHome;
 import org.aya.generic.util.NormalizeMode;
+import org.aya.util.cancel.CancellationIndicator;
+import org.aya.util.cancel.EvalBudget;
 import org.aya.util.distill.DistillerOptions;
 import org.jetbrains.annotations.NotNull;
 
@@ -18,6 +20,12 @@ public class ReplConfig implements AutoCloseable {
   public transient final Path configFile;
   public @NotNull String prompt = "> ";
   public @NotNull NormalizeMode normalizeMode = NormalizeMode.NF;
+  /** The steps of normalizing an expression, nonpositive for no limit, see {@link EvalBudget} */
+  public int evalSteps = 0;
+  /** The time of normalizing an expression in milliseconds, nonpositive for no limit */
+  public int evalTimeout = 30000;
+  /** Whether to print the expression normalized so far instead of failing when the budget is used up */
+  public boolean partialEval = true;
   public @NotNull DistillerOptions distillerOptions = DistillerOptions.pretty();
   public boolean enableUnicode = true;
 
@@ -25,6 +33,10 @@ public class ReplConfig implements AutoCloseable {
     this.configFile = file;
   }
 
+  public @NotNull EvalBudget evalBudget() {
+    return new EvalBudget(evalSteps, evalTimeout, partialEval, CancellationIndicator.NEVER);
+  }
+
   private void checkInitialization() {
     if (distillerOptions.map.isEmpty()) distillerOptions.reset();
   }
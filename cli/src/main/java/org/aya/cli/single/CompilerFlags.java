@@ -4,19 +4,35 @@ package org.aya.cli.single;
 
 import kala.collection.SeqLike;
 import org.aya.cli.utils.MainArgs;
+import org.aya.tyck.order.TyckProfiler;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.nio.file.Path;
 
+/**
+ * @param profiler measures the declarations of the libraries compiled if not null
+ */
 public record CompilerFlags(
   @NotNull Message message,
   boolean interruptedTrace,
   boolean remake,
   @Nullable DistillInfo distillInfo,
   @NotNull SeqLike<Path> modulePaths,
-  @Nullable Path outputFile
+  @Nullable Path outputFile,
+  @Nullable TyckProfiler profiler
 ) {
+  public CompilerFlags(
+    @NotNull Message message,
+    boolean interruptedTrace,
+    boolean remake,
+    @Nullable DistillInfo distillInfo,
+    @NotNull SeqLike<Path> modulePaths,
+    @Nullable Path outputFile
+  ) {
+    this(message, interruptedTrace, remake, distillInfo, modulePaths, outputFile, null);
+  }
+
   public record DistillInfo(
     @NotNull MainArgs.DistillStage distillStage,
     @NotNull MainArgs.DistillFormat distillFormat,
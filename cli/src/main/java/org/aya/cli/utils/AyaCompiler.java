@@ -8,6 +8,7 @@ import org.aya.cli.single.CompilerFlags;
 import org.aya.core.def.Def;
 import org.aya.core.def.GenericDef;
 import org.aya.core.serde.CompiledAya;
+import org.aya.core.serde.CompiledAyaCodec;
 import org.aya.core.serde.Serializer;
 import org.aya.generic.util.InternalException;
 import org.aya.generic.util.InterruptException;
@@ -15,11 +16,14 @@ import org.aya.resolve.ResolveInfo;
 import org.aya.resolve.module.FileModuleLoader;
 import org.aya.util.reporter.CountingReporter;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import java.io.BufferedOutputStream;
 import java.io.IOException;
-import java.io.ObjectOutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 
 public class AyaCompiler {
   public static int catching(
@@ -53,14 +57,32 @@ public class AyaCompiler {
     @NotNull ImmutableSeq<GenericDef> defs,
     @NotNull Serializer.State state
   ) throws IOException {
-    var compiledAya = CompiledAya.from(resolveInfo, defs, state);
-    try (var outputStream = coreWriter(coreFile)) {
-      outputStream.writeObject(compiledAya);
-    }
+    saveCompiledCore(coreFile, CompiledAya.from(resolveInfo, defs, state), null);
   }
 
-  private static @NotNull ObjectOutputStream coreWriter(@NotNull Path coreFile) throws IOException {
-    Files.createDirectories(coreFile.toAbsolutePath().getParent());
-    return new ObjectOutputStream(Files.newOutputStream(coreFile));
+  /**
+   * The core file is written to a temporary file and moved to its place,
+   * since the old one may be mapped into memory and read lazily by others (like the language server).
+   */
+  public static void saveCompiledCore(
+    @NotNull Path coreFile,
+    @NotNull CompiledAya compiledAya,
+    @Nullable CompiledAyaCodec.Fingerprint fingerprint
+  ) throws IOException {
+    var dir = coreFile.toAbsolutePath().getParent();
+    Files.createDirectories(dir);
+    var tempFile = Files.createTempFile(dir, coreFile.getFileName().toString(), ".tmp");
+    try {
+      try (var outputStream = new BufferedOutputStream(Files.newOutputStream(tempFile))) {
+        CompiledAyaCodec.write(compiledAya, fingerprint, outputStream);
+      }
+      try {
+        Files.move(tempFile, coreFile, StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(tempFile, coreFile, StandardCopyOption.REPLACE_EXISTING);
+      }
+    } finally {
+      Files.deleteIfExists(tempFile);
+    }
   }
 }
@@ -37,6 +37,8 @@ public class MainArgs {
     public String inputFile;
     @Option(names = {"-o", "--output"}, description = "Set output file")
     public String outputFile;
+    @Option(names = {"--jobs", "-j"}, description = "Compile independent modules of a library with this number of threads", defaultValue = "1")
+    public int jobs;
   }
 
   /** Either `repl` or `compile` is not null */
@@ -58,6 +60,16 @@ public class MainArgs {
   public String prettyDir;
   @Option(names = {"--trace"}, description = "Enable tracing.")
   public boolean enableTrace;
+  @Option(names = {"--trace-sample"}, description = "Trace only one in this many declarations.", defaultValue = "1")
+  public int traceSample;
+  @Option(names = {"--trace-last"}, description = "Keep the traces of only this many latest declarations, and print them only if compilation fails.", defaultValue = "0")
+  public int traceLast;
+  @Option(names = {"--profile"}, description = "Measure the type checking of each declaration of the library compiled.")
+  public boolean profile;
+  @Option(names = {"--profile-format"}, description = "Format of the profile." + CANDIDATES, defaultValue = "table")
+  public ProfileFormat profileFormat;
+  @Option(names = {"--profile-output"}, description = "Write the profile to this file instead of the standard error.")
+  public String profileOutput;
   @Option(names = {"--ascii-only"}, description = "Do not show unicode in success/fail message.")
   public boolean asciiOnly;
   @Option(names = {"--module-path"}, description = "Search for module under this path.")
@@ -85,6 +97,12 @@ public class MainArgs {
     unix,
   }
 
+  public enum ProfileFormat {
+    table,
+    collapsed,
+    chrome,
+  }
+
   public enum ReplType {
     plain,
     jline
@@ -9,11 +9,13 @@ import org.aya.core.def.Def;
 import org.aya.core.term.Term;
 import org.aya.distill.BaseDistiller;
 import org.aya.distill.CoreDistiller;
+import org.aya.lsp.utils.PositionIndex;
 import org.aya.lsp.utils.Resolver;
 import org.aya.pretty.doc.Doc;
 import org.aya.ref.DefVar;
 import org.aya.ref.LocalVar;
 import org.aya.ref.Var;
+import org.aya.util.cancel.CancellationIndicator;
 import org.aya.util.distill.DistillerOptions;
 import org.eclipse.lsp4j.Position;
 import org.jetbrains.annotations.NotNull;
@@ -21,9 +23,11 @@ import org.jetbrains.annotations.NotNull;
 public interface ComputeSignature {
   static @NotNull Doc invokeHover(
     @NotNull LibrarySource source,
-    @NotNull Position position
+    @NotNull Position position,
+    @NotNull PositionIndex index,
+    @NotNull CancellationIndicator cancel
   ) {
-    var target = Resolver.resolveVar(source, position).firstOrNull();
+    var target = Resolver.resolveVar(index, source, position, cancel).firstOrNull();
     if (target == null) return Doc.empty();
     return computeSignature(target.data(), true);
   }
@@ -3,65 +3,68 @@
 package org.aya.lsp.actions;
 
 import org.aya.cli.library.source.LibrarySource;
-import org.aya.concrete.Expr;
 import org.aya.core.def.PrimDef;
 import org.aya.core.term.Term;
 import org.aya.generic.util.NormalizeMode;
 import org.aya.lsp.models.ComputeTermResult;
+import org.aya.lsp.models.EvalSettings;
+import org.aya.lsp.utils.PositionIndex;
 import org.aya.lsp.utils.XY;
 import org.aya.tyck.ExprTycker;
 import org.aya.tyck.TyckState;
+import org.aya.util.cancel.CancellationIndicator;
 import org.aya.util.error.WithPos;
 import org.jetbrains.annotations.NotNull;
-import org.jetbrains.annotations.Nullable;
 
 import java.util.function.BiFunction;
 
-public final class ComputeTerm implements SyntaxNodeAction.Cursor {
-  private @Nullable WithPos<Term> result = null;
+public final class ComputeTerm {
   private final @NotNull LibrarySource source;
   private final @NotNull Kind kind;
   private final @NotNull PrimDef.Factory primFactory;
+  private final @NotNull PositionIndex index;
+  private final @NotNull EvalSettings settings;
+  private final @NotNull CancellationIndicator cancel;
 
-  public record Kind(@NotNull BiFunction<PrimDef.Factory, ExprTycker.Result, Term> map) {
+  public record Kind(@NotNull BiFunction<TyckState, ExprTycker.Result, Term> map) {
     public static @NotNull Kind type() {
-      return new Kind((fac, term) -> term.type());
+      return new Kind((state, term) -> term.type());
     }
 
     public static @NotNull Kind id() {
-      return new Kind((fac, term) -> term.wellTyped());
+      return new Kind((state, term) -> term.wellTyped());
     }
 
     public static @NotNull Kind nf() {
-      return new Kind((fac, term) -> term.wellTyped().normalize(new TyckState(fac), NormalizeMode.NF));
+      return new Kind((state, term) -> term.wellTyped().normalize(state, NormalizeMode.NF));
     }
 
     public static @NotNull Kind whnf() {
-      return new Kind((fac, term)  -> term.wellTyped().normalize(new TyckState(fac), NormalizeMode.WHNF));
+      return new Kind((state, term) -> term.wellTyped().normalize(state, NormalizeMode.WHNF));
     }
   }
 
-  public ComputeTerm(@NotNull LibrarySource source, @NotNull Kind kind, @NotNull PrimDef.Factory primFactory) {
+  public ComputeTerm(
+    @NotNull LibrarySource source, @NotNull Kind kind,
+    @NotNull PrimDef.Factory primFactory, @NotNull PositionIndex index,
+    @NotNull EvalSettings settings, @NotNull CancellationIndicator cancel
+  ) {
     this.source = source;
     this.kind = kind;
     this.primFactory = primFactory;
+    this.index = index;
+    this.settings = settings;
+    this.cancel = cancel;
   }
 
+  /**
+   * Only the innermost expression at the position is computed, see {@link PositionIndex#term}.
+   * The computation is limited by the budget in the settings.
+   */
   public @NotNull ComputeTermResult invoke(ComputeTermResult.Params params) {
-    var program = source.program().get();
-    if (program == null) return ComputeTermResult.bad(params);
-    visitAll(program, new XY(params.position));
-    return result == null ? ComputeTermResult.bad(params) : ComputeTermResult.good(params, result);
-  }
-
-  @Override public @NotNull Expr visitExpr(@NotNull Expr expr, XY xy) {
-    if (expr instanceof Expr.WithTerm withTerm) {
-      var sourcePos = withTerm.sourcePos();
-      if (xy.inside(sourcePos)) {
-        var core = withTerm.core();
-        if (core != null) result = new WithPos<>(sourcePos, kind.map.apply(primFactory, core));
-      }
-    }
-    return Cursor.super.visitExpr(expr, xy);
+    var withTerm = index.term(source, new XY(params.position), cancel);
+    if (withTerm == null) return ComputeTermResult.bad(params);
+    var term = kind.map.apply(new TyckState(primFactory, settings.budget(cancel)), withTerm.core());
+    return ComputeTermResult.good(params, new WithPos<>(withTerm.sourcePos(), term));
   }
 }
@@ -6,8 +6,11 @@ import kala.collection.SeqView;
 import org.aya.cli.library.source.LibraryOwner;
 import org.aya.cli.library.source.LibrarySource;
 import org.aya.lsp.utils.LspRange;
+import org.aya.lsp.utils.PositionIndex;
+import org.aya.lsp.utils.ReferenceIndex;
 import org.aya.lsp.utils.Resolver;
 import org.aya.ref.Var;
+import org.aya.util.cancel.CancellationIndicator;
 import org.aya.util.error.SourcePos;
 import org.aya.util.error.WithPos;
 import org.eclipse.lsp4j.Location;
@@ -21,9 +24,12 @@ public interface FindReferences {
   static @NotNull List<Location> invoke(
     @NotNull LibrarySource source,
     @NotNull Position position,
-    @NotNull SeqView<LibraryOwner> libraries
+    @NotNull SeqView<LibraryOwner> libraries,
+    @NotNull PositionIndex positions,
+    @NotNull ReferenceIndex index,
+    @NotNull CancellationIndicator cancel
   ) {
-    return findRefs(source, position, libraries)
+    return findRefs(source, position, libraries, positions, index, cancel)
       .map(LspRange::toLoc)
       .collect(Collectors.toList());
   }
@@ -31,36 +37,35 @@ public interface FindReferences {
   static @NotNull SeqView<SourcePos> findRefs(
     @NotNull LibrarySource source,
     @NotNull Position position,
-    @NotNull SeqView<LibraryOwner> libraries
+    @NotNull SeqView<LibraryOwner> libraries,
+    @NotNull PositionIndex positions,
+    @NotNull ReferenceIndex index,
+    @NotNull CancellationIndicator cancel
   ) {
-    var vars = Resolver.resolveVar(source, position);
-    return findRefs(vars.map(WithPos::data), libraries);
+    var vars = Resolver.resolveVar(positions, source, position, cancel);
+    return findRefs(vars.map(WithPos::data), libraries, index, cancel);
   }
 
+  /** Only the sources resolved again since the last query are visited, see {@link ReferenceIndex}. */
   static @NotNull SeqView<SourcePos> findRefs(
     @NotNull SeqView<Var> vars,
-    @NotNull SeqView<LibraryOwner> libraries
+    @NotNull SeqView<LibraryOwner> libraries,
+    @NotNull ReferenceIndex index,
+    @NotNull CancellationIndicator cancel
   ) {
-    var resolver = new Resolver.UsageResolver();
-    vars.forEach(def -> libraries.forEach(lib -> resolve(resolver, lib, def)));
-    return resolver.refs.view();
+    return index.usages(vars, libraries, cancel);
   }
 
   static @NotNull SeqView<SourcePos> findOccurrences(
     @NotNull LibrarySource source,
     @NotNull Position position,
-    @NotNull SeqView<LibraryOwner> libraries
+    @NotNull SeqView<LibraryOwner> libraries,
+    @NotNull PositionIndex positions,
+    @NotNull ReferenceIndex index,
+    @NotNull CancellationIndicator cancel
   ) {
-    var defs = GotoDefinition.findDefs(source, position, libraries).map(WithPos::data);
-    var refs = FindReferences.findRefs(source, position, libraries);
+    var defs = GotoDefinition.findDefs(source, position, libraries, positions, cancel).map(WithPos::data);
+    var refs = FindReferences.findRefs(source, position, libraries, positions, index, cancel);
     return defs.concat(refs);
   }
-
-  private static void resolve(@NotNull Resolver.UsageResolver resolver, @NotNull LibraryOwner owner, @NotNull Var var) {
-    owner.librarySources().forEach(src -> {
-      var program = src.program().get();
-      if (program != null) resolver.visitAll(program, var);
-    });
-    owner.libraryDeps().forEach(dep -> resolve(resolver, dep, var));
-  }
 }
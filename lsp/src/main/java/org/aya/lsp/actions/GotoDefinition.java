@@ -8,9 +8,11 @@ import org.aya.cli.library.source.LibrarySource;
 import org.aya.lsp.utils.Log;
 import org.aya.lsp.utils.LspRange;
 import org.aya.lsp.utils.ModuleVar;
+import org.aya.lsp.utils.PositionIndex;
 import org.aya.lsp.utils.Resolver;
 import org.aya.ref.DefVar;
 import org.aya.ref.LocalVar;
+import org.aya.util.cancel.CancellationIndicator;
 import org.aya.util.error.SourcePos;
 import org.aya.util.error.WithPos;
 import org.eclipse.lsp4j.LocationLink;
@@ -28,9 +30,11 @@ public interface GotoDefinition {
   static @NotNull List<LocationLink> invoke(
     @NotNull LibrarySource source,
     @NotNull Position position,
-    @NotNull SeqView<LibraryOwner> libraries
+    @NotNull SeqView<LibraryOwner> libraries,
+    @NotNull PositionIndex index,
+    @NotNull CancellationIndicator cancel
   ) {
-    return findDefs(source, position, libraries).mapNotNull(pos -> {
+    return findDefs(source, position, libraries, index, cancel).mapNotNull(pos -> {
       var from = pos.sourcePos();
       var to = pos.data();
       var res = LspRange.toLoc(from, to);
@@ -42,9 +46,11 @@ public interface GotoDefinition {
   static @NotNull SeqView<WithPos<SourcePos>> findDefs(
     @NotNull LibrarySource source,
     @NotNull Position position,
-    @NotNull SeqView<LibraryOwner> libraries
+    @NotNull SeqView<LibraryOwner> libraries,
+    @NotNull PositionIndex index,
+    @NotNull CancellationIndicator cancel
   ) {
-    return Resolver.resolveVar(source, position).mapNotNull(pos -> {
+    return Resolver.resolveVar(index, source, position, cancel).mapNotNull(pos -> {
       var from = pos.sourcePos();
       var target = switch (pos.data()) {
         case DefVar<?, ?> defVar -> defVar.concrete.sourcePos();
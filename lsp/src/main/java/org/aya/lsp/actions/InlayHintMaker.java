@@ -2,11 +2,11 @@
 // Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
 package org.aya.lsp.actions;
 
-import kala.collection.mutable.MutableList;
 import org.aya.cli.library.source.LibrarySource;
-import org.aya.concrete.Pattern;
 import org.aya.lsp.utils.LspRange;
+import org.aya.lsp.utils.PositionIndex;
 import org.aya.lsp.utils.XYXY;
+import org.aya.util.cancel.CancellationIndicator;
 import org.aya.util.distill.DistillerOptions;
 import org.eclipse.lsp4j.InlayHint;
 import org.eclipse.lsp4j.InlayHintKind;
@@ -14,28 +14,25 @@ import org.eclipse.lsp4j.Range;
 import org.eclipse.lsp4j.jsonrpc.messages.Either;
 import org.jetbrains.annotations.NotNull;
 
-import java.util.Collections;
 import java.util.List;
+import java.util.stream.Collectors;
 
-public record InlayHintMaker(@NotNull MutableList<InlayHint> hints) implements SyntaxNodeAction.Ranged {
-  public static @NotNull List<InlayHint> invoke(@NotNull LibrarySource source, @NotNull Range range) {
-    var program = source.program().get();
-    if (program == null) return Collections.emptyList();
-    var xyxy = new XYXY(range);
-    var maker = new InlayHintMaker(MutableList.create());
-    maker.visitAll(program, xyxy);
-    return maker.hints.asJava();
-  }
-
-  @Override public @NotNull Pattern visitPattern(@NotNull Pattern pattern, XYXY pp) {
-    if (pattern instanceof Pattern.Bind bind && bind.type().get() != null) {
-      var type = bind.type().get().toDoc(DistillerOptions.pretty()).commonRender();
-      var range = LspRange.toRange(bind.sourcePos());
-      var hint = new InlayHint(range.getEnd(), Either.forLeft(": " + type));
+public interface InlayHintMaker {
+  /** Only the lines in the range are looked up, see {@link PositionIndex#binds} */
+  static @NotNull List<InlayHint> invoke(
+    @NotNull LibrarySource source,
+    @NotNull Range range,
+    @NotNull PositionIndex index,
+    @NotNull CancellationIndicator cancel
+  ) {
+    return index.binds(source, new XYXY(range), cancel).mapNotNull(bind -> {
+      var type = bind.type().get();
+      if (type == null) return null;
+      var pos = LspRange.toRange(bind.sourcePos());
+      var hint = new InlayHint(pos.getEnd(), Either.forLeft(": " + type.toDoc(DistillerOptions.pretty()).commonRender()));
       hint.setKind(InlayHintKind.Type);
       hint.setPaddingLeft(true);
-      hints.append(hint);
-    }
-    return Ranged.super.visitPattern(pattern, pp);
+      return hint;
+    }).collect(Collectors.toList());
   }
 }
@@ -10,17 +10,26 @@ import org.aya.cli.library.source.LibraryOwner;
 import org.aya.cli.library.source.LibrarySource;
 import org.aya.concrete.stmt.Decl;
 import org.aya.lsp.utils.LspRange;
+import org.aya.lsp.utils.ReferenceIndex;
 import org.aya.lsp.utils.Resolver;
+import org.aya.util.cancel.CancellationIndicator;
 import org.eclipse.lsp4j.CodeLens;
 import org.eclipse.lsp4j.Command;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.List;
 
-public record LensMaker(@NotNull SeqView<LibraryOwner> libraries) implements SyntaxDeclAction<@NotNull MutableList<CodeLens>> {
-  public static @NotNull List<CodeLens> invoke(@NotNull LibrarySource source, @NotNull SeqView<LibraryOwner> libraries) {
+public record LensMaker(
+  @NotNull SeqView<LibraryOwner> libraries,
+  @NotNull ReferenceIndex index,
+  @NotNull CancellationIndicator cancel
+) implements SyntaxDeclAction<@NotNull MutableList<CodeLens>> {
+  public static @NotNull List<CodeLens> invoke(
+    @NotNull LibrarySource source, @NotNull SeqView<LibraryOwner> libraries,
+    @NotNull ReferenceIndex index, @NotNull CancellationIndicator cancel
+  ) {
     var lens = MutableList.<CodeLens>create();
-    var maker = new LensMaker(libraries);
+    var maker = new LensMaker(libraries, index, cancel);
     var program = source.program().get();
     if (program != null) program.forEach(decl -> maker.visit(decl, lens));
     return lens.asJava();
@@ -33,7 +42,7 @@ public record LensMaker(@NotNull SeqView<LibraryOwner> libraries) implements Syn
 
   @Override public void visitDecl(@NotNull Decl maybe, @NotNull MutableList<CodeLens> pp) {
     Resolver.withChildren(maybe).filter(dv -> dv.concrete != null).forEach(dv -> {
-      var refs = FindReferences.findRefs(SeqView.of(dv), libraries).toImmutableSeq();
+      var refs = FindReferences.findRefs(SeqView.of(dv), libraries, index, cancel).toImmutableSeq();
       if (refs.size() > 0) {
         var sourcePos = dv.concrete.sourcePos();
         var uri = LspRange.fileUri(sourcePos);
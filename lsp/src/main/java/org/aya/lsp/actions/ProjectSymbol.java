@@ -2,10 +2,8 @@
 // Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
 package org.aya.lsp.actions;
 
-import kala.collection.SeqView;
 import kala.collection.immutable.ImmutableSeq;
 import kala.collection.mutable.MutableList;
-import org.aya.cli.library.source.LibraryOwner;
 import org.aya.cli.library.source.LibrarySource;
 import org.aya.concrete.stmt.Decl;
 import org.aya.lsp.utils.LspRange;
@@ -14,8 +12,6 @@ import org.aya.ref.DefVar;
 import org.eclipse.lsp4j.DocumentSymbol;
 import org.eclipse.lsp4j.Location;
 import org.eclipse.lsp4j.SymbolKind;
-import org.eclipse.lsp4j.WorkspaceSymbol;
-import org.eclipse.lsp4j.jsonrpc.messages.Either;
 import org.jetbrains.annotations.NotNull;
 
 public final class ProjectSymbol implements SyntaxDeclAction<@NotNull MutableList<ProjectSymbol.Symbol>> {
@@ -27,17 +23,6 @@ public final class ProjectSymbol implements SyntaxDeclAction<@NotNull MutableLis
     return symbols.toImmutableSeq();
   }
 
-  public static @NotNull ImmutableSeq<Symbol> invoke(@NotNull SeqView<LibraryOwner> libraries) {
-    var symbols = MutableList.<Symbol>create();
-    libraries.forEach(lib -> collect(lib, symbols));
-    return symbols.toImmutableSeq();
-  }
-
-  private static void collect(@NotNull LibraryOwner owner, @NotNull MutableList<Symbol> symbols) {
-    owner.librarySources().forEach(src -> collect(src, symbols));
-    owner.libraryDeps().forEach(lib -> collect(lib, symbols));
-  }
-
   private static void collect(@NotNull LibrarySource src, @NotNull MutableList<Symbol> symbols) {
     var program = src.program().get();
     if (program != null) program.forEach(decl -> INSTANCE.visit(decl, symbols));
@@ -59,12 +44,12 @@ public final class ProjectSymbol implements SyntaxDeclAction<@NotNull MutableLis
     var symbol = new Symbol(
       dv.name(),
       ComputeSignature.computeSignature(dv, true).commonRender(),
-      SymbolKind.Function, // TODO: refactor kindOf from SyntaxHighlight
+      SyntaxHighlight.symbolKindOf(dv),
       nameLoc, entireLoc, children);
     pp.append(symbol);
   }
 
-  /** Our superclass of {@link org.eclipse.lsp4j.WorkspaceSymbol} and {@link org.eclipse.lsp4j.DocumentSymbol} */
+  /** Our superclass of {@link org.eclipse.lsp4j.DocumentSymbol} */
   public record Symbol(
     @NotNull String name,
     @NotNull String description,
@@ -77,9 +62,5 @@ public final class ProjectSymbol implements SyntaxDeclAction<@NotNull MutableLis
       return new DocumentSymbol(name, kind, entireLocation.getRange(), nameLocation.getRange(),
         description, children.map(Symbol::document).asJava());
     }
-
-    public @NotNull WorkspaceSymbol workspace() {
-      return new WorkspaceSymbol(name, kind, Either.forLeft(nameLocation));
-    }
   }
 }
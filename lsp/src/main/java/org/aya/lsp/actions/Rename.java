@@ -7,8 +7,11 @@ import kala.tuple.Tuple;
 import org.aya.cli.library.source.LibraryOwner;
 import org.aya.cli.library.source.LibrarySource;
 import org.aya.lsp.utils.LspRange;
+import org.aya.lsp.utils.PositionIndex;
+import org.aya.lsp.utils.ReferenceIndex;
 import org.aya.lsp.utils.Resolver;
 import org.aya.ref.Var;
+import org.aya.util.cancel.CancellationIndicator;
 import org.aya.util.error.WithPos;
 import org.eclipse.lsp4j.Position;
 import org.eclipse.lsp4j.TextEdit;
@@ -20,8 +23,13 @@ import java.util.Map;
 import java.util.stream.Collectors;
 
 public interface Rename {
-  static @Nullable WithPos<String> prepare(@NotNull LibrarySource source, @NotNull Position position) {
-    var vars = Resolver.resolveVar(source, position);
+  static @Nullable WithPos<String> prepare(
+    @NotNull LibrarySource source,
+    @NotNull Position position,
+    @NotNull PositionIndex positions,
+    @NotNull CancellationIndicator cancel
+  ) {
+    var vars = Resolver.resolveVar(positions, source, position, cancel);
     if (vars.isEmpty()) return null;
     return vars.first().map(Var::name);
   }
@@ -30,9 +38,12 @@ public interface Rename {
     @NotNull LibrarySource source,
     @NotNull Position position,
     @NotNull String newName,
-    @NotNull SeqView<LibraryOwner> libraries
+    @NotNull SeqView<LibraryOwner> libraries,
+    @NotNull PositionIndex positions,
+    @NotNull ReferenceIndex index,
+    @NotNull CancellationIndicator cancel
   ) {
-    return FindReferences.findOccurrences(source, position, libraries)
+    return FindReferences.findOccurrences(source, position, libraries, positions, index, cancel)
       .flatMap(to -> {
         var edit = new TextEdit(LspRange.toRange(to), newName);
         return to.file().underlying().map(uri -> Tuple.of(uri, edit));
@@ -5,7 +5,6 @@ package org.aya.lsp.actions;
 import kala.collection.immutable.ImmutableSeq;
 import kala.collection.mutable.MutableList;
 import kala.control.Option;
-import org.aya.cli.library.source.LibraryOwner;
 import org.aya.cli.library.source.LibrarySource;
 import org.aya.concrete.Expr;
 import org.aya.concrete.Pattern;
@@ -16,28 +15,17 @@ import org.aya.lsp.models.HighlightResult;
 import org.aya.lsp.utils.LspRange;
 import org.aya.ref.DefVar;
 import org.aya.util.error.SourcePos;
+import org.eclipse.lsp4j.SymbolKind;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 public final class SyntaxHighlight implements StmtOps<@NotNull MutableList<HighlightResult.Symbol>> {
-  public static @NotNull ImmutableSeq<HighlightResult> invoke(@NotNull LibraryOwner owner) {
-    var symbols = MutableList.<HighlightResult>create();
-    highlight(owner, symbols);
-    return symbols.toImmutableSeq();
-  }
-
-  private static void highlight(@NotNull LibraryOwner owner, @NotNull MutableList<HighlightResult> result) {
-    owner.librarySources().forEach(src -> result.append(highlightOne(src)));
-    owner.libraryDeps().forEach(dep -> highlight(dep, result));
-  }
-
-  private static @NotNull HighlightResult highlightOne(@NotNull LibrarySource source) {
+  /** @see org.aya.lsp.utils.SemanticTokenCache */
+  public static @NotNull ImmutableSeq<HighlightResult.Symbol> invoke(@NotNull LibrarySource source) {
     var symbols = MutableList.<HighlightResult.Symbol>create();
     var program = source.program().get();
     if (program != null) program.forEach(d -> SyntaxHighlight.INSTANCE.visit(d, symbols));
-    return new HighlightResult(
-      source.file().toUri().toString(),
-      symbols.view().filter(t -> t.range() != LspRange.NONE));
+    return symbols.view().filter(t -> t.range() != LspRange.NONE).toImmutableSeq();
   }
 
   private static final SyntaxHighlight INSTANCE = new SyntaxHighlight();
@@ -121,24 +109,38 @@ public final class SyntaxHighlight implements StmtOps<@NotNull MutableList<Highl
     StmtOps.super.visitCommand(cmd, pp);
   }
 
-  private HighlightResult.@Nullable Kind kindOf(@NotNull DefVar<?, ?> ref) {
-    if (ref.core instanceof FnDef || ref.concrete instanceof TeleDecl.FnDecl)
+  public static HighlightResult.@Nullable Kind kindOf(@NotNull DefVar<?, ?> ref) {
+    if (ref.core() instanceof FnDef || ref.concrete instanceof TeleDecl.FnDecl)
       return HighlightResult.Kind.FnCall;
-    else if (ref.core instanceof StructDef || ref.concrete instanceof TeleDecl.StructDecl)
+    else if (ref.core() instanceof StructDef || ref.concrete instanceof TeleDecl.StructDecl)
       return HighlightResult.Kind.StructCall;
-    else if (ref.core instanceof FieldDef || ref.concrete instanceof TeleDecl.StructField)
+    else if (ref.core() instanceof FieldDef || ref.concrete instanceof TeleDecl.StructField)
       return HighlightResult.Kind.FieldCall;
-    else if (ref.core instanceof PrimDef || ref.concrete instanceof TeleDecl.PrimDecl)
+    else if (ref.core() instanceof PrimDef || ref.concrete instanceof TeleDecl.PrimDecl)
       return HighlightResult.Kind.PrimCall;
-    else if (ref.core instanceof DataDef || ref.concrete instanceof TeleDecl.DataDecl)
+    else if (ref.core() instanceof DataDef || ref.concrete instanceof TeleDecl.DataDecl)
       return HighlightResult.Kind.DataCall;
-    else if (ref.core instanceof CtorDef || ref.concrete instanceof TeleDecl.DataCtor)
+    else if (ref.core() instanceof CtorDef || ref.concrete instanceof TeleDecl.DataCtor)
       return HighlightResult.Kind.ConCall;
     return null;
   }
 
+  /** The kind of symbols in document outlines and workspace symbol search, see {@link #kindOf} */
+  public static @NotNull SymbolKind symbolKindOf(@NotNull DefVar<?, ?> ref) {
+    var kind = kindOf(ref);
+    if (kind == null) return SymbolKind.Function;
+    return switch (kind) {
+      case DataDef, DataCall -> SymbolKind.Enum;
+      case ConDef, ConCall -> SymbolKind.EnumMember;
+      case StructDef, StructCall -> SymbolKind.Struct;
+      case FieldDef, FieldCall -> SymbolKind.Field;
+      case ModuleDef -> SymbolKind.Module;
+      default -> SymbolKind.Function;
+    };
+  }
+
   private void visitOperator(@NotNull MutableList<HighlightResult.Symbol> buffer, @NotNull SourcePos sourcePos, @Nullable DefVar<?, ?> op) {
-    Option.ofNullable(op).filter(DefVar::isInfix).mapNotNull(this::kindOf)
+    Option.ofNullable(op).filter(DefVar::isInfix).mapNotNull(SyntaxHighlight::kindOf)
       .forEach(kind -> buffer.append(new HighlightResult.Symbol(sourcePos, kind)));
   }
 
@@ -0,0 +1,26 @@
+// Copyright (c) 2020-2022 Yinsen (Tesla) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.lsp.models;
+
+import org.aya.util.cancel.CancellationIndicator;
+import org.aya.util.cancel.EvalBudget;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * The budget of the terms computed by the client, set by the <code>aya.eval</code> section
+ * of the configuration of the client, see {@link org.aya.lsp.server.AyaService#didChangeConfiguration}.
+ *
+ * @see org.aya.lsp.actions.ComputeTerm
+ */
+public class EvalSettings {
+  /** Nonpositive for no limit */
+  public long maxSteps = 0;
+  /** Nonpositive for no limit */
+  public long timeoutMillis = 5000;
+  /** Whether to show the term normalized so far instead of failing when the budget is used up */
+  public boolean partial = true;
+
+  public @NotNull EvalBudget budget(@NotNull CancellationIndicator cancel) {
+    return new EvalBudget(maxSteps, timeoutMillis, partial, cancel);
+  }
+}
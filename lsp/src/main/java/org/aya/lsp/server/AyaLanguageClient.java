@@ -5,6 +5,7 @@ package org.aya.lsp.server;
 import kala.collection.Seq;
 import kala.collection.immutable.ImmutableMap;
 import kala.collection.immutable.ImmutableSeq;
+import org.aya.lsp.models.HighlightResult;
 import org.aya.lsp.utils.Log;
 import org.aya.lsp.utils.LspRange;
 import org.aya.util.distill.DistillerOptions;
@@ -13,6 +14,7 @@ import org.aya.util.reporter.Problem;
 import org.eclipse.lsp4j.Diagnostic;
 import org.eclipse.lsp4j.DiagnosticSeverity;
 import org.eclipse.lsp4j.PublishDiagnosticsParams;
+import org.eclipse.lsp4j.jsonrpc.services.JsonNotification;
 import org.eclipse.lsp4j.services.LanguageClient;
 import org.jetbrains.annotations.NotNull;
 
@@ -21,6 +23,10 @@ import java.util.Collections;
 import java.util.stream.Collectors;
 
 public interface AyaLanguageClient extends LanguageClient {
+  /** Pushes the highlights of a source rechecked in the background, for clients using <code>aya/load</code> */
+  @JsonNotification("aya/publishSyntaxHighlight")
+  void publishSyntaxHighlight(@NotNull HighlightResult highlight);
+
   default void publishAyaProblems(
     @NotNull ImmutableMap<Path, ImmutableSeq<Problem>> problems,
     @NotNull DistillerOptions options
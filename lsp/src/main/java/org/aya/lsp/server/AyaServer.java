@@ -7,15 +7,19 @@ import org.aya.lsp.actions.ComputeTerm;
 import org.aya.lsp.models.ComputeTermResult;
 import org.aya.lsp.models.HighlightResult;
 import org.aya.lsp.utils.Log;
+import org.aya.lsp.utils.SemanticTokenCache;
 import org.eclipse.lsp4j.*;
+import org.eclipse.lsp4j.jsonrpc.messages.Either;
 import org.eclipse.lsp4j.jsonrpc.services.JsonRequest;
 import org.eclipse.lsp4j.services.LanguageClient;
 import org.eclipse.lsp4j.services.LanguageClientAware;
 import org.eclipse.lsp4j.services.LanguageServer;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.net.URI;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
@@ -28,7 +32,12 @@ public class AyaServer implements LanguageClientAware, LanguageServer {
   }
 
   public AyaServer(@NotNull CompilerAdvisor advisor) {
-    this.service = new AyaService(advisor);
+    this(advisor, AyaService.CHECK_DELAY);
+  }
+
+  /** @param checkDelay see {@link AyaService#AyaService(CompilerAdvisor, Duration)} */
+  public AyaServer(@NotNull CompilerAdvisor advisor, @Nullable Duration checkDelay) {
+    this.service = new AyaService(advisor, checkDelay);
   }
 
   @JsonRequest("aya/load")
@@ -40,13 +49,13 @@ public class AyaServer implements LanguageClientAware, LanguageServer {
   @JsonRequest("aya/computeType")
   @SuppressWarnings("unused")
   public @NotNull CompletableFuture<@NotNull ComputeTermResult> computeType(ComputeTermResult.Params input) {
-    return CompletableFuture.supplyAsync(() -> service.computeTerm(input, ComputeTerm.Kind.type()));
+    return service.computeTerm(input, ComputeTerm.Kind.type());
   }
 
   @JsonRequest("aya/computeNF")
   @SuppressWarnings("unused")
   public @NotNull CompletableFuture<@NotNull ComputeTermResult> computeNF(ComputeTermResult.Params input) {
-    return CompletableFuture.supplyAsync(() -> service.computeTerm(input, ComputeTerm.Kind.nf()));
+    return service.computeTerm(input, ComputeTerm.Kind.nf());
   }
 
   @Override public void connect(@NotNull LanguageClient client) {
@@ -57,8 +66,9 @@ public class AyaServer implements LanguageClientAware, LanguageServer {
 
   @Override public @NotNull CompletableFuture<InitializeResult> initialize(InitializeParams params) {
     return CompletableFuture.supplyAsync(() -> {
+      service.capabilities(params.getCapabilities());
       var cap = new ServerCapabilities();
-      cap.setTextDocumentSync(TextDocumentSyncKind.None);
+      cap.setTextDocumentSync(TextDocumentSyncKind.Incremental);
       var workCap = new WorkspaceServerCapabilities();
       var workOps = new WorkspaceFoldersOptions();
       workOps.setSupported(true);
@@ -75,8 +85,13 @@ public class AyaServer implements LanguageClientAware, LanguageServer {
       cap.setCodeLensProvider(new CodeLensOptions(true));
       cap.setInlayHintProvider(true);
       cap.setDocumentSymbolProvider(true);
-      cap.setWorkspaceSymbolProvider(true);
+      var symbolOps = new WorkspaceSymbolOptions();
+      symbolOps.setResolveProvider(true);
+      cap.setWorkspaceSymbolProvider(Either.forRight(symbolOps));
       cap.setFoldingRangeProvider(true);
+      var tokensOps = new SemanticTokensWithRegistrationOptions(SemanticTokenCache.LEGEND);
+      tokensOps.setFull(Either.forRight(new SemanticTokensServerFull(true)));
+      cap.setSemanticTokensProvider(tokensOps);
 
       var folders = params.getWorkspaceFolders();
       // In case we open a single file, this value will be null, so be careful.
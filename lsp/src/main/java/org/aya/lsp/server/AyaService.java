@@ -2,13 +2,14 @@
 // Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
 package org.aya.lsp.server;
 
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
 import kala.collection.SeqView;
-import kala.collection.immutable.ImmutableMap;
 import kala.collection.immutable.ImmutableSeq;
 import kala.collection.mutable.MutableList;
-import kala.collection.mutable.MutableMap;
 import kala.control.Option;
-import kala.tuple.Tuple;
+import org.aya.cli.library.DependencyCache;
 import org.aya.cli.library.LibraryCompiler;
 import org.aya.cli.library.incremental.CompilerAdvisor;
 import org.aya.cli.library.incremental.DelegateCompilerAdvisor;
@@ -23,16 +24,21 @@ import org.aya.generic.Constants;
 import org.aya.lsp.actions.*;
 import org.aya.lsp.library.WsLibrary;
 import org.aya.lsp.models.ComputeTermResult;
+import org.aya.lsp.models.EvalSettings;
 import org.aya.lsp.models.HighlightResult;
 import org.aya.lsp.prim.LspPrimFactory;
 import org.aya.lsp.utils.Log;
 import org.aya.lsp.utils.LspRange;
+import org.aya.lsp.utils.PositionIndex;
+import org.aya.lsp.utils.ReferenceIndex;
+import org.aya.lsp.utils.SemanticTokenCache;
+import org.aya.lsp.utils.SymbolIndex;
 import org.aya.pretty.doc.Doc;
 import org.aya.util.FileUtil;
+import org.aya.util.cancel.CancellationIndicator;
 import org.aya.util.distill.DistillerOptions;
 import org.aya.util.error.SourcePos;
 import org.aya.util.error.WithPos;
-import org.aya.util.reporter.BufferReporter;
 import org.aya.util.reporter.Problem;
 import org.eclipse.lsp4j.*;
 import org.eclipse.lsp4j.jsonrpc.messages.Either;
@@ -47,31 +53,76 @@ import java.io.StringWriter;
 import java.net.URI;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.concurrent.CompletableFuture;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.function.BiFunction;
+
+import static org.aya.lsp.server.RequestScheduler.Priority.*;
 
 public class AyaService implements WorkspaceService, TextDocumentService {
   private static final @NotNull CompilerFlags FLAGS = new CompilerFlags(CompilerFlags.Message.EMOJI, false, false, null, SeqView.empty(), null);
+  public static final @NotNull Duration CHECK_DELAY = Duration.ofMillis(300);
+  /** The number of symbols in a reply to a workspace symbol search */
+  private static final int MAX_SYMBOLS = 128;
 
-  private final BufferReporter reporter = new BufferReporter();
-  private final @NotNull MutableList<LibraryOwner> libraries = MutableList.create();
+  private final @NotNull DiagnosticPublisher publisher = new DiagnosticPublisher(DistillerOptions.pretty());
+  /**
+   * Changed by the LSP thread, and read by request threads and the checker thread,
+   * which read a snapshot from {@link #libraries()}.
+   */
+  private final @NotNull List<LibraryOwner> libraries = new CopyOnWriteArrayList<>();
   /**
    * When working with LSP, we need to track all previously created Primitives.
-   * This is shared per library.
+   * This is shared per library, and used by the checker thread as well.
    */
-  protected final @NotNull MutableMap<LibraryConfig, LspPrimFactory> primFactories = MutableMap.create();
+  protected final @NotNull Map<LibraryConfig, LspPrimFactory> primFactories = new ConcurrentHashMap<>();
   private final @NotNull CompilerAdvisor advisor;
-  private @Nullable AyaLanguageClient client;
+  private final @NotNull DocumentOverlay overlay;
+  /** Edited libraries are rechecked after no more edits come in this duration, or only on request if null */
+  private final @Nullable Duration checkDelay;
+  /** Rechecks edited libraries after the edits settle, see {@link #scheduleCheck(Path)} */
+  private final @NotNull ScheduledExecutorService checker = Executors.newSingleThreadScheduledExecutor(r -> {
+    var thread = new Thread(r, "aya-checker");
+    thread.setDaemon(true);
+    return thread;
+  });
+  /** Loads dependency libraries, see {@link DependencyCache#warmUp}, without occupying the common pool */
+  private final @NotNull ExecutorService dependencyLoader = Executors.newCachedThreadPool(r -> {
+    var thread = new Thread(r, "aya-dependency");
+    thread.setDaemon(true);
+    return thread;
+  });
+  private final @NotNull RequestScheduler scheduler = new RequestScheduler();
+  private final @NotNull PositionIndex positions = new PositionIndex();
+  private final @NotNull ReferenceIndex references = new ReferenceIndex();
+  private final @NotNull SymbolIndex symbols = new SymbolIndex();
+  private final @NotNull SemanticTokenCache highlights = new SemanticTokenCache();
+  private final @NotNull Set<LibraryOwner> pendingCheck = new LinkedHashSet<>();
+  private @Nullable ScheduledFuture<?> pendingTask;
+  private volatile @NotNull EvalSettings evalSettings = new EvalSettings();
+  private volatile @Nullable AyaLanguageClient client;
+  /** The client asked for highlights with <code>aya/load</code>, so they are also pushed after background rechecks */
+  private volatile boolean pushHighlights;
+  /** The client supports <code>workspace/semanticTokens/refresh</code> */
+  private volatile boolean refreshTokens;
 
   public AyaService(@NotNull CompilerAdvisor advisor) {
-    this.advisor = new CallbackAdvisor(this, advisor);
+    this(advisor, CHECK_DELAY);
+  }
+
+  public AyaService(@NotNull CompilerAdvisor advisor, @Nullable Duration checkDelay) {
+    this.checkDelay = checkDelay;
+    this.overlay = new DocumentOverlay(advisor);
+    this.advisor = new CallbackAdvisor(this, DependencyCache.SHARED.advisor(overlay));
   }
 
   public @NotNull SeqView<LibraryOwner> libraries() {
-    return libraries.view();
+    return ImmutableSeq.from(libraries).view();
   }
 
   public void registerLibrary(@NotNull Path path) {
@@ -86,7 +137,9 @@ public class AyaService implements WorkspaceService, TextDocumentService {
     try {
       var config = LibraryConfigData.fromLibraryRoot(path);
       var owner = DiskLibraryOwner.from(config);
-      libraries.append(owner);
+      libraries.add(owner);
+      // Dependencies are loaded in the background, so they are likely ready when the library is loaded
+      DependencyCache.SHARED.warmUp(owner, dependencyLoader);
     } catch (IOException e) {
       var s = new StringWriter();
       e.printStackTrace(new PrintWriter(s));
@@ -97,19 +150,26 @@ public class AyaService implements WorkspaceService, TextDocumentService {
   }
 
   private void mockLibraries(@NotNull Path path) {
-    libraries.appendAll(FileUtil.collectSource(path, Constants.AYA_POSTFIX, 1)
-      .map(WsLibrary::mock));
+    libraries.addAll(FileUtil.collectSource(path, Constants.AYA_POSTFIX, 1)
+      .map(WsLibrary::mock).asJava());
   }
 
   public void connect(@NotNull AyaLanguageClient client) {
     this.client = client;
+    publisher.connect(client);
+  }
+
+  public void capabilities(@NotNull ClientCapabilities capabilities) {
+    var workspace = capabilities.getWorkspace();
+    var tokens = workspace != null ? workspace.getSemanticTokens() : null;
+    refreshTokens = tokens != null && Boolean.TRUE.equals(tokens.getRefreshSupport());
   }
 
   private @Nullable LibraryOwner findOwner(@Nullable Path path) {
     if (path == null) return null;
     var ayaJson = path.resolve(Constants.AYA_JSON);
     if (!Files.exists(ayaJson)) return findOwner(path.getParent());
-    return libraries.find(lib -> lib.underlyingLibrary().libraryRoot().equals(path)).getOrNull();
+    return libraries().find(lib -> lib.underlyingLibrary().libraryRoot().equals(path)).getOrNull();
   }
 
   private @Nullable LibrarySource find(@NotNull LibraryOwner owner, Path moduleFile) {
@@ -140,43 +200,78 @@ public class AyaService implements WorkspaceService, TextDocumentService {
   }
 
   public @NotNull ImmutableSeq<HighlightResult> reload() {
+    pushHighlights = true;
     return libraries().flatMap(this::loadLibrary).toImmutableSeq();
   }
 
+  /**
+   * The sources of dependency libraries are only highlighted if they are opened,
+   * and only the sources rechecked since they were last highlighted are visited.
+   */
+  private void highlight(@NotNull LibraryOwner owner, boolean dependency, @NotNull MutableList<HighlightResult> result) {
+    owner.librarySources()
+      .filter(src -> !dependency || overlay.isOpen(src.file()))
+      .forEach(src -> result.append(new HighlightResult(src.file().toUri().toString(), highlights.symbols(src))));
+    owner.libraryDeps().forEach(dep -> highlight(dep, true, result));
+  }
+
   public @NotNull ImmutableSeq<HighlightResult> loadLibrary(@NotNull LibraryOwner owner) {
+    // Dependencies are waited for without holding the lock, so the libraries already loaded can be rechecked meanwhile
+    DependencyCache.SHARED.warmUp(owner, dependencyLoader, problem -> {
+      Log.w("%s", problem.describe(DistillerOptions.pretty()).debugRender());
+      publisher.report(problem);
+    }).join();
+    return compileLibrary(owner);
+  }
+
+  private synchronized @NotNull ImmutableSeq<HighlightResult> compileLibrary(@NotNull LibraryOwner owner) {
     Log.i("Loading library %s", owner.underlyingLibrary().name());
     // start compiling
-    reporter.clear();
     var primFactory = primFactory(owner);
+    owner.libraryDeps().forEach(dep -> {
+      var cached = DependencyCache.SHARED.loaded(dep);
+      if (cached != null) primFactory.importAll(cached.primFactory());
+    });
     try {
-      LibraryCompiler.newCompiler(primFactory, reporter, FLAGS, advisor, owner).start();
+      LibraryCompiler.newCompiler(primFactory, publisher, FLAGS, advisor, owner).start();
     } catch (IOException e) {
       var s = new StringWriter();
       e.printStackTrace(new PrintWriter(s));
       Log.e("IOException occurred when running the compiler. Stack trace:\n%s", s.toString());
     }
-    publishProblems(reporter, DistillerOptions.pretty());
-    return SyntaxHighlight.invoke(owner);
+    publisher.publishRemaining();
+    var result = MutableList.<HighlightResult>create();
+    highlight(owner, false, result);
+    return result.toImmutableSeq();
   }
 
-  public void publishProblems(@NotNull BufferReporter reporter, @NotNull DistillerOptions options) {
-    if (client == null) return;
-    var diags = reporter.problems().stream()
-      .filter(p -> p.sourcePos().belongsToSomeFile())
-      .peek(p -> Log.d("%s", p.describe(options).debugRender()))
-      .flatMap(p -> Stream.concat(Stream.of(p), p.inlineHints(options).stream().map(t -> new InlineHintProblem(p, t))))
-      .flatMap(p -> p.sourcePos().file().underlying().stream().map(uri -> Tuple.of(uri, p)))
-      .collect(Collectors.groupingBy(
-        t -> t._1,
-        Collectors.mapping(t -> t._2, ImmutableSeq.factory())
-      ));
-    client.publishAyaProblems(ImmutableMap.from(diags), options);
-  }
-
-  private void clearProblems(@NotNull ImmutableSeq<ImmutableSeq<LibrarySource>> affected) {
+  /**
+   * Rechecks the libraries containing the file (including those depending on it)
+   * when no more edits come in {@link #checkDelay}.
+   */
+  private void scheduleCheck(@NotNull Path file) {
+    if (checkDelay == null) return;
+    var owners = libraries().filter(lib -> find(lib, file) != null).toImmutableSeq();
+    if (owners.isEmpty()) return;
+    synchronized (pendingCheck) {
+      owners.forEach(pendingCheck::add);
+      if (pendingTask != null) pendingTask.cancel(false);
+      pendingTask = checker.schedule(this::checkPending, checkDelay.toMillis(), TimeUnit.MILLISECONDS);
+    }
+  }
+
+  private void checkPending() {
+    ImmutableSeq<LibraryOwner> owners;
+    synchronized (pendingCheck) {
+      owners = pendingCheck.stream().collect(ImmutableSeq.factory());
+      pendingCheck.clear();
+      pendingTask = null;
+    }
+    var result = owners.flatMap(this::loadLibrary);
+    var client = this.client;
     if (client == null) return;
-    var files = affected.flatMap(i -> i.map(LibrarySource::file));
-    client.clearAyaProblems(files);
+    if (pushHighlights) result.forEach(client::publishSyntaxHighlight);
+    if (refreshTokens) client.refreshSemanticTokens();
   }
 
   @Override public void didChangeWatchedFiles(@NotNull DidChangeWatchedFilesParams params) {
@@ -192,7 +287,7 @@ public class AyaService implements WorkspaceService, TextDocumentService {
             case null -> {
               var mock = WsLibrary.mock(newSrc);
               Log.d("Created new file: %s, mocked a library %s for it", newSrc, mock.mockConfig().name());
-              libraries.append(mock);
+              libraries.add(mock);
             }
             default -> {}
           }
@@ -201,9 +296,13 @@ public class AyaService implements WorkspaceService, TextDocumentService {
           var src = find(change.getUri());
           if (src == null) return;
           Log.d("Deleted file: %s, removed from owner: %s", src.file(), src.owner().underlyingLibrary().name());
+          positions.remove(src);
+          references.remove(src);
+          symbols.remove(src);
+          highlights.remove(src);
           switch (src.owner()) {
             case MutableLibraryOwner owner -> owner.removeLibrarySource(src);
-            case WsLibrary owner -> libraries.removeAll(o -> o == owner);
+            case WsLibrary owner -> libraries.removeIf(o -> o == owner);
             default -> {}
           }
         }
@@ -212,18 +311,36 @@ public class AyaService implements WorkspaceService, TextDocumentService {
   }
 
   @Override public void didOpen(DidOpenTextDocumentParams params) {
+    var doc = params.getTextDocument();
+    var path = toPath(doc.getUri());
+    if (overlay.open(path, doc.getText(), doc.getVersion())) scheduleCheck(path);
   }
 
   @Override public void didChange(DidChangeTextDocumentParams params) {
+    var doc = params.getTextDocument();
+    var path = toPath(doc.getUri());
+    overlay.change(path, params.getContentChanges(), doc.getVersion());
+    scheduler.cancel(path);
+    scheduleCheck(path);
   }
 
   @Override public void didClose(DidCloseTextDocumentParams params) {
+    var path = toPath(params.getTextDocument().getUri());
+    overlay.close(path);
+    scheduler.cancel(path);
+    scheduleCheck(path);
   }
 
   @Override public void didSave(DidSaveTextDocumentParams params) {
   }
 
   @Override public void didChangeConfiguration(DidChangeConfigurationParams params) {
+    if (params.getSettings() instanceof JsonObject settings
+      && settings.get("aya") instanceof JsonObject aya
+      && aya.get("eval") instanceof JsonObject eval) {
+      evalSettings = new Gson().fromJson(eval, EvalSettings.class);
+      Log.i("Evaluation budget: %d steps, %d ms", evalSettings.maxSteps, evalSettings.timeoutMillis);
+    }
   }
 
   @Override
@@ -233,45 +350,40 @@ public class AyaService implements WorkspaceService, TextDocumentService {
 
   @Override
   public CompletableFuture<Either<List<? extends Location>, List<? extends LocationLink>>> definition(DefinitionParams params) {
-    return CompletableFuture.supplyAsync(() -> {
-      var source = find(params.getTextDocument().getUri());
+    return request(INTERACTIVE, params.getTextDocument(), (source, cancel) -> {
       if (source == null) return Either.forLeft(Collections.emptyList());
-      return Either.forRight(GotoDefinition.invoke(source, params.getPosition(), libraries.view()));
+      return Either.forRight(GotoDefinition.invoke(source, params.getPosition(), libraries(), positions, cancel));
     });
   }
 
   @Override public CompletableFuture<Hover> hover(HoverParams params) {
-    return CompletableFuture.supplyAsync(() -> {
-      var source = find(params.getTextDocument().getUri());
+    return request(INTERACTIVE, params.getTextDocument(), (source, cancel) -> {
       if (source == null) return null;
-      var doc = ComputeSignature.invokeHover(source, params.getPosition());
+      var doc = ComputeSignature.invokeHover(source, params.getPosition(), positions, cancel);
       if (doc.isEmpty()) return null;
       return new Hover(new MarkupContent(MarkupKind.PLAINTEXT, doc.debugRender()));
     });
   }
 
   @Override public CompletableFuture<List<? extends Location>> references(ReferenceParams params) {
-    return CompletableFuture.supplyAsync(() -> {
-      var source = find(params.getTextDocument().getUri());
+    return request(NORMAL, params.getTextDocument(), (source, cancel) -> {
       if (source == null) return Collections.emptyList();
-      return FindReferences.invoke(source, params.getPosition(), libraries.view());
+      return FindReferences.invoke(source, params.getPosition(), libraries(), positions, references, cancel);
     });
   }
 
   @Override public CompletableFuture<WorkspaceEdit> rename(RenameParams params) {
-    return CompletableFuture.supplyAsync(() -> {
-      var source = find(params.getTextDocument().getUri());
+    return request(NORMAL, params.getTextDocument(), (source, cancel) -> {
       if (source == null) return null;
-      var renames = Rename.rename(source, params.getPosition(), params.getNewName(), libraries.view());
+      var renames = Rename.rename(source, params.getPosition(), params.getNewName(), libraries(), positions, references, cancel);
       return new WorkspaceEdit(renames);
     });
   }
 
   @Override public CompletableFuture<Either<Range, PrepareRenameResult>> prepareRename(PrepareRenameParams params) {
-    return CompletableFuture.supplyAsync(() -> {
-      var source = find(params.getTextDocument().getUri());
+    return request(INTERACTIVE, params.getTextDocument(), (source, cancel) -> {
       if (source == null) return null;
-      var begin = Rename.prepare(source, params.getPosition());
+      var begin = Rename.prepare(source, params.getPosition(), positions, cancel);
       if (begin == null) return null;
       return Either.forRight(new PrepareRenameResult(LspRange.toRange(begin.sourcePos()), begin.data()));
     });
@@ -279,11 +391,10 @@ public class AyaService implements WorkspaceService, TextDocumentService {
 
   @Override
   public CompletableFuture<List<? extends DocumentHighlight>> documentHighlight(DocumentHighlightParams params) {
-    return CompletableFuture.supplyAsync(() -> {
-      var source = find(params.getTextDocument().getUri());
+    return request(INTERACTIVE, params.getTextDocument(), (source, cancel) -> {
       if (source == null) return Collections.emptyList();
       var currentFile = Option.ofNullable(source.file());
-      return FindReferences.findOccurrences(source, params.getPosition(), SeqView.of(source.owner()))
+      return FindReferences.findOccurrences(source, params.getPosition(), SeqView.of(source.owner()), positions, references, cancel)
         // only highlight references in the current file
         .filter(pos -> pos.file().underlying().equals(currentFile))
         .map(pos -> new DocumentHighlight(LspRange.toRange(pos), DocumentHighlightKind.Read))
@@ -292,29 +403,26 @@ public class AyaService implements WorkspaceService, TextDocumentService {
   }
 
   @Override public CompletableFuture<List<? extends CodeLens>> codeLens(CodeLensParams params) {
-    return CompletableFuture.supplyAsync(() -> {
-      var source = find(params.getTextDocument().getUri());
+    return request(BACKGROUND, params.getTextDocument(), (source, cancel) -> {
       if (source == null) return Collections.emptyList();
-      return LensMaker.invoke(source, libraries.view());
+      return LensMaker.invoke(source, libraries(), references, cancel);
     });
   }
 
   @Override public CompletableFuture<CodeLens> resolveCodeLens(CodeLens codeLens) {
-    return CompletableFuture.supplyAsync(() -> LensMaker.resolve(codeLens));
+    return scheduler.submit(BACKGROUND, null, cancel -> LensMaker.resolve(codeLens));
   }
 
   @Override public CompletableFuture<List<InlayHint>> inlayHint(InlayHintParams params) {
-    return CompletableFuture.supplyAsync(() -> {
-      var source = find(params.getTextDocument().getUri());
+    return request(NORMAL, params.getTextDocument(), (source, cancel) -> {
       if (source == null) return Collections.emptyList();
-      return InlayHintMaker.invoke(source, params.getRange());
+      return InlayHintMaker.invoke(source, params.getRange(), positions, cancel);
     });
   }
 
   @SuppressWarnings("deprecation") @Override
   public CompletableFuture<List<Either<SymbolInformation, DocumentSymbol>>> documentSymbol(DocumentSymbolParams params) {
-    return CompletableFuture.supplyAsync(() -> {
-      var source = find(params.getTextDocument().getUri());
+    return request(NORMAL, params.getTextDocument(), (source, cancel) -> {
       if (source == null) return Collections.emptyList();
       return ProjectSymbol.invoke(source)
         .map(symbol -> Either.<SymbolInformation, DocumentSymbol>forRight(symbol.document()))
@@ -324,28 +432,67 @@ public class AyaService implements WorkspaceService, TextDocumentService {
 
   @SuppressWarnings("deprecation") @Override
   public CompletableFuture<Either<List<? extends SymbolInformation>, List<? extends WorkspaceSymbol>>> symbol(WorkspaceSymbolParams params) {
-    return CompletableFuture.supplyAsync(() -> Either.forRight(
-      ProjectSymbol.invoke(libraries.view())
-        .map(ProjectSymbol.Symbol::workspace)
+    // Cheap enough to answer while the user is typing the query
+    return scheduler.submit(INTERACTIVE, null, cancel -> Either.forRight(
+      symbols.search(params.getQuery(), libraries(), MAX_SYMBOLS, cancel)
+        .map(SymbolIndex.Match::workspace)
         .asJava()));
   }
 
+  @Override public CompletableFuture<WorkspaceSymbol> resolveWorkspaceSymbol(WorkspaceSymbol symbol) {
+    return scheduler.submit(INTERACTIVE, null, cancel -> {
+      if (!symbol.getLocation().isRight()) return symbol;
+      var source = find(symbol.getLocation().getRight().getUri());
+      var data = symbol.getData();
+      var name = data instanceof JsonElement json ? json.getAsString() : String.valueOf(data);
+      var ref = source != null ? symbols.resolve(source, name) : null;
+      var location = ref != null ? LspRange.toLoc(ref.concrete.sourcePos()) : null;
+      if (location != null) symbol.setLocation(Either.forLeft(location));
+      return symbol;
+    });
+  }
+
+  @Override public CompletableFuture<SemanticTokens> semanticTokensFull(SemanticTokensParams params) {
+    return request(BACKGROUND, params.getTextDocument(), (source, cancel) -> {
+      if (source == null) return new SemanticTokens(Collections.emptyList());
+      return highlights.full(source);
+    });
+  }
+
+  @Override
+  public CompletableFuture<Either<SemanticTokens, SemanticTokensDelta>> semanticTokensFullDelta(SemanticTokensDeltaParams params) {
+    return request(BACKGROUND, params.getTextDocument(), (source, cancel) -> {
+      if (source == null) return Either.forLeft(new SemanticTokens(Collections.emptyList()));
+      return highlights.delta(source, params.getPreviousResultId());
+    });
+  }
+
   @Override public CompletableFuture<List<FoldingRange>> foldingRange(FoldingRangeRequestParams params) {
-    return CompletableFuture.supplyAsync(() -> {
-      var source = find(params.getTextDocument().getUri());
+    return request(NORMAL, params.getTextDocument(), (source, cancel) -> {
       if (source == null) return Collections.emptyList();
       return Folding.invoke(source);
     });
   }
 
-  public ComputeTermResult computeTerm(@NotNull ComputeTermResult.Params input, ComputeTerm.Kind type) {
-    var source = find(input.uri);
-    if (source == null) return ComputeTermResult.bad(input);
-    return new ComputeTerm(source, type, primFactory(source.owner())).invoke(input);
+  public @NotNull CompletableFuture<ComputeTermResult> computeTerm(@NotNull ComputeTermResult.Params input, ComputeTerm.Kind type) {
+    return scheduler.submit(NORMAL, toPath(input.uri), cancel -> {
+      var source = find(input.uri);
+      if (source == null) return ComputeTermResult.bad(input);
+      return new ComputeTerm(source, type, primFactory(source.owner()), positions, evalSettings, cancel).invoke(input);
+    });
+  }
+
+  /** Schedules a request about a document, which is canceled when the document is changed. */
+  private <R> @NotNull CompletableFuture<R> request(
+    @NotNull RequestScheduler.Priority priority, @NotNull TextDocumentIdentifier document,
+    @NotNull BiFunction<@Nullable LibrarySource, CancellationIndicator, R> request
+  ) {
+    var path = toPath(document.getUri());
+    return scheduler.submit(priority, path, cancel -> request.apply(find(path), cancel));
   }
 
   private @NotNull LspPrimFactory primFactory(@NotNull LibraryOwner owner) {
-    return primFactories.getOrPut(owner.underlyingLibrary(), LspPrimFactory::new);
+    return primFactories.computeIfAbsent(owner.underlyingLibrary(), config -> new LspPrimFactory());
   }
 
   public record InlineHintProblem(@NotNull Problem owner, WithPos<Doc> docWithPos) implements Problem {
@@ -374,10 +521,9 @@ public class AyaService implements WorkspaceService, TextDocumentService {
       this.service = service;
     }
 
-    @Override
-    public void notifyIncrementalJob(@NotNull ImmutableSeq<LibrarySource> modified, @NotNull ImmutableSeq<ImmutableSeq<LibrarySource>> affected) {
-      super.notifyIncrementalJob(modified, affected);
-      service.clearProblems(affected);
+    @Override public void notifySCCTycked(@NotNull ImmutableSeq<LibrarySource> scc) {
+      super.notifySCCTycked(scc);
+      service.publisher.publish(scc);
     }
   }
 }
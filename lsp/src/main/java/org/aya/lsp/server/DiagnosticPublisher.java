@@ -0,0 +1,79 @@
+// Copyright (c) 2020-2022 Yinsen (Tesla) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.lsp.server;
+
+import kala.collection.immutable.ImmutableMap;
+import kala.collection.immutable.ImmutableSeq;
+import kala.collection.mutable.MutableList;
+import org.aya.cli.library.incremental.CompilerAdvisor;
+import org.aya.cli.library.source.LibrarySource;
+import org.aya.util.distill.DistillerOptions;
+import org.aya.util.reporter.Problem;
+import org.aya.util.reporter.Reporter;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Collects the problems of each file and publishes them as soon as the SCC containing the file is tycked,
+ * see {@link CompilerAdvisor#notifySCCTycked}, instead of after the whole library is compiled.
+ * Problems are only rendered when they are published, and problems without a file are ignored.
+ */
+public final class DiagnosticPublisher implements Reporter {
+  private final @NotNull DistillerOptions options;
+  private final @NotNull Map<Path, MutableList<Problem>> pending = new LinkedHashMap<>();
+  private @Nullable AyaLanguageClient client;
+
+  public DiagnosticPublisher(@NotNull DistillerOptions options) {
+    this.options = options;
+  }
+
+  public void connect(@NotNull AyaLanguageClient client) {
+    this.client = client;
+  }
+
+  @Override public synchronized void report(@NotNull Problem problem) {
+    if (!problem.sourcePos().belongsToSomeFile()) return;
+    problem.sourcePos().file().underlying().forEach(file ->
+      pending.computeIfAbsent(file, f -> MutableList.create()).append(problem));
+  }
+
+  /** Publishes the problems of the sources, which clears the old problems of the sources without problems now. */
+  public void publish(@NotNull ImmutableSeq<LibrarySource> sources) {
+    publishFiles(sources.map(LibrarySource::file));
+  }
+
+  /** Publishes the problems not published yet, for example, those reported when parsing. */
+  public void publishRemaining() {
+    ImmutableSeq<Path> files;
+    synchronized (this) {
+      files = pending.keySet().stream().collect(ImmutableSeq.factory());
+    }
+    publishFiles(files);
+  }
+
+  private void publishFiles(@NotNull ImmutableSeq<Path> files) {
+    var problems = new LinkedHashMap<Path, ImmutableSeq<Problem>>();
+    synchronized (this) {
+      files.forEach(file -> problems.put(file, take(file)));
+    }
+    send(ImmutableMap.from(problems));
+  }
+
+  private @NotNull ImmutableSeq<Problem> take(@NotNull Path file) {
+    var problems = pending.remove(file);
+    if (problems == null) return ImmutableSeq.empty();
+    return problems.view()
+      .flatMap(p -> p.inlineHints(options).<Problem>map(t -> new AyaService.InlineHintProblem(p, t)).prepended(p))
+      .toImmutableSeq();
+  }
+
+  private void send(@NotNull ImmutableMap<Path, ImmutableSeq<Problem>> problems) {
+    var client = this.client;
+    if (client == null || problems.isEmpty()) return;
+    client.publishAyaProblems(problems, options);
+  }
+}
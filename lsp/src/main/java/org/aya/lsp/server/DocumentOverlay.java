@@ -0,0 +1,120 @@
+// Copyright (c) 2020-2022 Tesla (Yinsen) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.lsp.server;
+
+import org.aya.cli.library.incremental.CompilerAdvisor;
+import org.aya.cli.library.incremental.DelegateCompilerAdvisor;
+import org.aya.cli.library.source.LibrarySource;
+import org.eclipse.lsp4j.Position;
+import org.eclipse.lsp4j.TextDocumentContentChangeEvent;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Contents of the documents opened in the editor, which are used instead of the files on disk.
+ * A document is considered modified when it is edited after it was last parsed,
+ * so only the edited sources and their importers are rechecked.
+ */
+public final class DocumentOverlay extends DelegateCompilerAdvisor {
+  private record Document(@NotNull String text, int version) {}
+
+  private final @NotNull Map<Path, Document> documents = new ConcurrentHashMap<>();
+  /** The versions of the documents when they were last parsed */
+  private final @NotNull Map<Path, Integer> parsed = new ConcurrentHashMap<>();
+  /** Files whose contents are changed since they were last checked */
+  private final @NotNull Set<Path> stale = ConcurrentHashMap.newKeySet();
+
+  public DocumentOverlay(@NotNull CompilerAdvisor delegate) {
+    super(delegate);
+  }
+
+  /** @return whether the opened document differs from the file on disk */
+  public boolean open(@NotNull Path file, @NotNull String text, int version) {
+    documents.put(file, new Document(text, version));
+    try {
+      if (text.equals(Files.readString(file))) return false;
+    } catch (IOException ignored) {
+    }
+    stale.add(file);
+    return true;
+  }
+
+  public void change(@NotNull Path file, @NotNull List<TextDocumentContentChangeEvent> changes, int version) {
+    documents.compute(file, (f, doc) -> {
+      var text = doc != null ? doc.text : readOrEmpty(f);
+      for (var change : changes) text = apply(text, change);
+      return new Document(text, version);
+    });
+    stale.add(file);
+  }
+
+  /** The file on disk is used after the document is closed, which may discard unsaved changes. */
+  public void close(@NotNull Path file) {
+    if (documents.remove(file) != null) stale.add(file);
+  }
+
+  public boolean isOpen(@NotNull Path file) {
+    return documents.containsKey(file);
+  }
+
+  @Override public boolean isSourceModified(@NotNull LibrarySource source) {
+    return stale.contains(source.file()) || super.isSourceModified(source);
+  }
+
+  @Override public @NotNull String readSource(@NotNull LibrarySource source) throws IOException {
+    var file = source.file();
+    var doc = documents.get(file);
+    if (doc == null) {
+      parsed.remove(file);
+      return super.readSource(source);
+    }
+    parsed.put(file, doc.version);
+    return doc.text;
+  }
+
+  @Override public void updateLastModified(@NotNull LibrarySource source) {
+    super.updateLastModified(source);
+    var file = source.file();
+    var doc = documents.get(file);
+    // Edits made during checking are checked next time
+    if (doc == null || Objects.equals(parsed.get(file), doc.version)) stale.remove(file);
+  }
+
+  private static @NotNull String readOrEmpty(@NotNull Path file) {
+    try {
+      return Files.readString(file);
+    } catch (IOException ignored) {
+      return "";
+    }
+  }
+
+  /** Applies a change, where the whole text is replaced if the range is absent */
+  private static @NotNull String apply(@NotNull String text, @NotNull TextDocumentContentChangeEvent change) {
+    var range = change.getRange();
+    if (range == null) return change.getText();
+    var start = offset(text, range.getStart());
+    var end = Math.max(start, offset(text, range.getEnd()));
+    return text.substring(0, start) + change.getText() + text.substring(end);
+  }
+
+  /** Positions are in UTF-16 code units, which is the same as indices of Java strings */
+  private static int offset(@NotNull String text, @NotNull Position position) {
+    var lineStart = 0;
+    for (int line = 0; line < position.getLine(); line++) {
+      var next = text.indexOf('\n', lineStart);
+      if (next < 0) return text.length();
+      lineStart = next + 1;
+    }
+    var lineEnd = text.indexOf('\n', lineStart);
+    if (lineEnd < 0) lineEnd = text.length();
+    return Math.min(lineStart + position.getCharacter(), lineEnd);
+  }
+}
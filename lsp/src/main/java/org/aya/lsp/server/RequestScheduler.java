@@ -0,0 +1,119 @@
+// Copyright (c) 2020-2022 Tesla (Yinsen) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.lsp.server;
+
+import org.aya.util.cancel.CancellationException;
+import org.aya.util.cancel.CancellationIndicator;
+import org.aya.util.cancel.CancellationToken;
+import org.aya.util.cancel.EvalBudget;
+import org.eclipse.lsp4j.jsonrpc.ResponseErrorException;
+import org.eclipse.lsp4j.jsonrpc.messages.ResponseError;
+import org.eclipse.lsp4j.jsonrpc.messages.ResponseErrorCode;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Runs the requests of the language server on a few worker threads,
+ * where waiting interactive requests run before the others,
+ * so a hover is not blocked behind a slow normalization or the code lenses of a large file.
+ * <p>
+ * A request is canceled when the client sends <code>$/cancelRequest</code>,
+ * or when the document it is about is changed, see {@link #cancel(Path)}.
+ * The request is given a {@link CancellationIndicator} to check in its loops.
+ */
+public final class RequestScheduler {
+  public enum Priority {
+    /** Requests the user is waiting for, like hover and go to definition */
+    INTERACTIVE,
+    NORMAL,
+    /** Requests the editor sends by itself, like code lens and workspace symbols */
+    BACKGROUND,
+  }
+
+  private record Task(@NotNull Priority priority, long sequence, @NotNull Runnable run)
+    implements Runnable, Comparable<Task> {
+    @Override public void run() {
+      run.run();
+    }
+
+    @Override public int compareTo(@NotNull Task o) {
+      var cmp = priority.compareTo(o.priority);
+      return cmp != 0 ? cmp : Long.compare(sequence, o.sequence);
+    }
+  }
+
+  /** <code>RequestFailed</code> of LSP 3.17, a request failed though it is well-formed */
+  private static final int REQUEST_FAILED = -32803;
+
+  private final @NotNull ThreadPoolExecutor executor;
+  private final @NotNull AtomicLong sequence = new AtomicLong();
+  /** The unfinished requests about each document */
+  private final @NotNull Map<Path, Set<CancellationToken>> requests = new ConcurrentHashMap<>();
+
+  public RequestScheduler(int threads) {
+    var count = new AtomicInteger();
+    executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<>(), r -> {
+      var thread = new Thread(r, "aya-request-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /** At least two threads, so a long-running request does not block the others */
+  public RequestScheduler() {
+    this(Math.max(2, Runtime.getRuntime().availableProcessors() / 2));
+  }
+
+  /**
+   * @param document the document the request is about, or null if it is about the whole workspace
+   * @param request  throws {@link CancellationException} when canceled
+   */
+  public <R> @NotNull CompletableFuture<R> submit(
+    @NotNull Priority priority, @Nullable Path document,
+    @NotNull Function<CancellationIndicator, R> request
+  ) {
+    var token = new CancellationToken();
+    var future = new CompletableFuture<R>();
+    if (document != null) requests.computeIfAbsent(document, d -> ConcurrentHashMap.newKeySet()).add(token);
+    future.whenComplete((r, e) -> {
+      // lsp4j cancels the future when the client cancels the request
+      if (future.isCancelled()) token.cancel();
+      if (document != null) requests.computeIfPresent(document, (d, tokens) -> {
+        tokens.remove(token);
+        return tokens.isEmpty() ? null : tokens;
+      });
+    });
+    executor.execute(new Task(priority, sequence.getAndIncrement(), () -> {
+      if (future.isDone()) return;
+      try {
+        token.checkCanceled();
+        future.complete(request.apply(token));
+      } catch (EvalBudget.Exhausted e) {
+        // Not canceled, but the normalization is given up, which the user should know
+        future.completeExceptionally(new ResponseErrorException(new ResponseError(
+          REQUEST_FAILED, e.getMessage(), null)));
+      } catch (CancellationException e) {
+        // The client is no longer interested in the result if it canceled the request itself
+        future.completeExceptionally(new ResponseErrorException(new ResponseError(
+          ResponseErrorCode.ContentModified, "The document is modified", null)));
+      } catch (Throwable e) {
+        future.completeExceptionally(e);
+      }
+    }));
+    return future;
+  }
+
+  /** Cancels the unfinished requests about the document, since their results are outdated. */
+  public void cancel(@NotNull Path document) {
+    var tokens = requests.remove(document);
+    if (tokens != null) tokens.forEach(CancellationToken::cancel);
+  }
+}
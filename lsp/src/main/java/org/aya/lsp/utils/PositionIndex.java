@@ -0,0 +1,166 @@
+// Copyright (c) 2020-2022 Yinsen (Tesla) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.lsp.utils;
+
+import kala.collection.SeqView;
+import kala.collection.immutable.ImmutableSeq;
+import kala.collection.mutable.MutableList;
+import kala.tuple.Unit;
+import org.aya.cli.library.source.LibrarySource;
+import org.aya.concrete.Expr;
+import org.aya.concrete.Pattern;
+import org.aya.concrete.stmt.Decl;
+import org.aya.concrete.stmt.Stmt;
+import org.aya.ref.Var;
+import org.aya.resolve.ResolveInfo;
+import org.aya.util.cancel.CancellationIndicator;
+import org.aya.util.error.SourcePos;
+import org.aya.util.error.WithPos;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The syntax nodes of each source indexed by the lines they span, so finding the node under the cursor
+ * only looks at the nodes on that line instead of visiting the whole program.
+ * The nodes on a line are kept in the order they are visited, that is, outer nodes first.
+ * Like {@link ReferenceIndex}, a source is indexed again the first time it is queried
+ * after it is parsed or resolved again.
+ *
+ * @see Resolver#resolveVar
+ */
+public final class PositionIndex {
+  /**
+   * @param decl the top-level declaration the node is in, or null if it is in a module
+   */
+  public record Node<T>(@NotNull SourcePos sourcePos, @NotNull T data, @Nullable Decl decl) {}
+
+  private static final class Lines<T> {
+    private final @NotNull Map<Integer, MutableList<Node<T>>> lines = new HashMap<>();
+
+    /** Large nodes are added to every line they span, which is bounded by their nesting depth */
+    void add(@NotNull Node<T> node) {
+      var pos = node.sourcePos;
+      for (int line = pos.startLine(); line <= pos.endLine(); line++)
+        lines.computeIfAbsent(line, l -> MutableList.create()).append(node);
+    }
+
+    @NotNull SeqView<Node<T>> at(int line) {
+      var nodes = lines.get(line);
+      return nodes != null ? nodes.view() : SeqView.empty();
+    }
+  }
+
+  /**
+   * @param vars  the references, including the definitions, see {@link Resolver.ReferringResolver#define}
+   * @param terms the expressions with tyck results, whose results are set after the source is indexed
+   * @param binds the pattern bindings, whose types are set after the source is indexed
+   */
+  private record FileIndex(
+    @NotNull ImmutableSeq<Stmt> program,
+    @Nullable ResolveInfo resolveInfo,
+    @NotNull Lines<Var> vars,
+    @NotNull Lines<Expr.WithTerm> terms,
+    @NotNull Lines<Pattern.Bind> binds
+  ) {}
+
+  private final @NotNull Map<LibrarySource, FileIndex> files = new ConcurrentHashMap<>();
+
+  /** @return the variables at the position, which may be referred to or defined there */
+  public @NotNull SeqView<WithPos<Var>> vars(
+    @NotNull LibrarySource source, @NotNull XY xy,
+    @NotNull CancellationIndicator cancel
+  ) {
+    var index = index(source, cancel);
+    if (index == null) return SeqView.empty();
+    return index.vars.at(xy.x())
+      .filter(node -> xy.inside(node.sourcePos))
+      .map(node -> new WithPos<>(node.sourcePos, node.data));
+  }
+
+  /** @return the innermost tycked expression at the position */
+  public @Nullable Expr.WithTerm term(
+    @NotNull LibrarySource source, @NotNull XY xy,
+    @NotNull CancellationIndicator cancel
+  ) {
+    var index = index(source, cancel);
+    if (index == null) return null;
+    Expr.WithTerm result = null;
+    for (var node : index.terms.at(xy.x())) {
+      if (!xy.inside(node.sourcePos) || node.decl != null && !xy.inside(node.decl.entireSourcePos())) continue;
+      if (node.data.core() != null) result = node.data;
+    }
+    return result;
+  }
+
+  /** @return the bindings in the top-level declarations inside the range */
+  public @NotNull SeqView<Pattern.Bind> binds(
+    @NotNull LibrarySource source, @NotNull XYXY xyxy,
+    @NotNull CancellationIndicator cancel
+  ) {
+    var index = index(source, cancel);
+    if (index == null) return SeqView.empty();
+    var binds = MutableList.<Pattern.Bind>create();
+    for (int i = xyxy.start().x(); i <= xyxy.end().x(); i++) {
+      var line = i;
+      index.binds.at(line)
+        .filter(node -> node.sourcePos.startLine() == line)
+        .filter(node -> node.decl == null || xyxy.contains(node.decl.entireSourcePos()))
+        .forEach(node -> binds.append(node.data));
+    }
+    return binds.view();
+  }
+
+  /** Forgets a source removed from its library. */
+  public void remove(@NotNull LibrarySource source) {
+    files.remove(source);
+  }
+
+  private @Nullable FileIndex index(@NotNull LibrarySource source, @NotNull CancellationIndicator cancel) {
+    var program = source.program().get();
+    if (program == null) return null;
+    var resolveInfo = source.resolveInfo().get();
+    return files.compute(source, (src, old) -> {
+      if (old != null && old.program == program && old.resolveInfo == resolveInfo) return old;
+      var index = new FileIndex(program, resolveInfo, new Lines<>(), new Lines<>(), new Lines<>());
+      program.forEach(stmt -> {
+        cancel.checkCanceled();
+        var decl = stmt instanceof Decl d ? d : null;
+        new Collector(index, decl, cancel).visit(stmt, Unit.unit());
+      });
+      return index;
+    });
+  }
+
+  private static final class Collector extends Resolver.ReferringResolver<Unit> {
+    private final @NotNull FileIndex index;
+    private final @Nullable Decl decl;
+
+    private Collector(@NotNull FileIndex index, @Nullable Decl decl, @NotNull CancellationIndicator cancel) {
+      super(cancel);
+      this.index = index;
+      this.decl = decl;
+    }
+
+    @Override protected void check(@NotNull Unit unit, @NotNull Var var, @NotNull SourcePos sourcePos) {
+      index.vars.add(new Node<>(sourcePos, var, decl));
+    }
+
+    @Override protected void define(@NotNull Unit unit, @NotNull Var var, @NotNull SourcePos sourcePos) {
+      index.vars.add(new Node<>(sourcePos, var, decl));
+    }
+
+    @Override public @NotNull Expr visitExpr(@NotNull Expr expr, Unit unit) {
+      if (expr instanceof Expr.WithTerm withTerm) index.terms.add(new Node<>(withTerm.sourcePos(), withTerm, decl));
+      return super.visitExpr(expr, unit);
+    }
+
+    @Override public @NotNull Pattern visitPattern(@NotNull Pattern pattern, Unit unit) {
+      if (pattern instanceof Pattern.Bind bind) index.binds.add(new Node<>(bind.sourcePos(), bind, decl));
+      return super.visitPattern(pattern, unit);
+    }
+  }
+}
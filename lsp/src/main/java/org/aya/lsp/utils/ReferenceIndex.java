@@ -0,0 +1,108 @@
+// Copyright (c) 2020-2022 Yinsen (Tesla) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.lsp.utils;
+
+import kala.collection.SeqView;
+import kala.collection.immutable.ImmutableSeq;
+import kala.collection.mutable.MutableList;
+import kala.tuple.Unit;
+import org.aya.cli.library.source.LibraryOwner;
+import org.aya.cli.library.source.LibrarySource;
+import org.aya.concrete.stmt.Stmt;
+import org.aya.ref.DefVar;
+import org.aya.ref.Var;
+import org.aya.resolve.ResolveInfo;
+import org.aya.util.cancel.CancellationIndicator;
+import org.aya.util.error.SourcePos;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Usages of variables in the sources of the libraries, so finding references is a lookup
+ * in each source instead of visiting the whole workspace.
+ * A source is indexed again the first time it is queried after it is parsed or resolved again,
+ * so only the edited sources and their importers are visited after an incremental build.
+ *
+ * @see Resolver.ReferringResolver
+ */
+public final class ReferenceIndex {
+  /** Imported definitions are deserialized to different objects, so they are compared by qualified names */
+  private record QualifiedName(@NotNull ImmutableSeq<String> module, @NotNull String name) {}
+
+  /**
+   * @param program     the program indexed, which is replaced when the source is parsed again
+   * @param resolveInfo the resolve info when indexed, which is replaced when the source is resolved again
+   */
+  private record FileIndex(
+    @NotNull ImmutableSeq<Stmt> program,
+    @Nullable ResolveInfo resolveInfo,
+    @NotNull Map<Var, MutableList<SourcePos>> local,
+    @NotNull Map<QualifiedName, MutableList<SourcePos>> global
+  ) {
+    @NotNull SeqView<SourcePos> usages(@NotNull Var var) {
+      var name = qualifiedName(var);
+      var usages = name != null ? global.get(name) : local.get(var);
+      return usages != null ? usages.view() : SeqView.empty();
+    }
+  }
+
+  private final @NotNull Map<LibrarySource, FileIndex> files = new ConcurrentHashMap<>();
+
+  /** @return the usages in the order of the variables, the libraries and their sources */
+  public @NotNull SeqView<SourcePos> usages(
+    @NotNull SeqView<Var> vars,
+    @NotNull SeqView<LibraryOwner> libraries,
+    @NotNull CancellationIndicator cancel
+  ) {
+    var refs = MutableList.<SourcePos>create();
+    vars.forEach(var -> libraries.forEach(lib -> usages(lib, var, refs, cancel)));
+    return refs.view();
+  }
+
+  private void usages(
+    @NotNull LibraryOwner owner, @NotNull Var var,
+    @NotNull MutableList<SourcePos> refs, @NotNull CancellationIndicator cancel
+  ) {
+    owner.librarySources().forEach(src -> {
+      var index = index(src, cancel);
+      if (index != null) refs.appendAll(index.usages(var));
+    });
+    owner.libraryDeps().forEach(dep -> usages(dep, var, refs, cancel));
+  }
+
+  /** Forgets a source removed from its library. */
+  public void remove(@NotNull LibrarySource source) {
+    files.remove(source);
+  }
+
+  private @Nullable FileIndex index(@NotNull LibrarySource source, @NotNull CancellationIndicator cancel) {
+    var program = source.program().get();
+    if (program == null) return null;
+    var resolveInfo = source.resolveInfo().get();
+    return files.compute(source, (src, old) -> {
+      if (old != null && old.program == program && old.resolveInfo == resolveInfo) return old;
+      var index = new FileIndex(program, resolveInfo, new IdentityHashMap<>(), new HashMap<>());
+      new Resolver.ReferringResolver<Unit>(cancel) {
+        @Override protected void check(@NotNull Unit unit, @NotNull Var var, @NotNull SourcePos sourcePos) {
+          var name = qualifiedName(var);
+          var usages = name != null
+            ? index.global.computeIfAbsent(name, n -> MutableList.create())
+            : index.local.computeIfAbsent(var, v -> MutableList.create());
+          usages.append(sourcePos);
+        }
+      }.visitAll(program, Unit.unit());
+      return index;
+    });
+  }
+
+  private static @Nullable QualifiedName qualifiedName(@NotNull Var var) {
+    if (var instanceof DefVar<?, ?> defVar && defVar.module != null)
+      return new QualifiedName(defVar.module, defVar.name());
+    return null;
+  }
+}
@@ -4,7 +4,6 @@ package org.aya.lsp.utils;
 
 import kala.collection.SeqView;
 import kala.collection.immutable.ImmutableSeq;
-import kala.collection.mutable.MutableList;
 import kala.control.Option;
 import org.aya.cli.library.source.LibraryOwner;
 import org.aya.cli.library.source.LibrarySource;
@@ -22,6 +21,7 @@ import org.aya.generic.Constants;
 import org.aya.ref.DefVar;
 import org.aya.ref.LocalVar;
 import org.aya.ref.Var;
+import org.aya.util.cancel.CancellationIndicator;
 import org.aya.util.error.SourcePos;
 import org.aya.util.error.WithPos;
 import org.eclipse.lsp4j.Position;
@@ -40,16 +40,18 @@ public interface Resolver {
       .flatMap(defs -> defs.find(def -> def.ref().name().equals(name)));
   }
 
-  /** resolve the position to its referring target */
+  /**
+   * resolve the position to its referring target
+   *
+   * @see PositionIndex#vars
+   */
   static @NotNull SeqView<WithPos<@NotNull Var>> resolveVar(
+    @NotNull PositionIndex index,
     @NotNull LibrarySource source,
-    @NotNull Position position
+    @NotNull Position position,
+    @NotNull CancellationIndicator cancel
   ) {
-    var program = source.program().get();
-    if (program == null) return SeqView.empty();
-    var resolver = new PositionResolver();
-    resolver.visitAll(program, new XY(position));
-    return resolver.targetVars.view().mapNotNull(pos -> switch (pos.data()) {
+    return index.vars(source, new XY(position), cancel).mapNotNull(pos -> switch (pos.data()) {
       case DefVar<?, ?> defVar -> {
         if (defVar.concrete != null) yield new WithPos<>(pos.sourcePos(), defVar);
         // defVar is an imported and serialized symbol, so we need to find the original one
@@ -103,11 +105,21 @@ public interface Resolver {
    * Traverse all referring terms including:
    * {@link Expr.RefExpr}, {@link Expr.ProjExpr}, {@link Expr.NewExpr}
    * and {@link Pattern} and check against a given condition implemented in
-   * {@link ReferringResolver#check(P, Var, SourcePos)}
+   * {@link ReferringResolver#check(P, Var, SourcePos)}.
+   * The names being defined are checked in {@link ReferringResolver#define(P, Var, SourcePos)}
    */
   abstract class ReferringResolver<P> implements StmtOps<P> {
+    protected final @NotNull CancellationIndicator cancel;
+
+    protected ReferringResolver(@NotNull CancellationIndicator cancel) {
+      this.cancel = cancel;
+    }
+
     public void visitAll(ImmutableSeq<Stmt> program, P xy) {
-      program.forEach(stmt -> visit(stmt, xy));
+      program.forEach(stmt -> {
+        cancel.checkCanceled();
+        visit(stmt, xy);
+      });
     }
 
     /**
@@ -116,6 +128,30 @@ public interface Resolver {
      */
     protected abstract void check(@NotNull P param, @NotNull Var var, @NotNull SourcePos sourcePos);
 
+    /**
+     * check the name of a definition, a tele or a module command, where the position
+     * may be placed without referring to anything else.
+     */
+    protected void define(@NotNull P param, @NotNull Var var, @NotNull SourcePos sourcePos) {
+    }
+
+    @Override public void visitCommand(@NotNull Command cmd, P pp) {
+      switch (cmd) {
+        case Command.Import imp -> define(pp, new ModuleVar(imp.path()), imp.path().sourcePos());
+        case Command.Open open -> define(pp, new ModuleVar(open.path()), open.path().sourcePos());
+        case Command.Module module -> {}
+      }
+      StmtOps.super.visitCommand(cmd, pp);
+    }
+
+    @Override public void visitTelescopic(@NotNull Decl decl, Decl.@NotNull Telescopic proof, P pp) {
+      proof.telescope()
+        .filterNot(tele -> tele.ref().name().startsWith(Constants.ANONYMOUS_PREFIX))
+        .forEach(tele -> define(pp, tele.ref(), tele.sourcePos()));
+      define(pp, decl.ref(), decl.sourcePos());
+      StmtOps.super.visitTelescopic(decl, proof, pp);
+    }
+
     @Override public @NotNull Expr visitExpr(@NotNull Expr expr, P pp) {
       switch (expr) {
         case Expr.RefExpr ref -> check(pp, ref.resolvedVar(), ref.sourcePos());
@@ -149,59 +185,4 @@ public interface Resolver {
       return StmtOps.super.visitPattern(pattern, param);
     }
   }
-
-  /**
-   * In short, this class resolves position to PsiNameIdentifierOwner or PsiNamedElement.
-   * <p>
-   * Resolve position to its referring target. This class extends the
-   * search to definitions and module commands compared to {@link ReferringResolver},
-   * because the position may be placed at the name part of a function, a tele,
-   * an import command, etc.
-   *
-   * @author ice1000, kiva
-   */
-  class PositionResolver extends ReferringResolver<XY> {
-    public final @NotNull MutableList<WithPos<Var>> targetVars = MutableList.create();
-
-    @Override public void visitCommand(@NotNull Command cmd, XY pp) {
-      switch (cmd) {
-        case Command.Import imp -> check(pp, new ModuleVar(imp.path()), imp.path().sourcePos());
-        case Command.Open open -> check(pp, new ModuleVar(open.path()), open.path().sourcePos());
-        case Command.Module module -> {}
-      }
-      super.visitCommand(cmd, pp);
-    }
-
-    @Override public void visitTelescopic(@NotNull Decl decl, Decl.@NotNull Telescopic proof, XY xy) {
-      proof.telescope()
-        .filterNot(tele -> tele.ref().name().startsWith(Constants.ANONYMOUS_PREFIX))
-        .forEach(tele -> check(xy, tele.ref(), tele.sourcePos()));
-      check(xy, decl.ref(), decl.sourcePos());
-      super.visitTelescopic(decl, proof, xy);
-    }
-
-    @Override protected void check(@NotNull XY xy, @NotNull Var var, @NotNull SourcePos sourcePos) {
-      if (xy.inside(sourcePos)) targetVars.append(new WithPos<>(sourcePos, var));
-    }
-  }
-
-  /** find usages of a variable */
-  class UsageResolver extends ReferringResolver<Var> {
-    public final @NotNull MutableList<SourcePos> refs = MutableList.create();
-
-    @Override protected void check(@NotNull Var var, @NotNull Var check, @NotNull SourcePos sourcePos) {
-      if (isUsage(var, check)) refs.append(sourcePos);
-    }
-
-    private boolean isUsage(@NotNull Var var, @NotNull Var check) {
-      if (check == var) return true;
-      // for imported serialized definitions, let's compare by qualified name
-      return var instanceof DefVar<?, ?> defVar
-        && check instanceof DefVar<?, ?> checkDef
-        && defVar.module != null
-        && checkDef.module != null
-        && defVar.module.equals(checkDef.module)
-        && defVar.name().equals(checkDef.name());
-    }
-  }
 }
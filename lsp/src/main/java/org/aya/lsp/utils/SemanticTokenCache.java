@@ -0,0 +1,166 @@
+// Copyright (c) 2020-2022 Yinsen (Tesla) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.lsp.utils;
+
+import kala.collection.immutable.ImmutableSeq;
+import org.aya.cli.library.source.LibrarySource;
+import org.aya.concrete.stmt.Stmt;
+import org.aya.lsp.actions.SyntaxHighlight;
+import org.aya.lsp.models.HighlightResult;
+import org.aya.resolve.ResolveInfo;
+import org.eclipse.lsp4j.*;
+import org.eclipse.lsp4j.jsonrpc.messages.Either;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Highlighted symbols of each source and their semantic tokens, see {@link SyntaxHighlight}.
+ * Like {@link ReferenceIndex}, a source is highlighted again the first time it is queried
+ * after it is parsed or resolved again, so only the rechecked sources are highlighted after an edit.
+ * <p>
+ * The tokens last sent for each source are remembered, so a delta request
+ * is answered with the changed part of the tokens instead of all of them.
+ */
+public final class SemanticTokenCache {
+  private static final @NotNull List<String> TYPES = List.of(
+    SemanticTokenTypes.Namespace, SemanticTokenTypes.Function, SemanticTokenTypes.Type,
+    SemanticTokenTypes.Struct, SemanticTokenTypes.EnumMember, SemanticTokenTypes.Property,
+    SemanticTokenTypes.TypeParameter);
+  private static final @NotNull List<String> MODIFIERS = List.of(
+    SemanticTokenModifiers.Declaration, SemanticTokenModifiers.DefaultLibrary);
+  public static final @NotNull SemanticTokensLegend LEGEND = new SemanticTokensLegend(TYPES, MODIFIERS);
+
+  /** The integers of a token, see the encoding of semantic tokens in the LSP specification */
+  private static final int TOKEN_SIZE = 5;
+  private static final @NotNull Comparator<HighlightResult.Symbol> ORDER = Comparator
+    .<HighlightResult.Symbol>comparingInt(s -> s.range().getStart().getLine())
+    .thenComparingInt(s -> s.range().getStart().getCharacter());
+
+  /**
+   * @param program     the program highlighted, which is replaced when the source is parsed again
+   * @param resolveInfo the resolve info when highlighted, which is replaced when the source is resolved again
+   * @param data        the encoded tokens, see {@link #encode}
+   */
+  private record FileTokens(
+    @NotNull ImmutableSeq<Stmt> program,
+    @Nullable ResolveInfo resolveInfo,
+    @NotNull ImmutableSeq<HighlightResult.Symbol> symbols,
+    @NotNull String resultId,
+    int @NotNull [] data
+  ) {}
+
+  private final @NotNull Map<LibrarySource, FileTokens> files = new ConcurrentHashMap<>();
+  /** The tokens last sent to the client */
+  private final @NotNull Map<LibrarySource, FileTokens> sent = new ConcurrentHashMap<>();
+  private final @NotNull AtomicLong results = new AtomicLong();
+
+  public @NotNull ImmutableSeq<HighlightResult.Symbol> symbols(@NotNull LibrarySource source) {
+    var tokens = tokens(source);
+    return tokens != null ? tokens.symbols : ImmutableSeq.empty();
+  }
+
+  public @NotNull SemanticTokens full(@NotNull LibrarySource source) {
+    var tokens = tokens(source);
+    if (tokens == null) return new SemanticTokens(List.of());
+    sent.put(source, tokens);
+    return new SemanticTokens(tokens.resultId, boxed(tokens.data, 0, tokens.data.length));
+  }
+
+  /** @return all the tokens if the previous result is not the one last sent */
+  public @NotNull Either<SemanticTokens, SemanticTokensDelta> delta(@NotNull LibrarySource source, @NotNull String previousResultId) {
+    var last = sent.get(source);
+    var tokens = tokens(source);
+    if (last == null || tokens == null || !last.resultId.equals(previousResultId)) return Either.forLeft(full(source));
+    sent.put(source, tokens);
+    if (last.resultId.equals(tokens.resultId)) return Either.forRight(new SemanticTokensDelta(List.of(), tokens.resultId));
+    return Either.forRight(new SemanticTokensDelta(List.of(diff(last.data, tokens.data)), tokens.resultId));
+  }
+
+  /** Forgets a source removed from its library. */
+  public void remove(@NotNull LibrarySource source) {
+    files.remove(source);
+    sent.remove(source);
+  }
+
+  private @Nullable FileTokens tokens(@NotNull LibrarySource source) {
+    var program = source.program().get();
+    if (program == null) return null;
+    var resolveInfo = source.resolveInfo().get();
+    return files.compute(source, (src, old) -> {
+      if (old != null && old.program == program && old.resolveInfo == resolveInfo) return old;
+      var symbols = SyntaxHighlight.invoke(src);
+      var data = encode(symbols);
+      // Highlighting is usually unchanged when a source is only rechecked because of its imports
+      if (old != null && Arrays.equals(old.data, data)) return new FileTokens(program, resolveInfo, symbols, old.resultId, old.data);
+      return new FileTokens(program, resolveInfo, symbols, String.valueOf(results.incrementAndGet()), data);
+    });
+  }
+
+  /** Each token is relative to the previous one, tokens spanning multiple lines or overlapping others are dropped */
+  private static int @NotNull [] encode(@NotNull ImmutableSeq<HighlightResult.Symbol> symbols) {
+    var sorted = symbols.stream().sorted(ORDER).toList();
+    var data = new int[sorted.size() * TOKEN_SIZE];
+    var size = 0;
+    var line = 0;
+    var column = 0;
+    var end = 0;
+    for (var symbol : sorted) {
+      var start = symbol.range().getStart();
+      var stop = symbol.range().getEnd();
+      if (start.getLine() != stop.getLine() || stop.getCharacter() <= start.getCharacter()) continue;
+      if (start.getLine() == line && start.getCharacter() < end) continue;
+      data[size++] = start.getLine() - line;
+      data[size++] = start.getLine() == line ? start.getCharacter() - column : start.getCharacter();
+      data[size++] = stop.getCharacter() - start.getCharacter();
+      data[size++] = type(symbol.kind());
+      data[size++] = modifiers(symbol.kind());
+      line = start.getLine();
+      column = start.getCharacter();
+      end = stop.getCharacter();
+    }
+    return Arrays.copyOf(data, size);
+  }
+
+  /** A single edit replacing the tokens between the common prefix and the common suffix */
+  private static @NotNull SemanticTokensEdit diff(int @NotNull [] old, int @NotNull [] now) {
+    var prefix = 0;
+    var max = Math.min(old.length, now.length);
+    while (prefix < max && old[prefix] == now[prefix]) prefix++;
+    var suffix = 0;
+    while (suffix < max - prefix && old[old.length - 1 - suffix] == now[now.length - 1 - suffix]) suffix++;
+    return new SemanticTokensEdit(prefix, old.length - prefix - suffix, boxed(now, prefix, now.length - suffix));
+  }
+
+  private static @NotNull List<Integer> boxed(int @NotNull [] data, int from, int to) {
+    return Arrays.stream(data, from, to).boxed().toList();
+  }
+
+  private static int type(@NotNull HighlightResult.Kind kind) {
+    return TYPES.indexOf(switch (kind) {
+      case ModuleDef -> SemanticTokenTypes.Namespace;
+      case FnDef, FnCall, PrimDef, PrimCall -> SemanticTokenTypes.Function;
+      case DataDef, DataCall -> SemanticTokenTypes.Type;
+      case StructDef, StructCall -> SemanticTokenTypes.Struct;
+      case ConDef, ConCall -> SemanticTokenTypes.EnumMember;
+      case FieldDef, FieldCall -> SemanticTokenTypes.Property;
+      case Generalize -> SemanticTokenTypes.TypeParameter;
+    });
+  }
+
+  /** A bit set of the indices in {@link #MODIFIERS} */
+  private static int modifiers(@NotNull HighlightResult.Kind kind) {
+    var modifiers = switch (kind) {
+      case ModuleDef, FnDef, DataDef, StructDef, ConDef, FieldDef, PrimDef -> 1;
+      default -> 0;
+    };
+    if (kind == HighlightResult.Kind.PrimDef || kind == HighlightResult.Kind.PrimCall) modifiers |= 1 << 1;
+    return modifiers;
+  }
+}
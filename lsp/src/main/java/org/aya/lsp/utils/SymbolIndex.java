@@ -0,0 +1,170 @@
+// Copyright (c) 2020-2022 Yinsen (Tesla) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.lsp.utils;
+
+import kala.collection.SeqView;
+import kala.collection.immutable.ImmutableSeq;
+import kala.collection.mutable.MutableList;
+import kala.tuple.Unit;
+import org.aya.cli.library.source.LibraryOwner;
+import org.aya.cli.library.source.LibrarySource;
+import org.aya.concrete.stmt.Decl;
+import org.aya.concrete.stmt.Stmt;
+import org.aya.generic.Constants;
+import org.aya.lsp.actions.SyntaxDeclAction;
+import org.aya.lsp.actions.SyntaxHighlight;
+import org.aya.ref.DefVar;
+import org.aya.util.cancel.CancellationIndicator;
+import org.eclipse.lsp4j.WorkspaceSymbol;
+import org.eclipse.lsp4j.WorkspaceSymbolLocation;
+import org.eclipse.lsp4j.jsonrpc.messages.Either;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Names of the definitions in the sources of the libraries, for workspace symbol search.
+ * Like {@link ReferenceIndex}, a source is indexed again the first time it is queried after it is parsed again.
+ * The names are matched fuzzily, where the characters of the query should appear in the name in order.
+ * <p>
+ * The names of a source are indexed by the characters in them (ignoring cases), and only the names
+ * containing the rarest character of the query in the source are matched. An n-gram index is not used,
+ * since a fuzzy match does not need to contain any n-gram of the query for n > 1.
+ */
+public final class SymbolIndex {
+  /** @param qualifiedName the module name and the name, used to find the symbol when it is resolved */
+  public record Entry(@NotNull String qualifiedName, @NotNull DefVar<?, ?> ref) {
+    public @NotNull String name() {
+      return ref.name();
+    }
+  }
+
+  public record Match(@NotNull Entry entry, @NotNull String uri, int score) {
+    /** The range is computed when the symbol is resolved, see {@link SymbolIndex#resolve} */
+    public @NotNull WorkspaceSymbol workspace() {
+      var symbol = new WorkspaceSymbol(entry.name(), SyntaxHighlight.symbolKindOf(entry.ref),
+        Either.forRight(new WorkspaceSymbolLocation(uri)));
+      symbol.setContainerName(entry.qualifiedName);
+      symbol.setData(entry.qualifiedName);
+      return symbol;
+    }
+  }
+
+  /** @param postings the entries whose names contain the lower case character */
+  private record FileSymbols(
+    @NotNull ImmutableSeq<Stmt> program, @NotNull ImmutableSeq<Entry> entries,
+    @NotNull Map<Character, ImmutableSeq<Entry>> postings
+  ) {
+    /** @return the entries which may match the query */
+    public @NotNull ImmutableSeq<Entry> candidates(@NotNull String query) {
+      var candidates = entries;
+      for (int i = 0; i < query.length(); i++) {
+        var posting = postings.get(Character.toLowerCase(query.charAt(i)));
+        if (posting == null) return ImmutableSeq.empty();
+        if (posting.size() < candidates.size()) candidates = posting;
+      }
+      return candidates;
+    }
+  }
+
+  private static final @NotNull Comparator<Match> RANKING = Comparator.<Match>comparingInt(m -> -m.score)
+    .thenComparingInt(m -> m.entry.name().length())
+    .thenComparing(m -> m.entry.qualifiedName);
+
+  private final @NotNull Map<LibrarySource, FileSymbols> files = new ConcurrentHashMap<>();
+
+  /** @return at most limit symbols matching the query, the better matches first */
+  public @NotNull ImmutableSeq<Match> search(
+    @NotNull String query, @NotNull SeqView<LibraryOwner> libraries,
+    int limit, @NotNull CancellationIndicator cancel
+  ) {
+    var matches = MutableList.<Match>create();
+    libraries.forEach(lib -> search(lib, query, matches, cancel));
+    return matches.stream().sorted(RANKING).limit(limit).collect(ImmutableSeq.factory());
+  }
+
+  private void search(
+    @NotNull LibraryOwner owner, @NotNull String query,
+    @NotNull MutableList<Match> matches, @NotNull CancellationIndicator cancel
+  ) {
+    owner.librarySources().forEach(src -> {
+      cancel.checkCanceled();
+      var uri = src.file().toUri().toString();
+      for (var entry : index(src).candidates(query)) {
+        var score = score(query, entry.name());
+        if (score >= 0) matches.append(new Match(entry, uri, score));
+      }
+    });
+    owner.libraryDeps().forEach(dep -> search(dep, query, matches, cancel));
+  }
+
+  /** @return the definition with the qualified name in the source */
+  public @Nullable DefVar<?, ?> resolve(@NotNull LibrarySource source, @NotNull String qualifiedName) {
+    return index(source).entries.find(entry -> entry.qualifiedName.equals(qualifiedName)).map(Entry::ref).getOrNull();
+  }
+
+  public void remove(@NotNull LibrarySource source) {
+    files.remove(source);
+  }
+
+  private @NotNull FileSymbols index(@NotNull LibrarySource source) {
+    var program = source.program().get();
+    if (program == null) return new FileSymbols(ImmutableSeq.empty(), ImmutableSeq.empty(), Map.of());
+    return files.compute(source, (src, old) -> {
+      if (old != null && old.program == program) return old;
+      var module = src.moduleName().joinToString(Constants.SCOPE_SEPARATOR);
+      var entries = MutableList.<Entry>create();
+      var collector = new SyntaxDeclAction<Unit>() {
+        @Override public void visitDecl(@NotNull Decl decl, Unit unit) {
+          Resolver.withChildren(decl).filter(dv -> dv.concrete != null).forEach(dv -> entries.append(
+            new Entry(module + Constants.SCOPE_SEPARATOR + dv.name(), dv)));
+        }
+      };
+      program.forEach(stmt -> collector.visit(stmt, Unit.unit()));
+      var postings = new HashMap<Character, MutableList<Entry>>();
+      entries.forEach(entry -> entry.name().chars()
+        .map(Character::toLowerCase).distinct()
+        .forEach(c -> postings.computeIfAbsent((char) c, k -> MutableList.create()).append(entry)));
+      var frozen = new HashMap<Character, ImmutableSeq<Entry>>();
+      postings.forEach((c, posting) -> frozen.put(c, posting.toImmutableSeq()));
+      return new FileSymbols(program, entries.toImmutableSeq(), frozen);
+    });
+  }
+
+  /**
+   * Matches the characters of the query in order, ignoring cases.
+   * Matches at the beginning of a word and consecutive matches are preferred,
+   * so <code>pa</code> ranks <code>pmap</code> below <code>path</code>.
+   *
+   * @return negative if the name does not match
+   */
+  static int score(@NotNull String query, @NotNull String name) {
+    if (query.isEmpty()) return 0;
+    var score = 0;
+    var last = -2;
+    var from = 0;
+    for (int i = 0; i < query.length(); i++) {
+      var c = Character.toLowerCase(query.charAt(i));
+      var found = -1;
+      for (int j = from; j < name.length(); j++) {
+        if (Character.toLowerCase(name.charAt(j)) == c) {
+          found = j;
+          break;
+        }
+      }
+      if (found < 0) return -1;
+      score += 1;
+      if (found == last + 1) score += 3;
+      if (found == 0 || !Character.isLetterOrDigit(name.charAt(found - 1))
+        || Character.isUpperCase(name.charAt(found)) && Character.isLowerCase(name.charAt(found - 1))) score += 5;
+      last = found;
+      from = found + 1;
+    }
+    if (name.length() == query.length()) score += 10;
+    return score;
+  }
+}
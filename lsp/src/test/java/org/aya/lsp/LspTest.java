@@ -2,19 +2,32 @@
 // Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
 package org.aya.lsp;
 
+import kala.collection.SeqView;
 import kala.collection.immutable.ImmutableSeq;
+import org.aya.cli.library.source.LibrarySource;
 import org.aya.generic.Constants;
 import org.aya.lsp.tester.LspTestClient;
+import org.aya.lsp.server.RequestScheduler;
 import org.aya.lsp.tester.LspTestCompilerAdvisor;
+import org.aya.lsp.utils.PositionIndex;
+import org.aya.lsp.utils.ReferenceIndex;
+import org.aya.lsp.utils.Resolver;
+import org.aya.lsp.utils.XY;
+import org.aya.util.cancel.CancellationIndicator;
+import org.eclipse.lsp4j.*;
+import org.eclipse.lsp4j.jsonrpc.ResponseErrorException;
+import org.eclipse.lsp4j.jsonrpc.messages.Either;
 import org.jetbrains.annotations.NotNull;
 import org.junit.jupiter.api.Test;
 
 import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.*;
 
 import static org.aya.lsp.tester.TestCommand.compile;
+import static org.aya.lsp.tester.TestCommand.edit;
 import static org.aya.lsp.tester.TestCommand.mutate;
-import static org.junit.jupiter.api.Assertions.assertEquals;
-import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.*;
 
 public class LspTest {
   public static final @NotNull Path TEST_LIB = Path.of("src", "test", "resources", "lsp-test-lib");
@@ -49,6 +62,172 @@ public class LspTest {
     );
   }
 
+  @Test public void testEditUnsaved() {
+    launch(TEST_LIB).execute(
+      compile((a, e) -> {}),
+      edit("Nat", "\n-- edited\n"),
+      compile((a, e) -> assertRemake(a, e, "Nat", "HelloWorld"))
+    );
+  }
+
+  @Test public void testReferenceIndex() {
+    var client = launch(TEST_LIB);
+    var index = new ReferenceIndex();
+    client.execute(compile((a, e) -> assertEquals(3, natUsages(client, index))));
+    client.execute(
+      edit("HelloWorld", "\ndef hello4 : Nat => 1\n"),
+      compile((a, e) -> assertEquals(4, natUsages(client, index)))
+    );
+  }
+
+  private int natUsages(@NotNull LspTestClient client, @NotNull ReferenceIndex index) {
+    var libraries = client.service.libraries();
+    var nat = Resolver.resolveDef(libraries.first(), ImmutableSeq.of("Nat"), "Nat");
+    assertTrue(nat.isDefined());
+    return index.usages(SeqView.of(nat.get().ref()), libraries, CancellationIndicator.NEVER).size();
+  }
+
+  @Test public void testPositionIndex() {
+    var client = launch(TEST_LIB);
+    var index = new PositionIndex();
+    client.execute(compile((a, e) -> {
+      var nat = client.service.libraries().first().findModule(ImmutableSeq.of("Nat"));
+      assertNotNull(nat);
+      // the name of the definition and the reference in the constructor `suc`
+      assertEquals(List.of("Nat"), varsAt(nat, index, 18));
+      assertEquals(List.of("Nat"), varsAt(nat, index, 35));
+      assertEquals(List.of(), varsAt(nat, index, 22));
+      assertNotNull(index.term(nat, new XY(new Position(0, 36)), CancellationIndicator.NEVER));
+    }));
+  }
+
+  @Test public void testTermsOfReusedDecl() {
+    var client = launch(TEST_LIB);
+    var index = new PositionIndex();
+    client.execute(
+      compile((a, e) -> {}),
+      edit("Nat", "\n-- edited\n"),
+      compile((a, e) -> {
+        var nat = client.service.libraries().first().findModule(ImmutableSeq.of("Nat"));
+        assertNotNull(nat);
+        // `Nat` is reused rather than tycked again, but the reference in `suc` still has its core
+        var term = index.term(nat, new XY(new Position(0, 36)), CancellationIndicator.NEVER);
+        assertNotNull(term);
+        assertNotNull(term.core());
+      })
+    );
+  }
+
+  private @NotNull List<String> varsAt(@NotNull LibrarySource source, @NotNull PositionIndex index, int character) {
+    return index.vars(source, new XY(new Position(0, character + 1)), CancellationIndicator.NEVER)
+      .map(v -> v.data().name()).stream().toList();
+  }
+
+  @Test public void testSemanticTokensDelta() {
+    var client = launch(TEST_LIB);
+    var previous = new String[1];
+    client.execute(compile((a, e) -> {
+      var tokens = assertDoesNotThrow(() -> client.service.semanticTokensFull(new SemanticTokensParams(helloWorld(client))).get());
+      assertFalse(tokens.getData().isEmpty());
+      assertEquals(0, tokens.getData().size() % 5);
+      previous[0] = tokens.getResultId();
+      var delta = tokensDelta(client, previous[0]);
+      assertTrue(delta.isRight());
+      assertEquals(List.of(), delta.getRight().getEdits());
+    }));
+    client.execute(
+      edit("HelloWorld", "\ndef hello4 : Nat => 1\n"),
+      compile((a, e) -> {
+        var delta = tokensDelta(client, previous[0]);
+        assertTrue(delta.isRight());
+        assertEquals(1, delta.getRight().getEdits().size());
+        assertFalse(delta.getRight().getEdits().get(0).getData().isEmpty());
+      })
+    );
+  }
+
+  private @NotNull TextDocumentIdentifier helloWorld(@NotNull LspTestClient client) {
+    var source = client.service.libraries().first().findModule(ImmutableSeq.of("HelloWorld"));
+    assertNotNull(source);
+    return new TextDocumentIdentifier(source.file().toUri().toString());
+  }
+
+  private @NotNull Either<SemanticTokens, SemanticTokensDelta> tokensDelta(@NotNull LspTestClient client, @NotNull String previous) {
+    var params = new SemanticTokensDeltaParams(helloWorld(client), previous);
+    return assertDoesNotThrow(() -> client.service.semanticTokensFullDelta(params).get());
+  }
+
+  @Test public void testStreamingDiagnostics() {
+    var client = launch(TEST_LIB);
+    var nat = uriOf(client, "Nat");
+    var hello = helloWorld(client).getUri();
+    client.execute(compile((a, e) -> {
+      assertTrue(client.diagnosed.contains(nat));
+      // Published as soon as Nat is tycked, before its importer
+      assertTrue(client.diagnosed.indexOf(nat) < client.diagnosed.indexOf(hello));
+    }));
+    client.diagnosed.clear();
+    client.execute(
+      edit("HelloWorld", "\ndef hello4 : Nat => 1\n"),
+      compile((a, e) -> {
+        assertTrue(client.diagnosed.contains(hello));
+        assertFalse(client.diagnosed.contains(nat));
+      })
+    );
+  }
+
+  private @NotNull String uriOf(@NotNull LspTestClient client, @NotNull String module) {
+    var source = client.service.libraries().first().findModule(ImmutableSeq.of(module));
+    assertNotNull(source);
+    return source.file().toUri().toString();
+  }
+
+  @Test public void testWorkspaceSymbol() {
+    var client = launch(TEST_LIB);
+    client.execute(compile((a, e) -> {
+      assertEquals(List.of("hello1", "hello2", "hello3"), symbols(client, "hel"));
+      assertEquals("suc", symbols(client, "su").get(0));
+      assertEquals(List.of(), symbols(client, "qqq"));
+    }));
+  }
+
+  private @NotNull List<String> symbols(@NotNull LspTestClient client, @NotNull String query) {
+    var reply = assertDoesNotThrow(() -> client.service.symbol(new WorkspaceSymbolParams(query)).get());
+    return reply.getRight().stream().map(WorkspaceSymbol::getName).toList();
+  }
+
+  @Test public void testRequestPriority() throws Exception {
+    var scheduler = new RequestScheduler(1);
+    var blocker = new CountDownLatch(1);
+    var order = new ConcurrentLinkedQueue<String>();
+    scheduler.submit(RequestScheduler.Priority.NORMAL, null, cancel -> {
+      try {
+        blocker.await();
+      } catch (InterruptedException ignored) {
+      }
+      return null;
+    });
+    var lens = scheduler.submit(RequestScheduler.Priority.BACKGROUND, null, cancel -> order.add("lens"));
+    var hover = scheduler.submit(RequestScheduler.Priority.INTERACTIVE, null, cancel -> order.add("hover"));
+    blocker.countDown();
+    CompletableFuture.allOf(lens, hover).get(10, TimeUnit.SECONDS);
+    assertEquals(List.of("hover", "lens"), List.copyOf(order));
+  }
+
+  @Test public void testCancelOnChange() {
+    var scheduler = new RequestScheduler(1);
+    var file = Path.of("Nat.aya");
+    var started = new CountDownLatch(1);
+    var nf = scheduler.submit(RequestScheduler.Priority.NORMAL, file, cancel -> {
+      started.countDown();
+      while (true) cancel.checkCanceled();
+    });
+    assertDoesNotThrow(() -> started.await());
+    scheduler.cancel(file);
+    var e = assertThrows(ExecutionException.class, () -> nf.get(10, TimeUnit.SECONDS));
+    assertInstanceOf(ResponseErrorException.class, e.getCause());
+  }
+
   private void logTime(long time) {
     System.out.println("Remake changed modules took: " + time + "ms");
   }
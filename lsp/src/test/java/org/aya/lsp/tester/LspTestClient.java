@@ -5,6 +5,7 @@ package org.aya.lsp.tester;
 import kala.collection.immutable.ImmutableSeq;
 import kala.tuple.Unit;
 import org.aya.generic.Constants;
+import org.aya.lsp.models.HighlightResult;
 import org.aya.lsp.server.AyaLanguageClient;
 import org.aya.lsp.server.AyaServer;
 import org.aya.lsp.server.AyaService;
@@ -13,15 +14,21 @@ import org.eclipse.lsp4j.*;
 import org.jetbrains.annotations.NotNull;
 import org.junit.jupiter.api.Assertions;
 
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public final class LspTestClient implements AyaLanguageClient {
   public final @NotNull AyaService service;
   public final @NotNull LspTestCompilerAdvisor advisor = new LspTestCompilerAdvisor();
+  /** The documents whose diagnostics are published, in the order they are published */
+  public final @NotNull List<String> diagnosed = new CopyOnWriteArrayList<>();
 
   public LspTestClient() {
-    var server = new AyaServer(advisor);
+    // Libraries are only checked on Compile, otherwise a background recheck races with the tests
+    var server = new AyaServer(advisor, null);
     service = server.getTextDocumentService();
     server.connect(this);
   }
@@ -53,6 +60,19 @@ public final class LspTestClient implements AyaLanguageClient {
         advisor.mutate(source.get());
         m.checker().check(advisor, Unit.unit());
       }
+      case TestCommand.Edit e -> {
+        var modName = ImmutableSeq.from(e.moduleName().split(Constants.SCOPE_SEPARATOR));
+        var source = Resolver.resolveModule(service.libraries(), modName);
+        Assertions.assertTrue(source.isDefined(), "Cannot edit module " + e.moduleName());
+        var file = source.get().file();
+        var uri = file.toUri().toString();
+        var text = Assertions.assertDoesNotThrow(() -> Files.readString(file));
+        service.didOpen(new DidOpenTextDocumentParams(new TextDocumentItem(uri, "aya", 1, text)));
+        var end = new Position((int) text.lines().count(), 0);
+        service.didChange(new DidChangeTextDocumentParams(new VersionedTextDocumentIdentifier(uri, 2),
+          List.of(new TextDocumentContentChangeEvent(new Range(end, end), e.appended()))));
+        e.checker().check(advisor, Unit.unit());
+      }
       case TestCommand.Compile c -> {
         advisor.prepareCompile();
         var elapsed = loadLibraries();
@@ -64,7 +84,11 @@ public final class LspTestClient implements AyaLanguageClient {
   @Override public void telemetryEvent(Object object) {
   }
 
+  @Override public void publishSyntaxHighlight(@NotNull HighlightResult highlight) {
+  }
+
   @Override public void publishDiagnostics(PublishDiagnosticsParams diagnostics) {
+    diagnosed.add(diagnostics.getUri());
     var errors = diagnostics.getDiagnostics().stream()
       .filter(d -> d.getSeverity() == DiagnosticSeverity.Error)
       .collect(ImmutableSeq.factory());
@@ -17,6 +17,9 @@ public sealed interface TestCommand {
 
   record Compile(@NotNull Checker<Long> checker) implements TestCommand {}
 
+  /** Appends text to an opened document without saving it */
+  record Edit(@NotNull String moduleName, @NotNull String appended, @NotNull Checker<Unit> checker) implements TestCommand {}
+
   static @NotNull Mutate mutate(@NotNull String moduleName, @NotNull Checker<Unit> checker) {
     return new Mutate(moduleName, checker);
   }
@@ -25,6 +28,10 @@ public sealed interface TestCommand {
     return mutate(moduleName, (a, b) -> {});
   }
 
+  static @NotNull Edit edit(@NotNull String moduleName, @NotNull String appended) {
+    return new Edit(moduleName, appended, (a, b) -> {});
+  }
+
   static @NotNull Compile compile(@NotNull Checker<Long> checker) {
     return new Compile(checker);
   }
@@ -1,8 +1,21 @@
-// Copyright (c) 2020-2021 Yinsen (Tesla) Zhang.
+// Copyright (c) 2020-2022 Yinsen (Tesla) Zhang.
 // Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
 package org.aya.util.cancel;
 
+import org.jetbrains.annotations.NotNull;
+
 public interface CancellationIndicator {
+  /** For tasks that are never canceled, so checking it is free */
+  @NotNull CancellationIndicator NEVER = new CancellationIndicator() {
+    @Override public boolean isCanceled() {
+      return false;
+    }
+
+    @Override public void cancel() {
+      throw new UnsupportedOperationException("Cannot cancel a task that is never canceled");
+    }
+  };
+
   boolean isCanceled();
 
   void cancel();
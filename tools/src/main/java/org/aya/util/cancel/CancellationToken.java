@@ -0,0 +1,19 @@
+// Copyright (c) 2020-2022 Yinsen (Tesla) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.util.cancel;
+
+/**
+ * A cancellation indicator shared by the thread requesting the cancellation
+ * and the thread running the task, which checks it in its loops.
+ */
+public final class CancellationToken implements CancellationIndicator {
+  private volatile boolean canceled = false;
+
+  @Override public boolean isCanceled() {
+    return canceled;
+  }
+
+  @Override public void cancel() {
+    canceled = true;
+  }
+}
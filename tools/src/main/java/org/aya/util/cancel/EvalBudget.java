@@ -0,0 +1,93 @@
+// Copyright (c) 2020-2022 Yinsen (Tesla) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.util.cancel;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Limits the steps and the time of an evaluation requested by the user, for example,
+ * normalizing a term in the REPL, which may take forever.
+ * Every check of the cancellation counts as a step, and the evaluation is canceled
+ * with {@link Exhausted} after the budget is used up, or with {@link CancellationException}
+ * when the budget or the delegate is canceled.
+ * <p>
+ * Not thread-safe, a budget is used by a single evaluation, except that it can be canceled by any thread.
+ * The clock starts when the budget is created, so it should be created right before the evaluation.
+ */
+public final class EvalBudget implements CancellationIndicator {
+  /** The clock is only read once in these many steps */
+  private static final int CLOCK_INTERVAL = 1024;
+
+  private final long maxSteps;
+  private final long deadline;
+  private final boolean partial;
+  private final @NotNull CancellationIndicator delegate;
+  private long steps = 0;
+  private boolean exhausted = false;
+  private volatile boolean canceled = false;
+
+  /**
+   * @param maxSteps      nonpositive for no limit
+   * @param timeoutMillis nonpositive for no limit
+   * @param partial       whether the evaluation should give up the remaining reductions
+   *                      and return what it has computed when the budget is used up,
+   *                      see {@link #partial()}
+   */
+  public EvalBudget(long maxSteps, long timeoutMillis, boolean partial, @NotNull CancellationIndicator delegate) {
+    this.maxSteps = maxSteps;
+    this.deadline = timeoutMillis > 0 ? System.nanoTime() + timeoutMillis * 1_000_000 : 0;
+    this.partial = partial;
+    this.delegate = delegate;
+  }
+
+  /**
+   * @return true if the evaluation should mark the terms it can no longer reduce as stuck
+   * instead of throwing {@link Exhausted}.
+   */
+  public boolean partial() {
+    return partial;
+  }
+
+  public long steps() {
+    return steps;
+  }
+
+  public boolean exhausted() {
+    return exhausted;
+  }
+
+  /**
+   * Counts a step.
+   *
+   * @return false if the budget is used up
+   * @throws CancellationException if the budget or the delegate is canceled
+   */
+  public boolean step() {
+    if (canceled) throw new CancellationException();
+    delegate.checkCanceled();
+    if (exhausted) return false;
+    steps++;
+    if (maxSteps > 0 && steps > maxSteps) exhausted = true;
+    else if (deadline != 0 && steps % CLOCK_INTERVAL == 0 && System.nanoTime() - deadline > 0) exhausted = true;
+    return !exhausted;
+  }
+
+  @Override public boolean isCanceled() {
+    return canceled || exhausted || delegate.isCanceled();
+  }
+
+  /** Cancels this evaluation only, the task the delegate belongs to goes on */
+  @Override public void cancel() {
+    canceled = true;
+  }
+
+  @Override public void checkCanceled() throws CancellationException {
+    if (!step()) throw new Exhausted(steps);
+  }
+
+  public static final class Exhausted extends CancellationException {
+    public Exhausted(long steps) {
+      super("Normalization budget exhausted after " + steps + " steps");
+    }
+  }
+}
@@ -41,6 +41,7 @@ public interface CountingReporter extends Reporter {
     return new Delegated(reporter);
   }
 
+  /** Thread-safe, so it can be shared by tasks running in parallel. */
   record Delegated(
     @NotNull Reporter delegated,
     int @NotNull [] count
@@ -49,15 +50,15 @@ public interface CountingReporter extends Reporter {
       this(delegated, new int[Problem.Severity.class.getEnumConstants().length]);
     }
 
-    @Override public int problemSize(Problem.@NotNull Severity severity) {
+    @Override public synchronized int problemSize(Problem.@NotNull Severity severity) {
       return count[severity.ordinal()];
     }
 
-    @Override public void clear() {
+    @Override public synchronized void clear() {
       Arrays.fill(count, 0);
     }
 
-    @Override public void report(@NotNull Problem problem) {
+    @Override public synchronized void report(@NotNull Problem problem) {
       if (problem.sourcePos() != SourcePos.NONE) count[problem.level().ordinal()]++;
       delegated.report(problem);
     }
@@ -18,17 +18,31 @@ public interface OrgaTycker<T, E extends Exception> {
   @NotNull Iterable<T> collectUsageOf(@NotNull T failed);
 
   default void tyckSCC(@NotNull ImmutableSeq<T> scc) throws E {
+    tyckSCC(sccTycker(), scc);
+  }
+
+  /**
+   * Tyck an SCC with another {@link SCCTycker}, so independent SCCs can be tycked in parallel,
+   * each with its own tycker.
+   *
+   * @see SCCScheduler
+   */
+  default void tyckSCC(@NotNull SCCTycker<T, E> sccTycker, @NotNull ImmutableSeq<T> scc) throws E {
     // we are more likely to check correct programs.
     // I'm not sure whether it's necessary to optimize on our own.
-    var sccTycker = sccTycker();
     var skipped = skippedSet();
-    if (skipped.isEmpty()) skip(sccTycker.tyckSCC(scc));
-    else skip(sccTycker.tyckSCC(scc.filterNot(skipped::contains)));
+    ImmutableSeq<T> unskipped;
+    synchronized (skipped) {
+      unskipped = skipped.isEmpty() ? scc : scc.filterNot(skipped::contains);
+    }
+    skip(sccTycker.tyckSCC(unskipped));
   }
 
   private void skip(@NotNull ImmutableSeq<T> failed) {
     var skipped = skippedSet();
-    failed.forEach(f -> skip(skipped, f));
+    synchronized (skipped) {
+      failed.forEach(f -> skip(skipped, f));
+    }
   }
 
   private void skip(@NotNull MutableSet<T> skipped, @NotNull T failed) {
@@ -0,0 +1,72 @@
+// Copyright (c) 2020-2022 Yinsen (Tesla) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.util.tyck;
+
+import kala.collection.immutable.ImmutableSeq;
+import kala.collection.mutable.MutableList;
+import kala.collection.mutable.MutableMap;
+import org.aya.util.MutableGraph;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.LinkedHashSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Runs a task for every SCC on an executor, where a task starts
+ * as soon as the tasks of all the SCCs it depends on are finished.
+ * So independent SCCs are handled in parallel.
+ *
+ * @param SCCs     in topological order, see {@link MutableGraph#topologicalOrder()}
+ * @param depGraph for each edge (v, w), v depends on w
+ */
+public record SCCScheduler<T>(
+  @NotNull ImmutableSeq<ImmutableSeq<T>> SCCs,
+  @NotNull MutableGraph<T> depGraph
+) {
+  /**
+   * If a task throws, the tasks depending on it are not run, and the exception is rethrown here.
+   *
+   * @return the results of the tasks, in the order of {@link #SCCs}
+   */
+  public <R> @NotNull ImmutableSeq<R> run(@NotNull Executor executor, @NotNull Function<ImmutableSeq<T>, R> task) {
+    return run(executor, (scc, deps) -> task.apply(scc));
+  }
+
+  /**
+   * @param task takes an SCC and the results of the SCCs it depends on directly
+   * @see #run(Executor, Function)
+   */
+  public <R> @NotNull ImmutableSeq<R> run(
+    @NotNull Executor executor,
+    @NotNull BiFunction<ImmutableSeq<T>, ImmutableSeq<R>, R> task
+  ) {
+    var sccOf = MutableMap.<T, Integer>create();
+    for (int i = 0; i < SCCs.size(); i++)
+      for (var t : SCCs.get(i)) sccOf.put(t, i);
+    var futures = MutableList.<CompletableFuture<R>>create();
+    for (int i = 0; i < SCCs.size(); i++) {
+      var scc = SCCs.get(i);
+      var deps = new LinkedHashSet<CompletableFuture<R>>();
+      for (var t : scc)
+        for (var dep : depGraph.suc(t)) {
+          var j = sccOf.getOrNull(dep);
+          // Topological order: dependencies come first
+          if (j != null && j < i) deps.add(futures.get(j));
+        }
+      var ready = CompletableFuture.allOf(deps.toArray(new CompletableFuture<?>[0]));
+      futures.append(ready.thenApplyAsync(ignored -> task.apply(scc,
+        deps.stream().map(CompletableFuture::join).collect(ImmutableSeq.factory())), executor));
+    }
+    try {
+      return futures.view().map(CompletableFuture::join).toImmutableSeq();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException cause) throw cause;
+      if (e.getCause() instanceof Error cause) throw cause;
+      throw e;
+    }
+  }
+}
@@ -3,9 +3,14 @@
 package org.aya.util;
 
 import kala.collection.Seq;
+import kala.collection.immutable.ImmutableSeq;
+import org.aya.util.tyck.SCCScheduler;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 public class UtilTest {
@@ -37,4 +42,27 @@ public class UtilTest {
     assertEquals("114514", Version.create("114514").toString());
     assertThrows(IllegalArgumentException.class, () -> Version.create(""));
   }
+
+  @Test public void sccScheduler() {
+    // a -> b, a -> c, b -> d, c -> d, where x -> y means x depends on y
+    var graph = MutableGraph.<String>create();
+    graph.sucMut("a").appendAll(Seq.of("b", "c"));
+    graph.sucMut("b").append("d");
+    graph.sucMut("c").append("d");
+    graph.sucMut("d");
+    var SCCs = graph.topologicalOrder();
+    var finished = ConcurrentHashMap.<String>newKeySet();
+    var results = new SCCScheduler<>(SCCs, graph).run(ForkJoinPool.commonPool(), scc -> {
+      var name = scc.first();
+      graph.suc(name).forEach(dep -> assertTrue(finished.contains(dep)));
+      finished.add(name);
+      return name;
+    });
+    assertEquals(SCCs.map(ImmutableSeq::first), results);
+    assertEquals(4, finished.size());
+    // the results of the dependencies are passed to the task
+    var deps = new SCCScheduler<>(SCCs, graph).<String>run(ForkJoinPool.commonPool(), (scc, depResults) ->
+      scc.first() + depResults.joinToString("", "(", ")"));
+    assertEquals("a(b(d())c(d()))", deps.last());
+  }
 }